@@ -32,6 +32,10 @@ android {
     buildFeatures {
         viewBinding = true
     }
+    testOptions {
+        // pipeline classes log through android.util.Log; keep plain JVM unit tests working
+        unitTests.isReturnDefaultValues = true
+    }
 }
 
 dependencies {
@@ -25,14 +25,14 @@ import androidx.appcompat.app.AppCompatActivity;
 import androidx.core.app.ActivityCompat;
 
 import com.have_no_eyes_deer.bleawsgateway.ble.BleManager;
+import com.have_no_eyes_deer.bleawsgateway.ble.DeviceRegistry;
 import com.have_no_eyes_deer.bleawsgateway.ble.DeviceConnectionManager;
 import com.have_no_eyes_deer.bleawsgateway.ble.BleDataListener;
+import com.have_no_eyes_deer.bleawsgateway.ble.ScanAggregator;
 import com.have_no_eyes_deer.bleawsgateway.model.BleDataModel;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 /**
  * BLE扫描专用Activity
@@ -55,7 +55,8 @@ public class BleScanActivity extends AppCompatActivity {
 
     // 数据管理
     private List<DeviceItem> discoveredDevices = new ArrayList<>();
-    private Map<String, DeviceItem> deviceMap = new HashMap<>();
+    // DeviceRegistry ID -> list item (null when not listed); IDs are dense, so a list is enough
+    private final List<DeviceItem> itemsById = new ArrayList<>();
     private boolean isScanning = false;
 
     /**
@@ -152,6 +153,12 @@ public class BleScanActivity extends AppCompatActivity {
                 mainHandler.post(() -> addOrUpdateDevice(device, rssi));
             }
 
+            @Override
+            public void onScanUpdate(ScanAggregator.Update update) {
+                // Already on the main thread and throttled by BleManager
+                applyScanUpdate(update);
+            }
+
             @Override
             public void onScanStarted() {
                 mainHandler.post(() -> {
@@ -182,7 +189,7 @@ public class BleScanActivity extends AppCompatActivity {
             public void onConnectionStateChanged(String deviceAddress, boolean isConnected, String deviceName) {
                 mainHandler.post(() -> {
                     // 更新设备连接状态
-                    DeviceItem item = deviceMap.get(deviceAddress);
+                    DeviceItem item = itemOf(bleManager.getDeviceRegistry().idOf(deviceAddress));
                     if (item != null) {
                         item.isConnected = isConnected;
                         item.connectionStatus = isConnected ? "Connected" : "Not Connected";
@@ -259,7 +266,7 @@ public class BleScanActivity extends AppCompatActivity {
 
     private void startScan() {
         discoveredDevices.clear();
-        deviceMap.clear();
+        itemsById.clear();
         deviceAdapter.clear();
         updateDeviceCount();
         
@@ -276,41 +283,73 @@ public class BleScanActivity extends AppCompatActivity {
     }
 
     private void addOrUpdateDevice(BluetoothDevice device, int rssi) {
-        String address = device.getAddress();
-        DeviceItem existingItem = deviceMap.get(address);
+        updateDeviceItem(bleManager.getDeviceRegistry().register(device.getAddress()), device, rssi, device.getName());
+        updateDeviceCount();
+        updateConnectionPoolStatus();
+        deviceAdapter.notifyDataSetChanged();
+    }
+
+    /**
+     * Apply one throttled scan diff with a single list refresh
+     */
+    private void applyScanUpdate(ScanAggregator.Update update) {
+        deviceAdapter.setNotifyOnChange(false);
+        for (ScanAggregator.Entry entry : update.added) {
+            updateDeviceItem(entry.deviceId, entry.device, entry.getRssi(), entry.name);
+        }
+        for (ScanAggregator.Entry entry : update.changed) {
+            updateDeviceItem(entry.deviceId, entry.device, entry.getRssi(), entry.name);
+        }
+        for (ScanAggregator.Entry entry : update.removed) {
+            DeviceItem item = itemOf(entry.deviceId);
+            if (item != null && !item.isConnected) {
+                itemsById.set(entry.deviceId, null);
+                discoveredDevices.remove(item);
+                deviceAdapter.remove(item);
+            }
+        }
+        updateDeviceCount();
+        updateConnectionPoolStatus();
+        deviceAdapter.notifyDataSetChanged();
+    }
+
+    private void updateDeviceItem(int deviceId, BluetoothDevice device, int rssi, String deviceName) {
+        DeviceRegistry registry = bleManager.getDeviceRegistry();
+        DeviceItem existingItem = itemOf(deviceId);
 
         if (existingItem != null) {
             // 更新现有设备信息
             existingItem.rssi = rssi;
             existingItem.discoveryTime = System.currentTimeMillis();
-            existingItem.isConnected = bleManager.isDeviceConnected(address);
+            existingItem.isConnected = registry.isConnected(deviceId);
             existingItem.connectionStatus = existingItem.isConnected ? "已连接" : "未连接";
             
             // 尝试更新设备名字
-            String deviceName = device.getName();
             if (deviceName != null && !deviceName.trim().isEmpty()) {
                 existingItem.updateDeviceName(deviceName);
             }
         } else {
             // 添加新设备
             DeviceItem newItem = new DeviceItem(device, rssi);
-            newItem.isConnected = bleManager.isDeviceConnected(address);
+            newItem.isConnected = registry.isConnected(deviceId);
             newItem.connectionStatus = newItem.isConnected ? "已连接" : "未连接";
             
             // 尝试获取设备名字
-            String deviceName = device.getName();
             if (deviceName != null && !deviceName.trim().isEmpty()) {
                 newItem.updateDeviceName(deviceName);
             }
             
-            deviceMap.put(address, newItem);
+            while (itemsById.size() <= deviceId) {
+                itemsById.add(null);
+            }
+            itemsById.set(deviceId, newItem);
             discoveredDevices.add(newItem);
             deviceAdapter.add(newItem);
         }
+    }
 
-        updateDeviceCount();
-        updateConnectionPoolStatus();
-        deviceAdapter.notifyDataSetChanged();
+    private DeviceItem itemOf(int deviceId) {
+        return deviceId >= 0 && deviceId < itemsById.size() ? itemsById.get(deviceId) : null;
     }
 
     private void connectDevice(DeviceItem item) {
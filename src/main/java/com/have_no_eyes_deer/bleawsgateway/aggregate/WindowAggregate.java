@@ -0,0 +1,34 @@
+package com.have_no_eyes_deer.bleawsgateway.aggregate;
+
+import com.have_no_eyes_deer.bleawsgateway.model.DecodedReading;
+
+/**
+ * Window aggregate - min/max/mean/count of every decoded field of one device stream over one window
+ * Arrays are indexed by the DecodedReading field ids
+ */
+public class WindowAggregate {
+    public String deviceAddress;
+    public String deviceName;
+    public String characteristicUuid;   // stream of the device: characteristic, channel or source key
+    public long windowStart;        // inclusive, epoch millis
+    public long windowEnd;          // exclusive
+    public int samples;             // readings in the window, with or without numeric fields
+    public final long[] count = new long[DecodedReading.FIELD_COUNT];
+    public final double[] min = new double[DecodedReading.FIELD_COUNT];
+    public final double[] max = new double[DecodedReading.FIELD_COUNT];
+    public final double[] sum = new double[DecodedReading.FIELD_COUNT];
+
+    public boolean has(int field) {
+        return count[field] > 0;
+    }
+
+    public double mean(int field) {
+        return count[field] > 0 ? sum[field] / count[field] : Double.NaN;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("WindowAggregate{device=%s, stream=%s, window=[%d, %d), samples=%d}",
+                deviceAddress, characteristicUuid, windowStart, windowEnd, samples);
+    }
+}
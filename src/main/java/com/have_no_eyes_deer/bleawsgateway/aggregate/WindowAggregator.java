@@ -0,0 +1,273 @@
+package com.have_no_eyes_deer.bleawsgateway.aggregate;
+
+import com.have_no_eyes_deer.bleawsgateway.model.BleDataModel;
+import com.have_no_eyes_deer.bleawsgateway.model.DecodedReading;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Window aggregator - folds decoded readings into per-stream, per-field min/max/sum/count
+ * windows and emits one WindowAggregate per stream and window
+ *
+ * A stream is one source of one device: a characteristic, an L2CAP channel or an advertisement
+ * source key (BleDataModel.getCharacteristicUuid()). Two probes of one device that both report
+ * a temperature are aggregated separately.
+ *
+ * Windows are aligned to multiples of the hop on the reading timestamps. With hop == window
+ * they are tumbling; with a smaller hop (window must be a multiple of it) they slide, and
+ * each stream keeps window/hop panes so a sliding window is merged from the panes instead
+ * of re-reading samples. Accumulators are primitive arrays allocated once per stream.
+ *
+ * A window is emitted when a reading of the stream arrives in a later pane, or when
+ * advanceTo() passes its end for streams that went quiet. Windows without readings are not
+ * emitted. Readings older than the current pane are counted in the current pane.
+ *
+ * Not thread-safe: the pipeline calls it from its transform thread only.
+ */
+public class WindowAggregator {
+
+    private static final int FIELDS = DecodedReading.FIELD_COUNT;
+
+    private final long windowMs;
+    private final long hopMs;
+    private final int paneCount;
+    // device address -> characteristic (source key) -> panes
+    private final Map<String, Map<String, StreamWindows>> devices = new HashMap<>();
+    private long advancedTo = Long.MIN_VALUE;
+
+    // Statistics counters, written by the aggregating thread
+    private volatile long inputCount = 0;
+    private volatile long emittedCount = 0;
+
+    /**
+     * Per-stream panes; pane p, field f is at index p * FIELDS + f
+     */
+    private static class StreamWindows {
+        final String deviceAddress;
+        final String characteristicUuid;
+        String deviceName;
+        final int[] samples;
+        final long[] count;
+        final double[] min;
+        final double[] max;
+        final double[] sum;
+        int head;                           // pane currently filling
+        long paneStart = Long.MIN_VALUE;    // start time of the head pane
+        int windowSamples;                  // samples over all panes
+
+        StreamWindows(String deviceAddress, String characteristicUuid, int paneCount) {
+            this.deviceAddress = deviceAddress;
+            this.characteristicUuid = characteristicUuid;
+            samples = new int[paneCount];
+            count = new long[paneCount * FIELDS];
+            min = new double[paneCount * FIELDS];
+            max = new double[paneCount * FIELDS];
+            sum = new double[paneCount * FIELDS];
+        }
+    }
+
+    /**
+     * Tumbling windows
+     */
+    public WindowAggregator(long windowMs) {
+        this(windowMs, windowMs);
+    }
+
+    /**
+     * @param windowMs window length
+     * @param hopMs emit interval, windowMs for tumbling windows, a divisor of windowMs for sliding ones
+     */
+    public WindowAggregator(long windowMs, long hopMs) {
+        if (hopMs <= 0 || windowMs < hopMs || windowMs % hopMs != 0) {
+            throw new IllegalArgumentException("Window " + windowMs + "ms is not a multiple of hop " + hopMs + "ms");
+        }
+        this.windowMs = windowMs;
+        this.hopMs = hopMs;
+        this.paneCount = (int) (windowMs / hopMs);
+    }
+
+    /**
+     * Add one reading
+     * @param out receives the windows of this stream the reading closed
+     * @return number of aggregates added to out
+     */
+    public int add(BleDataModel reading, List<WindowAggregate> out) {
+        inputCount++;
+        String address = reading.getDeviceAddress();
+        Map<String, StreamWindows> streams = devices.get(address);
+        if (streams == null) {
+            streams = new HashMap<>(4);
+            devices.put(address, streams);
+        }
+        String characteristicUuid = reading.getCharacteristicUuid();
+        StreamWindows device = streams.get(characteristicUuid);
+        if (device == null) {
+            device = new StreamWindows(address, characteristicUuid, paneCount);
+            streams.put(characteristicUuid, device);
+        }
+        if (reading.getDeviceName() != null) {
+            device.deviceName = reading.getDeviceName();
+        }
+
+        long paneStart = Math.floorDiv(reading.getTimestampMillis(), hopMs) * hopMs;
+        int emitted = 0;
+        if (device.paneStart == Long.MIN_VALUE) {
+            device.paneStart = paneStart;
+        } else {
+            emitted = advance(device, paneStart, out);
+        }
+        accumulate(device, reading.getDecoded());
+        return emitted;
+    }
+
+    /**
+     * Emit every window ending at or before the given time, for streams that stopped reporting
+     * Cheap to call often: does nothing until the next hop boundary is reached
+     * @return number of aggregates added to out
+     */
+    public int advanceTo(long time, List<WindowAggregate> out) {
+        long boundary = Math.floorDiv(time, hopMs) * hopMs;
+        if (boundary <= advancedTo) {
+            return 0;
+        }
+        advancedTo = boundary;
+        int emitted = 0;
+        for (Map<String, StreamWindows> streams : devices.values()) {
+            for (StreamWindows device : streams.values()) {
+                emitted += advance(device, boundary, out);
+            }
+        }
+        return emitted;
+    }
+
+    /**
+     * Emit the window of every stream that holds readings, even if it has not ended yet
+     * (e.g. on shutdown)
+     */
+    public int flush(List<WindowAggregate> out) {
+        int emitted = 0;
+        for (Map<String, StreamWindows> streams : devices.values()) {
+            for (StreamWindows device : streams.values()) {
+                if (device.windowSamples > 0) {
+                    emitted += advance(device, device.paneStart + hopMs, out);
+                }
+            }
+        }
+        return emitted;
+    }
+
+    /**
+     * Close panes up to the one starting at paneStart
+     */
+    private int advance(StreamWindows device, long paneStart, List<WindowAggregate> out) {
+        int emitted = 0;
+        while (device.paneStart < paneStart) {
+            if (device.windowSamples == 0) {
+                device.paneStart = paneStart; // idle gap, nothing to report
+                break;
+            }
+            long windowEnd = device.paneStart + hopMs;
+            out.add(merge(device, windowEnd));
+            emitted++;
+            // The oldest pane leaves the window and is reused as the new head
+            device.head = (device.head + 1) % paneCount;
+            clearPane(device, device.head);
+            device.paneStart = windowEnd;
+        }
+        emittedCount += emitted;
+        return emitted;
+    }
+
+    private static void accumulate(StreamWindows device, DecodedReading decoded) {
+        int pane = device.head;
+        device.samples[pane]++;
+        device.windowSamples++;
+        if (decoded == null) {
+            return;
+        }
+        for (int field = 0; field < FIELDS; field++) {
+            // The sample number is a counter, not a measurement
+            if (field == DecodedReading.SAMPLE_NUMBER || !decoded.has(field)) continue;
+            double value = decoded.get(field);
+            int i = pane * FIELDS + field;
+            if (device.count[i] == 0) {
+                device.min[i] = value;
+                device.max[i] = value;
+            } else {
+                if (value < device.min[i]) device.min[i] = value;
+                if (value > device.max[i]) device.max[i] = value;
+            }
+            device.sum[i] += value;
+            device.count[i]++;
+        }
+    }
+
+    private static void clearPane(StreamWindows device, int pane) {
+        device.windowSamples -= device.samples[pane];
+        device.samples[pane] = 0;
+        Arrays.fill(device.count, pane * FIELDS, (pane + 1) * FIELDS, 0L);
+        Arrays.fill(device.sum, pane * FIELDS, (pane + 1) * FIELDS, 0.0);
+    }
+
+    private WindowAggregate merge(StreamWindows device, long windowEnd) {
+        WindowAggregate aggregate = new WindowAggregate();
+        aggregate.deviceAddress = device.deviceAddress;
+        aggregate.characteristicUuid = device.characteristicUuid;
+        aggregate.deviceName = device.deviceName;
+        aggregate.windowStart = windowEnd - windowMs;
+        aggregate.windowEnd = windowEnd;
+        aggregate.samples = device.windowSamples;
+        Arrays.fill(aggregate.min, Double.NaN);
+        Arrays.fill(aggregate.max, Double.NaN);
+        for (int pane = 0; pane < paneCount; pane++) {
+            for (int field = 0; field < FIELDS; field++) {
+                int i = pane * FIELDS + field;
+                long count = device.count[i];
+                if (count == 0) continue;
+                if (aggregate.count[field] == 0) {
+                    aggregate.min[field] = device.min[i];
+                    aggregate.max[field] = device.max[i];
+                } else {
+                    aggregate.min[field] = Math.min(aggregate.min[field], device.min[i]);
+                    aggregate.max[field] = Math.max(aggregate.max[field], device.max[i]);
+                }
+                aggregate.sum[field] += device.sum[i];
+                aggregate.count[field] += count;
+            }
+        }
+        return aggregate;
+    }
+
+    /**
+     * Forget all windows, readings not emitted yet are lost
+     */
+    public void reset() {
+        devices.clear();
+        advancedTo = Long.MIN_VALUE;
+    }
+
+    // ======================== state ========================
+
+    public long getWindowMs() {
+        return windowMs;
+    }
+
+    public long getHopMs() {
+        return hopMs;
+    }
+
+    public int getDeviceCount() {
+        return devices.size();
+    }
+
+    public long getInputCount() {
+        return inputCount;
+    }
+
+    public long getEmittedCount() {
+        return emittedCount;
+    }
+}
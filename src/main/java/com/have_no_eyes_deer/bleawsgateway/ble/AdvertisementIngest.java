@@ -0,0 +1,292 @@
+package com.have_no_eyes_deer.bleawsgateway.ble;
+
+import com.have_no_eyes_deer.bleawsgateway.decoder.BTHomeDecoder;
+import com.have_no_eyes_deer.bleawsgateway.decoder.IBeaconDecoder;
+import com.have_no_eyes_deer.bleawsgateway.decoder.PayloadDecoderRegistry;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * 广播数据接入 - picks sensor payloads out of scan records and forwards each measurement once
+ *
+ * Sensors that broadcast their readings (BTHome, Eddystone TLM, iBeacon, vendor formats in
+ * manufacturer data) need no GATT connection, so the number of devices is not bound by the
+ * connection pool. The raw advertisement is walked AD structure by AD structure; service data
+ * of a registered 16-bit UUID and manufacturer data of a registered company id go to the sink
+ * with their source key, which the pipeline's PayloadDecoderRegistry resolves like a service
+ * UUID. A device repeats the same packet every advertising interval, on three channels, until
+ * it has a new measurement, so repeats are dropped: by packet id where the format has one
+ * (BTHome), otherwise by the payload content. An unchanged packet is forwarded again once per
+ * repeat interval, so a beacon that never changes still shows up.
+ *
+ * Not thread-safe; BleManager calls it on the main thread, where the ScanCallback runs.
+ */
+public class AdvertisementIngest {
+
+    public static final long DEFAULT_REPEAT_INTERVAL_MS = 60_000;
+
+    private static final int AD_SERVICE_DATA_16 = 0x16;
+    private static final int AD_MANUFACTURER_DATA = 0xFF;
+    private static final byte[] NO_PREFIX = new byte[0];
+
+    /**
+     * Receives the payload of one advertisement source; data is only valid during the call
+     */
+    public interface Sink {
+        void onAdvertisement(String deviceAddress, String deviceName, String sourceKey,
+                             byte[] data, int offset, int length, long timestampNanos);
+    }
+
+    /**
+     * Reads the packet id of a payload
+     */
+    public interface PacketIdReader {
+        /**
+         * @return the packet id (>= 0), or -1 to compare the payload content instead
+         */
+        int read(byte[] data, int offset, int length);
+    }
+
+    private static class Source {
+        final int index;
+        final String key;
+        final int id;                       // 16-bit service UUID or company id
+        final byte[] prefix;                // payload has to start with it
+        final PacketIdReader packetId;      // null = compare content
+
+        Source(int index, String key, int id, byte[] prefix, PacketIdReader packetId) {
+            this.index = index;
+            this.key = key;
+            this.id = id;
+            this.prefix = prefix != null ? prefix : NO_PREFIX;
+            this.packetId = packetId;
+        }
+    }
+
+    /**
+     * What a hardware scan filter has to match for one source, see getScanKeys()
+     */
+    public static class ScanKey {
+        public final String serviceUuid;    // service data of this UUID, null for manufacturer data
+        public final int manufacturerId;    // -1 for service data
+        public final byte[] prefix;         // leading bytes of the payload, may be empty
+
+        ScanKey(String serviceUuid, int manufacturerId, byte[] prefix) {
+            this.serviceUuid = serviceUuid;
+            this.manufacturerId = manufacturerId;
+            this.prefix = prefix;
+        }
+    }
+
+    private static class LastPacket {
+        long id;
+        long forwardedNanos;
+    }
+
+    private final List<Source> serviceData = new ArrayList<>();
+    private final List<Source> manufacturerData = new ArrayList<>();
+    // (48-bit address << 8 | source index) -> last forwarded packet
+    private final Map<Long, LastPacket> lastPackets = new HashMap<>();
+    private long repeatIntervalNanos = DEFAULT_REPEAT_INTERVAL_MS * 1_000_000L;
+
+    // Statistics counters
+    private long advertisementCount;
+    private long forwardedCount;
+    private long duplicateCount;
+
+    /**
+     * BTHome v2, Eddystone TLM and iBeacon, matching PayloadDecoderRegistry.createDefault()
+     */
+    public static AdvertisementIngest createDefault() {
+        AdvertisementIngest ingest = new AdvertisementIngest();
+        ingest.addServiceData(PayloadDecoderRegistry.BTHOME_SERVICE_UUID, null, BTHomeDecoder::packetId);
+        ingest.addServiceData(PayloadDecoderRegistry.EDDYSTONE_SERVICE_UUID, new byte[]{0x20}, null); // TLM frames
+        ingest.addManufacturer(IBeaconDecoder.APPLE_COMPANY_ID, new byte[]{0x02, 0x15}, null);
+        return ingest;
+    }
+
+    /**
+     * Forward the service data of a 16-bit UUID
+     * @param serviceUuid full UUID string of a 16-bit UUID ("0000xxxx-0000-1000-8000-00805f9b34fb"),
+     *                    also the source key
+     * @param prefix      only payloads starting with these bytes, may be null
+     * @param packetId    null to drop repeats by content
+     */
+    public void addServiceData(String serviceUuid, byte[] prefix, PacketIdReader packetId) {
+        String key = serviceUuid.toLowerCase(Locale.US);
+        if (key.length() != 36 || !key.startsWith("0000") || !key.endsWith("-0000-1000-8000-00805f9b34fb")) {
+            throw new IllegalArgumentException("not a 16-bit service UUID: " + serviceUuid);
+        }
+        int uuid16 = Integer.parseInt(key.substring(4, 8), 16);
+        serviceData.add(new Source(nextIndex(), key, uuid16, prefix, packetId));
+    }
+
+    /**
+     * Forward the manufacturer specific data of a company id (the payload after the id);
+     * register the decoder with PayloadDecoderRegistry.registerManufacturer()
+     */
+    public void addManufacturer(int companyId, byte[] prefix, PacketIdReader packetId) {
+        if (companyId < 0 || companyId > 0xFFFF) {
+            throw new IllegalArgumentException("company id out of range: " + companyId);
+        }
+        manufacturerData.add(new Source(nextIndex(), PayloadDecoderRegistry.manufacturerKey(companyId), companyId,
+                prefix, packetId));
+    }
+
+    /**
+     * One key per registered source, for a scan that only wakes the host for advertisements
+     * this ingest can forward
+     */
+    public List<ScanKey> getScanKeys() {
+        List<ScanKey> keys = new ArrayList<>(serviceData.size() + manufacturerData.size());
+        for (Source source : serviceData) {
+            keys.add(new ScanKey(source.key, -1, source.prefix));
+        }
+        for (Source source : manufacturerData) {
+            keys.add(new ScanKey(null, source.id, source.prefix));
+        }
+        return keys;
+    }
+
+    /**
+     * How long an unchanged packet is held back before it is forwarded again
+     */
+    public void setRepeatInterval(long repeatIntervalMs) {
+        if (repeatIntervalMs <= 0) {
+            throw new IllegalArgumentException("repeatIntervalMs must be positive: " + repeatIntervalMs);
+        }
+        repeatIntervalNanos = repeatIntervalMs * 1_000_000L;
+    }
+
+    /**
+     * Walk one advertisement
+     * @param scanRecord     ScanRecord.getBytes(), advertising data plus scan response
+     * @param timestampNanos ScanResult.getTimestampNanos()
+     * @return number of payloads forwarded to the sink
+     */
+    public int accept(String deviceAddress, String deviceName, byte[] scanRecord, long timestampNanos, Sink sink) {
+        long address = ScanAggregator.parseAddress(deviceAddress);
+        if (address < 0 || scanRecord == null) {
+            return 0;
+        }
+        advertisementCount++;
+        int forwarded = 0;
+        int i = 0;
+        while (i < scanRecord.length) {
+            int length = scanRecord[i] & 0xFF;
+            if (length == 0 || i + 1 + length > scanRecord.length) {
+                break;                              // padding, or truncated record
+            }
+            int type = scanRecord[i + 1] & 0xFF;
+            int start = i + 2;                      // AD data, length - 1 bytes
+            int end = i + 1 + length;
+            List<Source> sources = type == AD_SERVICE_DATA_16 ? serviceData
+                    : type == AD_MANUFACTURER_DATA ? manufacturerData : null;
+            if (sources != null && end - start >= 2) {
+                int id = (scanRecord[start] & 0xFF) | ((scanRecord[start + 1] & 0xFF) << 8);
+                Source source = find(sources, id, scanRecord, start + 2, end);
+                if (source != null && isNewPacket(address, source, scanRecord, start + 2, end, timestampNanos)) {
+                    sink.onAdvertisement(deviceAddress, deviceName, source.key, scanRecord, start + 2,
+                            end - start - 2, timestampNanos);
+                    forwarded++;
+                }
+            }
+            i = end;
+        }
+        forwardedCount += forwarded;
+        return forwarded;
+    }
+
+    /**
+     * Forget devices whose last packet is older than the repeat interval (their next packet is
+     * forwarded anyway)
+     */
+    public void expire(long nowNanos) {
+        Iterator<LastPacket> it = lastPackets.values().iterator();
+        while (it.hasNext()) {
+            if (nowNanos - it.next().forwardedNanos >= repeatIntervalNanos) {
+                it.remove();
+            }
+        }
+    }
+
+    public void clear() {
+        lastPackets.clear();
+    }
+
+    public int getTrackedCount() {
+        return lastPackets.size();
+    }
+
+    public long getAdvertisementCount() {
+        return advertisementCount;
+    }
+
+    public long getForwardedCount() {
+        return forwardedCount;
+    }
+
+    public long getDuplicateCount() {
+        return duplicateCount;
+    }
+
+    private int nextIndex() {
+        int index = serviceData.size() + manufacturerData.size();
+        if (index > 0xFF) {
+            throw new IllegalStateException("too many advertisement sources");
+        }
+        return index;
+    }
+
+    private static Source find(List<Source> sources, int id, byte[] data, int start, int end) {
+        for (int s = 0; s < sources.size(); s++) {
+            Source source = sources.get(s);
+            if (source.id == id && startsWith(data, start, end, source.prefix)) {
+                return source;
+            }
+        }
+        return null;
+    }
+
+    private static boolean startsWith(byte[] data, int start, int end, byte[] prefix) {
+        if (end - start < prefix.length) return false;
+        for (int i = 0; i < prefix.length; i++) {
+            if (data[start + i] != prefix[i]) return false;
+        }
+        return true;
+    }
+
+    private boolean isNewPacket(long address, Source source, byte[] data, int start, int end, long nowNanos) {
+        long packet = source.packetId != null ? source.packetId.read(data, start, end - start) : -1;
+        if (packet < 0) {
+            packet = contentHash(data, start, end);
+        }
+        Long key = (address << 8) | source.index;
+        LastPacket last = lastPackets.get(key);
+        if (last == null) {
+            last = new LastPacket();
+            lastPackets.put(key, last);
+        } else if (last.id == packet && nowNanos - last.forwardedNanos < repeatIntervalNanos) {
+            duplicateCount++;
+            return false;
+        }
+        last.id = packet;
+        last.forwardedNanos = nowNanos;
+        return true;
+    }
+
+    // FNV-1a, 64 bit
+    private static long contentHash(byte[] data, int start, int end) {
+        long hash = 0xCBF29CE484222325L;
+        for (int i = start; i < end; i++) {
+            hash ^= data[i] & 0xFF;
+            hash *= 0x100000001B3L;
+        }
+        return hash;
+    }
+}
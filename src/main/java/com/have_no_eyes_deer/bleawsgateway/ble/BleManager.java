@@ -3,27 +3,31 @@ package com.have_no_eyes_deer.bleawsgateway.ble;
 import android.Manifest;
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
-import android.bluetooth.BluetoothGatt;
-import android.bluetooth.BluetoothGattCallback;
 import android.bluetooth.BluetoothGattCharacteristic;
-import android.bluetooth.BluetoothGattDescriptor;
-import android.bluetooth.BluetoothGattService;
 import android.bluetooth.le.BluetoothLeScanner;
 import android.bluetooth.le.ScanCallback;
+import android.bluetooth.le.ScanFilter;
+import android.bluetooth.le.ScanRecord;
 import android.bluetooth.le.ScanResult;
+import android.bluetooth.le.ScanSettings;
 import android.content.Context;
 import android.content.pm.PackageManager;
 import android.os.Handler;
 import android.os.Looper;
+import android.os.ParcelUuid;
+import android.os.SystemClock;
 import androidx.core.app.ActivityCompat;
 
 import com.have_no_eyes_deer.bleawsgateway.model.BleDataModel;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.IntFunction;
+import java.util.function.LongSupplier;
 import android.util.Log;
 import java.util.Arrays;
 
@@ -32,8 +36,10 @@ import java.util.Arrays;
  */
 public class BleManager {
     
-    private static final UUID CCC_UUID = UUID.fromString("00002902-0000-1000-8000-00805f9b34fb");
     private static final long SCAN_PERIOD = 10_000; // 10s scan period
+    private static final int DEFAULT_SCAN_UPDATES_PER_SECOND = 4;
+    private static final long SCAN_TEST_TICK_MS = 250;
+    private static final long ADVERTISEMENT_SCAN_CHECK_MS = 60_000;
     
     private Context context;
     private BluetoothAdapter bluetoothAdapter;
@@ -42,28 +48,103 @@ public class BleManager {
     
     // device connection management
     private DeviceConnectionManager connectionManager;
-    private Map<String, BluetoothGatt> connectedDevices = new HashMap<>();
-    private Map<String, BluetoothGattCharacteristic> notifyCharacteristics = new HashMap<>();
-    private Map<String, BluetoothGattCharacteristic> writeCharacteristics = new HashMap<>();
+    // one id per address, shared with the connection manager, the activities and other BleManagers
+    private final DeviceRegistry deviceRegistry;
     
     // scanning related
     private boolean isScanning = false;
     private List<BluetoothDevice> discoveredDevices = new ArrayList<>();
+    // Scan results are folded in on the main thread (where ScanCallback runs) and drained by scanUpdateTick
+    private final ScanAggregator scanAggregator = new ScanAggregator();
+    private long scanUpdateIntervalMs = 1000 / DEFAULT_SCAN_UPDATES_PER_SECOND;
+    private final Runnable scanUpdateTick = this::onScanUpdateTick;
+    private final Runnable scanTimeout = this::stopScan;
+    private ScanProfile scanProfile = ScanProfile.DEFAULT;
+    private ScanProfile runningScanProfile;    // the profile the running scan was started with
+    private boolean softwareScanFilter;         // results need ScanProfile.accepts()
+    // Wakeup counters: one per ScanCallback invocation, main thread only
+    private long scanCallbackCount;
+    private long scanResultCount;
+    private long scanFilteredCount;
+    // Sensor readings broadcast in advertisements, forwarded without a connection
+    private final AdvertisementIngest advertisementIngest = AdvertisementIngest.createDefault();
+    private AdvertisementIngest.Sink advertisementSink;
+    // Continuous filtered low-power scan that feeds the ingest while a sink is set
+    private boolean advertisementScanning;
+    private final Runnable advertisementScanCheck = this::checkAdvertisementScan;
     
     // listener
-    private List<BleDataListener> dataListeners = new ArrayList<>();
+    private List<BleDataListener> dataListeners = new CopyOnWriteArrayList<>(); // read from GATT callback threads
     private ScanResultListener scanResultListener;
+    private volatile NotificationSink notificationSink;
+    // UUID.toString() allocates; notifications only ever see a handful of UUIDs
+    private final Map<UUID, String> uuidStrings = new ConcurrentHashMap<>();
+    private volatile boolean mainThreadDataDispatch = true;
     
     public interface ScanResultListener {
         void onDeviceFound(BluetoothDevice device, int rssi);
         void onScanStarted();
         void onScanStopped();
+        
+        /**
+         * Throttled diff of the scan results, on the main thread; by default reports the new devices
+         * through onDeviceFound. The update and its entries are only valid during the call.
+         */
+        default void onScanUpdate(ScanAggregator.Update update) {
+            for (ScanAggregator.Entry entry : update.added) {
+                onDeviceFound(entry.device, entry.getRssi());
+            }
+        }
+    }
+    
+    /**
+     * Raw notification sink, invoked directly on the GATT callback thread (no main looper hop).
+     * Implementations must return quickly and must copy the value if they keep it.
+     * timestampNanos is SystemClock.elapsedRealtimeNanos() taken when the callback arrived.
+     */
+    public interface NotificationSink {
+        void onNotification(String deviceAddress, String deviceName,
+                            String serviceUuid, String characteristicUuid, byte[] value, long timestampNanos);
+        
+        /**
+         * What the manager calls: the same with the device's DeviceRegistry id, so a sink can index its
+         * per-device state by id instead of hashing the address. The default drops the id.
+         */
+        default void onNotification(int deviceId, String deviceAddress, String deviceName,
+                                    String serviceUuid, String characteristicUuid, byte[] value, long timestampNanos) {
+            onNotification(deviceAddress, deviceName, serviceUuid, characteristicUuid, value, timestampNanos);
+        }
+        
+        /**
+         * A frame of a device's L2CAP channel (see setL2capTransport), on the channel's reader thread.
+         * The frame is already delimited; buffer is only valid during the call. Blocking here holds back
+         * the peripheral. The default copies the frame into onNotification keyed by
+         * L2capChannel.SERVICE_KEY and sourceKey.
+         */
+        default void onChannelFrame(String deviceAddress, String deviceName, String sourceKey,
+                                    byte[] buffer, int offset, int length, long timestampNanos) {
+            onNotification(deviceAddress, deviceName, L2capChannel.SERVICE_KEY, sourceKey,
+                    Arrays.copyOfRange(buffer, offset, offset + length), timestampNanos);
+        }
+        
+        /**
+         * What the manager calls for a channel frame, with the device's DeviceRegistry id; the default drops it
+         */
+        default void onChannelFrame(int deviceId, String deviceAddress, String deviceName, String sourceKey,
+                                    byte[] buffer, int offset, int length, long timestampNanos) {
+            onChannelFrame(deviceAddress, deviceName, sourceKey, buffer, offset, length, timestampNanos);
+        }
     }
     
     public BleManager(Context context) {
+        this(context, DeviceRegistry.getShared());
+    }
+    
+    public BleManager(Context context, DeviceRegistry deviceRegistry) {
         this.context = context;
+        this.deviceRegistry = deviceRegistry;
         this.mainHandler = new Handler(Looper.getMainLooper());
-        this.connectionManager = new DeviceConnectionManager(context);
+        this.connectionManager = new DeviceConnectionManager(context, deviceRegistry);
         initializeBluetooth();
         setupConnectionManager();
     }
@@ -99,7 +180,7 @@ public class BleManager {
             
             @Override
             public void onMaxConnectionsReached() {
-                notifyError("Maximum connections reached", null);
+                notifyError("Maximum connections reached, connection queued", null);
             }
             
             @Override
@@ -109,15 +190,20 @@ public class BleManager {
         });
 
         // 转发底层GATT数据到BleManager的数据通知
-        connectionManager.setGattDataListener((deviceAddress, deviceName, characteristic) -> {
-            String serviceUuid = characteristic.getService().getUuid().toString();
-            String charUuid = characteristic.getUuid().toString();
-            byte[] rawData = characteristic.getValue();
-            String dataString = new String(rawData, java.nio.charset.StandardCharsets.UTF_8);
-            BleDataModel data = new BleDataModel(
-                deviceAddress, deviceName, serviceUuid, charUuid, rawData, dataString
-            );
-            notifyDataReceived(data);
+        connectionManager.setGattDataListener(new DeviceConnectionManager.GattDataListener() {
+            @Override
+            public void onCharacteristicChanged(int deviceId, String deviceAddress, String deviceName,
+                                                BluetoothGattCharacteristic characteristic, byte[] value,
+                                                long timestampNanos) {
+                dispatchNotification(deviceId, deviceAddress, deviceName, characteristic, value, timestampNanos);
+            }
+            
+            @Override
+            public void onChannelFrame(int deviceId, String deviceAddress, String deviceName, String sourceKey,
+                                       byte[] buffer, int offset, int length, long timestampNanos) {
+                dispatchChannelFrame(deviceId, deviceAddress, deviceName, sourceKey, buffer, offset, length,
+                        timestampNanos);
+            }
         });
     }
     
@@ -137,6 +223,88 @@ public class BleManager {
         this.scanResultListener = listener;
     }
     
+    public void setNotificationSink(NotificationSink sink) {
+        this.notificationSink = sink;
+    }
+    
+    /**
+     * Receive the sensor payloads of scanned advertisements (see AdvertisementIngest), on the main thread.
+     * While a sink is set, a low-power scan filtered to the ingest's sources (batched where the controller
+     * can) runs continuously next to the device scans, and is started again if it fails or Bluetooth was
+     * switched off. Sources added to the ingest later are scanned for after the next call. Null to stop.
+     */
+    public void setAdvertisementSink(AdvertisementIngest.Sink sink) {
+        stopAdvertisementScan();
+        this.advertisementSink = sink;
+        advertisementIngest.clear();
+        if (sink != null) {
+            checkAdvertisementScan();
+        }
+    }
+    
+    public boolean isAdvertisementScanning() {
+        return advertisementScanning;
+    }
+    
+    /**
+     * Add advertisement sources or change the repeat interval; main thread only
+     */
+    public AdvertisementIngest getAdvertisementIngest() {
+        return advertisementIngest;
+    }
+    
+    /**
+     * @param enabled false to stop posting every notification to the data listeners on the main thread
+     *                (connection state and error callbacks are unaffected)
+     */
+    public void setMainThreadDataDispatch(boolean enabled) {
+        this.mainThreadDataDispatch = enabled;
+    }
+    
+    private void dispatchNotification(int deviceId, String deviceAddress, String deviceName,
+                                      BluetoothGattCharacteristic characteristic, byte[] rawData, long timestampNanos) {
+        String serviceUuid = uuidString(characteristic.getService().getUuid());
+        String charUuid = uuidString(characteristic.getUuid());
+        
+        NotificationSink sink = notificationSink;
+        if (sink != null) {
+            sink.onNotification(deviceId, deviceAddress, deviceName, serviceUuid, charUuid, rawData, timestampNanos);
+        }
+        
+        if (!mainThreadDataDispatch || dataListeners.isEmpty()) {
+            return;
+        }
+        // rawData is this callback's own array; the string is only decoded if a listener asks for it
+        BleDataModel data = new BleDataModel(
+            deviceAddress, deviceName, serviceUuid, charUuid, rawData, null
+        );
+        notifyDataReceived(data);
+    }
+    
+    private void dispatchChannelFrame(int deviceId, String deviceAddress, String deviceName, String sourceKey,
+                                      byte[] buffer, int offset, int length, long timestampNanos) {
+        NotificationSink sink = notificationSink;
+        if (sink != null) {
+            sink.onChannelFrame(deviceId, deviceAddress, deviceName, sourceKey, buffer, offset, length, timestampNanos);
+        }
+        
+        if (!mainThreadDataDispatch || dataListeners.isEmpty()) {
+            return;
+        }
+        BleDataModel data = new BleDataModel(deviceAddress, deviceName, L2capChannel.SERVICE_KEY, sourceKey,
+                Arrays.copyOfRange(buffer, offset, offset + length), null);
+        notifyDataReceived(data);
+    }
+    
+    private String uuidString(UUID uuid) {
+        String value = uuidStrings.get(uuid);
+        if (value == null) {
+            value = uuid.toString();
+            uuidStrings.put(uuid, value);
+        }
+        return value;
+    }
+    
     private void notifyDataReceived(BleDataModel data) {
         mainHandler.post(() -> {
             for (BleDataListener listener : dataListeners) {
@@ -173,6 +341,13 @@ public class BleManager {
     // ======================== scanning ========================
     
     public boolean startScan() {
+        return startScan(SCAN_PERIOD);
+    }
+    
+    /**
+     * @param durationMs stop the scan after this long, 0 = until stopScan()
+     */
+    public boolean startScan(long durationMs) {
         if (bleScanner == null || isScanning) {
             return false;
         }
@@ -183,6 +358,11 @@ public class BleManager {
         }
         
         discoveredDevices.clear();
+        // The list starts over; devices that were only scanned give their ids back
+        for (ScanAggregator.Entry entry : scanAggregator.getEntries()) {
+            deviceRegistry.release(entry.deviceId);
+        }
+        scanAggregator.clear();
         isScanning = true;
         
         if (scanResultListener != null) {
@@ -190,32 +370,320 @@ public class BleManager {
         }
         
         // set scan timeout
-        mainHandler.postDelayed(this::stopScan, SCAN_PERIOD);
+        if (durationMs > 0) {
+            mainHandler.postDelayed(scanTimeout, durationMs);
+        }
+        mainHandler.postDelayed(scanUpdateTick, scanUpdateIntervalMs);
         
-        bleScanner.startScan(scanCallback);
+        startLeScan(scanProfile);
         return true;
     }
     
     public void stopScan() {
         if (bleScanner != null && isScanning) {
-            bleScanner.stopScan(scanCallback);
+            stopLeScan();
             isScanning = false;
+            mainHandler.removeCallbacks(scanTimeout);
+            mainHandler.removeCallbacks(scanUpdateTick);
+            publishScanUpdate(); // results since the last tick
             if (scanResultListener != null) {
                 scanResultListener.onScanStopped();
             }
         }
     }
     
+    /**
+     * Limit how often the scan listener gets a diff; results in between are only folded into the aggregator
+     */
+    public void setScanUpdateRate(int updatesPerSecond) {
+        if (updatesPerSecond <= 0) {
+            throw new IllegalArgumentException("updatesPerSecond must be positive: " + updatesPerSecond);
+        }
+        scanUpdateIntervalMs = Math.max(1, 1000 / updatesPerSecond);
+    }
+    
+    public ScanAggregator getScanAggregator() {
+        return scanAggregator;
+    }
+    
+    /**
+     * Scan mode, batching and filters for the next startScan(); a running scan is restarted with it
+     */
+    public void setScanProfile(ScanProfile profile) {
+        scanProfile = profile != null ? profile : ScanProfile.DEFAULT;
+        if (isScanning) {
+            stopLeScan();
+            startLeScan(scanProfile);
+        }
+    }
+    
+    public ScanProfile getScanProfile() {
+        return scanProfile;
+    }
+    
+    /** ScanCallback invocations since the manager was created, each one a CPU wakeup */
+    public long getScanCallbackCount() {
+        return scanCallbackCount;
+    }
+    
+    public long getScanResultCount() {
+        return scanResultCount;
+    }
+    
+    /** Results dropped by the software part of the scan filters (name prefix) */
+    public long getScanFilteredCount() {
+        return scanFilteredCount;
+    }
+    
+    /**
+     * 扫描模式测试：依次以各扫描配置扫描并测量回调唤醒次数、结果数和进程CPU时间
+     * Switching profiles restarts the scan; Android allows 5 scan starts per 30 s, so keep
+     * settleMs + measureMs well above 6 s. Runs on the main thread, the scan stops at the end.
+     * @param cpuTimeMs process CPU time, e.g. ResourceMonitor::getProcessCpuTimeMs
+     * @return false if a scan could not be started
+     */
+    public boolean startScanModeTest(List<ScanProfile> profiles, long settleMs, long measureMs, LongSupplier cpuTimeMs,
+                                     ScanModeBenchmark.Listener listener) {
+        if (isScanning || profiles.isEmpty()) {
+            return false;
+        }
+        ScanProfile previous = scanProfile;
+        scanProfile = profiles.get(0);
+        if (!startScan(0)) {
+            scanProfile = previous;
+            return false;
+        }
+        ScanModeBenchmark benchmark = new ScanModeBenchmark(new ScanModeBenchmark.Scanner() {
+            @Override
+            public void apply(ScanProfile profile) {
+                setScanProfile(profile);
+            }
+            
+            @Override
+            public long getCallbackCount() {
+                return scanCallbackCount;
+            }
+            
+            @Override
+            public long getResultCount() {
+                return scanResultCount;
+            }
+            
+            @Override
+            public long getCpuTimeMs() {
+                return cpuTimeMs.getAsLong();
+            }
+        }, profiles, settleMs, measureMs);
+        benchmark.start();
+        mainHandler.postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                if (!isScanning) {
+                    Log.w("BleManager", "Scan mode test aborted, scan stopped");
+                    scanProfile = previous;
+                    listener.onFinished(benchmark.getResults());
+                } else if (benchmark.tick()) {
+                    mainHandler.postDelayed(this, SCAN_TEST_TICK_MS);
+                } else {
+                    stopScan();
+                    scanProfile = previous;
+                    for (ScanModeBenchmark.Result result : benchmark.getResults()) {
+                        Log.d("BleManager", "Scan mode " + result);
+                    }
+                    listener.onFinished(benchmark.getResults());
+                }
+            }
+        }, SCAN_TEST_TICK_MS);
+        return true;
+    }
+    
+    private void startLeScan(ScanProfile profile) {
+        List<ScanFilter> filters = new ArrayList<>();
+        for (ScanProfile.Filter filter : profile.getHardwareFilters()) {
+            ScanFilter.Builder builder = new ScanFilter.Builder();
+            if (filter.serviceUuid != null) {
+                builder.setServiceUuid(new ParcelUuid(filter.serviceUuid));
+            }
+            if (filter.manufacturerId >= 0) {
+                builder.setManufacturerData(filter.manufacturerId, filter.manufacturerData, filter.manufacturerDataMask);
+            }
+            filters.add(builder.build());
+        }
+        ScanSettings.Builder settings = new ScanSettings.Builder()
+                .setScanMode(profile.scanMode.settingsValue)
+                .setCallbackType(ScanSettings.CALLBACK_TYPE_ALL_MATCHES);
+        // Without offloaded batching the stack would queue the results in the host, waking it anyway
+        if (profile.reportDelayMs > 0 && bluetoothAdapter.isOffloadedScanBatchingSupported()) {
+            settings.setReportDelay(profile.reportDelayMs);
+        }
+        runningScanProfile = profile;
+        softwareScanFilter = profile.needsSoftwareFilter();
+        Log.d("BleManager", "Starting scan: " + profile + ", hardware filters " + filters.size()
+                + (bluetoothAdapter.isOffloadedFilteringSupported() ? " (offloaded)" : ""));
+        bleScanner.startScan(filters, settings.build(), scanCallback);
+    }
+    
+    private void stopLeScan() {
+        // Batched results still queued in the controller would otherwise be lost
+        if (runningScanProfile != null && runningScanProfile.reportDelayMs > 0) {
+            bleScanner.flushPendingScanResults(scanCallback);
+        }
+        bleScanner.stopScan(scanCallback);
+    }
+    
+    /**
+     * Start the advertisement scan unless it runs, then check again after ADVERTISEMENT_SCAN_CHECK_MS
+     */
+    private void checkAdvertisementScan() {
+        if (advertisementSink == null) {
+            return;
+        }
+        if (bluetoothAdapter == null || !bluetoothAdapter.isEnabled()) {
+            advertisementScanning = false; // switching Bluetooth off ends every scan without a callback
+        } else if (!advertisementScanning) {
+            startAdvertisementScan();
+        }
+        advertisementIngest.expire(SystemClock.elapsedRealtimeNanos());
+        mainHandler.postDelayed(advertisementScanCheck, ADVERTISEMENT_SCAN_CHECK_MS);
+    }
+    
+    private void startAdvertisementScan() {
+        if (!hasPermissions()) {
+            return;
+        }
+        // A fresh scanner after Bluetooth was switched back on
+        bleScanner = bluetoothAdapter.getBluetoothLeScanner();
+        if (bleScanner == null) {
+            return;
+        }
+        List<ScanFilter> filters = new ArrayList<>();
+        for (AdvertisementIngest.ScanKey key : advertisementIngest.getScanKeys()) {
+            ScanFilter.Builder builder = new ScanFilter.Builder();
+            if (key.serviceUuid != null) {
+                builder.setServiceData(ParcelUuid.fromString(key.serviceUuid), key.prefix);
+            } else {
+                builder.setManufacturerData(key.manufacturerId, key.prefix);
+            }
+            filters.add(builder.build());
+        }
+        if (filters.isEmpty()) {
+            return; // unfiltered, the controller would wake the host for every advertisement around
+        }
+        ScanProfile profile = ScanProfile.LOW_POWER;
+        ScanSettings.Builder settings = new ScanSettings.Builder()
+                .setScanMode(profile.scanMode.settingsValue)
+                .setCallbackType(ScanSettings.CALLBACK_TYPE_ALL_MATCHES);
+        if (bluetoothAdapter.isOffloadedScanBatchingSupported()) {
+            settings.setReportDelay(profile.reportDelayMs);
+        }
+        Log.d("BleManager", "Starting advertisement scan, hardware filters " + filters.size()
+                + (bluetoothAdapter.isOffloadedFilteringSupported() ? " (offloaded)" : ""));
+        bleScanner.startScan(filters, settings.build(), advertisementScanCallback);
+        advertisementScanning = true;
+    }
+    
+    private void stopAdvertisementScan() {
+        mainHandler.removeCallbacks(advertisementScanCheck);
+        if (advertisementScanning && bleScanner != null && bluetoothAdapter.isEnabled()) {
+            bleScanner.flushPendingScanResults(advertisementScanCallback);
+            bleScanner.stopScan(advertisementScanCallback);
+        }
+        advertisementScanning = false;
+    }
+    
+    private void onScanUpdateTick() {
+        publishScanUpdate();
+        if (isScanning) {
+            mainHandler.postDelayed(scanUpdateTick, scanUpdateIntervalMs);
+        }
+    }
+    
+    private void publishScanUpdate() {
+        long now = SystemClock.elapsedRealtimeNanos();
+        advertisementIngest.expire(now);
+        ScanAggregator.Update update = scanAggregator.drain(now);
+        if (update.isEmpty()) {
+            return;
+        }
+        for (ScanAggregator.Entry entry : update.added) {
+            entry.deviceId = deviceRegistry.register(entry.address);
+            recordSeen(entry);
+            discoveredDevices.add(entry.device);
+        }
+        for (ScanAggregator.Entry entry : update.changed) {
+            recordSeen(entry);
+        }
+        for (ScanAggregator.Entry entry : update.removed) {
+            discoveredDevices.remove(entry.device);
+        }
+        if (scanResultListener != null) {
+            scanResultListener.onScanUpdate(update);
+        }
+        // After the listener dropped its items: ids of forgotten scan-only devices go to new addresses
+        for (ScanAggregator.Entry entry : update.removed) {
+            deviceRegistry.release(entry.deviceId);
+        }
+    }
+    
+    private void recordSeen(ScanAggregator.Entry entry) {
+        deviceRegistry.setName(entry.deviceId, entry.name);
+        deviceRegistry.onSeen(entry.deviceId, entry.getRssi(), entry.lastSeenNanos);
+    }
+    
+    private void onScanResult(ScanResult result) {
+        // Every advertisement only updates the aggregator; the listener hears about it on the next tick
+        scanResultCount++;
+        BluetoothDevice device = result.getDevice();
+        ScanRecord record = result.getScanRecord();
+        String name = record != null ? record.getDeviceName() : null;
+        if (softwareScanFilter && !runningScanProfile.accepts(name, serviceUuids(record), manufacturerData(record))) {
+            scanFilteredCount++;
+            return;
+        }
+        scanAggregator.onAdvertisement(device, device.getAddress(), name, result.getRssi(), result.getTimestampNanos());
+        if (!advertisementScanning) {
+            ingestAdvertisement(result);
+        }
+    }
+    
+    private void ingestAdvertisement(ScanResult result) {
+        AdvertisementIngest.Sink sink = advertisementSink;
+        ScanRecord record = result.getScanRecord();
+        if (sink != null && record != null) {
+            advertisementIngest.accept(result.getDevice().getAddress(), record.getDeviceName(), record.getBytes(),
+                    result.getTimestampNanos(), sink);
+        }
+    }
+    
+    private static List<UUID> serviceUuids(ScanRecord record) {
+        List<ParcelUuid> uuids = record != null ? record.getServiceUuids() : null;
+        if (uuids == null) {
+            return null;
+        }
+        List<UUID> result = new ArrayList<>(uuids.size());
+        for (int i = 0; i < uuids.size(); i++) {
+            result.add(uuids.get(i).getUuid());
+        }
+        return result;
+    }
+    
+    private static IntFunction<byte[]> manufacturerData(ScanRecord record) {
+        return record != null ? record::getManufacturerSpecificData : null;
+    }
+    
     private final ScanCallback scanCallback = new ScanCallback() {
         @Override
         public void onScanResult(int callbackType, ScanResult result) {
-            BluetoothDevice device = result.getDevice();
-            // 移除设备名字过滤条件，允许显示所有发现的设备
-            if (!discoveredDevices.contains(device)) {
-                discoveredDevices.add(device);
-                if (scanResultListener != null) {
-                    scanResultListener.onDeviceFound(device, result.getRssi());
-                }
+            scanCallbackCount++;
+            BleManager.this.onScanResult(result);
+        }
+        
+        @Override
+        public void onBatchScanResults(List<ScanResult> results) {
+            // One wakeup for the whole batch
+            scanCallbackCount++;
+            for (int i = 0; i < results.size(); i++) {
+                BleManager.this.onScanResult(results.get(i));
             }
         }
         
@@ -225,6 +693,30 @@ public class BleManager {
         }
     };
     
+    private final ScanCallback advertisementScanCallback = new ScanCallback() {
+        @Override
+        public void onScanResult(int callbackType, ScanResult result) {
+            ingestAdvertisement(result);
+        }
+        
+        @Override
+        public void onBatchScanResults(List<ScanResult> results) {
+            for (int i = 0; i < results.size(); i++) {
+                ingestAdvertisement(results.get(i));
+            }
+        }
+        
+        @Override
+        public void onScanFailed(int errorCode) {
+            if (errorCode == SCAN_FAILED_ALREADY_STARTED) {
+                return;
+            }
+            // Started again by the next checkAdvertisementScan()
+            Log.w("BleManager", "Advertisement scan failed: " + errorCode);
+            advertisementScanning = false;
+        }
+    };
+    
     // ======================== connection ========================
     
     public boolean connectToDevice(BluetoothDevice device) {
@@ -258,152 +750,33 @@ public class BleManager {
         connectionManager.disconnectAllDevices();
     }
     
-    // ======================== GATT callback ========================
-    
-    private final BluetoothGattCallback gattCallback = new BluetoothGattCallback() {
-        @Override
-        public void onConnectionStateChange(BluetoothGatt gatt, int status, int newState) {
-            String deviceAddress = gatt.getDevice().getAddress();
-            String deviceName = gatt.getDevice().getName();
-            
-            Log.d("BleManager", "onConnectionStateChange: " + deviceAddress + " status: " + status + " newState: " + newState);
-            
-            // 如果设备名字为空，尝试从连接管理器中获取
-            if (deviceName == null || deviceName.trim().isEmpty()) {
-                DeviceConnectionManager.DeviceConnectionInfo info = connectionManager.getDeviceInfo(deviceAddress);
-                if (info != null && info.deviceName != null && !info.deviceName.trim().isEmpty()) {
-                    deviceName = info.deviceName;
-                }
-            }
-            
-            if (newState == BluetoothGatt.STATE_CONNECTED) {
-                Log.d("BleManager", "Device connected: " + deviceAddress + " name: " + deviceName);
-                // 添加到已连接设备列表
-                connectedDevices.put(deviceAddress, gatt);
-                Log.d("BleManager", "Added to connectedDevices, size: " + connectedDevices.size());
-                notifyConnectionStateChanged(deviceAddress, true, deviceName);
-                gatt.discoverServices();
-            } else if (newState == BluetoothGatt.STATE_DISCONNECTED) {
-                Log.d("BleManager", "Device disconnected: " + deviceAddress + " name: " + deviceName);
-                notifyConnectionStateChanged(deviceAddress, false, deviceName);
-                connectedDevices.remove(deviceAddress);
-                notifyCharacteristics.remove(deviceAddress);
-                writeCharacteristics.remove(deviceAddress);
-                // 不要自动关闭GATT连接，让连接管理器处理
-                // gatt.close();
-            }
-        }
-        
-        @Override
-        public void onServicesDiscovered(BluetoothGatt gatt, int status) {
-            if (status == BluetoothGatt.GATT_SUCCESS) {
-                discoverCharacteristics(gatt);
-            } else {
-                notifyError("service discovery failed", gatt.getDevice().getAddress());
-            }
-        }
-        
-        @Override
-        public void onCharacteristicChanged(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic) {
-            String deviceAddress = gatt.getDevice().getAddress();
-            String deviceName = gatt.getDevice().getName();
-            String serviceUuid = characteristic.getService().getUuid().toString();
-            String charUuid = characteristic.getUuid().toString();
-            
-            // create data model and notify listener
-            byte[] rawData = characteristic.getValue();
-            String dataString = new String(rawData, java.nio.charset.StandardCharsets.UTF_8);
-            BleDataModel data = new BleDataModel(
-                deviceAddress, deviceName, serviceUuid, charUuid, rawData, dataString
-            );
-            
-            notifyDataReceived(data);
-        }
-        
-        @Override
-        public void onCharacteristicWrite(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
-            if (status == BluetoothGatt.GATT_SUCCESS) {
-                mainHandler.post(() -> {
-                    for (BleDataListener listener : dataListeners) {
-                        listener.onDataSent(gatt.getDevice().getAddress(), characteristic.getValue());
-                    }
-                });
-            } else {
-                notifyError("data sending failed", gatt.getDevice().getAddress());
-            }
-        }
-    };
-    
-    // ======================== characteristic discovery and management ========================
-    
-    private void discoverCharacteristics(BluetoothGatt gatt) {
-        String deviceAddress = gatt.getDevice().getAddress();
-        
-        for (BluetoothGattService service : gatt.getServices()) {
-            for (BluetoothGattCharacteristic characteristic : service.getCharacteristics()) {
-                int properties = characteristic.getProperties();
-                
-                // find notify characteristic
-                if ((properties & BluetoothGattCharacteristic.PROPERTY_NOTIFY) != 0) {
-                    notifyCharacteristics.put(deviceAddress, characteristic);
-                }
-                
-                // find write characteristic
-                if ((properties & (BluetoothGattCharacteristic.PROPERTY_WRITE | 
-                                  BluetoothGattCharacteristic.PROPERTY_WRITE_NO_RESPONSE)) != 0) {
-                    writeCharacteristics.put(deviceAddress, characteristic);
-                }
-            }
-        }
-    }
-    
     // ======================== data operation ========================
     
+    /**
+     * Subscribe to every notify / indicate characteristic of the device; the CCC writes go
+     * through the link's GATT operation queue one at a time
+     */
     public boolean enableNotification(String deviceAddress) {
-        BluetoothGatt gatt = connectedDevices.get(deviceAddress);
-        BluetoothGattCharacteristic characteristic = notifyCharacteristics.get(deviceAddress);
-        
-        if (gatt != null && characteristic != null) {
-            gatt.setCharacteristicNotification(characteristic, true);
-            
-            BluetoothGattDescriptor descriptor = characteristic.getDescriptor(CCC_UUID);
-            if (descriptor != null) {
-                descriptor.setValue(BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE);
-                return gatt.writeDescriptor(descriptor);
-            }
-        }
-        
-        // 尝试使用连接管理器
         return connectionManager.enableNotification(deviceAddress);
     }
     
     public boolean disableNotification(String deviceAddress) {
-        BluetoothGatt gatt = connectedDevices.get(deviceAddress);
-        BluetoothGattCharacteristic characteristic = notifyCharacteristics.get(deviceAddress);
-        
-        if (gatt != null && characteristic != null) {
-            gatt.setCharacteristicNotification(characteristic, false);
-            
-            BluetoothGattDescriptor descriptor = characteristic.getDescriptor(CCC_UUID);
-            if (descriptor != null) {
-                descriptor.setValue(BluetoothGattDescriptor.DISABLE_NOTIFICATION_VALUE);
-                return gatt.writeDescriptor(descriptor);
-            }
-        }
-        return false;
+        return connectionManager.disableNotification(deviceAddress);
     }
     
     public boolean sendData(String deviceAddress, byte[] data) {
-        BluetoothGatt gatt = connectedDevices.get(deviceAddress);
-        BluetoothGattCharacteristic characteristic = writeCharacteristics.get(deviceAddress);
-        
-        if (gatt != null && characteristic != null) {
-            characteristic.setValue(data);
-            return gatt.writeCharacteristic(characteristic);
-        }
-        
-        // 尝试使用连接管理器
-        return connectionManager.sendData(deviceAddress, data);
+        // 经连接管理器的GATT操作队列发送，结果异步通知监听器
+        return connectionManager.sendData(deviceAddress, data, (operation, success) -> {
+            if (success) {
+                mainHandler.post(() -> {
+                    for (BleDataListener listener : dataListeners) {
+                        listener.onDataSent(deviceAddress, data);
+                    }
+                });
+            } else {
+                notifyError("data sending failed", deviceAddress);
+            }
+        });
     }
     
     public boolean sendCommand(String deviceAddress, String command) {
@@ -422,25 +795,13 @@ public class BleManager {
     }
     
     public boolean isDeviceConnected(String deviceAddress) {
-        return connectedDevices.containsKey(deviceAddress) || connectionManager.isDeviceConnected(deviceAddress);
+        return connectionManager.isDeviceConnected(deviceAddress);
     }
     
     public List<String> getConnectedDeviceAddresses() {
-        List<String> addresses = new ArrayList<>(connectedDevices.keySet());
-        // 添加连接管理器中的设备
         String[] managerAddresses = connectionManager.getConnectedDeviceAddresses();
-        for (String address : managerAddresses) {
-            if (!addresses.contains(address)) {
-                addresses.add(address);
-            }
-        }
-        
-        // 添加调试信息
-        Log.d("BleManager", "getConnectedDeviceAddresses: " + addresses.size() + " devices");
-        Log.d("BleManager", "connectedDevices: " + connectedDevices.keySet());
-        Log.d("BleManager", "managerAddresses: " + Arrays.toString(managerAddresses));
-        
-        return addresses;
+        Log.d("BleManager", "getConnectedDeviceAddresses: " + managerAddresses.length + " devices");
+        return new ArrayList<>(Arrays.asList(managerAddresses));
     }
     
     public int getActiveConnectionCount() {
@@ -455,6 +816,72 @@ public class BleManager {
         return connectionManager.getDeviceInfo(deviceAddress);
     }
     
+    /**
+     * Value count, bytes and rate of each notify / indicate characteristic of the device
+     */
+    public List<DeviceConnectionManager.StreamStats> getStreamStats(String deviceAddress) {
+        return connectionManager.getStreamStats(deviceAddress);
+    }
+    
+    /**
+     * Dense id and state of every device seen by the scanner or the connection manager
+     */
+    public DeviceRegistry getDeviceRegistry() {
+        return deviceRegistry;
+    }
+    
+    public GattServiceCache getServiceCache() {
+        return connectionManager.getServiceCache();
+    }
+    
+    public void setDefaultLinkProfile(LinkProfile profile) {
+        connectionManager.setDefaultLinkProfile(profile);
+    }
+    
+    public void setLinkProfile(String deviceAddress, LinkProfile profile) {
+        connectionManager.setLinkProfile(deviceAddress, profile);
+    }
+    
+    /**
+     * Carry the device's data over an L2CAP channel (API 29+) next to the GATT connection;
+     * frames reach the NotificationSink through onChannelFrame
+     * @param psm 0 to go back to GATT notifications only
+     */
+    public void setL2capTransport(String deviceAddress, int psm, int creditWindow) {
+        connectionManager.setL2capTransport(deviceAddress, psm, creditWindow);
+    }
+    
+    public int getL2capPsm(String deviceAddress) {
+        return connectionManager.getL2capPsm(deviceAddress);
+    }
+    
+    public int getL2capCreditWindow(String deviceAddress) {
+        return connectionManager.getL2capCreditWindow(deviceAddress);
+    }
+    
+    public L2capChannel getL2capChannel(String deviceAddress) {
+        return connectionManager.getL2capChannel(deviceAddress);
+    }
+    
+    /**
+     * Thread the GATT callbacks of new connections run on; only while nothing is connected
+     */
+    public void setCallbackThreading(GattThreadPool.Mode mode, int poolSize) {
+        connectionManager.setCallbackThreading(mode, poolSize);
+    }
+    
+    public GattThreadPool.Mode getCallbackThreadingMode() {
+        return connectionManager.getCallbackThreadingMode();
+    }
+    
+    public List<GattThreadPool.ThreadStats> getCallbackThreadStats() {
+        return connectionManager.getCallbackThreadStats();
+    }
+    
+    public void resetCallbackThreadStats() {
+        connectionManager.resetCallbackThreadStats();
+    }
+    
     public List<BluetoothDevice> getDiscoveredDevices() {
         return new ArrayList<>(discoveredDevices);
     }
@@ -467,6 +894,7 @@ public class BleManager {
     
     public void cleanup(boolean disconnectAll) {
         stopScan();
+        stopAdvertisementScan();
         if (disconnectAll) {
             disconnectAllDevices();
         }
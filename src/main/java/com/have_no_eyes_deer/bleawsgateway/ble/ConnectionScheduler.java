@@ -0,0 +1,406 @@
+package com.have_no_eyes_deer.bleawsgateway.ble;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.function.LongSupplier;
+
+/**
+ * 连接调度器 - decides which devices get one of the limited GATT connection slots
+ *
+ * Requests wait in a priority queue and are admitted as slots free up. Waiting requests age:
+ * every agingIntervalMs of waiting counts as one priority level, so low-priority devices are
+ * not starved by a stream of higher-priority ones. Because every request ages at the same
+ * rate, the queue order (priority * agingIntervalMs - enqueueTime) never changes and a plain
+ * PriorityQueue is enough.
+ *
+ * When all slots are taken, a waiting request whose own (not aged) priority is higher than
+ * that of a connected link idle for at least idleTimeoutMs preempts it: the link is
+ * disconnected and re-queued with its priority, and the freed slot is handed to that request
+ * even if aging put others ahead of it.
+ *
+ * Links that drop or fail to connect are re-queued until maxAttempts consecutive failures;
+ * each retry is queued retryPenaltyMs per attempt later, behind fresh requests of the same
+ * priority.
+ *
+ * The GATT side is behind {@link Connector}, so the scheduler runs against a fake GATT layer
+ * in tests. Connector calls are made outside the scheduler lock and may call back directly.
+ */
+public class ConnectionScheduler {
+    private static final String TAG = "ConnectionScheduler";
+
+    public static final long DEFAULT_AGING_INTERVAL_MS = 10_000;
+    public static final long DEFAULT_IDLE_TIMEOUT_MS = 30_000;
+    public static final long DEFAULT_RETRY_PENALTY_MS = 3_000;
+    public static final int DEFAULT_MAX_ATTEMPTS = 3;
+
+    /**
+     * GATT side of the scheduler
+     */
+    public interface Connector {
+        /**
+         * Start connecting; report the result with onConnected / onConnectFailed
+         */
+        void connect(String deviceAddress);
+
+        /**
+         * Drop a link (preemption); report completion with onDisconnected
+         */
+        void disconnect(String deviceAddress);
+    }
+
+    /**
+     * Scheduling events, called outside the scheduler lock
+     */
+    public interface Listener {
+        void onAdmitted(String deviceAddress, long waitedMs);
+        void onPreempted(String deviceAddress, String forDeviceAddress);
+        void onRequeued(String deviceAddress, int attempt);
+        void onGaveUp(String deviceAddress);
+    }
+
+    private enum LinkState {
+        CONNECTING,
+        CONNECTED,
+        DISCONNECTING
+    }
+
+    /**
+     * Device known to the scheduler, either waiting or holding a slot
+     */
+    private static class Entry {
+        final String deviceAddress;
+        int priority;
+        long requestTime;       // request or loss of the slot, for time-to-connect
+        long enqueueTime;       // aging starts here
+        int failedAttempts;
+        boolean queued;
+        LinkState state;        // null while waiting
+        long lastActivity;
+        boolean released;       // disconnect requested by the app, do not re-queue
+        Entry heir;             // waiting request this link is being preempted for
+        boolean hasVictim;      // a link is being preempted for this waiting request
+
+        Entry(String deviceAddress) {
+            this.deviceAddress = deviceAddress;
+        }
+    }
+
+    private final int maxConnections;
+    private final Connector connector;
+    private final LongSupplier clock;
+    private volatile Listener listener;
+
+    private long agingIntervalMs = DEFAULT_AGING_INTERVAL_MS;
+    private long idleTimeoutMs = DEFAULT_IDLE_TIMEOUT_MS;
+    private long retryPenaltyMs = DEFAULT_RETRY_PENALTY_MS;
+    private int maxAttempts = DEFAULT_MAX_ATTEMPTS;
+
+    // Guarded by this
+    private final Map<String, Entry> entries = new HashMap<>();
+    private final PriorityQueue<Entry> queue = new PriorityQueue<>(16, this::compareQueued);
+    private int slotsInUse = 0;
+    private long admittedCount = 0;
+    private long preemptedCount = 0;
+
+    public ConnectionScheduler(int maxConnections, Connector connector) {
+        this(maxConnections, connector, System::currentTimeMillis);
+    }
+
+    /**
+     * @param clock millisecond clock, virtual in simulations
+     */
+    public ConnectionScheduler(int maxConnections, Connector connector, LongSupplier clock) {
+        this.maxConnections = maxConnections;
+        this.connector = connector;
+        this.clock = clock;
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * @param agingIntervalMs waiting time worth one priority level
+     * @param idleTimeoutMs a link without activity for this long may be preempted
+     * @param retryPenaltyMs queue delay per failed attempt
+     * @param maxAttempts consecutive failures before a device is given up
+     */
+    public synchronized void configure(long agingIntervalMs, long idleTimeoutMs, long retryPenaltyMs, int maxAttempts) {
+        this.agingIntervalMs = Math.max(1, agingIntervalMs);
+        this.idleTimeoutMs = idleTimeoutMs;
+        this.retryPenaltyMs = retryPenaltyMs;
+        this.maxAttempts = maxAttempts;
+        // The queue order depends on the aging interval
+        List<Entry> waiting = new ArrayList<>(queue);
+        queue.clear();
+        queue.addAll(waiting);
+    }
+
+    // ======================== requests ========================
+
+    /**
+     * Ask for a connection slot; a repeated request for a waiting device only raises its priority
+     * @return true if the device was admitted right away (or already holds a slot)
+     */
+    public boolean request(String deviceAddress, int priority) {
+        List<Runnable> actions = new ArrayList<>();
+        boolean admitted;
+        synchronized (this) {
+            long now = clock.getAsLong();
+            Entry entry = entries.get(deviceAddress);
+            if (entry == null) {
+                entry = new Entry(deviceAddress);
+                entry.priority = priority;
+                entry.requestTime = now;
+                entries.put(deviceAddress, entry);
+                enqueue(entry, now);
+            } else if (entry.queued) {
+                if (priority > entry.priority) {
+                    queue.remove(entry);
+                    entry.priority = priority;
+                    queue.add(entry);
+                }
+            } else {
+                entry.priority = priority;
+                entry.released = false;
+            }
+            schedule(now, actions);
+            admitted = entry.state != null;
+        }
+        run(actions);
+        return admitted;
+    }
+
+    /**
+     * The app no longer wants the device: drop its request, or disconnect it if it holds a slot
+     */
+    public void release(String deviceAddress) {
+        List<Runnable> actions = new ArrayList<>();
+        synchronized (this) {
+            Entry entry = entries.get(deviceAddress);
+            if (entry == null) return;
+            entry.released = true;
+            if (entry.queued) {
+                queue.remove(entry);
+                entry.queued = false;
+                entries.remove(deviceAddress);
+            } else if (entry.state != LinkState.DISCONNECTING) {
+                entry.state = LinkState.DISCONNECTING;
+                actions.add(() -> connector.disconnect(deviceAddress));
+            }
+        }
+        run(actions);
+    }
+
+    /**
+     * Forget everything without calling the connector (e.g. Bluetooth turned off)
+     */
+    public synchronized void clear() {
+        entries.clear();
+        queue.clear();
+        slotsInUse = 0;
+    }
+
+    // ======================== GATT events ========================
+
+    public void onConnected(String deviceAddress) {
+        synchronized (this) {
+            Entry entry = entries.get(deviceAddress);
+            if (entry == null || entry.state != LinkState.CONNECTING) return;
+            entry.state = LinkState.CONNECTED;
+            entry.failedAttempts = 0;
+            entry.lastActivity = clock.getAsLong();
+        }
+    }
+
+    /**
+     * Traffic on the link (notification, read, write); resets its idle time
+     */
+    public void onActivity(String deviceAddress) {
+        synchronized (this) {
+            Entry entry = entries.get(deviceAddress);
+            if (entry != null && entry.state == LinkState.CONNECTED) {
+                entry.lastActivity = clock.getAsLong();
+            }
+        }
+    }
+
+    public void onConnectFailed(String deviceAddress) {
+        onLinkLost(deviceAddress, true);
+    }
+
+    /**
+     * Link gone: preempted, released, or dropped (re-queued unless released)
+     */
+    public void onDisconnected(String deviceAddress) {
+        onLinkLost(deviceAddress, false);
+    }
+
+    private void onLinkLost(String deviceAddress, boolean connectFailed) {
+        List<Runnable> actions = new ArrayList<>();
+        synchronized (this) {
+            Entry entry = entries.get(deviceAddress);
+            if (entry == null || entry.state == null) return;
+            boolean preempted = entry.state == LinkState.DISCONNECTING && !entry.released;
+            boolean dropped = connectFailed || entry.state != LinkState.DISCONNECTING;
+            entry.state = null;
+            slotsInUse--;
+            long now = clock.getAsLong();
+
+            // The slot of a preempted link goes to the request it was preempted for
+            Entry heir = entry.heir;
+            entry.heir = null;
+            if (heir != null && heir.queued) {
+                queue.remove(heir);
+                admit(heir, now, actions);
+            }
+
+            if (!entry.released) {
+                entry.requestTime = now; // time to connect counts from losing the slot
+            }
+            if (entry.released) {
+                entries.remove(deviceAddress);
+            } else if (preempted) {
+                enqueue(entry, now);
+            } else if (dropped && ++entry.failedAttempts < maxAttempts) {
+                enqueue(entry, now + retryPenaltyMs * entry.failedAttempts);
+                int attempt = entry.failedAttempts;
+                Listener l = listener;
+                if (l != null) actions.add(() -> l.onRequeued(deviceAddress, attempt));
+            } else {
+                Log.w(TAG, "Giving up on " + deviceAddress + " after " + entry.failedAttempts + " attempts");
+                entries.remove(deviceAddress);
+                Listener l = listener;
+                if (l != null) actions.add(() -> l.onGaveUp(deviceAddress));
+            }
+            schedule(now, actions);
+        }
+        run(actions);
+    }
+
+    /**
+     * Re-evaluate preemption; links become idle with time alone, so call this periodically
+     */
+    public void tick() {
+        List<Runnable> actions = new ArrayList<>();
+        synchronized (this) {
+            schedule(clock.getAsLong(), actions);
+        }
+        run(actions);
+    }
+
+    // ======================== scheduling ========================
+
+    private void enqueue(Entry entry, long enqueueTime) {
+        entry.enqueueTime = enqueueTime;
+        entry.queued = true;
+        queue.add(entry);
+    }
+
+    /**
+     * Higher priority first, aged by waiting time; equal scores in request order
+     */
+    private int compareQueued(Entry a, Entry b) {
+        long scoreA = a.priority * agingIntervalMs - a.enqueueTime;
+        long scoreB = b.priority * agingIntervalMs - b.enqueueTime;
+        if (scoreA != scoreB) return scoreA > scoreB ? -1 : 1;
+        return Long.compare(a.requestTime, b.requestTime);
+    }
+
+    // guarded by this
+    private void schedule(long now, List<Runnable> actions) {
+        // Admit into free slots
+        while (slotsInUse < maxConnections && !queue.isEmpty()) {
+            admit(queue.poll(), now, actions);
+        }
+        if (queue.isEmpty()) return;
+
+        // Preempt idle lower-priority links for higher-priority waiting requests, at most one each
+        List<Entry> waiting = new ArrayList<>(queue);
+        waiting.sort(this::compareQueued);
+        for (Entry candidate : waiting) {
+            if (candidate.hasVictim) continue;
+            Entry victim = findVictim(candidate.priority, now);
+            if (victim == null) continue;
+            victim.state = LinkState.DISCONNECTING;
+            victim.heir = candidate;
+            candidate.hasVictim = true;
+            preemptedCount++;
+            String victimAddress = victim.deviceAddress;
+            String forAddress = candidate.deviceAddress;
+            Log.d(TAG, "Preempting " + victimAddress + " (priority " + victim.priority
+                    + ") for " + forAddress + " (priority " + candidate.priority + ")");
+            actions.add(() -> connector.disconnect(victimAddress));
+            Listener l = listener;
+            if (l != null) actions.add(() -> l.onPreempted(victimAddress, forAddress));
+        }
+    }
+
+    /**
+     * Lowest-priority connected link idle for idleTimeoutMs with priority below the given one,
+     * the longest idle of those
+     */
+    private Entry findVictim(int priority, long now) {
+        Entry victim = null;
+        for (Entry entry : entries.values()) {
+            if (entry.state != LinkState.CONNECTED || entry.priority >= priority) continue;
+            if (now - entry.lastActivity < idleTimeoutMs) continue;
+            if (victim == null || entry.priority < victim.priority
+                    || (entry.priority == victim.priority && entry.lastActivity < victim.lastActivity)) {
+                victim = entry;
+            }
+        }
+        return victim;
+    }
+
+    private void admit(Entry entry, long now, List<Runnable> actions) {
+        entry.queued = false;
+        entry.hasVictim = false;
+        entry.state = LinkState.CONNECTING;
+        slotsInUse++;
+        admittedCount++;
+        String address = entry.deviceAddress;
+        long waited = now - entry.requestTime;
+        actions.add(() -> connector.connect(address));
+        Listener l = listener;
+        if (l != null) actions.add(() -> l.onAdmitted(address, waited));
+    }
+
+    private static void run(List<Runnable> actions) {
+        for (Runnable action : actions) {
+            action.run();
+        }
+    }
+
+    // ======================== state ========================
+
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    public synchronized int getSlotsInUse() {
+        return slotsInUse;
+    }
+
+    public synchronized int getWaitingCount() {
+        return queue.size();
+    }
+
+    public synchronized boolean isWaiting(String deviceAddress) {
+        Entry entry = entries.get(deviceAddress);
+        return entry != null && entry.queued;
+    }
+
+    public synchronized long getAdmittedCount() {
+        return admittedCount;
+    }
+
+    public synchronized long getPreemptedCount() {
+        return preemptedCount;
+    }
+}
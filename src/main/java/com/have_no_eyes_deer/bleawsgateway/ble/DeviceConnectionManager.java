@@ -1,5 +1,6 @@
 package com.have_no_eyes_deer.bleawsgateway.ble;
 
+import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
 import android.bluetooth.BluetoothGatt;
 import android.bluetooth.BluetoothGattCallback;
@@ -7,21 +8,40 @@ import android.bluetooth.BluetoothGattCharacteristic;
 import android.bluetooth.BluetoothGattDescriptor;
 import android.bluetooth.BluetoothGattService;
 import android.bluetooth.BluetoothProfile;
+import android.bluetooth.BluetoothSocket;
+import android.bluetooth.BluetoothStatusCodes;
 import android.content.Context;
+import android.os.Build;
+import android.os.Debug;
 import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.Looper;
+import android.os.SystemClock;
 import android.util.Log;
 
+import com.have_no_eyes_deer.bleawsgateway.pipeline.NotificationRingBuffer;
+
+import androidx.annotation.RequiresApi;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.UUID;
 
 /**
  * 多设备连接管理器
  * 负责管理多个BLE设备的连接状态、重连机制和资源限制
+ * 连接槽位由ConnectionScheduler按优先级分配：超出上限的请求排队等待，空闲的低优先级连接可被抢占
  */
 public class DeviceConnectionManager {
     private static final String TAG = "DeviceConnectionManager";
@@ -29,36 +49,84 @@ public class DeviceConnectionManager {
     
     // 连接限制常量
     private static final int MAX_CONCURRENT_CONNECTIONS = 5; // Android设备通常支持5-7个并发连接
-    private static final int RECONNECT_DELAY_MS = 3000; // 重连延迟3秒
+    private static final int RECONNECT_DELAY_MS = 3000; // 重连排队惩罚（每次失败3秒）
     private static final int MAX_RECONNECT_ATTEMPTS = 3; // 最大重连次数
+    private static final long PRIORITY_AGING_MS = 10_000; // 每等待10秒相当于提升一级优先级
+    private static final long PREEMPT_IDLE_MS = 30_000;   // 空闲30秒的连接可被更高优先级设备抢占
+    private static final long SCHEDULER_TICK_MS = 5_000;  // 有请求排队时定期检查抢占
+    // 调度器只需秒级的空闲时间：数据路径每秒最多报告一次活动，不必每条通知都取调度器的锁
+    private static final long ACTIVITY_REPORT_NANOS = 1_000_000_000L;
+    private static final int POLLING_PRIORITY = 0;        // 轮询访问让位于常规连接
+    private static final long POLLING_TICK_MS = 250;
+    private static final String SERVICE_CACHE_FILE = "gatt_service_cache";
+    private static final long OPERATION_TICK_MS = 500;    // GATT操作超时检查间隔
+    private static final long THROUGHPUT_TEST_TICK_MS = 250;
+    // 通道帧经GatewayPipeline的环形缓冲区转发，超过槽位大小的帧会在那里被丢弃
+    private static final int L2CAP_MAX_FRAME_LENGTH = NotificationRingBuffer.DEFAULT_SLOT_SIZE;
+    private static final int DEFAULT_CALLBACK_THREADS = 2; // SHARED模式的线程数
     
     private Context context;
     private Handler mainHandler;
     private ExecutorService executorService;
     
+    // 设备注册表：地址只在边界处查一次，之后按紧凑的设备ID读写状态
+    private final DeviceRegistry deviceRegistry;
+    
     // 连接池管理
     private Map<String, BluetoothGatt> activeConnections = new ConcurrentHashMap<>();
     private Map<String, DeviceConnectionInfo> connectionInfoMap = new ConcurrentHashMap<>();
-    private Map<String, BluetoothGattCharacteristic> notifyCharacteristics = new ConcurrentHashMap<>();
+    // 设备的全部notify/indicate特征（多传感器外设每个传感器一个特征）
+    private Map<String, List<BluetoothGattCharacteristic>> notifyCharacteristics = new ConcurrentHashMap<>();
     private Map<String, BluetoothGattCharacteristic> writeCharacteristics = new ConcurrentHashMap<>();
+    // 持久化的特征UUID缓存，重连时直接按UUID查找
+    private final GattServiceCache serviceCache;
+    // 已开启通知的设备，意外断开重连后直接写CCC恢复订阅
+    private final Set<String> subscribedDevices = ConcurrentHashMap.newKeySet();
+    // 每条链路的GATT操作队列，所有读写都经由队列串行执行
+    private Map<String, GattOperationQueue> operationQueues = new ConcurrentHashMap<>();
+    private final GattOperationQueue.Stats operationStats = new GattOperationQueue.Stats();
+    
+    // GATT回调线程：每条链路的回调、操作队列超时检查和连接请求都在其线程上执行，未分配线程的链路用主线程
+    private volatile GattThreadPool<GattLane> threadPool;
+    private final GattLane mainLane;
     
-    // 连接队列管理
+    // 链路参数：连接后、开启通知前应用
+    private volatile LinkProfile defaultLinkProfile = LinkProfile.BALANCED;
+    private Map<String, LinkProfile> linkProfiles = new ConcurrentHashMap<>();
+    
+    // L2CAP传输：设备就绪后在GATT连接之外再打开CoC通道，批量数据走通道
+    private Map<String, L2capTransport> l2capTransports = new ConcurrentHashMap<>();
+    private Map<String, L2capChannel> l2capChannels = new ConcurrentHashMap<>();
+    
+    // 连接队列管理：调度器已知的请求（排队中或已占用槽位），按地址取回BluetoothDevice
     private Map<String, ConnectionRequest> pendingConnections = new ConcurrentHashMap<>();
+    private final ConnectionScheduler scheduler;
+    
+    // 轮询模式（null表示未启用）
+    private volatile RoundRobinPoller poller;
     
     // 监听器
     private DeviceConnectionListener connectionListener;
-    private GattDataListener gattDataListener;
+    private volatile GattDataListener gattDataListener;
     
     /**
      * 设备连接信息
      */
     public static class DeviceConnectionInfo {
         public String deviceAddress;
+        public int deviceId = DeviceRegistry.NO_ID;    // DeviceRegistry中的ID
         public String deviceName;
         public long connectTime;
         public int reconnectAttempts;
         public boolean isReconnecting;
         public ConnectionState state;
+        public long discoveryStartTime;     // discoverServices()调用时间
+        public boolean servicesFromCache;   // 本次特征来自GattServiceCache
+        public LinkProfile linkProfile;     // 已应用的链路参数
+        public int mtu = LinkProfile.DEFAULT_MTU;
+        public volatile long bytesReceived; // 通知负载字节数，吞吐量测试用
+        // 每个notify/indicate特征的数据流统计，特征对象按引用比较，查找不分配内存
+        public final Map<BluetoothGattCharacteristic, StreamStats> streams = new ConcurrentHashMap<>();
         
         public enum ConnectionState {
             DISCONNECTED,
@@ -79,6 +147,48 @@ public class DeviceConnectionManager {
         }
     }
     
+    /**
+     * 单个特征的数据流统计
+     */
+    public static class StreamStats {
+        public final UUID serviceUuid;
+        public final UUID characteristicUuid;
+        public final boolean indicate;      // 特征只支持indicate
+        public volatile long notifications;
+        public volatile long bytes;
+        public volatile long firstNanos;    // 第一条数据的elapsedRealtimeNanos
+        public volatile long lastNanos;
+        
+        public StreamStats(UUID serviceUuid, UUID characteristicUuid, boolean indicate) {
+            this.serviceUuid = serviceUuid;
+            this.characteristicUuid = characteristicUuid;
+            this.indicate = indicate;
+        }
+        
+        void record(int length, long timestampNanos) {
+            if (notifications == 0) {
+                firstNanos = timestampNanos;
+            }
+            notifications++;
+            bytes += length;
+            lastNanos = timestampNanos;
+        }
+        
+        /**
+         * 第一条到最后一条数据之间的平均字节/秒
+         */
+        public double getBytesPerSecond() {
+            long elapsed = lastNanos - firstNanos;
+            return elapsed > 0 ? bytes * 1e9 / elapsed : 0;
+        }
+        
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%s%s: %d values, %d bytes, %.0f B/s", characteristicUuid,
+                    indicate ? " (indicate)" : "", notifications, bytes, getBytesPerSecond());
+        }
+    }
+    
     /**
      * 连接请求
      */
@@ -108,15 +218,168 @@ public class DeviceConnectionManager {
 
     /**
      * GATT数据监听器（供上层接收通知数据）
+     * value在回调线程上取得，之后不会被下一条通知覆盖；timestampNanos为SystemClock.elapsedRealtimeNanos()
      */
     public interface GattDataListener {
-        void onCharacteristicChanged(String deviceAddress, String deviceName, BluetoothGattCharacteristic characteristic);
+        /**
+         * @param deviceId 设备在DeviceRegistry中的ID，下游按ID查表，不必再对地址求哈希
+         */
+        void onCharacteristicChanged(int deviceId, String deviceAddress, String deviceName,
+                                     BluetoothGattCharacteristic characteristic, byte[] value, long timestampNanos);
+        
+        /**
+         * L2CAP通道的一帧，在通道读线程上回调；buffer仅在回调期间有效，阻塞会让外设停止发送
+         * @param sourceKey L2capChannel.sourceKey(psm)，代替特征UUID
+         */
+        default void onChannelFrame(int deviceId, String deviceAddress, String deviceName, String sourceKey,
+                                    byte[] buffer, int offset, int length, long timestampNanos) {
+        }
+    }
+    
+    /**
+     * 设备的L2CAP传输配置
+     */
+    private static class L2capTransport {
+        final int psm;
+        final int creditWindow;
+        
+        L2capTransport(int psm, int creditWindow) {
+            this.psm = psm;
+            this.creditWindow = creditWindow;
+        }
+    }
+    
+    /**
+     * 链路的回调线程及其操作队列超时检查
+     */
+    private final class GattLane implements GattThreadPool.Lane {
+        final HandlerThread thread;     // null表示主线程
+        final Handler handler;
+        final AtomicBoolean tickScheduled = new AtomicBoolean();
+        
+        GattLane(HandlerThread thread, Handler handler) {
+            this.thread = thread;
+            this.handler = handler;
+        }
+        
+        void scheduleTick() {
+            if (tickScheduled.compareAndSet(false, true)) {
+                handler.postDelayed(operationTick, OPERATION_TICK_MS);
+            }
+        }
+        
+        final Runnable operationTick = new Runnable() {
+            @Override
+            public void run() {
+                if (tickQueues(true)) {
+                    handler.postDelayed(this, OPERATION_TICK_MS);
+                    return;
+                }
+                tickScheduled.set(false);
+                // 与并发入队竞争：入队方看到标志仍为true时不会重新调度
+                if (tickQueues(false) && tickScheduled.compareAndSet(false, true)) {
+                    handler.postDelayed(this, OPERATION_TICK_MS);
+                }
+            }
+        };
+        
+        /**
+         * @return 本线程上是否还有未完成的操作
+         */
+        private boolean tickQueues(boolean tick) {
+            boolean busy = false;
+            for (Map.Entry<String, GattOperationQueue> entry : operationQueues.entrySet()) {
+                if (laneFor(entry.getKey()) != this) continue;
+                if (tick) entry.getValue().tick();
+                busy |= entry.getValue().getDepth() > 0;
+            }
+            return busy;
+        }
+        
+        @Override
+        public void quit() {
+            handler.removeCallbacks(operationTick);
+            tickScheduled.set(false);
+            if (thread != null) {
+                thread.quitSafely();
+            }
+        }
     }
     
     public DeviceConnectionManager(Context context) {
+        this(context, DeviceRegistry.getShared());
+    }
+    
+    /**
+     * @param deviceRegistry 与扫描和界面共享的设备注册表
+     */
+    public DeviceConnectionManager(Context context, DeviceRegistry deviceRegistry) {
         this.context = context;
+        this.deviceRegistry = deviceRegistry;
         this.mainHandler = new Handler(Looper.getMainLooper());
+        this.mainLane = new GattLane(null, mainHandler);
+        this.threadPool = createThreadPool(Build.VERSION.SDK_INT >= Build.VERSION_CODES.O
+                ? GattThreadPool.Mode.PER_LINK : GattThreadPool.Mode.BINDER, DEFAULT_CALLBACK_THREADS);
         this.executorService = Executors.newCachedThreadPool();
+        this.serviceCache = new GattServiceCache(new File(context.getFilesDir(), SERVICE_CACHE_FILE));
+        this.scheduler = new ConnectionScheduler(MAX_CONCURRENT_CONNECTIONS, new ConnectionScheduler.Connector() {
+            @Override
+            public void connect(String deviceAddress) {
+                // 槽位常在GATT回调线程上释放，connectGatt放到链路自己的线程（BINDER模式为主线程）
+                GattThreadPool<GattLane> pool = threadPool;
+                GattLane lane = pool.acquire(deviceAddress);
+                boolean posted = (lane != null ? lane.handler : mainHandler).post(() -> {
+                    ConnectionRequest request = pendingConnections.get(deviceAddress);
+                    if (request == null || !executeConnection(request.device)) {
+                        pool.release(deviceAddress);
+                        scheduler.onConnectFailed(deviceAddress);
+                    }
+                });
+                if (!posted) {
+                    // 线程已退出（切换线程模式或cleanup）
+                    pool.release(deviceAddress);
+                    scheduler.onConnectFailed(deviceAddress);
+                }
+            }
+
+            @Override
+            public void disconnect(String deviceAddress) {
+                BluetoothGatt gatt = activeConnections.get(deviceAddress);
+                if (gatt != null) {
+                    gatt.disconnect();
+                } else {
+                    scheduler.onDisconnected(deviceAddress);
+                }
+            }
+        });
+        scheduler.configure(PRIORITY_AGING_MS, PREEMPT_IDLE_MS, RECONNECT_DELAY_MS, MAX_RECONNECT_ATTEMPTS);
+        scheduler.setListener(new ConnectionScheduler.Listener() {
+            @Override
+            public void onAdmitted(String deviceAddress, long waitedMs) {
+                Log.d(TAG, "Connection slot granted: " + deviceAddress + " after " + waitedMs + "ms");
+            }
+
+            @Override
+            public void onPreempted(String deviceAddress, String forDeviceAddress) {
+                Log.d(TAG, "Idle link " + deviceAddress + " preempted for " + forDeviceAddress);
+            }
+
+            @Override
+            public void onRequeued(String deviceAddress, int attempt) {
+                if (connectionListener != null) {
+                    connectionListener.onDeviceReconnecting(deviceAddress, attempt);
+                }
+            }
+
+            @Override
+            public void onGaveUp(String deviceAddress) {
+                pendingConnections.remove(deviceAddress);
+                if (connectionListener != null) {
+                    connectionListener.onConnectionFailed(deviceAddress,
+                            "Gave up after " + MAX_RECONNECT_ATTEMPTS + " attempts");
+                }
+            }
+        });
     }
     
     /**
@@ -130,11 +393,77 @@ public class DeviceConnectionManager {
         this.gattDataListener = listener;
     }
     
+    public DeviceRegistry getDeviceRegistry() {
+        return deviceRegistry;
+    }
+    
+    /**
+     * 同步更新连接信息和注册表中的连接状态
+     */
+    private void setState(DeviceConnectionInfo info, DeviceConnectionInfo.ConnectionState state) {
+        info.state = state;
+        if (info.deviceId != DeviceRegistry.NO_ID) {
+            deviceRegistry.setState(info.deviceId, state);
+        }
+    }
+    
+    // ======================== 回调线程 ========================
+    
+    /**
+     * 设置GATT回调的线程模式，只能在没有连接时切换
+     * @param poolSize SHARED模式的线程数
+     */
+    public void setCallbackThreading(GattThreadPool.Mode mode, int poolSize) {
+        if (!activeConnections.isEmpty()) {
+            throw new IllegalStateException("Callback threading can only change without connections");
+        }
+        if (mode != GattThreadPool.Mode.BINDER && Build.VERSION.SDK_INT < Build.VERSION_CODES.O) {
+            // connectGatt()带Handler的重载需要API 26
+            Log.w(TAG, "Callback threads need API 26, staying on binder threads");
+            mode = GattThreadPool.Mode.BINDER;
+        }
+        GattThreadPool<GattLane> previous = threadPool;
+        threadPool = createThreadPool(mode, poolSize);
+        previous.shutdown();
+        Log.d(TAG, "GATT callback threading: " + mode + (mode == GattThreadPool.Mode.SHARED ? " x" + poolSize : ""));
+    }
+    
+    public GattThreadPool.Mode getCallbackThreadingMode() {
+        return threadPool.getMode();
+    }
+    
+    /**
+     * 各回调线程的CPU时间和回调到交给数据通路的延迟
+     */
+    public List<GattThreadPool.ThreadStats> getCallbackThreadStats() {
+        return threadPool.getThreadStats();
+    }
+    
+    public void resetCallbackThreadStats() {
+        threadPool.resetStats();
+    }
+    
+    private GattThreadPool<GattLane> createThreadPool(GattThreadPool.Mode mode, int poolSize) {
+        return new GattThreadPool<>(mode, poolSize, "gatt-link-", name -> {
+            HandlerThread thread = new HandlerThread(name);
+            thread.start();
+            return new GattLane(thread, new Handler(thread.getLooper()));
+        });
+    }
+    
+    private GattLane laneFor(String deviceAddress) {
+        GattLane lane = threadPool.laneOf(deviceAddress);
+        return lane != null ? lane : mainLane;
+    }
+    
     /**
      * 连接设备
+     * 槽位已满时请求进入优先级队列，槽位释放或抢占后自动连接
+     * @return true 已连接、正在连接或已排队
      */
     public boolean connectDevice(BluetoothDevice device, int priority) {
         String address = device.getAddress();
+        deviceRegistry.register(address);
         
         // 检查是否已经连接
         if (activeConnections.containsKey(address)) {
@@ -142,23 +471,40 @@ public class DeviceConnectionManager {
             return true;
         }
         
-        // 检查连接数量限制
-        if (activeConnections.size() >= MAX_CONCURRENT_CONNECTIONS) {
-            Log.w(TAG, "Max connections reached: " + MAX_CONCURRENT_CONNECTIONS);
+        // 创建连接请求（重复请求只提升优先级）
+        ConnectionRequest request = pendingConnections.get(address);
+        if (request == null) {
+            pendingConnections.put(address, new ConnectionRequest(device, priority));
+        } else {
+            request.priority = Math.max(request.priority, priority);
+        }
+        
+        // 交给调度器分配槽位
+        if (!scheduler.request(address, priority)) {
+            Log.w(TAG, "Max connections reached: " + MAX_CONCURRENT_CONNECTIONS + ", queued " + address
+                    + " (priority " + priority + ", " + scheduler.getWaitingCount() + " waiting)");
             if (connectionListener != null) {
                 connectionListener.onMaxConnectionsReached();
             }
-            return false;
+            mainHandler.removeCallbacks(schedulerTick);
+            mainHandler.postDelayed(schedulerTick, SCHEDULER_TICK_MS);
         }
-        
-        // 创建连接请求
-        ConnectionRequest request = new ConnectionRequest(device, priority);
-        pendingConnections.put(address, request);
-        
-        // 执行连接
-        return executeConnection(device);
+        return true;
     }
     
+    /**
+     * 定期检查抢占（连接随时间变为空闲）
+     */
+    private final Runnable schedulerTick = new Runnable() {
+        @Override
+        public void run() {
+            scheduler.tick();
+            if (scheduler.getWaitingCount() > 0) {
+                mainHandler.postDelayed(this, SCHEDULER_TICK_MS);
+            }
+        }
+    };
+    
     /**
      * 执行设备连接
      */
@@ -168,21 +514,30 @@ public class DeviceConnectionManager {
         
         // 创建连接信息
         DeviceConnectionInfo info = new DeviceConnectionInfo(address, name);
-        info.state = DeviceConnectionInfo.ConnectionState.CONNECTING;
+        info.deviceId = deviceRegistry.register(address);
+        deviceRegistry.setName(info.deviceId, device.getName());
+        setState(info, DeviceConnectionInfo.ConnectionState.CONNECTING);
         connectionInfoMap.put(address, info);
         
         Log.d(TAG, "Connecting to device: " + name + " (" + address + ")");
         
-        // 创建GATT连接
-        BluetoothGatt gatt = device.connectGatt(context, false, gattCallback);
+        // 创建GATT连接；分配了线程的链路把回调交给该线程的Handler
+        GattLane lane = threadPool.laneOf(address);
+        BluetoothGatt gatt;
+        if (lane != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            gatt = device.connectGatt(context, false, new LinkCallback(info), BluetoothDevice.TRANSPORT_LE,
+                    BluetoothDevice.PHY_LE_1M_MASK, lane.handler);
+        } else {
+            gatt = device.connectGatt(context, false, new LinkCallback(info));
+        }
         if (gatt != null) {
             activeConnections.put(address, gatt);
             notifyConnectionPoolStatusChanged();
             return true;
         } else {
             Log.e(TAG, "Failed to create GATT connection for: " + address);
+            setState(info, DeviceConnectionInfo.ConnectionState.DISCONNECTED);
             connectionInfoMap.remove(address);
-            pendingConnections.remove(address);
             if (connectionListener != null) {
                 connectionListener.onConnectionFailed(address, "Failed to create GATT connection");
             }
@@ -190,15 +545,99 @@ public class DeviceConnectionManager {
         }
     }
     
+    // ======================== 轮询模式 ========================
+    
+    /**
+     * 启动轮询模式：按名单轮流连接、收集、断开，以服务超过连接上限的慢速传感器
+     * @param lanes 同时访问的设备数，不超过最大连接数
+     */
+    public void startRoundRobinPolling(List<RoundRobinPoller.RosterEntry> roster, int lanes) {
+        stopRoundRobinPolling();
+        RoundRobinPoller newPoller = new RoundRobinPoller(roster,
+                Math.min(lanes, MAX_CONCURRENT_CONNECTIONS), new RoundRobinPoller.Link() {
+            @Override
+            public void connect(String deviceAddress, RoundRobinPoller.Mode mode) {
+                BluetoothAdapter adapter = BluetoothAdapter.getDefaultAdapter();
+                if (adapter == null) {
+                    mainHandler.post(() -> poller.onLinkLost(deviceAddress));
+                    return;
+                }
+                connectDevice(adapter.getRemoteDevice(deviceAddress), POLLING_PRIORITY);
+            }
+
+            @Override
+            public void disconnect(String deviceAddress) {
+                disconnectDevice(deviceAddress);
+            }
+        });
+        poller = newPoller;
+        Log.d(TAG, "Round-robin polling " + roster.size() + " devices over " + lanes + " lanes");
+        newPoller.start();
+        mainHandler.postDelayed(pollingTick, POLLING_TICK_MS);
+    }
+    
+    public void stopRoundRobinPolling() {
+        RoundRobinPoller current = poller;
+        if (current == null) return;
+        mainHandler.removeCallbacks(pollingTick);
+        current.stop();
+        for (RoundRobinPoller.DeviceReport row : current.getReport()) {
+            Log.d(TAG, "Polling result " + row);
+        }
+    }
+    
+    /**
+     * 轮询模式下每个设备的实际采样率与目标对比（未启用时为空）
+     */
+    public List<RoundRobinPoller.DeviceReport> getPollingReport() {
+        RoundRobinPoller current = poller;
+        return current != null ? current.getReport() : Collections.emptyList();
+    }
+    
+    private final Runnable pollingTick = new Runnable() {
+        @Override
+        public void run() {
+            RoundRobinPoller current = poller;
+            if (current != null && current.isRunning()) {
+                current.tick();
+                mainHandler.postDelayed(this, POLLING_TICK_MS);
+            }
+        }
+    };
+    
+    /**
+     * 轮询访问：服务就绪后订阅通知或读取一次
+     */
+    private void startPollingVisit(BluetoothGatt gatt, RoundRobinPoller current, RoundRobinPoller.Mode mode) {
+        String deviceAddress = gatt.getDevice().getAddress();
+        // READ模式读取第一个特征
+        BluetoothGattCharacteristic characteristic = getNotifyCharacteristic(deviceAddress);
+        boolean started;
+        if (characteristic == null) {
+            started = false;
+        } else if (mode == RoundRobinPoller.Mode.READ) {
+            started = enqueueOperation(deviceAddress, new GattOperationQueue.Operation(
+                    GattOperationQueue.Type.READ, characteristic, null, null));
+        } else {
+            started = enableNotification(deviceAddress);
+        }
+        if (started) {
+            current.onReady(deviceAddress);
+        } else {
+            Log.w(TAG, "Polling visit could not start for: " + deviceAddress);
+            current.onLinkLost(deviceAddress);
+        }
+    }
+    
     /**
      * 断开设备连接
      */
     public void disconnectDevice(String deviceAddress) {
-        BluetoothGatt gatt = activeConnections.get(deviceAddress);
-        if (gatt != null) {
-            Log.d(TAG, "Disconnecting device: " + deviceAddress);
-            gatt.disconnect();
-        }
+        Log.d(TAG, "Disconnecting device: " + deviceAddress);
+        pendingConnections.remove(deviceAddress);
+        subscribedDevices.remove(deviceAddress);
+        // 排队中的请求直接取消，已占用槽位的由调度器断开
+        scheduler.release(deviceAddress);
     }
     
     /**
@@ -206,6 +645,9 @@ public class DeviceConnectionManager {
      */
     public void disconnectAllDevices() {
         Log.d(TAG, "Disconnecting all devices");
+        for (String address : new ArrayList<>(pendingConnections.keySet())) {
+            disconnectDevice(address);
+        }
         for (BluetoothGatt gatt : activeConnections.values()) {
             gatt.disconnect();
         }
@@ -218,6 +660,13 @@ public class DeviceConnectionManager {
         return activeConnections.size();
     }
     
+    /**
+     * 特征缓存及其命中率、节省的发现时间
+     */
+    public GattServiceCache getServiceCache() {
+        return serviceCache;
+    }
+    
     /**
      * 获取最大连接数量
      */
@@ -225,6 +674,20 @@ public class DeviceConnectionManager {
         return MAX_CONCURRENT_CONNECTIONS;
     }
     
+    /**
+     * 排队等待连接槽位的设备数量
+     */
+    public int getWaitingConnectionCount() {
+        return scheduler.getWaitingCount();
+    }
+    
+    /**
+     * 检查设备是否在排队等待连接
+     */
+    public boolean isDeviceWaiting(String deviceAddress) {
+        return scheduler.isWaiting(deviceAddress);
+    }
+    
     /**
      * 检查设备是否已连接
      */
@@ -250,10 +713,35 @@ public class DeviceConnectionManager {
     }
     
     /**
-     * 获取通知特征
+     * 获取第一个通知特征
      */
     public BluetoothGattCharacteristic getNotifyCharacteristic(String deviceAddress) {
-        return notifyCharacteristics.get(deviceAddress);
+        List<BluetoothGattCharacteristic> characteristics = notifyCharacteristics.get(deviceAddress);
+        return characteristics != null && !characteristics.isEmpty() ? characteristics.get(0) : null;
+    }
+    
+    /**
+     * 获取全部notify/indicate特征
+     */
+    public List<BluetoothGattCharacteristic> getNotifyCharacteristics(String deviceAddress) {
+        List<BluetoothGattCharacteristic> characteristics = notifyCharacteristics.get(deviceAddress);
+        return characteristics != null ? characteristics : Collections.emptyList();
+    }
+    
+    /**
+     * 设备各特征的数据流统计，按特征发现顺序
+     */
+    public List<StreamStats> getStreamStats(String deviceAddress) {
+        DeviceConnectionInfo info = connectionInfoMap.get(deviceAddress);
+        List<StreamStats> stats = new ArrayList<>();
+        if (info == null) return stats;
+        for (BluetoothGattCharacteristic characteristic : getNotifyCharacteristics(deviceAddress)) {
+            StreamStats stream = info.streams.get(characteristic);
+            if (stream != null) {
+                stats.add(stream);
+            }
+        }
+        return stats;
     }
     
     /**
@@ -264,59 +752,367 @@ public class DeviceConnectionManager {
     }
     
     /**
-     * 启用通知
+     * 启用通知：订阅设备的全部notify/indicate特征。
+     * 每个CCC写入单独进入链路的GATT操作队列，前一个完成后才发出下一个。
+     * @return 至少一个特征已入队
      */
     public boolean enableNotification(String deviceAddress) {
         BluetoothGatt gatt = activeConnections.get(deviceAddress);
-        BluetoothGattCharacteristic characteristic = notifyCharacteristics.get(deviceAddress);
-        
-        if (gatt != null && characteristic != null) {
-            gatt.setCharacteristicNotification(characteristic, true);
+        if (gatt == null) return false;
+        boolean enqueued = false;
+        for (BluetoothGattCharacteristic characteristic : getNotifyCharacteristics(deviceAddress)) {
             BluetoothGattDescriptor descriptor = characteristic.getDescriptor(CCC_UUID);
-            if (descriptor != null) {
-                descriptor.setValue(BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE);
-                return gatt.writeDescriptor(descriptor);
+            if (descriptor == null) {
+                Log.w(TAG, "No CCC descriptor on " + characteristic.getUuid() + " of: " + deviceAddress);
+                continue;
             }
-            return false;
+            gatt.setCharacteristicNotification(characteristic, true);
+            byte[] value = (characteristic.getProperties() & BluetoothGattCharacteristic.PROPERTY_NOTIFY) != 0
+                    ? BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE
+                    : BluetoothGattDescriptor.ENABLE_INDICATION_VALUE;
+            enqueued |= enqueueOperation(deviceAddress, new GattOperationQueue.Operation(
+                    GattOperationQueue.Type.WRITE_DESCRIPTOR, descriptor, value, null));
         }
-        return false;
+        if (enqueued) {
+            subscribedDevices.add(deviceAddress);
+        }
+        return enqueued;
     }
 
     /**
-     * 关闭通知
+     * 关闭通知：全部特征
      */
     public boolean disableNotification(String deviceAddress) {
+        subscribedDevices.remove(deviceAddress);
         BluetoothGatt gatt = activeConnections.get(deviceAddress);
-        BluetoothGattCharacteristic characteristic = notifyCharacteristics.get(deviceAddress);
-        if (gatt != null && characteristic != null) {
+        if (gatt == null) return false;
+        boolean enqueued = false;
+        for (BluetoothGattCharacteristic characteristic : getNotifyCharacteristics(deviceAddress)) {
             gatt.setCharacteristicNotification(characteristic, false);
             BluetoothGattDescriptor descriptor = characteristic.getDescriptor(CCC_UUID);
             if (descriptor != null) {
-                descriptor.setValue(BluetoothGattDescriptor.DISABLE_NOTIFICATION_VALUE);
-                return gatt.writeDescriptor(descriptor);
+                enqueued |= enqueueOperation(deviceAddress, new GattOperationQueue.Operation(
+                        GattOperationQueue.Type.WRITE_DESCRIPTOR, descriptor,
+                        BluetoothGattDescriptor.DISABLE_NOTIFICATION_VALUE, null));
             }
         }
-        return false;
+        return enqueued;
     }
     
     /**
      * 发送数据
      */
     public boolean sendData(String deviceAddress, byte[] data) {
-        BluetoothGatt gatt = activeConnections.get(deviceAddress);
+        return sendData(deviceAddress, data, null);
+    }
+    
+    /**
+     * 发送数据：进入设备的GATT操作队列，特征只支持无响应写入时按流水线发送
+     * @param callback 写入完成或最终失败时回调，可为null
+     * @return 是否已入队
+     */
+    public boolean sendData(String deviceAddress, byte[] data, GattOperationQueue.Callback callback) {
         BluetoothGattCharacteristic characteristic = writeCharacteristics.get(deviceAddress);
+        if (characteristic == null) return false;
         
-        if (gatt != null && characteristic != null) {
-            characteristic.setValue(data);
-            return gatt.writeCharacteristic(characteristic);
+        scheduler.onActivity(deviceAddress);
+        int properties = characteristic.getProperties();
+        GattOperationQueue.Type type = (properties & BluetoothGattCharacteristic.PROPERTY_WRITE) == 0
+                && (properties & BluetoothGattCharacteristic.PROPERTY_WRITE_NO_RESPONSE) != 0
+                ? GattOperationQueue.Type.WRITE_NO_RESPONSE : GattOperationQueue.Type.WRITE;
+        return enqueueOperation(deviceAddress, new GattOperationQueue.Operation(type, characteristic, data, callback));
+    }
+    
+    /**
+     * 请求MTU，结果在onMtuChanged中完成
+     */
+    public boolean requestMtu(String deviceAddress, int mtu, GattOperationQueue.Callback callback) {
+        return enqueueOperation(deviceAddress, GattOperationQueue.Operation.requestMtu(mtu, callback));
+    }
+    
+    /**
+     * 所有链路共享的GATT操作统计（队列深度、各类操作延迟直方图）
+     */
+    public GattOperationQueue.Stats getOperationStats() {
+        return operationStats;
+    }
+    
+    public int getOperationQueueDepth(String deviceAddress) {
+        GattOperationQueue queue = operationQueues.get(deviceAddress);
+        return queue != null ? queue.getDepth() : 0;
+    }
+    
+    // ======================== 链路参数 ========================
+    
+    /**
+     * 未单独配置的设备使用的链路参数
+     */
+    public void setDefaultLinkProfile(LinkProfile profile) {
+        defaultLinkProfile = profile != null ? profile : LinkProfile.DEFAULT;
+    }
+    
+    /**
+     * 设备的链路参数，下次连接时生效；已连接的设备立即应用
+     * @param profile null恢复为默认参数
+     */
+    public void setLinkProfile(String deviceAddress, LinkProfile profile) {
+        if (profile != null) {
+            linkProfiles.put(deviceAddress, profile);
+        } else {
+            linkProfiles.remove(deviceAddress);
+        }
+        BluetoothGatt gatt = activeConnections.get(deviceAddress);
+        DeviceConnectionInfo info = connectionInfoMap.get(deviceAddress);
+        if (gatt != null && info != null && info.state == DeviceConnectionInfo.ConnectionState.READY) {
+            applyLinkProfile(gatt, info, profile != null ? profile : defaultLinkProfile);
         }
-        return false;
+    }
+    
+    private void applyLinkProfile(BluetoothGatt gatt, DeviceConnectionInfo info, LinkProfile profile) {
+        String deviceAddress = info.deviceAddress;
+        info.linkProfile = profile;
+        if (profile.connectionPriority != null && !gatt.requestConnectionPriority(profile.connectionPriority.gattValue)) {
+            Log.w(TAG, "Connection priority request rejected for: " + deviceAddress);
+        }
+        if (profile.preferTwoMegPhy && Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            gatt.setPreferredPhy(BluetoothDevice.PHY_LE_2M_MASK, BluetoothDevice.PHY_LE_2M_MASK,
+                    BluetoothDevice.PHY_OPTION_NO_PREFERRED);
+        }
+        // MTU只能增大，协商结果在onMtuChanged中记录
+        if (profile.targetMtu > info.mtu) {
+            requestMtu(deviceAddress, profile.targetMtu, null);
+        }
+        Log.d(TAG, "Applied link profile " + profile + " to: " + deviceAddress);
     }
     
     /**
-     * GATT回调
+     * 吞吐量测试：依次应用各链路参数并测量该设备通知的字节/秒
+     * @param profiles 按MTU从小到大排列（同一连接内MTU无法减小）
+     * @return 设备未就绪时返回false
      */
-    private final BluetoothGattCallback gattCallback = new BluetoothGattCallback() {
+    public boolean startThroughputTest(String deviceAddress, List<LinkProfile> profiles, long settleMs, long measureMs,
+                                       LinkThroughputBenchmark.Listener listener) {
+        BluetoothGatt gatt = activeConnections.get(deviceAddress);
+        DeviceConnectionInfo info = connectionInfoMap.get(deviceAddress);
+        if (gatt == null || info == null || info.state != DeviceConnectionInfo.ConnectionState.READY) {
+            return false;
+        }
+        LinkThroughputBenchmark benchmark = new LinkThroughputBenchmark(new LinkThroughputBenchmark.Link() {
+            @Override
+            public void apply(LinkProfile profile) {
+                applyLinkProfile(gatt, info, profile);
+            }
+
+            @Override
+            public long getBytesReceived() {
+                return info.bytesReceived;
+            }
+
+            @Override
+            public int getMtu() {
+                return info.mtu;
+            }
+        }, profiles, settleMs, measureMs);
+        benchmark.start();
+        mainHandler.postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                if (connectionInfoMap.get(deviceAddress) != info) {
+                    Log.w(TAG, "Throughput test aborted, link lost: " + deviceAddress);
+                    listener.onFinished(deviceAddress, benchmark.getResults());
+                } else if (benchmark.tick()) {
+                    mainHandler.postDelayed(this, THROUGHPUT_TEST_TICK_MS);
+                } else {
+                    for (LinkThroughputBenchmark.Result result : benchmark.getResults()) {
+                        Log.d(TAG, "Throughput " + deviceAddress + " " + result);
+                    }
+                    listener.onFinished(deviceAddress, benchmark.getResults());
+                }
+            }
+        }, THROUGHPUT_TEST_TICK_MS);
+        return true;
+    }
+    
+    // ======================== L2CAP传输 ========================
+    
+    /**
+     * 选择设备的数据传输方式，下次就绪时生效；已就绪的设备立即打开或关闭通道。
+     * GATT连接保持不变，用于控制和通知；通道需要Android 10 (API 29)。
+     * @param psm 外设广告的PSM（如通过GATT特征读取），0恢复为仅GATT
+     * @param creditWindow 帧级信用窗口（见L2capChannel），0表示只依赖链路层信用
+     */
+    public void setL2capTransport(String deviceAddress, int psm, int creditWindow) {
+        if (psm < 0 || psm > 0xFFFF) {
+            throw new IllegalArgumentException("PSM out of range: " + psm);
+        }
+        if (psm > 0) {
+            l2capTransports.put(deviceAddress, new L2capTransport(psm, creditWindow));
+        } else {
+            l2capTransports.remove(deviceAddress);
+        }
+        closeL2capChannel(deviceAddress);
+        BluetoothGatt gatt = activeConnections.get(deviceAddress);
+        DeviceConnectionInfo info = connectionInfoMap.get(deviceAddress);
+        if (psm > 0 && gatt != null && info != null && info.state == DeviceConnectionInfo.ConnectionState.READY) {
+            openL2capChannel(gatt.getDevice(), info);
+        }
+    }
+    
+    /**
+     * @return 设备配置的PSM，0表示仅GATT
+     */
+    public int getL2capPsm(String deviceAddress) {
+        L2capTransport transport = l2capTransports.get(deviceAddress);
+        return transport != null ? transport.psm : 0;
+    }
+    
+    /**
+     * @return 设备配置的帧级信用窗口，未配置L2CAP时返回0
+     */
+    public int getL2capCreditWindow(String deviceAddress) {
+        L2capTransport transport = l2capTransports.get(deviceAddress);
+        return transport != null ? transport.creditWindow : 0;
+    }
+    
+    /**
+     * @return 设备当前的L2CAP通道（可能仍在连接中），没有时返回null
+     */
+    public L2capChannel getL2capChannel(String deviceAddress) {
+        return l2capChannels.get(deviceAddress);
+    }
+    
+    private void openL2capChannel(BluetoothDevice device, DeviceConnectionInfo info) {
+        String deviceAddress = device.getAddress();
+        L2capTransport transport = l2capTransports.get(deviceAddress);
+        if (transport == null) return;
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.Q) {
+            Log.w(TAG, "L2CAP channels need API 29, staying on GATT: " + deviceAddress);
+            return;
+        }
+        L2capChannel channel = new L2capChannel(deviceAddress, () -> connectL2cap(device, transport.psm),
+                L2CAP_MAX_FRAME_LENGTH, transport.creditWindow, new L2capChannel.Listener() {
+            private final String sourceKey = L2capChannel.sourceKey(transport.psm);
+            private long activityReportedNanos;     // 通道读线程
+            
+            @Override
+            public void onOpened(String deviceAddress, int maxReceivePacketSize) {
+                Log.d(TAG, "L2CAP channel open: " + deviceAddress + " (PSM " + transport.psm
+                        + ", SDU " + maxReceivePacketSize + ")");
+            }
+            
+            @Override
+            public void onFrame(String deviceAddress, byte[] buffer, int offset, int length, long timestampNanos) {
+                if (timestampNanos - activityReportedNanos >= ACTIVITY_REPORT_NANOS) {
+                    activityReportedNanos = timestampNanos;
+                    scheduler.onActivity(deviceAddress);
+                }
+                deviceRegistry.onData(info.deviceId, length, timestampNanos);
+                GattDataListener listener = gattDataListener;
+                if (listener != null) {
+                    listener.onChannelFrame(info.deviceId, deviceAddress, info.deviceName, sourceKey, buffer,
+                            offset, length, timestampNanos);
+                }
+            }
+            
+            @Override
+            public void onClosed(String deviceAddress, String error) {
+                if (error != null) {
+                    Log.w(TAG, "L2CAP channel closed: " + deviceAddress + " (" + error + ")");
+                }
+            }
+        }, SystemClock::elapsedRealtimeNanos);
+        L2capChannel previous = l2capChannels.put(deviceAddress, channel);
+        if (previous != null) {
+            previous.close();
+        }
+        channel.open();
+    }
+    
+    @RequiresApi(Build.VERSION_CODES.Q)
+    private static L2capChannel.Endpoint connectL2cap(BluetoothDevice device, int psm) throws IOException {
+        BluetoothSocket socket = device.createInsecureL2capChannel(psm);
+        socket.connect();
+        return new L2capChannel.Endpoint(socket.getInputStream(), socket.getOutputStream(),
+                socket.getMaxReceivePacketSize(), socket);
+    }
+    
+    private void closeL2capChannel(String deviceAddress) {
+        L2capChannel channel = l2capChannels.remove(deviceAddress);
+        if (channel != null) {
+            channel.close();
+        }
+    }
+    
+    // ======================== GATT操作队列 ========================
+    
+    private boolean enqueueOperation(String deviceAddress, GattOperationQueue.Operation operation) {
+        GattOperationQueue queue = operationQueues.get(deviceAddress);
+        if (queue == null || !queue.enqueue(operation)) {
+            return false;
+        }
+        laneFor(deviceAddress).scheduleTick();
+        return true;
+    }
+    
+    private GattOperationQueue createOperationQueue(BluetoothGatt gatt) {
+        return new GattOperationQueue(gatt.getDevice().getAddress(), operation -> executeOperation(gatt, operation),
+                System::currentTimeMillis, operationStats);
+    }
+    
+    private static boolean executeOperation(BluetoothGatt gatt, GattOperationQueue.Operation operation) {
+        switch (operation.type) {
+            case WRITE:
+            case WRITE_NO_RESPONSE: {
+                BluetoothGattCharacteristic characteristic = (BluetoothGattCharacteristic) operation.target;
+                int writeType = operation.type == GattOperationQueue.Type.WRITE
+                        ? BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT
+                        : BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE;
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
+                    // 值随调用传入，不修改共享的特征对象
+                    return gatt.writeCharacteristic(characteristic, operation.value, writeType)
+                            == BluetoothStatusCodes.SUCCESS;
+                }
+                // 旧版本：值在真正发出时才写入共享的特征对象，排队中的写入互不覆盖
+                characteristic.setWriteType(writeType);
+                characteristic.setValue(operation.value);
+                return gatt.writeCharacteristic(characteristic);
+            }
+            case READ:
+                return gatt.readCharacteristic((BluetoothGattCharacteristic) operation.target);
+            case WRITE_DESCRIPTOR: {
+                BluetoothGattDescriptor descriptor = (BluetoothGattDescriptor) operation.target;
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
+                    return gatt.writeDescriptor(descriptor, operation.value) == BluetoothStatusCodes.SUCCESS;
+                }
+                descriptor.setValue(operation.value);
+                return gatt.writeDescriptor(descriptor);
+            }
+            case REQUEST_MTU:
+                return gatt.requestMtu(operation.mtu);
+            default:
+                return false;
+        }
+    }
+    
+    private void completeOperation(BluetoothGatt gatt, GattOperationQueue.Type type, int status) {
+        GattOperationQueue queue = operationQueues.get(gatt.getDevice().getAddress());
+        if (queue != null) {
+            queue.onComplete(type, status == BluetoothGatt.GATT_SUCCESS);
+        }
+    }
+    
+    /**
+     * GATT回调，每条链路一个实例：数据路径直接使用本链路的连接信息，不按地址查表
+     */
+    private final class LinkCallback extends BluetoothGattCallback {
+        private final DeviceConnectionInfo link;
+        private long activityReportedNanos;     // 回调线程；偶尔的竞争只会多报告一次
+        
+        LinkCallback(DeviceConnectionInfo link) {
+            this.link = link;
+        }
+        
+
         @Override
         public void onConnectionStateChange(BluetoothGatt gatt, int status, int newState) {
             String deviceAddress = gatt.getDevice().getAddress();
@@ -340,15 +1136,22 @@ public class DeviceConnectionManager {
             
             if (newState == BluetoothGatt.STATE_CONNECTED) {
                 Log.d(TAG, "Device connected: " + deviceName + " (" + deviceAddress + ")");
-                info.state = DeviceConnectionInfo.ConnectionState.CONNECTED;
+                setState(info, DeviceConnectionInfo.ConnectionState.CONNECTED);
                 info.reconnectAttempts = 0;
                 info.isReconnecting = false;
+                scheduler.onConnected(deviceAddress);
+                GattOperationQueue previous = operationQueues.put(deviceAddress, createOperationQueue(gatt));
+                if (previous != null) previous.close();
                 // 缓存名称（若之前为Unknown或空）
                 if (info.deviceName == null || info.deviceName.trim().isEmpty() || "Unknown Device".equals(info.deviceName)) {
                     info.deviceName = deviceName;
                 }
+                if (!"Unknown Device".equals(deviceName)) {
+                    deviceRegistry.setName(info.deviceId, deviceName);
+                }
                 
-                // 开始服务发现
+                // 开始服务发现；缓存命中时只按UUID取特征，不再遍历
+                info.discoveryStartTime = System.currentTimeMillis();
                 gatt.discoverServices();
                 
                 if (connectionListener != null) {
@@ -357,7 +1160,8 @@ public class DeviceConnectionManager {
                 
             } else if (newState == BluetoothGatt.STATE_DISCONNECTED) {
                 Log.d(TAG, "Device disconnected: " + deviceName + " (" + deviceAddress + ")");
-                info.state = DeviceConnectionInfo.ConnectionState.DISCONNECTED;
+                boolean neverConnected = info.state == DeviceConnectionInfo.ConnectionState.CONNECTING;
+                setState(info, DeviceConnectionInfo.ConnectionState.DISCONNECTED);
                 
                 // 清理连接
                 cleanupConnection(deviceAddress);
@@ -366,9 +1170,16 @@ public class DeviceConnectionManager {
                     connectionListener.onDeviceDisconnected(deviceAddress, deviceName);
                 }
                 
-                // 尝试重连
-                if (info.reconnectAttempts < MAX_RECONNECT_ATTEMPTS) {
-                    scheduleReconnect(deviceAddress);
+                RoundRobinPoller current = poller;
+                if (current != null) {
+                    current.onLinkLost(deviceAddress);
+                }
+                
+                // 释放槽位；意外断开或连接失败由调度器重新排队重连
+                if (neverConnected) {
+                    scheduler.onConnectFailed(deviceAddress);
+                } else {
+                    scheduler.onDisconnected(deviceAddress);
                 }
             }
         }
@@ -380,19 +1191,21 @@ public class DeviceConnectionManager {
             
             if (status == BluetoothGatt.GATT_SUCCESS) {
                 Log.d(TAG, "Services discovered for: " + deviceAddress);
-                info.state = DeviceConnectionInfo.ConnectionState.DISCOVERING_SERVICES;
+                setState(info, DeviceConnectionInfo.ConnectionState.DISCOVERING_SERVICES);
                 
                 // 发现特征
-                discoverCharacteristics(gatt);
-
-                // 再次尝试更新设备名称（部分设备在服务发现后可获取到）
-                String name = gatt.getDevice().getName();
-                if (name != null && !name.trim().isEmpty()) {
-                    info.deviceName = name;
-                }
+                info.servicesFromCache = resolveCharacteristics(gatt);
                 
-                info.state = DeviceConnectionInfo.ConnectionState.READY;
-                Log.d(TAG, "Device ready: " + deviceAddress);
+                // 有Database Hash时先读出来核对缓存，在onCharacteristicRead中继续
+                BluetoothGattCharacteristic hash = findCharacteristic(gatt,
+                        GattServiceCache.GENERIC_ATTRIBUTE_SERVICE, GattServiceCache.DATABASE_HASH_CHARACTERISTIC);
+                if (hash != null && (hash.getProperties() & BluetoothGattCharacteristic.PROPERTY_READ) != 0
+                        && enqueueOperation(deviceAddress, new GattOperationQueue.Operation(
+                                GattOperationQueue.Type.READ, hash, null,
+                                (operation, success) -> onDatabaseHashRead(gatt, success ? hash.getValue() : null)))) {
+                    return;
+                }
+                onCharacteristicsResolved(gatt, info);
                 
             } else {
                 Log.e(TAG, "Service discovery failed for: " + deviceAddress + ", status: " + status);
@@ -402,36 +1215,146 @@ public class DeviceConnectionManager {
             }
         }
         
+        @Override
+        public void onCharacteristicChanged(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, byte[] value) {
+            // API 33+：值作为参数传入，不再经过特征对象上被后续通知覆盖的共享缓冲区
+            onCharacteristicValue(gatt, characteristic, value, SystemClock.elapsedRealtimeNanos());
+        }
+        
         @Override
         public void onCharacteristicChanged(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic) {
-            // 转发到上层监听器
-            if (gattDataListener != null) {
-                String deviceAddress = gatt.getDevice().getAddress();
-                String deviceName = gatt.getDevice().getName();
-                gattDataListener.onCharacteristicChanged(deviceAddress, deviceName, characteristic);
+            // API 32及以下：在回调线程上立即取走值
+            long timestampNanos = SystemClock.elapsedRealtimeNanos();
+            onCharacteristicValue(gatt, characteristic, characteristic.getValue(), timestampNanos);
+        }
+        
+        @Override
+        public void onCharacteristicRead(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, byte[] value, int status) {
+            onCharacteristicRead(gatt, characteristic, value, status, SystemClock.elapsedRealtimeNanos());
+        }
+        
+        @Override
+        public void onCharacteristicRead(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
+            long timestampNanos = SystemClock.elapsedRealtimeNanos();
+            onCharacteristicRead(gatt, characteristic, characteristic.getValue(), status, timestampNanos);
+        }
+        
+        private void onCharacteristicRead(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic,
+                                          byte[] value, int status, long timestampNanos) {
+            completeOperation(gatt, GattOperationQueue.Type.READ, status);
+            // Database Hash由操作回调处理
+            if (GattServiceCache.DATABASE_HASH_CHARACTERISTIC.equals(characteristic.getUuid())) return;
+            // 轮询READ模式：读到的值与通知走同一条数据路径
+            if (status != BluetoothGatt.GATT_SUCCESS) return;
+            onCharacteristicValue(gatt, characteristic, value, timestampNanos);
+        }
+        
+        private void onCharacteristicValue(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic,
+                                           byte[] value, long timestampNanos) {
+            if (value == null) return;
+            DeviceConnectionInfo info = link;
+            String deviceAddress = info.deviceAddress;
+            if (timestampNanos - activityReportedNanos >= ACTIVITY_REPORT_NANOS) {
+                activityReportedNanos = timestampNanos;
+                scheduler.onActivity(deviceAddress);
+            }
+            info.bytesReceived += value.length;
+            deviceRegistry.onData(info.deviceId, value.length, timestampNanos);
+            StreamStats stream = info.streams.get(characteristic);
+            if (stream != null) {
+                stream.record(value.length, timestampNanos);
             }
+            RoundRobinPoller current = poller;
+            if (current != null) {
+                current.onSample(deviceAddress);
+            }
+            // 转发到上层监听器；设备名在连接时已解析，避免每条通知都查询一次
+            GattDataListener listener = gattDataListener;
+            if (listener != null) {
+                listener.onCharacteristicChanged(info.deviceId, deviceAddress, info.deviceName, characteristic,
+                        value, timestampNanos);
+            }
+            // 线程统计只查找一次；线程CPU时间是系统调用，只抽样读取
+            GattThreadPool.ThreadStats stats = threadPool.currentThreadStats();
+            long now = SystemClock.elapsedRealtimeNanos();
+            stats.record(now, stats.wantsCpuSample() ? Debug.threadCpuTimeNanos() : -1, now - timestampNanos);
         }
         
         @Override
         public void onCharacteristicWrite(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
-            // 数据写入回调，由BleManager处理
+            // 写入结果经操作回调交给调用方（BleManager）
+            completeOperation(gatt, GattOperationQueue.Type.WRITE, status);
         }
-    };
+        
+        @Override
+        public void onDescriptorWrite(BluetoothGatt gatt, BluetoothGattDescriptor descriptor, int status) {
+            completeOperation(gatt, GattOperationQueue.Type.WRITE_DESCRIPTOR, status);
+        }
+        
+        @Override
+        public void onMtuChanged(BluetoothGatt gatt, int mtu, int status) {
+            Log.d(TAG, "MTU " + mtu + " for: " + gatt.getDevice().getAddress() + ", status: " + status);
+            DeviceConnectionInfo info = connectionInfoMap.get(gatt.getDevice().getAddress());
+            if (info != null && status == BluetoothGatt.GATT_SUCCESS) {
+                info.mtu = mtu;
+            }
+            completeOperation(gatt, GattOperationQueue.Type.REQUEST_MTU, status);
+        }
+        
+        @Override
+        public void onPhyUpdate(BluetoothGatt gatt, int txPhy, int rxPhy, int status) {
+            Log.d(TAG, "PHY tx " + txPhy + " rx " + rxPhy + " for: " + gatt.getDevice().getAddress() + ", status: " + status);
+        }
+    }
+    
+    /**
+     * 发现特征：缓存命中时按UUID直接查找，否则遍历全部服务并写入缓存
+     * @return 特征是否来自缓存
+     */
+    private boolean resolveCharacteristics(BluetoothGatt gatt) {
+        String deviceAddress = gatt.getDevice().getAddress();
+        
+        GattServiceCache.Entry cached = serviceCache.get(deviceAddress);
+        if (cached != null) {
+            List<BluetoothGattCharacteristic> notify = new ArrayList<>(cached.getNotifyCount());
+            for (int i = 0; i < cached.getNotifyCount(); i++) {
+                BluetoothGattCharacteristic characteristic = findCharacteristic(gatt, cached.getNotifyService(i),
+                        cached.getNotifyCharacteristic(i));
+                if (characteristic == null) break;
+                notify.add(characteristic);
+            }
+            BluetoothGattCharacteristic write = findCharacteristic(gatt, cached.writeService, cached.writeCharacteristic);
+            if (notify.size() == cached.getNotifyCount() && (cached.writeCharacteristic == null || write != null)) {
+                setNotifyCharacteristics(deviceAddress, notify);
+                if (write != null) writeCharacteristics.put(deviceAddress, write);
+                return true;
+            }
+            serviceCache.invalidate(deviceAddress, "cached characteristics not found");
+        }
+        
+        discoverCharacteristics(gatt);
+        return false;
+    }
     
     /**
-     * 发现特征
+     * 遍历全部服务查找特征
      */
     private void discoverCharacteristics(BluetoothGatt gatt) {
         String deviceAddress = gatt.getDevice().getAddress();
+        writeCharacteristics.remove(deviceAddress);
+        List<BluetoothGattCharacteristic> notify = new ArrayList<>();
         
-        for (android.bluetooth.BluetoothGattService service : gatt.getServices()) {
+        for (BluetoothGattService service : gatt.getServices()) {
+            // Service Changed的indication由系统协议栈处理
+            if (GattServiceCache.GENERIC_ATTRIBUTE_SERVICE.equals(service.getUuid())) continue;
             for (BluetoothGattCharacteristic characteristic : service.getCharacteristics()) {
                 int properties = characteristic.getProperties();
                 
-                // 查找通知特征
-                if ((properties & BluetoothGattCharacteristic.PROPERTY_NOTIFY) != 0) {
-                    notifyCharacteristics.put(deviceAddress, characteristic);
-                    Log.d(TAG, "Found notify characteristic for: " + deviceAddress);
+                // 收集全部notify/indicate特征
+                if ((properties & (BluetoothGattCharacteristic.PROPERTY_NOTIFY
+                                  | BluetoothGattCharacteristic.PROPERTY_INDICATE)) != 0) {
+                    notify.add(characteristic);
+                    Log.d(TAG, "Found notify characteristic " + characteristic.getUuid() + " for: " + deviceAddress);
                 }
                 
                 // 查找写入特征
@@ -442,54 +1365,112 @@ public class DeviceConnectionManager {
                 }
             }
         }
+        
+        setNotifyCharacteristics(deviceAddress, notify);
+        
+        GattServiceCache.Entry entry = new GattServiceCache.Entry(deviceAddress);
+        for (BluetoothGattCharacteristic characteristic : notify) {
+            entry.addNotify(characteristic.getService().getUuid(), characteristic.getUuid());
+        }
+        BluetoothGattCharacteristic write = writeCharacteristics.get(deviceAddress);
+        if (write != null) {
+            entry.writeService = write.getService().getUuid();
+            entry.writeCharacteristic = write.getUuid();
+        }
+        serviceCache.put(entry);
     }
     
     /**
-     * 清理连接
+     * 记录设备的notify/indicate特征，并为每个特征建立数据流统计
      */
-    private void cleanupConnection(String deviceAddress) {
-        BluetoothGatt gatt = activeConnections.remove(deviceAddress);
-        if (gatt != null) {
-            gatt.close();
+    private void setNotifyCharacteristics(String deviceAddress, List<BluetoothGattCharacteristic> characteristics) {
+        notifyCharacteristics.put(deviceAddress, Collections.unmodifiableList(characteristics));
+        DeviceConnectionInfo info = connectionInfoMap.get(deviceAddress);
+        if (info == null) return;
+        info.streams.clear();
+        for (BluetoothGattCharacteristic characteristic : characteristics) {
+            boolean indicate = (characteristic.getProperties() & BluetoothGattCharacteristic.PROPERTY_NOTIFY) == 0;
+            info.streams.put(characteristic, new StreamStats(characteristic.getService().getUuid(),
+                    characteristic.getUuid(), indicate));
         }
-        
-        connectionInfoMap.remove(deviceAddress);
-        notifyCharacteristics.remove(deviceAddress);
-        writeCharacteristics.remove(deviceAddress);
-        pendingConnections.remove(deviceAddress);
-        
-        notifyConnectionPoolStatusChanged();
     }
     
     /**
-     * 安排重连
+     * Database Hash读取完成：与缓存不一致时重新遍历
      */
-    private void scheduleReconnect(String deviceAddress) {
+    private void onDatabaseHashRead(BluetoothGatt gatt, byte[] hash) {
+        String deviceAddress = gatt.getDevice().getAddress();
         DeviceConnectionInfo info = connectionInfoMap.get(deviceAddress);
         if (info == null) return;
+        if (!serviceCache.checkDatabaseHash(deviceAddress, hash)) {
+            Log.d(TAG, "GATT database changed, rediscovering characteristics: " + deviceAddress);
+            discoverCharacteristics(gatt);
+            serviceCache.checkDatabaseHash(deviceAddress, hash);
+            info.servicesFromCache = false;
+        }
+        onCharacteristicsResolved(gatt, info);
+    }
+    
+    /**
+     * 特征就绪：记录发现耗时，恢复订阅或开始轮询访问
+     */
+    private void onCharacteristicsResolved(BluetoothGatt gatt, DeviceConnectionInfo info) {
+        String deviceAddress = gatt.getDevice().getAddress();
+        long discoveryMs = System.currentTimeMillis() - info.discoveryStartTime;
+        serviceCache.recordDiscovery(info.servicesFromCache, discoveryMs);
         
-        info.reconnectAttempts++;
-        info.isReconnecting = true;
-        info.state = DeviceConnectionInfo.ConnectionState.RECONNECTING;
+        // 再次尝试更新设备名称（部分设备在服务发现后可获取到）
+        String name = gatt.getDevice().getName();
+        if (name != null && !name.trim().isEmpty()) {
+            info.deviceName = name;
+        }
         
-        Log.d(TAG, "Scheduling reconnect for: " + deviceAddress + 
-              " (attempt " + info.reconnectAttempts + "/" + MAX_RECONNECT_ATTEMPTS + ")");
+        setState(info, DeviceConnectionInfo.ConnectionState.READY);
+        Log.d(TAG, "Device ready: " + deviceAddress + " (discovery " + discoveryMs + "ms"
+                + (info.servicesFromCache ? ", cached)" : ")"));
         
-        if (connectionListener != null) {
-            connectionListener.onDeviceReconnecting(deviceAddress, info.reconnectAttempts);
+        // MTU请求先于CCC写入入队，通知从一开始就使用协商后的长度
+        LinkProfile profile = linkProfiles.get(deviceAddress);
+        applyLinkProfile(gatt, info, profile != null ? profile : defaultLinkProfile);
+        
+        RoundRobinPoller current = poller;
+        RoundRobinPoller.Mode visitMode = current != null ? current.getVisitMode(deviceAddress) : null;
+        if (visitMode != null) {
+            startPollingVisit(gatt, current, visitMode);
+            return;
+        }
+        openL2capChannel(gatt.getDevice(), info);
+        if (subscribedDevices.contains(deviceAddress) && !enableNotification(deviceAddress)) {
+            Log.w(TAG, "Failed to restore notifications for: " + deviceAddress);
+        }
+    }
+    
+    private static BluetoothGattCharacteristic findCharacteristic(BluetoothGatt gatt, UUID serviceUuid, UUID characteristicUuid) {
+        if (serviceUuid == null || characteristicUuid == null) return null;
+        BluetoothGattService service = gatt.getService(serviceUuid);
+        return service != null ? service.getCharacteristic(characteristicUuid) : null;
+    }
+    
+    /**
+     * 清理连接
+     */
+    private void cleanupConnection(String deviceAddress) {
+        BluetoothGatt gatt = activeConnections.remove(deviceAddress);
+        if (gatt != null) {
+            gatt.close();
         }
         
-        // 延迟重连
-        mainHandler.postDelayed(() -> {
-            if (info.isReconnecting && info.reconnectAttempts <= MAX_RECONNECT_ATTEMPTS) {
-                // 从蓝牙适配器获取设备
-                android.bluetooth.BluetoothAdapter adapter = android.bluetooth.BluetoothAdapter.getDefaultAdapter();
-                if (adapter != null) {
-                    BluetoothDevice device = adapter.getRemoteDevice(deviceAddress);
-                    executeConnection(device);
-                }
-            }
-        }, RECONNECT_DELAY_MS * info.reconnectAttempts);
+        connectionInfoMap.remove(deviceAddress);
+        closeL2capChannel(deviceAddress);
+        GattOperationQueue queue = operationQueues.remove(deviceAddress);
+        if (queue != null) {
+            queue.close();
+        }
+        threadPool.release(deviceAddress);
+        notifyCharacteristics.remove(deviceAddress);
+        writeCharacteristics.remove(deviceAddress);
+        
+        notifyConnectionPoolStatusChanged();
     }
     
     /**
@@ -514,9 +1495,32 @@ public class DeviceConnectionManager {
             disconnectAllDevices();
         }
         executorService.shutdown();
+        mainHandler.removeCallbacks(schedulerTick);
+        mainHandler.removeCallbacks(pollingTick);
+        mainLane.quit();
+        Log.d(TAG, serviceCache.getStatsSummary());
+        Log.d(TAG, operationStats.getSummary());
+        Log.d(TAG, threadPool.getStatsSummary());
         if (disconnectAll) {
+            scheduler.clear();
             activeConnections.clear();
+            // 断开回调可能随回调线程一起丢失，注册表直接标记为断开
+            for (DeviceConnectionInfo info : connectionInfoMap.values()) {
+                setState(info, DeviceConnectionInfo.ConnectionState.DISCONNECTED);
+            }
             connectionInfoMap.clear();
+            for (GattOperationQueue queue : operationQueues.values()) {
+                queue.close();
+            }
+            operationQueues.clear();
+            // 回调线程随连接一起退出，之后的连接重新分配
+            GattThreadPool<GattLane> previous = threadPool;
+            threadPool = createThreadPool(previous.getMode(), previous.getPoolSize());
+            previous.shutdown();
+            for (L2capChannel channel : l2capChannels.values()) {
+                channel.close();
+            }
+            l2capChannels.clear();
             notifyCharacteristics.clear();
             writeCharacteristics.clear();
             pendingConnections.clear();
@@ -0,0 +1,307 @@
+package com.have_no_eyes_deer.bleawsgateway.ble;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 设备注册表 - one dense int id per device address, shared by the scanner, the connection
+ * manager and the UI
+ *
+ * An address gets its id the first time it is seen (scan result, connect request). A device
+ * that only ever showed up in scans gives its id back when the scanner forgets it (release()),
+ * and the id goes to the next new address, so devices with rotating random addresses do not
+ * grow the registry or the arrays indexed by id. Once a device has been connected it keeps
+ * its id for the lifetime of the registry, so ids on the data path never change. Per-device
+ * state lives in parallel arrays (struct of arrays) in fixed chunks of CHUNK_SIZE devices.
+ * Growing only adds chunks and never copies state, so a writer can never lose an update to a
+ * concurrent resize. Slots are atomic arrays: the data path reads and counts without locks
+ * and without allocating. Only register() of a new address takes the lock.
+ *
+ * The address is hashed once, at the edge (idOf / register). Everything after that goes by
+ * id: DeviceConnectionInfo.deviceId on the GATT side, the pipeline's stream table, the scan
+ * list's items in the UI. getShared() is the process-wide instance every BleManager uses.
+ */
+public class DeviceRegistry {
+
+    public static final int NO_ID = -1;
+    public static final int UNKNOWN_RSSI = Integer.MIN_VALUE;
+
+    private static final int CHUNK_BITS = 8;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+    private static final DeviceConnectionManager.DeviceConnectionInfo.ConnectionState[] STATES =
+            DeviceConnectionManager.DeviceConnectionInfo.ConnectionState.values();
+
+    /**
+     * State of CHUNK_SIZE devices, one array per field
+     */
+    private static final class Chunk {
+        final AtomicReferenceArray<String> addresses = new AtomicReferenceArray<>(CHUNK_SIZE);
+        final AtomicReferenceArray<String> names = new AtomicReferenceArray<>(CHUNK_SIZE);
+        final AtomicIntegerArray states = new AtomicIntegerArray(CHUNK_SIZE);   // ConnectionState ordinal
+        final AtomicIntegerArray rssi = new AtomicIntegerArray(CHUNK_SIZE);
+        final AtomicLongArray lastSeenNanos = new AtomicLongArray(CHUNK_SIZE);
+        final AtomicLongArray lastDataNanos = new AtomicLongArray(CHUNK_SIZE);
+        final AtomicLongArray values = new AtomicLongArray(CHUNK_SIZE);
+        final AtomicLongArray bytes = new AtomicLongArray(CHUNK_SIZE);
+        final AtomicIntegerArray connects = new AtomicIntegerArray(CHUNK_SIZE);
+    }
+
+    private static volatile DeviceRegistry shared;
+
+    private final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<>();
+    private volatile Chunk[] chunks = new Chunk[4];
+    private volatile int size;      // written under this, after the device's slots
+    // Released ids, reused before size grows; guarded by this
+    private int[] freeIds = new int[16];
+    private int freeCount;
+
+    /**
+     * The registry shared by all BleManagers of the process, so an id means the same device in
+     * every activity
+     */
+    public static DeviceRegistry getShared() {
+        DeviceRegistry registry = shared;
+        if (registry == null) {
+            synchronized (DeviceRegistry.class) {
+                registry = shared;
+                if (registry == null) {
+                    registry = new DeviceRegistry();
+                    shared = registry;
+                }
+            }
+        }
+        return registry;
+    }
+
+    /**
+     * @return the id of the address, assigned on first sight
+     */
+    public int register(String deviceAddress) {
+        Integer id = ids.get(deviceAddress);
+        return id != null ? id : assign(deviceAddress);
+    }
+
+    /**
+     * Lock-free lookup
+     * @return the id, or NO_ID for an address never registered
+     */
+    public int idOf(String deviceAddress) {
+        Integer id = deviceAddress != null ? ids.get(deviceAddress) : null;
+        return id != null ? id : NO_ID;
+    }
+
+    private synchronized int assign(String deviceAddress) {
+        if (deviceAddress == null) {
+            throw new IllegalArgumentException("deviceAddress is required");
+        }
+        Integer existing = ids.get(deviceAddress);
+        if (existing != null) {
+            return existing;
+        }
+        if (freeCount > 0) {
+            int id = freeIds[--freeCount];
+            chunks[id >>> CHUNK_BITS].addresses.set(id & CHUNK_MASK, deviceAddress);
+            ids.put(deviceAddress, id);
+            return id;
+        }
+        int id = size;
+        int chunkIndex = id >>> CHUNK_BITS;
+        Chunk[] table = chunks;
+        if (chunkIndex == table.length) {
+            Chunk[] grown = new Chunk[table.length * 2];
+            System.arraycopy(table, 0, grown, 0, table.length);
+            table = grown;
+        }
+        if (table[chunkIndex] == null) {
+            table[chunkIndex] = new Chunk();
+        }
+        Chunk chunk = table[chunkIndex];
+        chunk.addresses.set(id & CHUNK_MASK, deviceAddress);
+        chunk.rssi.set(id & CHUNK_MASK, UNKNOWN_RSSI);
+        chunks = table;
+        size = id + 1;
+        ids.put(deviceAddress, id);
+        return id;
+    }
+
+    /**
+     * Give back the id of a device that is no longer scanned; only a device that was never
+     * connected and is disconnected is released. Its state is cleared and the id is reused.
+     * Call it where connects are requested (the main thread), so a connect cannot race it.
+     * @return true if the id was freed
+     */
+    public synchronized boolean release(int id) {
+        if (id < 0 || id >= size) {
+            return false;
+        }
+        Chunk chunk = chunks[id >>> CHUNK_BITS];
+        int slot = id & CHUNK_MASK;
+        String address = chunk.addresses.get(slot);
+        if (address == null || chunk.connects.get(slot) > 0 || chunk.states.get(slot)
+                != DeviceConnectionManager.DeviceConnectionInfo.ConnectionState.DISCONNECTED.ordinal()) {
+            return false;
+        }
+        ids.remove(address);
+        chunk.addresses.set(slot, null);
+        chunk.names.set(slot, null);
+        chunk.rssi.set(slot, UNKNOWN_RSSI);
+        chunk.lastSeenNanos.set(slot, 0);
+        chunk.lastDataNanos.set(slot, 0);
+        chunk.values.set(slot, 0);
+        chunk.bytes.set(slot, 0);
+        if (freeCount == freeIds.length) {
+            int[] grown = new int[freeIds.length * 2];
+            System.arraycopy(freeIds, 0, grown, 0, freeCount);
+            freeIds = grown;
+        }
+        freeIds[freeCount++] = id;
+        return true;
+    }
+
+    /**
+     * Ids handed out so far, used or free; ids run from 0 to size() - 1
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Number of devices that currently have an id
+     */
+    public int getDeviceCount() {
+        return ids.size();
+    }
+
+    private Chunk chunk(int id) {
+        if (id < 0 || id >= size) {
+            throw new IndexOutOfBoundsException("unknown device id " + id);
+        }
+        return chunks[id >>> CHUNK_BITS];
+    }
+
+    /**
+     * @return the address, or null for a released id
+     */
+    public String getAddress(int id) {
+        return chunk(id).addresses.get(id & CHUNK_MASK);
+    }
+
+    public String getName(int id) {
+        return chunk(id).names.get(id & CHUNK_MASK);
+    }
+
+    /**
+     * Keep the last non-empty name (scan responses and GATT carry it only sometimes)
+     */
+    public void setName(int id, String name) {
+        if (name != null && !name.trim().isEmpty()) {
+            chunk(id).names.set(id & CHUNK_MASK, name);
+        }
+    }
+
+    public DeviceConnectionManager.DeviceConnectionInfo.ConnectionState getState(int id) {
+        return STATES[chunk(id).states.get(id & CHUNK_MASK)];
+    }
+
+    public void setState(int id, DeviceConnectionManager.DeviceConnectionInfo.ConnectionState state) {
+        Chunk chunk = chunk(id);
+        int previous = chunk.states.getAndSet(id & CHUNK_MASK, state.ordinal());
+        if (state == DeviceConnectionManager.DeviceConnectionInfo.ConnectionState.CONNECTED
+                && previous != state.ordinal()) {
+            chunk.connects.incrementAndGet(id & CHUNK_MASK);
+        }
+    }
+
+    /**
+     * Connected, discovering services or ready
+     */
+    public boolean isConnected(int id) {
+        switch (getState(id)) {
+            case CONNECTED:
+            case DISCOVERING_SERVICES:
+            case READY:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * A scan result of the device
+     */
+    public void onSeen(int id, int rssi, long timestampNanos) {
+        Chunk chunk = chunk(id);
+        chunk.rssi.set(id & CHUNK_MASK, rssi);
+        chunk.lastSeenNanos.set(id & CHUNK_MASK, timestampNanos);
+    }
+
+    /**
+     * A notification, read or channel frame of the device
+     */
+    public void onData(int id, int length, long timestampNanos) {
+        Chunk chunk = chunk(id);
+        chunk.values.incrementAndGet(id & CHUNK_MASK);
+        chunk.bytes.addAndGet(id & CHUNK_MASK, length);
+        chunk.lastDataNanos.set(id & CHUNK_MASK, timestampNanos);
+        chunk.lastSeenNanos.set(id & CHUNK_MASK, timestampNanos);
+    }
+
+    /**
+     * @return the last RSSI, or UNKNOWN_RSSI if the device was never scanned
+     */
+    public int getRssi(int id) {
+        return chunk(id).rssi.get(id & CHUNK_MASK);
+    }
+
+    public long getLastSeenNanos(int id) {
+        return chunk(id).lastSeenNanos.get(id & CHUNK_MASK);
+    }
+
+    public long getLastDataNanos(int id) {
+        return chunk(id).lastDataNanos.get(id & CHUNK_MASK);
+    }
+
+    public long getValuesReceived(int id) {
+        return chunk(id).values.get(id & CHUNK_MASK);
+    }
+
+    public long getBytesReceived(int id) {
+        return chunk(id).bytes.get(id & CHUNK_MASK);
+    }
+
+    /**
+     * Number of times the device went to CONNECTED
+     */
+    public int getConnectCount(int id) {
+        return chunk(id).connects.get(id & CHUNK_MASK);
+    }
+
+    public int countConnected() {
+        int count = 0;
+        for (int id = 0, n = size; id < n; id++) {
+            if (isConnected(id)) count++;
+        }
+        return count;
+    }
+
+    /**
+     * Ids of the connected devices, in id order
+     */
+    public List<Integer> getConnectedIds() {
+        List<Integer> connected = new ArrayList<>();
+        for (int id = 0, n = size; id < n; id++) {
+            if (isConnected(id)) connected.add(id);
+        }
+        return connected;
+    }
+
+    @Override
+    public String toString() {
+        return "DeviceRegistry: " + getDeviceCount() + " devices, " + countConnected() + " connected";
+    }
+}
@@ -0,0 +1,402 @@
+package com.have_no_eyes_deer.bleawsgateway.ble;
+
+import android.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.LongSupplier;
+
+/**
+ * GATT操作队列 - serializes the GATT operations of one link
+ *
+ * Android accepts one outstanding GATT operation per link and rejects the next call until the
+ * previous callback arrived, so unqueued writes, reads and descriptor writes silently fail
+ * when they overlap. Operations are started in order and the next one when the GATT callback
+ * of the current one completes it. Writes without response may be pipelined: up to
+ * noResponseWindow of them are in flight at once, each completed by its onCharacteristicWrite.
+ * The default window is 1: BluetoothGatt sets mDeviceBusy for a write without response too and
+ * rejects the next call until its onCharacteristicWrite, so a larger window only produces
+ * rejected starts on the framework stack. A start rejected while other operations are in flight waits for their
+ * completion; rejected otherwise, failed or timed out it is retried after a short delay, up
+ * to maxAttempts. tick() has to be called periodically for timeouts and delayed retries.
+ *
+ * The GATT calls are made by the {@link Executor}, outside the queue lock.
+ */
+public class GattOperationQueue {
+    private static final String TAG = "GattOperationQueue";
+
+    public static final long DEFAULT_TIMEOUT_MS = 5_000;
+    public static final int DEFAULT_MAX_ATTEMPTS = 3;
+    // BluetoothGatt allows one outstanding call per link (mDeviceBusy), writes without response included
+    public static final int DEFAULT_NO_RESPONSE_WINDOW = 1;
+    public static final int DEFAULT_MAX_DEPTH = 256;
+    private static final long RETRY_DELAY_MS = 100;
+
+    public enum Type {
+        WRITE,
+        WRITE_NO_RESPONSE,
+        READ,
+        WRITE_DESCRIPTOR,
+        REQUEST_MTU;
+
+        /**
+         * Both write types complete through onCharacteristicWrite
+         */
+        boolean completedBy(Type callback) {
+            if (callback == WRITE || callback == WRITE_NO_RESPONSE) {
+                return this == WRITE || this == WRITE_NO_RESPONSE;
+            }
+            return this == callback;
+        }
+    }
+
+    public static class Operation {
+        public final Type type;
+        public final Object target;     // BluetoothGattCharacteristic or BluetoothGattDescriptor
+        public final byte[] value;
+        public final int mtu;
+        final Callback callback;
+        int attempts;
+        long enqueuedAt;
+        long startedAt;
+        long retryAt;
+
+        public Operation(Type type, Object target, byte[] value, Callback callback) {
+            this(type, target, value, 0, callback);
+        }
+
+        private Operation(Type type, Object target, byte[] value, int mtu, Callback callback) {
+            this.type = type;
+            this.target = target;
+            this.value = value;
+            this.mtu = mtu;
+            this.callback = callback;
+        }
+
+        public static Operation requestMtu(int mtu, Callback callback) {
+            return new Operation(Type.REQUEST_MTU, null, null, mtu, callback);
+        }
+    }
+
+    /**
+     * Issues the GATT call of an operation
+     */
+    public interface Executor {
+        /**
+         * @return false if the stack rejected the call
+         */
+        boolean execute(Operation operation);
+    }
+
+    public interface Callback {
+        void onComplete(Operation operation, boolean success);
+    }
+
+    /**
+     * Latency from enqueue to completion in power-of-two millisecond buckets
+     */
+    public static class LatencyHistogram extends Log2Histogram {
+        private static final int BUCKETS = 17;  // [0,1), [1,2), [2,4) ... [32768, ∞)
+
+        public LatencyHistogram() {
+            super(BUCKETS);
+        }
+
+        public long getAverageMs() {
+            return getAverage();
+        }
+
+        public long getMaxMs() {
+            return getMax();
+        }
+
+        public long percentileMs(double p) {
+            return percentile(p);
+        }
+    }
+
+    /**
+     * Counters and latency histograms, shareable by the queues of all links
+     */
+    public static class Stats {
+        private final LatencyHistogram[] latency = new LatencyHistogram[Type.values().length];
+        private long completed;
+        private long failed;
+        private long retries;
+        private long timeouts;
+        private long rejectedFull;
+        private int maxDepth;
+
+        public Stats() {
+            for (int i = 0; i < latency.length; i++) {
+                latency[i] = new LatencyHistogram();
+            }
+        }
+
+        public LatencyHistogram getLatency(Type type) {
+            return latency[type.ordinal()];
+        }
+
+        public synchronized long getCompletedCount() {
+            return completed;
+        }
+
+        public synchronized long getFailedCount() {
+            return failed;
+        }
+
+        public synchronized long getRetryCount() {
+            return retries;
+        }
+
+        public synchronized long getTimeoutCount() {
+            return timeouts;
+        }
+
+        public synchronized long getRejectedFullCount() {
+            return rejectedFull;
+        }
+
+        public synchronized int getMaxDepth() {
+            return maxDepth;
+        }
+
+        synchronized void depth(int depth) {
+            maxDepth = Math.max(maxDepth, depth);
+        }
+
+        synchronized void finished(boolean success) {
+            if (success) completed++;
+            else failed++;
+        }
+
+        synchronized void retried(boolean timeout) {
+            retries++;
+            if (timeout) timeouts++;
+        }
+
+        synchronized void rejectedFull() {
+            rejectedFull++;
+        }
+
+        public String getSummary() {
+            StringBuilder sb = new StringBuilder();
+            synchronized (this) {
+                sb.append(String.format("GATT ops: %d ok, %d failed, %d retries (%d timeouts), %d rejected, max depth %d",
+                        completed, failed, retries, timeouts, rejectedFull, maxDepth));
+            }
+            for (Type type : Type.values()) {
+                LatencyHistogram histogram = getLatency(type);
+                if (histogram.getCount() == 0) continue;
+                sb.append(String.format("; %s n=%d avg=%dms p50=%dms p99=%dms max=%dms", type,
+                        histogram.getCount(), histogram.getAverageMs(), histogram.percentileMs(50),
+                        histogram.percentileMs(99), histogram.getMaxMs()));
+            }
+            return sb.toString();
+        }
+    }
+
+    private final String deviceAddress;
+    private final Executor executor;
+    private final LongSupplier clock;
+    private final Stats stats;
+    private long timeoutMs = DEFAULT_TIMEOUT_MS;
+    private int maxAttempts = DEFAULT_MAX_ATTEMPTS;
+    private int noResponseWindow = DEFAULT_NO_RESPONSE_WINDOW;
+    private int maxDepth = DEFAULT_MAX_DEPTH;
+
+    // Guarded by this
+    private final ArrayDeque<Operation> pending = new ArrayDeque<>();
+    private final ArrayDeque<Operation> inFlight = new ArrayDeque<>();
+    private boolean closed = false;
+
+    public GattOperationQueue(String deviceAddress, Executor executor) {
+        this(deviceAddress, executor, System::currentTimeMillis, new Stats());
+    }
+
+    /**
+     * @param clock millisecond clock, virtual in tests
+     * @param stats shared statistics
+     */
+    public GattOperationQueue(String deviceAddress, Executor executor, LongSupplier clock, Stats stats) {
+        this.deviceAddress = deviceAddress;
+        this.executor = executor;
+        this.clock = clock;
+        this.stats = stats;
+    }
+
+    public synchronized void configure(long timeoutMs, int maxAttempts, int noResponseWindow, int maxDepth) {
+        this.timeoutMs = timeoutMs;
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.noResponseWindow = Math.max(1, noResponseWindow);
+        this.maxDepth = Math.max(1, maxDepth);
+    }
+
+    /**
+     * @return false if the queue is full or closed
+     */
+    public boolean enqueue(Operation operation) {
+        synchronized (this) {
+            if (closed || pending.size() + inFlight.size() >= maxDepth) {
+                stats.rejectedFull();
+                return false;
+            }
+            operation.enqueuedAt = clock.getAsLong();
+            pending.add(operation);
+            stats.depth(pending.size() + inFlight.size());
+        }
+        pump();
+        return true;
+    }
+
+    /**
+     * GATT callback of the given type: completes the oldest operation in flight it belongs to
+     */
+    public void onComplete(Type callbackType, boolean success) {
+        Operation done = null;
+        synchronized (this) {
+            for (Iterator<Operation> it = inFlight.iterator(); it.hasNext(); ) {
+                Operation operation = it.next();
+                if (operation.type.completedBy(callbackType)) {
+                    it.remove();
+                    done = operation;
+                    break;
+                }
+            }
+            if (done == null) return;   // late callback of a timed-out operation
+            if (!success && retry(done, false)) {
+                done = null;
+            }
+        }
+        if (done != null) finish(done, success);
+        pump();
+    }
+
+    /**
+     * Time out operations in flight and start delayed retries
+     */
+    public void tick() {
+        List<Operation> failed = new ArrayList<>();
+        synchronized (this) {
+            long now = clock.getAsLong();
+            for (Iterator<Operation> it = inFlight.iterator(); it.hasNext(); ) {
+                Operation operation = it.next();
+                if (now - operation.startedAt < timeoutMs) continue;
+                it.remove();
+                Log.w(TAG, operation.type + " timed out on " + deviceAddress);
+                if (!retry(operation, true)) {
+                    failed.add(operation);
+                }
+            }
+        }
+        for (Operation operation : failed) {
+            finish(operation, false);
+        }
+        pump();
+    }
+
+    /**
+     * Link gone: fail everything queued, later enqueues are rejected
+     */
+    public void close() {
+        List<Operation> dropped;
+        synchronized (this) {
+            closed = true;
+            dropped = new ArrayList<>(inFlight);
+            dropped.addAll(pending);
+            inFlight.clear();
+            pending.clear();
+        }
+        for (Operation operation : dropped) {
+            finish(operation, false);
+        }
+    }
+
+    public synchronized int getDepth() {
+        return pending.size() + inFlight.size();
+    }
+
+    public synchronized int getInFlightCount() {
+        return inFlight.size();
+    }
+
+    public Stats getStats() {
+        return stats;
+    }
+
+    // ======================== internal ========================
+
+    private void pump() {
+        while (true) {
+            Operation next;
+            synchronized (this) {
+                next = nextToStart(clock.getAsLong());
+                if (next == null) return;
+            }
+            boolean started = executor.execute(next);
+            if (started) continue;
+            Operation failed = null;
+            synchronized (this) {
+                if (!inFlight.remove(next)) return; // completed or closed meanwhile
+                if (!inFlight.isEmpty()) {
+                    // Stack busy with our own operations: start it again on their completion
+                    next.attempts--;
+                    pending.addFirst(next);
+                    return;
+                }
+                if (!retry(next, false)) {
+                    failed = next;
+                }
+            }
+            if (failed != null) {
+                finish(failed, false);
+            } else {
+                return; // delayed retry, started by tick()
+            }
+        }
+    }
+
+    // guarded by this
+    private Operation nextToStart(long now) {
+        Operation head = pending.peek();
+        if (closed || head == null || head.retryAt > now) return null;
+        if (head.type == Type.WRITE_NO_RESPONSE) {
+            if (inFlight.size() >= noResponseWindow) return null;
+            for (Operation operation : inFlight) {
+                if (operation.type != Type.WRITE_NO_RESPONSE) return null;
+            }
+        } else if (!inFlight.isEmpty()) {
+            return null;
+        }
+        pending.poll();
+        head.attempts++;
+        head.startedAt = now;
+        inFlight.add(head);
+        return head;
+    }
+
+    /**
+     * Put a failed attempt back at the head of the queue if attempts are left; guarded by this
+     */
+    private boolean retry(Operation operation, boolean timeout) {
+        if (closed || operation.attempts >= maxAttempts) return false;
+        stats.retried(timeout);
+        operation.retryAt = clock.getAsLong() + RETRY_DELAY_MS;
+        pending.addFirst(operation);
+        return true;
+    }
+
+    private void finish(Operation operation, boolean success) {
+        stats.finished(success);
+        if (success) {
+            stats.getLatency(operation.type).record(clock.getAsLong() - operation.enqueuedAt);
+        } else {
+            Log.w(TAG, operation.type + " failed on " + deviceAddress + " after " + operation.attempts + " attempts");
+        }
+        if (operation.callback != null) {
+            operation.callback.onComplete(operation, success);
+        }
+    }
+}
@@ -0,0 +1,290 @@
+package com.have_no_eyes_deer.bleawsgateway.ble;
+
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * GATT服务缓存 - remembers which notify / write characteristics a device uses, across
+ * reconnects and app restarts
+ *
+ * A multi-sensor peripheral has several notify / indicate characteristics; the first is kept
+ * in notifyService / notifyCharacteristic, the others in the moreNotify lists.
+ *
+ * On reconnect the cached UUIDs are looked up directly instead of walking every service and
+ * characteristic. Devices exposing the GATT Database Hash characteristic (0x2B2A) get it
+ * stored with the entry; a different hash on a later connection means the peripheral's
+ * database changed and the entry is invalidated. An entry whose characteristics are no
+ * longer found is invalidated the same way.
+ *
+ * Persisted as one tab-separated line per device in a small file, rewritten on every change.
+ * Thread-safe: GATT callbacks of different links may use it at the same time.
+ */
+public class GattServiceCache {
+    private static final String TAG = "GattServiceCache";
+
+    public static final UUID GENERIC_ATTRIBUTE_SERVICE = UUID.fromString("00001801-0000-1000-8000-00805f9b34fb");
+    public static final UUID DATABASE_HASH_CHARACTERISTIC = UUID.fromString("00002b2a-0000-1000-8000-00805f9b34fb");
+
+    private static final String NONE = "-";
+
+    public static class Entry {
+        public final String deviceAddress;
+        public String databaseHash;         // hex, null if the device has no Database Hash
+        public UUID notifyService;
+        public UUID notifyCharacteristic;
+        public final List<UUID> moreNotifyServices = new ArrayList<>();
+        public final List<UUID> moreNotifyCharacteristics = new ArrayList<>();
+        public UUID writeService;
+        public UUID writeCharacteristic;
+
+        public Entry(String deviceAddress) {
+            this.deviceAddress = deviceAddress;
+        }
+
+        public void addNotify(UUID service, UUID characteristic) {
+            if (notifyCharacteristic == null) {
+                notifyService = service;
+                notifyCharacteristic = characteristic;
+            } else {
+                moreNotifyServices.add(service);
+                moreNotifyCharacteristics.add(characteristic);
+            }
+        }
+
+        public int getNotifyCount() {
+            return notifyCharacteristic != null ? 1 + moreNotifyCharacteristics.size() : 0;
+        }
+
+        public UUID getNotifyService(int i) {
+            return i == 0 ? notifyService : moreNotifyServices.get(i - 1);
+        }
+
+        public UUID getNotifyCharacteristic(int i) {
+            return i == 0 ? notifyCharacteristic : moreNotifyCharacteristics.get(i - 1);
+        }
+    }
+
+    private final File file;
+    private final Map<String, Entry> entries = new HashMap<>();
+
+    // Metrics
+    private long hits;
+    private long misses;
+    private long invalidations;
+    private long fullDiscoveries;
+    private long fullDiscoveryMs;
+    private long cachedDiscoveries;
+    private long cachedDiscoveryMs;
+
+    /**
+     * @param file persistent store, null keeps the cache in memory only
+     */
+    public GattServiceCache(File file) {
+        this.file = file;
+        load();
+    }
+
+    /**
+     * Cached entry of the device, counted as hit or miss
+     */
+    public synchronized Entry get(String deviceAddress) {
+        Entry entry = entries.get(deviceAddress);
+        if (entry != null) {
+            hits++;
+        } else {
+            misses++;
+        }
+        return entry;
+    }
+
+    public synchronized void put(Entry entry) {
+        Entry previous = entries.get(entry.deviceAddress);
+        if (entry.databaseHash == null && previous != null) {
+            entry.databaseHash = previous.databaseHash;
+        }
+        entries.put(entry.deviceAddress, entry);
+        save();
+    }
+
+    public synchronized void invalidate(String deviceAddress, String reason) {
+        if (entries.remove(deviceAddress) != null) {
+            invalidations++;
+            Log.d(TAG, "Invalidated " + deviceAddress + ": " + reason);
+            save();
+        }
+    }
+
+    /**
+     * Check the Database Hash read from the device against the cached one
+     * @return false if it differs, the entry is invalidated then; an entry without a hash
+     *         yet stores this one
+     */
+    public synchronized boolean checkDatabaseHash(String deviceAddress, byte[] hash) {
+        Entry entry = entries.get(deviceAddress);
+        if (entry == null || hash == null || hash.length == 0) return true;
+        String hex = toHex(hash);
+        if (entry.databaseHash == null) {
+            entry.databaseHash = hex;
+            save();
+            return true;
+        }
+        if (entry.databaseHash.equals(hex)) return true;
+        invalidate(deviceAddress, "database hash changed");
+        return false;
+    }
+
+    /**
+     * Time from discoverServices() until the characteristics were resolved
+     */
+    public synchronized void recordDiscovery(boolean fromCache, long durationMs) {
+        if (fromCache) {
+            cachedDiscoveries++;
+            cachedDiscoveryMs += durationMs;
+        } else {
+            fullDiscoveries++;
+            fullDiscoveryMs += durationMs;
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    public synchronized long getInvalidationCount() {
+        return invalidations;
+    }
+
+    public synchronized long getAverageFullDiscoveryMs() {
+        return fullDiscoveries > 0 ? fullDiscoveryMs / fullDiscoveries : 0;
+    }
+
+    public synchronized long getAverageCachedDiscoveryMs() {
+        return cachedDiscoveries > 0 ? cachedDiscoveryMs / cachedDiscoveries : 0;
+    }
+
+    /**
+     * Cached discoveries times the difference of the average full and cached discovery time
+     */
+    public synchronized long getEstimatedTimeSavedMs() {
+        if (fullDiscoveries == 0 || cachedDiscoveries == 0) return 0;
+        return Math.max(0, cachedDiscoveries * (getAverageFullDiscoveryMs() - getAverageCachedDiscoveryMs()));
+    }
+
+    public synchronized String getStatsSummary() {
+        return String.format("GATT cache: %d entries, %d hits, %d misses, %d invalidated, "
+                        + "discovery %dms full / %dms cached, ~%dms saved",
+                entries.size(), hits, misses, invalidations, getAverageFullDiscoveryMs(),
+                getAverageCachedDiscoveryMs(), getEstimatedTimeSavedMs());
+    }
+
+    // ======================== persistence ========================
+
+    private void load() {
+        if (file == null || !file.exists()) return;
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split("\t");
+                if (parts.length != 6) continue;
+                try {
+                    Entry entry = new Entry(parts[0]);
+                    entry.databaseHash = NONE.equals(parts[1]) ? null : parts[1];
+                    // Comma-separated since multi-characteristic subscription, one UUID before
+                    String[] services = parts[2].split(",");
+                    String[] characteristics = parts[3].split(",");
+                    if (services.length != characteristics.length) continue;
+                    for (int i = 0; i < services.length; i++) {
+                        UUID service = parseUuid(services[i]);
+                        UUID characteristic = parseUuid(characteristics[i]);
+                        if (characteristic != null) {
+                            entry.addNotify(service, characteristic);
+                        }
+                    }
+                    entry.writeService = parseUuid(parts[4]);
+                    entry.writeCharacteristic = parseUuid(parts[5]);
+                    entries.put(entry.deviceAddress, entry);
+                } catch (IllegalArgumentException e) {
+                    Log.w(TAG, "Skipping bad cache line: " + line);
+                }
+            }
+            Log.d(TAG, "Loaded " + entries.size() + " cached devices");
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to load GATT cache", e);
+        }
+    }
+
+    // guarded by this
+    private void save() {
+        if (file == null) return;
+        File temp = new File(file.getPath() + ".tmp");
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(temp), StandardCharsets.UTF_8)) {
+            for (Entry entry : entries.values()) {
+                writer.write(entry.deviceAddress);
+                writer.write('\t');
+                writer.write(entry.databaseHash != null ? entry.databaseHash : NONE);
+                writer.write('\t');
+                writer.write(formatUuid(entry.notifyService));
+                for (UUID service : entry.moreNotifyServices) {
+                    writer.write(',');
+                    writer.write(formatUuid(service));
+                }
+                writer.write('\t');
+                writer.write(formatUuid(entry.notifyCharacteristic));
+                for (UUID characteristic : entry.moreNotifyCharacteristics) {
+                    writer.write(',');
+                    writer.write(formatUuid(characteristic));
+                }
+                writer.write('\t');
+                writer.write(formatUuid(entry.writeService));
+                writer.write('\t');
+                writer.write(formatUuid(entry.writeCharacteristic));
+                writer.write('\n');
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to save GATT cache", e);
+            return;
+        }
+        if (!temp.renameTo(file)) {
+            Log.e(TAG, "Failed to replace " + file);
+        }
+    }
+
+    private static UUID parseUuid(String text) {
+        return NONE.equals(text) ? null : UUID.fromString(text);
+    }
+
+    private static String formatUuid(UUID uuid) {
+        return uuid != null ? uuid.toString() : NONE;
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+}
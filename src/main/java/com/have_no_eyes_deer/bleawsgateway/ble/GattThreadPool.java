@@ -0,0 +1,294 @@
+package com.have_no_eyes_deer.bleawsgateway.ble;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * GATT回调线程池 - decides which thread the GATT callbacks, operation queue and timers of a link run on
+ *
+ * connectGatt() without a Handler delivers the callbacks of every link on the shared binder
+ * threads, and everything the gateway posts from there ends up on the main thread next to the
+ * UI. With a lane per link (PER_LINK) or a few lanes shared by all links (SHARED), a link is
+ * handed its lane's Handler for connectGatt(), and its callbacks, operation timeouts and
+ * connect requests stay on that thread. A slow link then only delays itself or its lane
+ * mates. SHARED gives new links the lane with the fewest links. Lanes are started on first
+ * use and kept until shutdown(); a PER_LINK lane whose link was released goes to the next
+ * link, so the number of threads, and of per-thread statistics, stays at the peak number of
+ * concurrent links however often devices come and go.
+ *
+ * Lanes are created through {@link LaneFactory} (a HandlerThread in the app, a plain object in
+ * tests). The pool also keeps per-thread statistics: callbacks, CPU time spent by the thread
+ * and the latency from callback entry to the reading being handed to the pipeline.
+ */
+public class GattThreadPool<L extends GattThreadPool.Lane> {
+
+    public enum Mode {
+        BINDER,     // no Handler, callbacks on the binder threads (the old behaviour)
+        PER_LINK,   // one thread per link
+        SHARED      // poolSize threads shared by all links
+    }
+
+    public interface Lane {
+        void quit();
+    }
+
+    public interface LaneFactory<L> {
+        L create(String name);
+    }
+
+    /**
+     * Statistics of one callback thread
+     */
+    public static class ThreadStats {
+        // Debug.threadCpuTimeNanos() is a system call; the CPU share only needs a sample now and then
+        private static final int CPU_SAMPLE_INTERVAL = 64;
+
+        public final String threadName;
+        // Callback-to-enqueue latency in microseconds, [0,1) ... [2^22 us = 4.2 s, ∞)
+        private final Log2Histogram latencyMicros = new Log2Histogram(24);
+        private long callbacks;
+        private long firstCpuNanos = -1;
+        private long lastCpuNanos;
+        private long firstNanos;
+        private long lastNanos;
+
+        ThreadStats(String threadName) {
+            this.threadName = threadName;
+        }
+
+        /**
+         * Whether the next record() should carry the thread's CPU time (every CPU_SAMPLE_INTERVAL-th
+         * callback); called by the thread the statistics belong to
+         */
+        boolean wantsCpuSample() {
+            return callbacks % CPU_SAMPLE_INTERVAL == 0;
+        }
+
+        /**
+         * @param threadCpuNanos the thread's CPU time, or -1 when not sampled
+         */
+        synchronized void record(long nowNanos, long threadCpuNanos, long latencyNanos) {
+            callbacks++;
+            if (threadCpuNanos >= 0) {
+                if (firstCpuNanos < 0) {
+                    firstCpuNanos = threadCpuNanos;
+                    firstNanos = nowNanos;
+                }
+                lastCpuNanos = threadCpuNanos;
+                lastNanos = nowNanos;
+            }
+            latencyMicros.record(latencyNanos / 1_000L);
+        }
+
+        synchronized void reset() {
+            callbacks = 0;
+            firstCpuNanos = -1;
+            lastCpuNanos = 0;
+            firstNanos = 0;
+            lastNanos = 0;
+            latencyMicros.clear();
+        }
+
+        public synchronized long getCallbackCount() {
+            return callbacks;
+        }
+
+        /**
+         * CPU time of the thread between its first and last recorded callback
+         */
+        public synchronized long getCpuNanos() {
+            return firstCpuNanos < 0 ? 0 : lastCpuNanos - firstCpuNanos;
+        }
+
+        /**
+         * Share of one core the thread used over the same period
+         */
+        public synchronized double getCpuPercent() {
+            long wall = lastNanos - firstNanos;
+            return wall > 0 ? 100.0 * (lastCpuNanos - firstCpuNanos) / wall : 0;
+        }
+
+        public Log2Histogram getLatencyMicros() {
+            return latencyMicros;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: %d callbacks, cpu %dms (%.1f%%), enqueue avg=%dus p50=%dus p99=%dus max=%dus",
+                    threadName, getCallbackCount(), getCpuNanos() / 1_000_000L, getCpuPercent(),
+                    latencyMicros.getAverage(), latencyMicros.percentile(50), latencyMicros.percentile(99),
+                    latencyMicros.getMax());
+        }
+    }
+
+    private static class Slot<L> {
+        final L lane;
+        final String name;
+        int links;
+
+        Slot(L lane, String name) {
+            this.lane = lane;
+            this.name = name;
+        }
+    }
+
+    private final Mode mode;
+    private final int poolSize;
+    private final String namePrefix;
+    private final LaneFactory<L> factory;
+    // Guarded by this
+    private final List<Slot<L>> slots = new ArrayList<>();
+    private final Map<String, Slot<L>> byAddress = new HashMap<>();
+    private int created;
+    private boolean shutdown;
+
+    private final Map<String, ThreadStats> threadStats = new ConcurrentHashMap<>();
+    // Saves the lookup by thread name on every callback
+    private final ThreadLocal<ThreadStats> currentStats = new ThreadLocal<>();
+
+    /**
+     * @param poolSize   number of lanes in SHARED mode, ignored otherwise
+     * @param namePrefix thread names are namePrefix + a running number
+     */
+    public GattThreadPool(Mode mode, int poolSize, String namePrefix, LaneFactory<L> factory) {
+        if (mode == Mode.SHARED && poolSize < 1) {
+            throw new IllegalArgumentException("poolSize must be positive: " + poolSize);
+        }
+        this.mode = mode;
+        this.poolSize = poolSize;
+        this.namePrefix = namePrefix;
+        this.factory = factory;
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public int getPoolSize() {
+        return poolSize;
+    }
+
+    /**
+     * Assign a lane to the link; a link that already has one keeps it
+     * @return the lane, or null in BINDER mode and after shutdown()
+     */
+    public synchronized L acquire(String deviceAddress) {
+        if (mode == Mode.BINDER || shutdown) return null;
+        Slot<L> slot = byAddress.get(deviceAddress);
+        if (slot != null) return slot.lane;
+        if (mode == Mode.SHARED && slots.size() >= poolSize) {
+            for (Slot<L> candidate : slots) {
+                if (slot == null || candidate.links < slot.links) {
+                    slot = candidate;
+                }
+            }
+        } else if (mode == Mode.PER_LINK) {
+            for (Slot<L> candidate : slots) {
+                if (candidate.links == 0) {
+                    slot = candidate;       // idle lane of a released link
+                    break;
+                }
+            }
+        }
+        if (slot == null) {
+            String name = namePrefix + (created++);
+            slot = new Slot<>(factory.create(name), name);
+            slots.add(slot);
+        }
+        slot.links++;
+        byAddress.put(deviceAddress, slot);
+        return slot.lane;
+    }
+
+    /**
+     * The link no longer needs its lane; the lane stays up for later links
+     */
+    public synchronized void release(String deviceAddress) {
+        Slot<L> slot = byAddress.remove(deviceAddress);
+        if (slot != null) {
+            slot.links--;
+        }
+    }
+
+    /**
+     * @return the link's lane, or null
+     */
+    public synchronized L laneOf(String deviceAddress) {
+        Slot<L> slot = byAddress.get(deviceAddress);
+        return slot != null ? slot.lane : null;
+    }
+
+    public synchronized List<L> getLanes() {
+        List<L> lanes = new ArrayList<>(slots.size());
+        for (Slot<L> slot : slots) {
+            lanes.add(slot.lane);
+        }
+        return lanes;
+    }
+
+    public synchronized int getThreadCount() {
+        return slots.size();
+    }
+
+    /**
+     * Quit every lane; later acquire() calls return null
+     */
+    public void shutdown() {
+        List<L> lanes;
+        synchronized (this) {
+            shutdown = true;
+            lanes = getLanes();
+            slots.clear();
+            byAddress.clear();
+        }
+        for (L lane : lanes) {
+            lane.quit();
+        }
+    }
+
+    /**
+     * Statistics of the calling thread, for the data path: looked up by name only on the thread's
+     * first callback
+     */
+    public ThreadStats currentThreadStats() {
+        ThreadStats stats = currentStats.get();
+        if (stats == null) {
+            stats = threadStats.computeIfAbsent(Thread.currentThread().getName(), ThreadStats::new);
+            currentStats.set(stats);
+        }
+        return stats;
+    }
+
+    /**
+     * Statistics of every thread that delivered callbacks since the last reset, busiest first
+     */
+    public List<ThreadStats> getThreadStats() {
+        List<ThreadStats> stats = new ArrayList<>(threadStats.size());
+        for (ThreadStats thread : threadStats.values()) {
+            if (thread.getCallbackCount() > 0) stats.add(thread);
+        }
+        stats.sort((a, b) -> Long.compare(b.getCpuNanos(), a.getCpuNanos()));
+        return stats;
+    }
+
+    /**
+     * Zero the statistics in place; the threads keep their (cached) entries
+     */
+    public void resetStats() {
+        for (ThreadStats stats : threadStats.values()) {
+            stats.reset();
+        }
+    }
+
+    public String getStatsSummary() {
+        StringBuilder sb = new StringBuilder("GATT callback threads (" + mode
+                + (mode == Mode.SHARED ? " x" + poolSize : "") + ")");
+        for (ThreadStats stats : getThreadStats()) {
+            sb.append("; ").append(stats);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,253 @@
+package com.have_no_eyes_deer.bleawsgateway.ble;
+
+import com.have_no_eyes_deer.bleawsgateway.pipeline.FrameReassembler;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.function.LongSupplier;
+
+/**
+ * L2CAP通道 - LE connection-oriented channel to one device, for bulk transfers such as a logged
+ * history dump
+ *
+ * A notification carries at most MTU-3 bytes and only a few fit in a connection event, while
+ * a CoC streams SDUs of up to 64 KB that the controller segments itself. The channel is
+ * connected and read by its own thread. The byte stream is cut into frames with a 2-byte
+ * little-endian length prefix, and each frame goes to the listener like a notification value.
+ * A length over maxFrameLength drops the rest of that read, so the next SDU starts a new frame.
+ *
+ * Flow control has two levels. The LE link returns credits to the peripheral only as the
+ * reader drains the socket; a listener that blocks, such as a pipeline ring with the BLOCK
+ * policy, therefore stalls the sender instead of losing frames. On top of that, creditWindow > 0
+ * enables frame credits for peripherals that pace themselves. The gateway grants creditWindow
+ * frames when the channel opens, then tops up with CREDIT_GRANT messages ([0xC0, count as
+ * uint16 LE]) each time half the window has been delivered.
+ *
+ * Downstream, a frame is keyed by SERVICE_KEY and sourceKey(psm) in place of the service and
+ * characteristic UUID, so a decoder can be registered for the channel's format.
+ */
+public class L2capChannel {
+
+    public static final int CREDIT_GRANT = 0xC0;
+    public static final long FRAME_TIMEOUT_MS = 2_000;
+    public static final String SERVICE_KEY = "l2cap";
+
+    /**
+     * The connected socket: BluetoothSocket streams in the app, pipes in tests
+     */
+    public static class Endpoint {
+        public final InputStream in;
+        public final OutputStream out;
+        public final int maxReceivePacketSize;  // largest SDU the peer may send
+        public final Closeable socket;
+
+        public Endpoint(InputStream in, OutputStream out, int maxReceivePacketSize, Closeable socket) {
+            this.in = in;
+            this.out = out;
+            this.maxReceivePacketSize = maxReceivePacketSize;
+            this.socket = socket;
+        }
+    }
+
+    public interface Connector {
+        /**
+         * Open and connect the channel; blocking, called on the channel's reader thread
+         */
+        Endpoint connect() throws IOException;
+    }
+
+    public interface Listener {
+        void onOpened(String deviceAddress, int maxReceivePacketSize);
+
+        /**
+         * One frame on the reader thread; buffer is only valid during the call.
+         * Blocking here holds back the sender.
+         */
+        void onFrame(String deviceAddress, byte[] buffer, int offset, int length, long timestampNanos);
+
+        /**
+         * @param error null if closed by close()
+         */
+        void onClosed(String deviceAddress, String error);
+    }
+
+    private final String deviceAddress;
+    private final Connector connector;
+    private final int creditWindow;
+    private final Listener listener;
+    private final LongSupplier nanoClock;
+    private final FrameReassembler reassembler = new FrameReassembler();
+    private final FrameReassembler.FrameSink frameSink = this::onFrame;
+
+    private Thread readerThread;
+    private volatile boolean closed;
+    private Endpoint endpoint;              // guarded by this
+    private int framesSinceGrant;           // reader thread only
+    private long readNanos;                 // reader thread only, arrival of the current read
+
+    // Statistics counters
+    private volatile long bytesReceived;
+    private volatile long framesReceived;
+    private volatile long creditsGranted;
+
+    /**
+     * @param maxFrameLength largest frame, longer ones are dropped as malformed
+     * @param creditWindow   frames the peripheral may have in flight, 0 = no frame credits
+     * @param nanoClock      SystemClock::elapsedRealtimeNanos, for the frame timestamps
+     */
+    public L2capChannel(String deviceAddress, Connector connector, int maxFrameLength, int creditWindow,
+                        Listener listener, LongSupplier nanoClock) {
+        if (creditWindow < 0 || creditWindow > 0xFFFF) {
+            throw new IllegalArgumentException("creditWindow out of range: " + creditWindow);
+        }
+        this.deviceAddress = deviceAddress;
+        this.connector = connector;
+        this.creditWindow = creditWindow;
+        this.listener = listener;
+        this.nanoClock = nanoClock;
+        reassembler.setDefaultFraming(FrameReassembler.Framing.lengthPrefixed(2, false, maxFrameLength,
+                FRAME_TIMEOUT_MS));
+    }
+
+    public static String sourceKey(int psm) {
+        return String.format(Locale.US, "l2cap-psm-%04x", psm);
+    }
+
+    public synchronized void open() {
+        if (readerThread != null) return;
+        readerThread = new Thread(this::run, "l2cap-" + deviceAddress);
+        readerThread.setDaemon(true);
+        readerThread.start();
+    }
+
+    public void close() {
+        closed = true;
+        Endpoint current;
+        synchronized (this) {
+            current = endpoint;
+        }
+        if (current != null) {
+            closeQuietly(current);              // unblocks the reader
+        }
+    }
+
+    /**
+     * Send bytes to the peripheral (e.g. a "dump history" command); blocking
+     */
+    public boolean write(byte[] data) {
+        Endpoint current;
+        synchronized (this) {
+            current = endpoint;
+        }
+        if (current == null || closed) {
+            return false;
+        }
+        try {
+            send(current, data);
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    public boolean isOpen() {
+        synchronized (this) {
+            return endpoint != null && !closed;
+        }
+    }
+
+    public String getDeviceAddress() {
+        return deviceAddress;
+    }
+
+    public long getBytesReceived() {
+        return bytesReceived;
+    }
+
+    public long getFramesReceived() {
+        return framesReceived;
+    }
+
+    public long getCreditsGranted() {
+        return creditsGranted;
+    }
+
+    public long getMalformedCount() {
+        return reassembler.getMalformedCount();
+    }
+
+    private void run() {
+        Endpoint current;
+        try {
+            current = connector.connect();
+        } catch (IOException | RuntimeException e) {
+            listener.onClosed(deviceAddress, closed ? null : "connect failed: " + e.getMessage());
+            return;
+        }
+        synchronized (this) {
+            endpoint = current;
+        }
+        if (closed) {
+            closeQuietly(current);
+            listener.onClosed(deviceAddress, null);
+            return;
+        }
+        listener.onOpened(deviceAddress, current.maxReceivePacketSize);
+
+        String error = null;
+        try {
+            if (creditWindow > 0) {
+                grant(current, creditWindow);
+            }
+            byte[] buffer = new byte[Math.max(current.maxReceivePacketSize, 512)];
+            while (!closed) {
+                int count = current.in.read(buffer);
+                if (count < 0) {
+                    error = "closed by peer";
+                    break;
+                }
+                bytesReceived += count;
+                // The reassembler works in milliseconds (frame timeout); frames get the raw nanos
+                readNanos = nanoClock.getAsLong();
+                reassembler.accept(0, null, null, null, readNanos / 1_000_000L, buffer, 0, count, frameSink);
+                if (creditWindow > 0 && framesSinceGrant >= Math.max(1, creditWindow / 2)) {
+                    grant(current, framesSinceGrant);
+                }
+            }
+        } catch (IOException e) {
+            error = e.getMessage();
+        } finally {
+            closeQuietly(current);
+        }
+        listener.onClosed(deviceAddress, closed ? null : error);
+    }
+
+    private void onFrame(int deviceIndex, long timestamp, byte[] buffer, int offset, int length) {
+        framesReceived++;
+        framesSinceGrant++;
+        listener.onFrame(deviceAddress, buffer, offset, length, readNanos);
+    }
+
+    private void grant(Endpoint current, int credits) throws IOException {
+        creditsGranted += credits;
+        framesSinceGrant = 0;
+        send(current, new byte[]{(byte) CREDIT_GRANT, (byte) credits, (byte) (credits >> 8)});
+    }
+
+    private static void send(Endpoint current, byte[] data) throws IOException {
+        synchronized (current.out) {
+            current.out.write(data);
+            current.out.flush();
+        }
+    }
+
+    private static void closeQuietly(Endpoint current) {
+        try {
+            current.socket.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.have_no_eyes_deer.bleawsgateway.ble;
+
+import android.bluetooth.BluetoothGatt;
+
+/**
+ * 链路参数配置 - MTU, connection priority and PHY applied to a link after connect
+ *
+ * Without an MTU exchange every notification is capped at 20 bytes (ATT MTU 23). The
+ * connection priority picks the connection interval (HIGH about 11-15ms, BALANCED 30-50ms,
+ * LOW_POWER 100-125ms) and the 2M PHY halves the airtime of each packet where both sides
+ * support it. The MTU can only be raised once per connection; the peripheral may settle on a
+ * lower value than requested.
+ */
+public class LinkProfile {
+
+    public static final int DEFAULT_MTU = 23;
+    public static final int MAX_MTU = 517;
+
+    public enum ConnectionPriority {
+        HIGH(BluetoothGatt.CONNECTION_PRIORITY_HIGH),
+        BALANCED(BluetoothGatt.CONNECTION_PRIORITY_BALANCED),
+        LOW_POWER(BluetoothGatt.CONNECTION_PRIORITY_LOW_POWER);
+
+        public final int gattValue;
+
+        ConnectionPriority(int gattValue) {
+            this.gattValue = gattValue;
+        }
+    }
+
+    /** Leave the link as the stack negotiated it */
+    public static final LinkProfile DEFAULT = new LinkProfile("default", 0, null, false);
+    /** Streaming sensors: largest MTU, shortest interval, 2M PHY */
+    public static final LinkProfile THROUGHPUT = new LinkProfile("throughput", MAX_MTU, ConnectionPriority.HIGH, true);
+    public static final LinkProfile BALANCED = new LinkProfile("balanced", 247, ConnectionPriority.BALANCED, false);
+    /** Slow sensors: long payloads when they report, long interval in between */
+    public static final LinkProfile LOW_POWER = new LinkProfile("low-power", 247, ConnectionPriority.LOW_POWER, false);
+
+    public final String name;
+    public final int targetMtu;                         // 0 = no MTU request
+    public final ConnectionPriority connectionPriority; // null = no request
+    public final boolean preferTwoMegPhy;
+
+    public LinkProfile(String name, int targetMtu, ConnectionPriority connectionPriority, boolean preferTwoMegPhy) {
+        if (targetMtu != 0 && (targetMtu < DEFAULT_MTU || targetMtu > MAX_MTU)) {
+            throw new IllegalArgumentException("MTU must be between " + DEFAULT_MTU + " and " + MAX_MTU + ": " + targetMtu);
+        }
+        this.name = name;
+        this.targetMtu = targetMtu;
+        this.connectionPriority = connectionPriority;
+        this.preferTwoMegPhy = preferTwoMegPhy;
+    }
+
+    /**
+     * Look up a preset by name, for settings
+     * @return the preset, or DEFAULT for unknown names
+     */
+    public static LinkProfile forName(String name) {
+        for (LinkProfile profile : new LinkProfile[]{THROUGHPUT, BALANCED, LOW_POWER}) {
+            if (profile.name.equals(name)) return profile;
+        }
+        return DEFAULT;
+    }
+
+    /**
+     * Largest notification / write payload for an ATT MTU
+     */
+    public static int maxPayload(int mtu) {
+        return mtu - 3;
+    }
+
+    @Override
+    public String toString() {
+        return name + " (mtu " + (targetMtu > 0 ? targetMtu : "-") + ", priority "
+                + (connectionPriority != null ? connectionPriority : "-") + (preferTwoMegPhy ? ", 2M PHY)" : ")");
+    }
+}
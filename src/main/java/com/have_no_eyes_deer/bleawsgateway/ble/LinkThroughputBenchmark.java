@@ -0,0 +1,123 @@
+package com.have_no_eyes_deer.bleawsgateway.ble;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.LongSupplier;
+
+/**
+ * 链路吞吐量测试 - measures notification bytes/s of one link under each LinkProfile in turn
+ *
+ * For every profile: apply it, let the link settle (MTU exchange, connection parameter and
+ * PHY update take a few connection events), then count the received bytes for the measuring
+ * period. The MTU of a connection cannot be lowered again, so profiles should be ordered by
+ * increasing MTU, or the link reconnected in between. The owner calls tick() periodically.
+ */
+public class LinkThroughputBenchmark {
+
+    /**
+     * The link under test
+     */
+    public interface Link {
+        void apply(LinkProfile profile);
+
+        /**
+         * Notification payload bytes received so far
+         */
+        long getBytesReceived();
+
+        /**
+         * MTU currently in effect
+         */
+        int getMtu();
+    }
+
+    public interface Listener {
+        void onFinished(String deviceAddress, List<Result> results);
+    }
+
+    public static class Result {
+        public LinkProfile profile;
+        public int mtu;
+        public long bytes;
+        public long durationMs;
+        public double bytesPerSecond;
+
+        @Override
+        public String toString() {
+            return String.format("%s: %.0f B/s (%d bytes in %dms, mtu %d)", profile, bytesPerSecond, bytes,
+                    durationMs, mtu);
+        }
+    }
+
+    private final Link link;
+    private final List<LinkProfile> profiles;
+    private final long settleMs;
+    private final long measureMs;
+    private final LongSupplier clock;
+    private final List<Result> results = new ArrayList<>();
+
+    private int index = -1;
+    private boolean measuring;
+    private long phaseStart;
+    private long bytesAtStart;
+
+    public LinkThroughputBenchmark(Link link, List<LinkProfile> profiles, long settleMs, long measureMs) {
+        this(link, profiles, settleMs, measureMs, System::currentTimeMillis);
+    }
+
+    public LinkThroughputBenchmark(Link link, List<LinkProfile> profiles, long settleMs, long measureMs, LongSupplier clock) {
+        this.link = link;
+        this.profiles = new ArrayList<>(profiles);
+        this.settleMs = settleMs;
+        this.measureMs = measureMs;
+        this.clock = clock;
+    }
+
+    public synchronized void start() {
+        if (index >= 0) return;
+        nextProfile(clock.getAsLong());
+    }
+
+    /**
+     * Advance the test
+     * @return true while the test is running
+     */
+    public synchronized boolean tick() {
+        if (isFinished()) return false;
+        long now = clock.getAsLong();
+        if (!measuring) {
+            if (now - phaseStart >= settleMs) {
+                measuring = true;
+                phaseStart = now;
+                bytesAtStart = link.getBytesReceived();
+            }
+        } else if (now - phaseStart >= measureMs) {
+            Result result = new Result();
+            result.profile = profiles.get(index);
+            result.mtu = link.getMtu();
+            result.bytes = link.getBytesReceived() - bytesAtStart;
+            result.durationMs = now - phaseStart;
+            result.bytesPerSecond = result.bytes * 1000.0 / Math.max(1, result.durationMs);
+            results.add(result);
+            nextProfile(now);
+        }
+        return !isFinished();
+    }
+
+    public synchronized boolean isFinished() {
+        return index >= profiles.size();
+    }
+
+    public synchronized List<Result> getResults() {
+        return new ArrayList<>(results);
+    }
+
+    private void nextProfile(long now) {
+        index++;
+        measuring = false;
+        phaseStart = now;
+        if (index < profiles.size()) {
+            link.apply(profiles.get(index));
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.have_no_eyes_deer.bleawsgateway.ble;
+
+import java.util.Arrays;
+
+/**
+ * 对数直方图 - counts non-negative values in power-of-two buckets, in whatever unit the owner
+ * records them
+ *
+ * Bucket 0 holds [0, 1), bucket i holds [2^(i-1), 2^i), the last bucket everything above.
+ * Percentiles are the upper bound of their bucket, capped at the largest value recorded, so
+ * they are exact to within a factor of two. Thread-safe.
+ */
+public class Log2Histogram {
+
+    private final long[] buckets;
+    private long count;
+    private long sum;
+    private long max;
+
+    /**
+     * @param bucketCount the last bucket starts at 2^(bucketCount - 2)
+     */
+    public Log2Histogram(int bucketCount) {
+        if (bucketCount < 2 || bucketCount > 64) {
+            throw new IllegalArgumentException("bucketCount out of range: " + bucketCount);
+        }
+        this.buckets = new long[bucketCount];
+    }
+
+    public synchronized void record(long value) {
+        int bucket = value <= 0 ? 0 : Math.min(buckets.length - 1, 64 - Long.numberOfLeadingZeros(value));
+        buckets[bucket]++;
+        count++;
+        sum += value;
+        max = Math.max(max, value);
+    }
+
+    public synchronized long getCount() {
+        return count;
+    }
+
+    public synchronized long getAverage() {
+        return count > 0 ? sum / count : 0;
+    }
+
+    public synchronized long getMax() {
+        return max;
+    }
+
+    /**
+     * Upper bound of the bucket holding the p-th percentile (capped at the maximum)
+     */
+    public synchronized long percentile(double p) {
+        if (count == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(p / 100.0 * count));
+        long seen = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            seen += buckets[i];
+            if (seen >= rank) {
+                return Math.min(max, i == 0 ? 0 : (1L << i) - 1);
+            }
+        }
+        return max;
+    }
+
+    public synchronized void clear() {
+        Arrays.fill(buckets, 0);
+        count = 0;
+        sum = 0;
+        max = 0;
+    }
+
+    public synchronized long[] getBuckets() {
+        return buckets.clone();
+    }
+}
@@ -0,0 +1,330 @@
+package com.have_no_eyes_deer.bleawsgateway.ble;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+/**
+ * 轮询模式 - duty-cycled visits to a roster of slow sensors, to serve more devices than the
+ * connection limit
+ *
+ * Each visit connects, subscribes to notifications (or reads once), collects for the device's
+ * window, then disconnects and frees the lane for the next device. When a lane is free the
+ * device furthest behind its cadence target is visited next, measured in minutes of lag:
+ * (samples expected by the end of a visit - samples collected) / target. Devices ahead of their
+ * target are left alone, so a roster with low targets is duty-cycled rather than kept connected.
+ *
+ * Connection handling is behind {@link Link}; the owner calls tick() periodically and reports
+ * GATT events with onReady / onSample / onLinkLost.
+ */
+public class RoundRobinPoller {
+    private static final String TAG = "RoundRobinPoller";
+
+    public static final long DEFAULT_CONNECT_TIMEOUT_MS = 10_000;
+
+    public enum Mode {
+        NOTIFY, // subscribe and collect for the window
+        READ    // read the characteristic once, then disconnect
+    }
+
+    public static class RosterEntry {
+        public final String deviceAddress;
+        public double targetSamplesPerMinute;
+        public long windowMs;       // NOTIFY: collection time per visit; READ: wait for the value at most
+        public Mode mode;
+
+        public RosterEntry(String deviceAddress, double targetSamplesPerMinute, long windowMs, Mode mode) {
+            this.deviceAddress = deviceAddress;
+            this.targetSamplesPerMinute = targetSamplesPerMinute;
+            this.windowMs = windowMs;
+            this.mode = mode;
+        }
+    }
+
+    /**
+     * Achieved versus target rate of one roster device
+     */
+    public static class DeviceReport {
+        public String deviceAddress;
+        public double targetSamplesPerMinute;
+        public double achievedSamplesPerMinute;
+        public long samples;
+        public int visits;
+        public int failedVisits;
+        public long averageConnectMs;   // visit start → ready, successful visits
+
+        @Override
+        public String toString() {
+            return String.format("%s: %.1f/%.1f samples/min, %d visits (%d failed), connect %dms",
+                    deviceAddress, achievedSamplesPerMinute, targetSamplesPerMinute, visits, failedVisits,
+                    averageConnectMs);
+        }
+    }
+
+    /**
+     * Connection side of the poller
+     */
+    public interface Link {
+        /**
+         * Connect and subscribe (or read, per mode); report onReady, or onLinkLost on failure
+         */
+        void connect(String deviceAddress, Mode mode);
+
+        /**
+         * End of a visit, no callback expected
+         */
+        void disconnect(String deviceAddress);
+    }
+
+    private static class DeviceState {
+        final RosterEntry entry;
+        long samples;
+        int visits;
+        int failedVisits;
+        long connectTimeSum;
+        int readyCount;
+        long retryAfter;        // failed visit: not picked again before this time
+        boolean visiting;
+        boolean ready;
+        long visitStart;
+        long readyAt;
+
+        DeviceState(RosterEntry entry) {
+            this.entry = entry;
+        }
+    }
+
+    private final Link link;
+    private final int lanes;
+    private final LongSupplier clock;
+    private long connectTimeoutMs = DEFAULT_CONNECT_TIMEOUT_MS;
+
+    // Guarded by this
+    private final Map<String, DeviceState> devices = new LinkedHashMap<>();
+    private int visiting = 0;
+    private long startTime;
+    private boolean running = false;
+
+    public RoundRobinPoller(List<RosterEntry> roster, int lanes, Link link) {
+        this(roster, lanes, link, System::currentTimeMillis);
+    }
+
+    /**
+     * @param lanes devices visited at the same time, at most the connection limit
+     * @param clock millisecond clock, virtual in tests
+     */
+    public RoundRobinPoller(List<RosterEntry> roster, int lanes, Link link, LongSupplier clock) {
+        this.link = link;
+        this.lanes = Math.max(1, lanes);
+        this.clock = clock;
+        for (RosterEntry entry : roster) {
+            devices.put(entry.deviceAddress, new DeviceState(entry));
+        }
+    }
+
+    public synchronized void setConnectTimeoutMs(long connectTimeoutMs) {
+        this.connectTimeoutMs = connectTimeoutMs;
+    }
+
+    public void start() {
+        List<String> connects = new ArrayList<>();
+        synchronized (this) {
+            if (running) return;
+            running = true;
+            startTime = clock.getAsLong();
+            fillLanes(startTime, connects);
+        }
+        connectAll(connects);
+    }
+
+    /**
+     * Stop visiting; devices connected right now are disconnected
+     */
+    public void stop() {
+        List<String> disconnects = new ArrayList<>();
+        synchronized (this) {
+            running = false;
+            for (DeviceState device : devices.values()) {
+                if (device.visiting) {
+                    device.visiting = false;
+                    disconnects.add(device.entry.deviceAddress);
+                }
+            }
+            visiting = 0;
+        }
+        for (String address : disconnects) {
+            link.disconnect(address);
+        }
+    }
+
+    public synchronized boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * @return the visit mode if the device is being visited right now, otherwise null
+     */
+    public synchronized Mode getVisitMode(String deviceAddress) {
+        DeviceState device = devices.get(deviceAddress);
+        return device != null && device.visiting ? device.entry.mode : null;
+    }
+
+    // ======================== events ========================
+
+    /**
+     * Connected and subscribed (or read issued): the collection window starts
+     */
+    public synchronized void onReady(String deviceAddress) {
+        DeviceState device = devices.get(deviceAddress);
+        if (device == null || !device.visiting || device.ready) return;
+        long now = clock.getAsLong();
+        device.ready = true;
+        device.readyAt = now;
+        device.connectTimeSum += now - device.visitStart;
+        device.readyCount++;
+    }
+
+    public void onSample(String deviceAddress) {
+        boolean endVisit;
+        synchronized (this) {
+            DeviceState device = devices.get(deviceAddress);
+            if (device == null || !device.visiting) return;
+            device.samples++;
+            endVisit = device.entry.mode == Mode.READ;
+        }
+        if (endVisit) {
+            finishVisit(deviceAddress, false);
+        }
+    }
+
+    /**
+     * Connect failed or link dropped during a visit
+     */
+    public void onLinkLost(String deviceAddress) {
+        boolean failed;
+        synchronized (this) {
+            DeviceState device = devices.get(deviceAddress);
+            if (device == null || !device.visiting) return;
+            failed = !device.ready;
+        }
+        finishVisit(deviceAddress, failed);
+    }
+
+    /**
+     * End windows and connect timeouts, start the next visits; call every few hundred ms
+     */
+    public void tick() {
+        List<String> finished = new ArrayList<>();
+        List<String> timedOut = new ArrayList<>();
+        synchronized (this) {
+            if (!running) return;
+            long now = clock.getAsLong();
+            for (DeviceState device : devices.values()) {
+                if (!device.visiting) continue;
+                if (device.ready && now - device.readyAt >= device.entry.windowMs) {
+                    finished.add(device.entry.deviceAddress);
+                } else if (!device.ready && now - device.visitStart >= connectTimeoutMs) {
+                    timedOut.add(device.entry.deviceAddress);
+                }
+            }
+        }
+        for (String address : finished) {
+            finishVisit(address, false);
+        }
+        for (String address : timedOut) {
+            Log.w(TAG, "Visit to " + address + " timed out");
+            finishVisit(address, true);
+        }
+        List<String> connects = new ArrayList<>();
+        synchronized (this) {
+            if (running) fillLanes(clock.getAsLong(), connects);
+        }
+        connectAll(connects);
+    }
+
+    private void finishVisit(String deviceAddress, boolean failed) {
+        List<String> connects = new ArrayList<>();
+        synchronized (this) {
+            DeviceState device = devices.get(deviceAddress);
+            if (device == null || !device.visiting) return;
+            device.visiting = false;
+            device.ready = false;
+            visiting--;
+            if (failed) {
+                device.failedVisits++;
+                device.retryAfter = clock.getAsLong() + connectTimeoutMs;
+            }
+            if (running) fillLanes(clock.getAsLong(), connects);
+        }
+        link.disconnect(deviceAddress);
+        connectAll(connects);
+    }
+
+    // ======================== scheduling ========================
+
+    // guarded by this
+    private void fillLanes(long now, List<String> connects) {
+        while (visiting < lanes) {
+            DeviceState next = null;
+            double nextLag = 0;
+            for (DeviceState device : devices.values()) {
+                if (device.visiting || device.entry.targetSamplesPerMinute <= 0 || now < device.retryAfter) continue;
+                double lag = lagMinutes(device, now);
+                if (lag > nextLag) {
+                    next = device;
+                    nextLag = lag;
+                }
+            }
+            if (next == null) return; // everyone is on target
+            next.visiting = true;
+            next.ready = false;
+            next.visits++;
+            next.visitStart = now;
+            visiting++;
+            connects.add(next.entry.deviceAddress);
+        }
+    }
+
+    /**
+     * Minutes the device will be behind its target at the end of a visit started now; a READ
+     * visit ends on its first sample, so there the window is only an upper bound and not counted
+     */
+    private double lagMinutes(DeviceState device, long now) {
+        long visitMs = device.entry.mode == Mode.NOTIFY ? device.entry.windowMs : 0;
+        double elapsedMinutes = (now - startTime + visitMs) / 60_000.0;
+        return elapsedMinutes - device.samples / device.entry.targetSamplesPerMinute;
+    }
+
+    private void connectAll(List<String> connects) {
+        for (String address : connects) {
+            Mode mode;
+            synchronized (this) {
+                mode = devices.get(address).entry.mode;
+            }
+            link.connect(address, mode);
+        }
+    }
+
+    // ======================== report ========================
+
+    public synchronized List<DeviceReport> getReport() {
+        long elapsed = Math.max(1, clock.getAsLong() - startTime);
+        List<DeviceReport> report = new ArrayList<>(devices.size());
+        for (DeviceState device : devices.values()) {
+            DeviceReport row = new DeviceReport();
+            row.deviceAddress = device.entry.deviceAddress;
+            row.targetSamplesPerMinute = device.entry.targetSamplesPerMinute;
+            row.achievedSamplesPerMinute = device.samples * 60_000.0 / elapsed;
+            row.samples = device.samples;
+            row.visits = device.visits;
+            row.failedVisits = device.failedVisits;
+            row.averageConnectMs = device.readyCount > 0 ? device.connectTimeSum / device.readyCount : 0;
+            report.add(row);
+        }
+        return report;
+    }
+}
@@ -0,0 +1,323 @@
+package com.have_no_eyes_deer.bleawsgateway.ble;
+
+import android.bluetooth.BluetoothDevice;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 扫描结果聚合器 - folds every advertisement into one entry per device and hands the UI
+ * a diff at most a few times per second
+ *
+ * Entries are keyed by the 48-bit MAC address packed into a long (open addressing, no boxing,
+ * no String hashing per result). Per device it keeps an EWMA of the RSSI, so a single weak
+ * packet does not make the list jump, and an EWMA of the advertising interval from the
+ * controller timestamps. A device only counts as changed for the next diff when its name
+ * appeared, its smoothed RSSI moved by at least rssiChangeThreshold dB, or it expired.
+ *
+ * Not thread-safe on its own; BleManager feeds and drains it on the main thread, where the
+ * ScanCallback runs.
+ */
+public class ScanAggregator {
+
+    private static final int INITIAL_CAPACITY = 64;            // power of two
+    private static final long MAX_INTERVAL_SAMPLE_NANOS = 10_000_000_000L; // longer gaps are missed packets
+
+    /**
+     * One device seen while scanning; read it only on the thread that drives the aggregator
+     */
+    public static class Entry {
+        public final long key;
+        public final String address;
+        public BluetoothDevice device;
+        public String name;                 // null until an advertisement carried one
+        public int lastRssi;
+        public double smoothedRssi;
+        public double advertisingIntervalMs = -1; // EWMA, -1 until two advertisements arrived
+        public long advertisementCount;
+        public long firstSeenNanos;
+        public long lastSeenNanos;
+        public int deviceId = DeviceRegistry.NO_ID; // set by BleManager when first published
+
+        int publishedRssi;                  // smoothed RSSI (rounded) the UI last got
+        boolean published;                  // reported as added at least once
+        boolean dirty;
+
+        Entry(long key, String address) {
+            this.key = key;
+            this.address = address;
+        }
+
+        public int getRssi() {
+            return (int) Math.round(smoothedRssi);
+        }
+    }
+
+    /**
+     * Changes since the previous diff; reused, only valid during the listener call
+     */
+    public static class Update {
+        public final List<Entry> added = new ArrayList<>();
+        public final List<Entry> changed = new ArrayList<>();
+        public final List<Entry> removed = new ArrayList<>();  // not seen for the expiry time
+        public int deviceCount;
+
+        public boolean isEmpty() {
+            return added.isEmpty() && changed.isEmpty() && removed.isEmpty();
+        }
+
+        void clear() {
+            added.clear();
+            changed.clear();
+            removed.clear();
+        }
+    }
+
+    public interface Listener {
+        void onScanUpdate(Update update);
+    }
+
+    private final double rssiAlpha;
+    private final double intervalAlpha;
+    private final int rssiChangeThreshold;
+    private final long expiryNanos;
+
+    private long[] keys = new long[INITIAL_CAPACITY];
+    private Entry[] slots = new Entry[INITIAL_CAPACITY];
+    private int size;
+    private final List<Entry> dirty = new ArrayList<>();
+    private final Update update = new Update();
+
+    // Statistics counters
+    private long advertisementCount;
+    private long ignoredCount;
+    private long updateCount;
+
+    /**
+     * Defaults: alpha 0.25, 3 dB change threshold, entries expire after 30 s
+     */
+    public ScanAggregator() {
+        this(0.25, 3, 30_000);
+    }
+
+    /**
+     * @param rssiAlpha            EWMA weight of a new RSSI sample, 1 = no smoothing
+     * @param rssiChangeThreshold  dB the smoothed RSSI has to move before the UI hears about it
+     * @param expiryMs             devices not heard from for this long are removed
+     */
+    public ScanAggregator(double rssiAlpha, int rssiChangeThreshold, long expiryMs) {
+        if (rssiAlpha <= 0 || rssiAlpha > 1) {
+            throw new IllegalArgumentException("rssiAlpha must be in (0, 1]: " + rssiAlpha);
+        }
+        this.rssiAlpha = rssiAlpha;
+        this.intervalAlpha = 0.125;
+        this.rssiChangeThreshold = rssiChangeThreshold;
+        this.expiryNanos = expiryMs * 1_000_000L;
+    }
+
+    /**
+     * Fold one scan result in
+     * @param timestampNanos ScanResult.getTimestampNanos(), elapsed realtime of the advertisement
+     * @return the device's entry, or null if the address could not be parsed
+     */
+    public Entry onAdvertisement(BluetoothDevice device, String address, String name, int rssi, long timestampNanos) {
+        long key = parseAddress(address);
+        if (key < 0) {
+            ignoredCount++;
+            return null;
+        }
+        advertisementCount++;
+        Entry entry = get(key);
+        if (entry == null) {
+            entry = new Entry(key, address);
+            entry.device = device;
+            entry.smoothedRssi = rssi;
+            entry.firstSeenNanos = timestampNanos;
+            put(entry);
+            markDirty(entry);
+        } else {
+            long delta = timestampNanos - entry.lastSeenNanos;
+            if (delta > 0 && delta <= MAX_INTERVAL_SAMPLE_NANOS) {
+                double deltaMs = delta / 1_000_000.0;
+                entry.advertisingIntervalMs = entry.advertisingIntervalMs < 0 ? deltaMs
+                        : entry.advertisingIntervalMs + intervalAlpha * (deltaMs - entry.advertisingIntervalMs);
+            }
+            entry.smoothedRssi += rssiAlpha * (rssi - entry.smoothedRssi);
+            if (device != null) entry.device = device;
+            if (!entry.published || Math.abs(entry.getRssi() - entry.publishedRssi) >= rssiChangeThreshold) {
+                markDirty(entry);
+            }
+        }
+        if (name != null && !name.isEmpty() && !name.equals(entry.name)) {
+            entry.name = name;
+            markDirty(entry);
+        }
+        entry.lastRssi = rssi;
+        entry.lastSeenNanos = Math.max(entry.lastSeenNanos, timestampNanos);
+        entry.advertisementCount++;
+        return entry;
+    }
+
+    /**
+     * Collect the changes since the last call and expire silent devices
+     * @return the diff (empty if nothing changed); reused by the next call
+     */
+    public Update drain(long nowNanos) {
+        update.clear();
+        for (int i = 0; i < dirty.size(); i++) {
+            Entry entry = dirty.get(i);
+            entry.dirty = false;
+            if (get(entry.key) != entry) continue;     // expired in between
+            if (entry.published) {
+                update.changed.add(entry);
+            } else {
+                entry.published = true;
+                update.added.add(entry);
+            }
+            entry.publishedRssi = entry.getRssi();
+        }
+        dirty.clear();
+
+        if (expiryNanos > 0) {
+            for (int i = 0; i < slots.length; i++) {
+                Entry entry = slots[i];
+                if (entry != null && nowNanos - entry.lastSeenNanos > expiryNanos) {
+                    // Every entry was published by the loop above, so the UI knows this one
+                    remove(entry.key);
+                    update.removed.add(entry);
+                    i--;                                // backward shift may have moved an entry here
+                }
+            }
+        }
+        update.deviceCount = size;
+        if (!update.isEmpty()) {
+            updateCount++;
+        }
+        return update;
+    }
+
+    public Entry get(String address) {
+        long key = parseAddress(address);
+        return key < 0 ? null : get(key);
+    }
+
+    public List<Entry> getEntries() {
+        List<Entry> entries = new ArrayList<>(size);
+        for (Entry entry : slots) {
+            if (entry != null) entries.add(entry);
+        }
+        return entries;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        keys = new long[INITIAL_CAPACITY];
+        slots = new Entry[INITIAL_CAPACITY];
+        size = 0;
+        dirty.clear();
+    }
+
+    public long getAdvertisementCount() {
+        return advertisementCount;
+    }
+
+    public long getIgnoredCount() {
+        return ignoredCount;
+    }
+
+    public long getUpdateCount() {
+        return updateCount;
+    }
+
+    /**
+     * "AA:BB:CC:DD:EE:FF" as a 48-bit value
+     * @return -1 if malformed
+     */
+    static long parseAddress(String address) {
+        if (address == null || address.length() != 17) return -1;
+        long value = 0;
+        for (int i = 0; i < 17; i++) {
+            char c = address.charAt(i);
+            if (i % 3 == 2) {
+                if (c != ':') return -1;
+                continue;
+            }
+            int digit = Character.digit(c, 16);
+            if (digit < 0) return -1;
+            value = (value << 4) | digit;
+        }
+        return value;
+    }
+
+    private void markDirty(Entry entry) {
+        if (!entry.dirty) {
+            entry.dirty = true;
+            dirty.add(entry);
+        }
+    }
+
+    // ======================== open addressing map ========================
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private Entry get(long key) {
+        int mask = slots.length - 1;
+        for (int i = hash(key) & mask; slots[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == key) return slots[i];
+        }
+        return null;
+    }
+
+    private void put(Entry entry) {
+        if ((size + 1) * 2 > slots.length) {
+            resize(slots.length * 2);
+        }
+        int mask = slots.length - 1;
+        int i = hash(entry.key) & mask;
+        while (slots[i] != null) {
+            i = (i + 1) & mask;
+        }
+        keys[i] = entry.key;
+        slots[i] = entry;
+        size++;
+    }
+
+    private void remove(long key) {
+        int mask = slots.length - 1;
+        int i = hash(key) & mask;
+        while (slots[i] != null && keys[i] != key) {
+            i = (i + 1) & mask;
+        }
+        if (slots[i] == null) return;
+        // Backward shift deletion keeps every probe sequence unbroken without tombstones
+        int hole = i;
+        for (int j = (hole + 1) & mask; slots[j] != null; j = (j + 1) & mask) {
+            int home = hash(keys[j]) & mask;
+            boolean movable = hole <= j ? (home <= hole || home > j) : (home <= hole && home > j);
+            if (movable) {
+                keys[hole] = keys[j];
+                slots[hole] = slots[j];
+                hole = j;
+            }
+        }
+        slots[hole] = null;
+        size--;
+    }
+
+    private void resize(int capacity) {
+        long[] oldKeys = keys;
+        Entry[] oldSlots = slots;
+        keys = new long[capacity];
+        slots = new Entry[capacity];
+        size = 0;
+        for (int i = 0; i < oldSlots.length; i++) {
+            if (oldSlots[i] != null) put(oldSlots[i]);
+        }
+    }
+}
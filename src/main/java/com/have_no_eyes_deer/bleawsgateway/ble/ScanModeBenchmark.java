@@ -0,0 +1,139 @@
+package com.have_no_eyes_deer.bleawsgateway.ble;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.LongSupplier;
+
+/**
+ * 扫描模式测试 - measures callback wakeups, results and CPU time of the scanner under each ScanProfile in turn
+ *
+ * For every profile: restart the scan with it, skip the settle period (the first batch of a
+ * batched scan and the initial burst of a fresh scan are not typical), then count scan callbacks
+ * (one per onScanResult / onBatchScanResults, i.e. one CPU wakeup each), the results they carried
+ * and the process CPU time for the measuring period. The owner calls tick() periodically.
+ */
+public class ScanModeBenchmark {
+
+    /**
+     * The scanner under test
+     */
+    public interface Scanner {
+        void apply(ScanProfile profile);
+
+        /**
+         * ScanCallback invocations so far
+         */
+        long getCallbackCount();
+
+        /**
+         * Scan results delivered so far, a batch counts each of its results
+         */
+        long getResultCount();
+
+        /**
+         * CPU time of the process so far, e.g. ResourceMonitor.getProcessCpuTimeMs()
+         */
+        long getCpuTimeMs();
+    }
+
+    public interface Listener {
+        void onFinished(List<Result> results);
+    }
+
+    public static class Result {
+        public ScanProfile profile;
+        public long callbacks;
+        public long results;
+        public long cpuTimeMs;
+        public long durationMs;
+        public double wakeupsPerSecond;
+        public double resultsPerSecond;
+        public double cpuPercent;           // of one core
+
+        @Override
+        public String toString() {
+            return String.format("%s: %.1f wakeups/s, %.1f results/s, cpu %.2f%% (%d callbacks, %d results, %dms cpu in %dms)",
+                    profile, wakeupsPerSecond, resultsPerSecond, cpuPercent, callbacks, results, cpuTimeMs, durationMs);
+        }
+    }
+
+    private final Scanner scanner;
+    private final List<ScanProfile> profiles;
+    private final long settleMs;
+    private final long measureMs;
+    private final LongSupplier clock;
+    private final List<Result> results = new ArrayList<>();
+
+    private int index = -1;
+    private boolean measuring;
+    private long phaseStart;
+    private long callbacksAtStart;
+    private long resultsAtStart;
+    private long cpuAtStart;
+
+    public ScanModeBenchmark(Scanner scanner, List<ScanProfile> profiles, long settleMs, long measureMs) {
+        this(scanner, profiles, settleMs, measureMs, System::currentTimeMillis);
+    }
+
+    public ScanModeBenchmark(Scanner scanner, List<ScanProfile> profiles, long settleMs, long measureMs, LongSupplier clock) {
+        this.scanner = scanner;
+        this.profiles = new ArrayList<>(profiles);
+        this.settleMs = settleMs;
+        this.measureMs = measureMs;
+        this.clock = clock;
+    }
+
+    public synchronized void start() {
+        if (index >= 0) return;
+        nextProfile(clock.getAsLong());
+    }
+
+    /**
+     * Advance the test
+     * @return true while the test is running
+     */
+    public synchronized boolean tick() {
+        if (isFinished()) return false;
+        long now = clock.getAsLong();
+        if (!measuring) {
+            if (now - phaseStart >= settleMs) {
+                measuring = true;
+                phaseStart = now;
+                callbacksAtStart = scanner.getCallbackCount();
+                resultsAtStart = scanner.getResultCount();
+                cpuAtStart = scanner.getCpuTimeMs();
+            }
+        } else if (now - phaseStart >= measureMs) {
+            Result result = new Result();
+            result.profile = profiles.get(index);
+            result.callbacks = scanner.getCallbackCount() - callbacksAtStart;
+            result.results = scanner.getResultCount() - resultsAtStart;
+            result.cpuTimeMs = scanner.getCpuTimeMs() - cpuAtStart;
+            result.durationMs = now - phaseStart;
+            double seconds = Math.max(1, result.durationMs) / 1000.0;
+            result.wakeupsPerSecond = result.callbacks / seconds;
+            result.resultsPerSecond = result.results / seconds;
+            result.cpuPercent = 100.0 * result.cpuTimeMs / Math.max(1, result.durationMs);
+            results.add(result);
+            nextProfile(now);
+        }
+        return !isFinished();
+    }
+
+    public synchronized boolean isFinished() {
+        return index >= profiles.size();
+    }
+
+    public synchronized List<Result> getResults() {
+        return new ArrayList<>(results);
+    }
+
+    private void nextProfile(long now) {
+        index++;
+        measuring = false;
+        phaseStart = now;
+        if (index < profiles.size()) {
+            scanner.apply(profiles.get(index));
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package com.have_no_eyes_deer.bleawsgateway.ble;
+
+import android.bluetooth.le.ScanSettings;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.IntFunction;
+
+/**
+ * 扫描参数配置 - scan mode, batching and filters used by BleManager.startScan()
+ *
+ * The scan mode sets the duty cycle of the radio (LOW_LATENCY scans continuously, BALANCED
+ * about a quarter of the time, LOW_POWER about a tenth). A report delay > 0 lets the
+ * controller queue results and hand them over in one onBatchScanResults call, so the CPU wakes
+ * once per delay instead of once per advertisement; it is only used where the adapter supports
+ * offloaded batching. Filters are OR'd: a result passes if it matches any of them. Service UUID
+ * and manufacturer data filters go to the controller as ScanFilters. ScanFilter only knows
+ * exact names, so a name prefix is checked in software on every result; a filter that consists
+ * of a name prefix only therefore turns the hardware filtering off for the whole profile.
+ * Note that since Android 8.1 an unfiltered scan pauses while the screen is off.
+ */
+public class ScanProfile {
+
+    public enum ScanMode {
+        LOW_LATENCY(ScanSettings.SCAN_MODE_LOW_LATENCY),
+        BALANCED(ScanSettings.SCAN_MODE_BALANCED),
+        LOW_POWER(ScanSettings.SCAN_MODE_LOW_POWER);
+
+        public final int settingsValue;
+
+        ScanMode(int settingsValue) {
+            this.settingsValue = settingsValue;
+        }
+    }
+
+    /**
+     * One filter; the criteria set in it must all match
+     */
+    public static class Filter {
+        public final UUID serviceUuid;              // null = any
+        public final String namePrefix;             // null = any
+        public final int manufacturerId;            // -1 = any
+        public final byte[] manufacturerData;       // leading bytes of the manufacturer data, may be empty
+        public final byte[] manufacturerDataMask;   // null = compare all bytes of manufacturerData
+
+        public Filter(UUID serviceUuid, String namePrefix, int manufacturerId, byte[] manufacturerData,
+                      byte[] manufacturerDataMask) {
+            if (manufacturerDataMask != null
+                    && (manufacturerData == null || manufacturerDataMask.length != manufacturerData.length)) {
+                throw new IllegalArgumentException("manufacturerDataMask must have the length of manufacturerData");
+            }
+            if (manufacturerId < 0 && manufacturerData != null) {
+                throw new IllegalArgumentException("manufacturerData needs a manufacturerId");
+            }
+            this.serviceUuid = serviceUuid;
+            this.namePrefix = namePrefix == null || namePrefix.isEmpty() ? null : namePrefix;
+            this.manufacturerId = manufacturerId;
+            this.manufacturerData = manufacturerId >= 0 && manufacturerData == null ? new byte[0] : manufacturerData;
+            this.manufacturerDataMask = manufacturerDataMask;
+        }
+
+        public static Filter service(UUID serviceUuid) {
+            return new Filter(serviceUuid, null, -1, null, null);
+        }
+
+        public static Filter namePrefix(String prefix) {
+            return new Filter(null, prefix, -1, null, null);
+        }
+
+        /**
+         * @param data leading bytes to compare, may be null to match any data of the manufacturer
+         */
+        public static Filter manufacturer(int manufacturerId, byte[] data, byte[] mask) {
+            return new Filter(null, null, manufacturerId, data, mask);
+        }
+
+        /**
+         * Whether the controller can evaluate this filter on its own
+         */
+        public boolean isHardwareFilter() {
+            return namePrefix == null && (serviceUuid != null || manufacturerId >= 0);
+        }
+
+        /**
+         * Software check of one advertisement
+         * @param manufacturerData manufacturer id -> data, null if absent
+         */
+        public boolean matches(String name, List<UUID> serviceUuids, IntFunction<byte[]> manufacturerData) {
+            if (namePrefix != null && (name == null || !name.startsWith(namePrefix))) {
+                return false;
+            }
+            if (serviceUuid != null && (serviceUuids == null || !serviceUuids.contains(serviceUuid))) {
+                return false;
+            }
+            if (manufacturerId >= 0) {
+                byte[] data = manufacturerData != null ? manufacturerData.apply(manufacturerId) : null;
+                if (data == null || data.length < this.manufacturerData.length) {
+                    return false;
+                }
+                for (int i = 0; i < this.manufacturerData.length; i++) {
+                    int mask = manufacturerDataMask != null ? manufacturerDataMask[i] : 0xFF;
+                    if (((data[i] ^ this.manufacturerData[i]) & mask) != 0) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            if (serviceUuid != null) sb.append("service ").append(serviceUuid);
+            if (namePrefix != null) sb.append(sb.length() > 0 ? ", " : "").append("name ").append(namePrefix).append('*');
+            if (manufacturerId >= 0) {
+                sb.append(sb.length() > 0 ? ", " : "").append(String.format("manufacturer 0x%04X", manufacturerId));
+                if (manufacturerData.length > 0) sb.append(' ').append(Arrays.toString(manufacturerData));
+            }
+            return sb.length() > 0 ? sb.toString() : "any";
+        }
+    }
+
+    /** What startScan() did before scan profiles: the ScanSettings default (LOW_POWER), every result delivered at once */
+    public static final ScanProfile DEFAULT = new ScanProfile("default", ScanMode.LOW_POWER, 0, null);
+    /** Device list in the foreground: continuous scanning, no batching */
+    public static final ScanProfile LOW_LATENCY = new ScanProfile("low-latency", ScanMode.LOW_LATENCY, 0, null);
+    /** Background discovery: low duty cycle, results delivered in batches */
+    public static final ScanProfile LOW_POWER = new ScanProfile("low-power", ScanMode.LOW_POWER, 5_000, null);
+
+    public final String name;
+    public final ScanMode scanMode;
+    public final long reportDelayMs;                // 0 = deliver every result at once
+    public final List<Filter> filters;              // empty = no filtering
+
+    public ScanProfile(String name, ScanMode scanMode, long reportDelayMs, List<Filter> filters) {
+        if (scanMode == null) {
+            throw new IllegalArgumentException("scanMode must not be null");
+        }
+        if (reportDelayMs < 0) {
+            throw new IllegalArgumentException("reportDelayMs must not be negative: " + reportDelayMs);
+        }
+        this.name = name;
+        this.scanMode = scanMode;
+        this.reportDelayMs = reportDelayMs;
+        this.filters = filters == null ? Collections.emptyList() : Collections.unmodifiableList(new ArrayList<>(filters));
+    }
+
+    /**
+     * Look up a preset by name, for settings
+     * @return the preset, or DEFAULT for unknown names
+     */
+    public static ScanProfile forName(String name) {
+        for (ScanProfile profile : new ScanProfile[]{LOW_LATENCY, LOW_POWER}) {
+            if (profile.name.equals(name)) return profile;
+        }
+        return DEFAULT;
+    }
+
+    /**
+     * The same mode and batching with these filters instead
+     */
+    public ScanProfile withFilters(List<Filter> filters) {
+        return new ScanProfile(name, scanMode, reportDelayMs, filters);
+    }
+
+    /**
+     * Filters to hand to the controller; empty if any filter needs the software check
+     * (an empty ScanFilter list lets everything through)
+     */
+    public List<Filter> getHardwareFilters() {
+        for (Filter filter : filters) {
+            if (!filter.isHardwareFilter()) return Collections.emptyList();
+        }
+        return filters;
+    }
+
+    /**
+     * Whether results have to be checked with accepts(), i.e. the controller does not filter alone
+     */
+    public boolean needsSoftwareFilter() {
+        return !filters.isEmpty() && getHardwareFilters().isEmpty();
+    }
+
+    public boolean accepts(String name, List<UUID> serviceUuids, IntFunction<byte[]> manufacturerData) {
+        if (filters.isEmpty()) return true;
+        for (Filter filter : filters) {
+            if (filter.matches(name, serviceUuids, manufacturerData)) return true;
+        }
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return name + " (" + scanMode + ", report delay " + reportDelayMs + "ms, filters "
+                + (filters.isEmpty() ? "-" : filters.toString()) + ")";
+    }
+}
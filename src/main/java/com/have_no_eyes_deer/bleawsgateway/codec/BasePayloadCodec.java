@@ -0,0 +1,63 @@
+package com.have_no_eyes_deer.bleawsgateway.codec;
+
+import com.have_no_eyes_deer.bleawsgateway.decoder.PayloadDecoderRegistry;
+import com.have_no_eyes_deer.bleawsgateway.model.BleDataModel;
+import com.have_no_eyes_deer.bleawsgateway.model.DecodedReading;
+import com.have_no_eyes_deer.bleawsgateway.mqtt.MqttDataSender;
+
+/**
+ * Shared plumbing for the binary codecs: output buffer and access to the decoded fields
+ * Not thread-safe: one instance per encoding thread
+ */
+abstract class BasePayloadCodec implements MqttDataSender.PayloadCodec {
+
+    private static final byte[] EMPTY = new byte[0];
+
+    protected final PayloadBuffer out = new PayloadBuffer();
+    private final PayloadDecoderRegistry decoders = PayloadDecoderRegistry.createDefault();
+    private final DecodedReading scratch = new DecodedReading();
+
+    @Override
+    public boolean isBinary() {
+        return true;
+    }
+
+    @Override
+    public byte[] encode(BleDataModel data) {
+        out.reset();
+        encode(data, reading(data), out);
+        return out.toByteArray();
+    }
+
+    protected abstract void encode(BleDataModel data, DecodedReading reading, PayloadBuffer out);
+
+    /**
+     * Typed fields from the pipeline decode stage, decoded here if the reading did not go through it
+     */
+    private DecodedReading reading(BleDataModel data) {
+        DecodedReading reading = data.getDecoded();
+        if (reading == null) {
+            reading = scratch;
+            decoders.decode(decoders.resolve(data.getServiceUuid(), data.getCharacteristicUuid(), data.getDeviceName()),
+                    rawData(data), 0, rawLength(data), reading);
+        }
+        return reading;
+    }
+
+    /**
+     * Raw payload buffer, valid up to rawLength(data) (pooled readings carry a larger buffer)
+     */
+    protected static byte[] rawData(BleDataModel data) {
+        byte[] raw = data.getRawBuffer();
+        return raw != null ? raw : EMPTY;
+    }
+
+    protected static int rawLength(BleDataModel data) {
+        return data.getRawBuffer() != null ? data.getRawLength() : 0;
+    }
+
+    protected static String deviceName(BleDataModel data) {
+        String deviceName = data.getDeviceName();
+        return deviceName == null || deviceName.trim().isEmpty() ? "Unknown" : deviceName;
+    }
+}
@@ -0,0 +1,97 @@
+package com.have_no_eyes_deer.bleawsgateway.codec;
+
+import com.have_no_eyes_deer.bleawsgateway.model.BleDataModel;
+import com.have_no_eyes_deer.bleawsgateway.model.DecodedReading;
+
+/**
+ * Fixed-layout binary frame codec, published under ".../data/bin"
+ *
+ * Frame (big-endian, 30 bytes):
+ * <pre>
+ *  0  u8   version (1)
+ *  1  u8   kind: 0 temperature sample, 1 sensor, 2 raw
+ *  2  u8   field mask, bit n set when DecodedReading field n is present
+ *  3  u8   battery %, 0xFF if absent
+ *  4  6B   device MAC address
+ * 10  i64  timestamp, epoch ms
+ * 18  u32  sample number, 0 if absent
+ * 22  f32  temperature °C, NaN if absent
+ * 26  f32  humidity %, NaN if absent
+ * </pre>
+ * A raw frame (nothing decoded) is followed by u16 length + the raw payload, so frames
+ * stay self-delimiting when a batch concatenates them. The device name is not sent; the
+ * topic already identifies the device.
+ */
+public class BinaryFramePayloadCodec extends BasePayloadCodec {
+
+    public static final int VERSION = 1;
+    public static final int FRAME_SIZE = 30;
+
+    public static final int KIND_TEMPERATURE_SAMPLE = 0;
+    public static final int KIND_SENSOR = 1;
+    public static final int KIND_RAW = 2;
+
+    private static final int MAX_RAW_LENGTH = 0xFFFF;
+
+    @Override
+    public String getName() {
+        return "binary";
+    }
+
+    @Override
+    public String getContentType() {
+        return "application/octet-stream";
+    }
+
+    @Override
+    public String getTopicSuffix() {
+        return "/bin";
+    }
+
+    @Override
+    protected void encode(BleDataModel data, DecodedReading reading, PayloadBuffer out) {
+        int mask = 0;
+        for (int field = 0; field < DecodedReading.FIELD_COUNT; field++) {
+            if (reading.has(field)) mask |= 1 << field;
+        }
+        boolean raw = mask == 0;
+        int kind = raw ? KIND_RAW
+                : reading.kind == DecodedReading.Kind.TEMPERATURE_SAMPLE ? KIND_TEMPERATURE_SAMPLE : KIND_SENSOR;
+
+        out.writeByte(VERSION)
+                .writeByte(kind)
+                .writeByte(mask)
+                .writeByte(reading.has(DecodedReading.BATTERY)
+                        ? (int) Math.max(0, Math.min(254, reading.get(DecodedReading.BATTERY))) : 0xFF);
+        writeMacAddress(out, data.getDeviceAddress());
+        out.writeLong(data.getTimestampMillis())
+                .writeInt(reading.has(DecodedReading.SAMPLE_NUMBER) ? (int) reading.get(DecodedReading.SAMPLE_NUMBER) : 0)
+                .writeFloat((float) reading.get(DecodedReading.TEMPERATURE))
+                .writeFloat((float) reading.get(DecodedReading.HUMIDITY));
+
+        if (raw) {
+            byte[] payload = rawData(data);
+            int length = Math.min(rawLength(data), MAX_RAW_LENGTH);
+            out.writeShort(length).write(payload, 0, length);
+        }
+    }
+
+    /**
+     * "AA:BB:CC:DD:EE:FF" as 6 bytes; missing or malformed octets are written as zero
+     */
+    static void writeMacAddress(PayloadBuffer out, String address) {
+        int index = 0;
+        for (int octet = 0; octet < 6; octet++) {
+            int value = 0;
+            if (address != null && index + 1 < address.length()) {
+                int high = Character.digit(address.charAt(index), 16);
+                int low = Character.digit(address.charAt(index + 1), 16);
+                if (high >= 0 && low >= 0) {
+                    value = (high << 4) | low;
+                }
+            }
+            out.writeByte(value);
+            index += 3;
+        }
+    }
+}
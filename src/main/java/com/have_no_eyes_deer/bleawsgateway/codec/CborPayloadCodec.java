@@ -0,0 +1,79 @@
+package com.have_no_eyes_deer.bleawsgateway.codec;
+
+/**
+ * CBOR (RFC 8949) payload codec, published under ".../data/cbor"
+ * Batches are CBOR sequences (RFC 8742): items concatenated without a wrapper
+ */
+public class CborPayloadCodec extends MapPayloadCodec {
+
+    private static final int MAJOR_UNSIGNED = 0;
+    private static final int MAJOR_NEGATIVE = 1;
+    private static final int MAJOR_BYTES = 2;
+    private static final int MAJOR_TEXT = 3;
+    private static final int MAJOR_MAP = 5;
+    private static final int FLOAT32 = 0xFA;
+
+    @Override
+    public String getName() {
+        return "cbor";
+    }
+
+    @Override
+    public String getContentType() {
+        return "application/cbor";
+    }
+
+    @Override
+    public String getTopicSuffix() {
+        return "/cbor";
+    }
+
+    @Override
+    protected void writeMapHeader(PayloadBuffer out, int entries) {
+        writeHead(out, MAJOR_MAP, entries);
+    }
+
+    @Override
+    protected void writeText(PayloadBuffer out, String value) {
+        writeHead(out, MAJOR_TEXT, PayloadBuffer.utf8Length(value));
+        out.writeUtf8(value);
+    }
+
+    @Override
+    protected void writeInteger(PayloadBuffer out, long value) {
+        if (value >= 0) {
+            writeHead(out, MAJOR_UNSIGNED, value);
+        } else {
+            writeHead(out, MAJOR_NEGATIVE, -1 - value);
+        }
+    }
+
+    @Override
+    protected void writeFloat(PayloadBuffer out, float value) {
+        out.writeByte(FLOAT32).writeFloat(value);
+    }
+
+    @Override
+    protected void writeBytes(PayloadBuffer out, byte[] value, int offset, int length) {
+        writeHead(out, MAJOR_BYTES, length);
+        out.write(value, offset, length);
+    }
+
+    /**
+     * Initial byte plus the shortest argument encoding
+     */
+    static void writeHead(PayloadBuffer out, int major, long argument) {
+        int type = major << 5;
+        if (argument < 24) {
+            out.writeByte(type | (int) argument);
+        } else if (argument < 0x100) {
+            out.writeByte(type | 24).writeByte((int) argument);
+        } else if (argument < 0x10000) {
+            out.writeByte(type | 25).writeShort((int) argument);
+        } else if (argument < 0x100000000L) {
+            out.writeByte(type | 26).writeInt((int) argument);
+        } else {
+            out.writeByte(type | 27).writeLong(argument);
+        }
+    }
+}
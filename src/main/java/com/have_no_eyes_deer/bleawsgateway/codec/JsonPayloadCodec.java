@@ -0,0 +1,42 @@
+package com.have_no_eyes_deer.bleawsgateway.codec;
+
+import com.have_no_eyes_deer.bleawsgateway.model.BleDataModel;
+import com.have_no_eyes_deer.bleawsgateway.mqtt.MqttDataSender;
+import com.have_no_eyes_deer.bleawsgateway.pipeline.JsonWriter;
+import com.have_no_eyes_deer.bleawsgateway.pipeline.TelemetryFormatter;
+
+/**
+ * JSON payload codec - the TelemetryFormatter document on the plain device data topic
+ * Not thread-safe: one instance per encoding thread
+ */
+public class JsonPayloadCodec implements MqttDataSender.PayloadCodec {
+
+    private final TelemetryFormatter formatter = new TelemetryFormatter();
+    private final JsonWriter writer = new JsonWriter();
+
+    @Override
+    public String getName() {
+        return "json";
+    }
+
+    @Override
+    public String getContentType() {
+        return "application/json";
+    }
+
+    @Override
+    public String getTopicSuffix() {
+        return "";
+    }
+
+    @Override
+    public boolean isBinary() {
+        return false;
+    }
+
+    @Override
+    public byte[] encode(BleDataModel data) {
+        formatter.encode(data, writer);
+        return writer.toByteArray();
+    }
+}
@@ -0,0 +1,60 @@
+package com.have_no_eyes_deer.bleawsgateway.codec;
+
+import com.have_no_eyes_deer.bleawsgateway.model.BleDataModel;
+import com.have_no_eyes_deer.bleawsgateway.model.DecodedReading;
+
+/**
+ * Self-describing map encoding shared by CBOR and MessagePack
+ *
+ * Same keys as the JSON payload, but the timestamp is epoch milliseconds and the decoded
+ * fields are numbers: integers stay integers, decimals become float32 (more precision than
+ * any of our sensors report). The raw payload is only sent, as a byte string, when no
+ * field could be decoded.
+ */
+abstract class MapPayloadCodec extends BasePayloadCodec {
+
+    @Override
+    protected void encode(BleDataModel data, DecodedReading reading, PayloadBuffer out) {
+        boolean sendRaw = !reading.hasNumericFields();
+        int entries = 4 + (sendRaw ? 1 : 0);
+        for (int field = 0; field < DecodedReading.FIELD_COUNT; field++) {
+            if (reading.has(field)) entries++;
+        }
+
+        writeMapHeader(out, entries);
+        writeText(out, "device");
+        writeText(out, data.getDeviceAddress());
+        writeText(out, "deviceName");
+        writeText(out, deviceName(data));
+        writeText(out, "timestamp");
+        writeInteger(out, data.getTimestampMillis());
+        writeText(out, "type");
+        writeText(out, reading.kind == DecodedReading.Kind.TEMPERATURE_SAMPLE ? "temperature" : "sensor_data");
+        for (int field = 0; field < DecodedReading.FIELD_COUNT; field++) {
+            if (!reading.has(field)) continue;
+            writeText(out, DecodedReading.fieldName(field));
+            double value = reading.get(field);
+            long integral = (long) value;
+            if (integral == value) {
+                writeInteger(out, integral);
+            } else {
+                writeFloat(out, (float) value);
+            }
+        }
+        if (sendRaw) {
+            byte[] raw = rawData(data);
+            writeText(out, "data");
+            writeBytes(out, raw, 0, rawLength(data));
+        }
+    }
+
+    protected abstract void writeMapHeader(PayloadBuffer out, int entries);
+
+    protected abstract void writeText(PayloadBuffer out, String value);
+
+    protected abstract void writeInteger(PayloadBuffer out, long value);
+
+    protected abstract void writeFloat(PayloadBuffer out, float value);
+
+    protected abstract void writeBytes(PayloadBuffer out, byte[] value, int offset, int length);
+}
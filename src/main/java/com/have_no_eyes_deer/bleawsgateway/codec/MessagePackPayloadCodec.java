@@ -0,0 +1,93 @@
+package com.have_no_eyes_deer.bleawsgateway.codec;
+
+/**
+ * MessagePack payload codec, published under ".../data/msgpack"
+ * Batches are a plain MessagePack stream: objects concatenated without a wrapper
+ */
+public class MessagePackPayloadCodec extends MapPayloadCodec {
+
+    @Override
+    public String getName() {
+        return "msgpack";
+    }
+
+    @Override
+    public String getContentType() {
+        return "application/msgpack";
+    }
+
+    @Override
+    public String getTopicSuffix() {
+        return "/msgpack";
+    }
+
+    @Override
+    protected void writeMapHeader(PayloadBuffer out, int entries) {
+        if (entries < 16) {
+            out.writeByte(0x80 | entries);
+        } else if (entries < 0x10000) {
+            out.writeByte(0xDE).writeShort(entries);
+        } else {
+            out.writeByte(0xDF).writeInt(entries);
+        }
+    }
+
+    @Override
+    protected void writeText(PayloadBuffer out, String value) {
+        int length = PayloadBuffer.utf8Length(value);
+        if (length < 32) {
+            out.writeByte(0xA0 | length);
+        } else if (length < 0x100) {
+            out.writeByte(0xD9).writeByte(length);
+        } else if (length < 0x10000) {
+            out.writeByte(0xDA).writeShort(length);
+        } else {
+            out.writeByte(0xDB).writeInt(length);
+        }
+        out.writeUtf8(value);
+    }
+
+    @Override
+    protected void writeInteger(PayloadBuffer out, long value) {
+        if (value >= 0) {
+            if (value < 0x80) {
+                out.writeByte((int) value);
+            } else if (value < 0x100) {
+                out.writeByte(0xCC).writeByte((int) value);
+            } else if (value < 0x10000) {
+                out.writeByte(0xCD).writeShort((int) value);
+            } else if (value < 0x100000000L) {
+                out.writeByte(0xCE).writeInt((int) value);
+            } else {
+                out.writeByte(0xCF).writeLong(value);
+            }
+        } else if (value >= -32) {
+            out.writeByte((int) value); // negative fixint
+        } else if (value >= Byte.MIN_VALUE) {
+            out.writeByte(0xD0).writeByte((int) value);
+        } else if (value >= Short.MIN_VALUE) {
+            out.writeByte(0xD1).writeShort((int) value);
+        } else if (value >= Integer.MIN_VALUE) {
+            out.writeByte(0xD2).writeInt((int) value);
+        } else {
+            out.writeByte(0xD3).writeLong(value);
+        }
+    }
+
+    @Override
+    protected void writeFloat(PayloadBuffer out, float value) {
+        out.writeByte(0xCA).writeFloat(value);
+    }
+
+    @Override
+    protected void writeBytes(PayloadBuffer out, byte[] value, int offset, int length) {
+        if (length < 0x100) {
+            out.writeByte(0xC4).writeByte(length);
+        } else if (length < 0x10000) {
+            out.writeByte(0xC5).writeShort(length);
+        } else {
+            out.writeByte(0xC6).writeInt(length);
+        }
+        out.write(value, offset, length);
+    }
+}
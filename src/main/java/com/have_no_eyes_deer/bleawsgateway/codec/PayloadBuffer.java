@@ -0,0 +1,136 @@
+package com.have_no_eyes_deer.bleawsgateway.codec;
+
+import java.util.Arrays;
+
+/**
+ * Payload buffer - growable big-endian byte buffer the binary codecs encode into
+ * Reused between messages; not thread-safe
+ */
+public final class PayloadBuffer {
+
+    private byte[] buf;
+    private int len;
+
+    public PayloadBuffer() {
+        this(128);
+    }
+
+    public PayloadBuffer(int initialCapacity) {
+        buf = new byte[Math.max(16, initialCapacity)];
+    }
+
+    public PayloadBuffer reset() {
+        len = 0;
+        return this;
+    }
+
+    public PayloadBuffer writeByte(int value) {
+        ensure(1);
+        buf[len++] = (byte) value;
+        return this;
+    }
+
+    public PayloadBuffer writeShort(int value) {
+        ensure(2);
+        buf[len++] = (byte) (value >>> 8);
+        buf[len++] = (byte) value;
+        return this;
+    }
+
+    public PayloadBuffer writeInt(int value) {
+        ensure(4);
+        buf[len++] = (byte) (value >>> 24);
+        buf[len++] = (byte) (value >>> 16);
+        buf[len++] = (byte) (value >>> 8);
+        buf[len++] = (byte) value;
+        return this;
+    }
+
+    public PayloadBuffer writeLong(long value) {
+        writeInt((int) (value >>> 32));
+        return writeInt((int) value);
+    }
+
+    public PayloadBuffer writeFloat(float value) {
+        return writeInt(Float.floatToIntBits(value));
+    }
+
+    public PayloadBuffer writeDouble(double value) {
+        return writeLong(Double.doubleToLongBits(value));
+    }
+
+    public PayloadBuffer write(byte[] bytes, int offset, int length) {
+        ensure(length);
+        System.arraycopy(bytes, offset, buf, len, length);
+        len += length;
+        return this;
+    }
+
+    /**
+     * Write a string as UTF-8 (unpaired surrogates become '?', as String.getBytes does)
+     */
+    public PayloadBuffer writeUtf8(String value) {
+        ensure(value.length() * 3);
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                buf[len++] = (byte) c;
+            } else if (c < 0x800) {
+                buf[len++] = (byte) (0xC0 | (c >> 6));
+                buf[len++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, value.charAt(++i));
+                buf[len++] = (byte) (0xF0 | (cp >> 18));
+                buf[len++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                buf[len++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                buf[len++] = (byte) (0x80 | (cp & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                buf[len++] = '?';
+            } else {
+                buf[len++] = (byte) (0xE0 | (c >> 12));
+                buf[len++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buf[len++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Encoded UTF-8 length of a string, matching writeUtf8
+     */
+    public static int utf8Length(String value) {
+        int length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                length++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    public int length() {
+        return len;
+    }
+
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buf, len);
+    }
+
+    private void ensure(int extra) {
+        if (len + extra > buf.length) {
+            buf = Arrays.copyOf(buf, Math.max(buf.length * 2, len + extra));
+        }
+    }
+}
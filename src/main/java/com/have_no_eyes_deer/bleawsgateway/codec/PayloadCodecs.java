@@ -0,0 +1,40 @@
+package com.have_no_eyes_deer.bleawsgateway.codec;
+
+import com.have_no_eyes_deer.bleawsgateway.mqtt.MqttDataSender;
+
+import java.util.Locale;
+
+/**
+ * Payload codec factory, codecs are selected by name (e.g. from settings)
+ */
+public final class PayloadCodecs {
+
+    public static final String JSON = "json";
+    public static final String CBOR = "cbor";
+    public static final String MESSAGE_PACK = "msgpack";
+    public static final String BINARY = "binary";
+
+    public static final String[] NAMES = {JSON, CBOR, MESSAGE_PACK, BINARY};
+
+    private PayloadCodecs() {
+    }
+
+    /**
+     * @return a new codec instance (codecs keep per-thread buffers, do not share them)
+     * @throws IllegalArgumentException for an unknown name
+     */
+    public static MqttDataSender.PayloadCodec create(String name) {
+        switch (name.toLowerCase(Locale.US)) {
+            case JSON:
+                return new JsonPayloadCodec();
+            case CBOR:
+                return new CborPayloadCodec();
+            case MESSAGE_PACK:
+                return new MessagePackPayloadCodec();
+            case BINARY:
+                return new BinaryFramePayloadCodec();
+            default:
+                throw new IllegalArgumentException("Unknown payload codec: " + name);
+        }
+    }
+}
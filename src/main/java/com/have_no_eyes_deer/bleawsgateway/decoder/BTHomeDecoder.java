@@ -0,0 +1,128 @@
+package com.have_no_eyes_deer.bleawsgateway.decoder;
+
+import com.have_no_eyes_deer.bleawsgateway.model.DecodedReading;
+
+/**
+ * BTHome v2 decoder - service data of UUID 0xFCD2 (https://bthome.io/format/)
+ *
+ * The value starts with the device information byte (bit 0 encryption, bits 5-7 version),
+ * followed by objects of one id byte and a fixed-size little-endian value, in id order. Packet
+ * id, battery, temperature and humidity become typed fields; the other objects are skipped.
+ * Encrypted payloads are rejected, and so is the rest of a payload after an unknown object
+ * id, since its size is not known.
+ */
+public class BTHomeDecoder implements PayloadDecoder {
+
+    private static final int ENCRYPTED = 0x01;
+    private static final int VERSION_SHIFT = 5;
+    private static final int VERSION = 2;
+
+    private static final int PACKET_ID = 0x00;
+    private static final int BATTERY = 0x01;
+    private static final int TEMPERATURE_CENTI = 0x02;
+    private static final int HUMIDITY_CENTI = 0x03;
+    private static final int HUMIDITY_PERCENT = 0x2E;
+    private static final int TEMPERATURE_DECI = 0x45;
+    private static final int TEXT = 0x53;
+    private static final int RAW = 0x54;
+
+    // Value size per object id, 0 = unknown
+    private static final byte[] SIZES = new byte[256];
+
+    static {
+        // Binary sensors (generic boolean .. window), one byte each; the table below overrides the
+        // sensor ids inside that range (0x12 CO2, 0x13 TVOC, 0x14 moisture)
+        for (int id = 0x0F; id <= 0x2D; id++) {
+            SIZES[id] = 1;
+        }
+        int[][] sizes = {
+                {0x00, 1}, {0x01, 1}, {0x02, 2}, {0x03, 2}, {0x04, 3}, {0x05, 3}, {0x06, 2}, {0x07, 2},
+                {0x08, 2}, {0x09, 1}, {0x0A, 3}, {0x0B, 3}, {0x0C, 2}, {0x0D, 2}, {0x0E, 2}, {0x12, 2},
+                {0x13, 2}, {0x14, 2}, {0x2E, 1}, {0x2F, 1}, {0x3A, 1}, {0x3C, 2}, {0x3D, 2}, {0x3E, 4},
+                {0x3F, 2}, {0x40, 2}, {0x41, 2}, {0x42, 3}, {0x43, 2}, {0x44, 2}, {0x45, 2}, {0x46, 1},
+                {0x47, 2}, {0x48, 2}, {0x49, 2}, {0x4A, 2}, {0x4B, 3}, {0x4C, 4}, {0x4D, 4}, {0x4E, 4},
+                {0x4F, 4}, {0x50, 4}, {0x51, 2}, {0x52, 2}, {0x55, 4}, {0xF0, 2}, {0xF1, 4}, {0xF2, 3},
+        };
+        for (int[] size : sizes) {
+            SIZES[size[0]] = (byte) size[1];
+        }
+    }
+
+    @Override
+    public boolean decode(byte[] data, int offset, int length, DecodedReading out) {
+        int end = offset + length;
+        if (length < 1 || !isPlainV2(data[offset])) {
+            return false;
+        }
+        int i = offset + 1;
+        while (i < end) {
+            int id = data[i++] & 0xFF;
+            int size;
+            if (id == TEXT || id == RAW) {
+                if (i >= end) return false;
+                size = data[i++] & 0xFF;
+            } else {
+                size = SIZES[id];
+                if (size == 0) break;               // unknown object, size unknown
+            }
+            if (i + size > end) {
+                return false;
+            }
+            switch (id) {
+                case PACKET_ID:
+                    out.set(DecodedReading.SAMPLE_NUMBER, data[i] & 0xFF);
+                    break;
+                case BATTERY:
+                    out.set(DecodedReading.BATTERY, data[i] & 0xFF);
+                    break;
+                case TEMPERATURE_CENTI:
+                    out.set(DecodedReading.TEMPERATURE, signed16(data, i) / 100.0);
+                    break;
+                case TEMPERATURE_DECI:
+                    out.set(DecodedReading.TEMPERATURE, signed16(data, i) / 10.0);
+                    break;
+                case HUMIDITY_CENTI:
+                    out.set(DecodedReading.HUMIDITY, unsigned16(data, i) / 100.0);
+                    break;
+                case HUMIDITY_PERCENT:
+                    out.set(DecodedReading.HUMIDITY, data[i] & 0xFF);
+                    break;
+                default:
+                    break;
+            }
+            i += size;
+        }
+        out.kind = DecodedReading.Kind.SENSOR;
+        out.binaryPayload = true;
+        return true;
+    }
+
+    /**
+     * Packet id of a payload, for dropping the repeats of one measurement
+     * (objects are in id order, so it is the first one if present)
+     * @return 0-255, or -1 if the payload has none or is not plain BTHome v2
+     */
+    public static int packetId(byte[] data, int offset, int length) {
+        if (length < 3 || !isPlainV2(data[offset]) || data[offset + 1] != PACKET_ID) {
+            return -1;
+        }
+        return data[offset + 2] & 0xFF;
+    }
+
+    private static boolean isPlainV2(byte deviceInfo) {
+        return (deviceInfo & ENCRYPTED) == 0 && ((deviceInfo & 0xFF) >> VERSION_SHIFT) == VERSION;
+    }
+
+    private static int signed16(byte[] data, int i) {
+        return (short) ((data[i] & 0xFF) | (data[i + 1] << 8));
+    }
+
+    private static int unsigned16(byte[] data, int i) {
+        return (data[i] & 0xFF) | ((data[i + 1] & 0xFF) << 8);
+    }
+
+    @Override
+    public String getName() {
+        return "bthome";
+    }
+}
@@ -0,0 +1,43 @@
+package com.have_no_eyes_deer.bleawsgateway.decoder;
+
+import com.have_no_eyes_deer.bleawsgateway.model.DecodedReading;
+
+/**
+ * Board sample decoder - the Nano 33 board's "Sample:<temperature>°C" notification
+ * (see board_program.py). The degree sign and unit are optional.
+ */
+public class BoardSampleDecoder implements PayloadDecoder {
+
+    private static final byte[] PREFIX = {'S', 'a', 'm', 'p', 'l', 'e', ':'};
+    // "°" in UTF-8
+    private static final byte DEGREE_LEAD = (byte) 0xC2;
+    private static final byte DEGREE_TRAIL = (byte) 0xB0;
+
+    @Override
+    public boolean decode(byte[] data, int offset, int length, DecodedReading out) {
+        int end = offset + length;
+        if (!NumberParser.startsWith(data, offset, end, PREFIX)) {
+            return false;
+        }
+        int i = NumberParser.parse(data, offset + PREFIX.length, end, DecodedReading.TEMPERATURE, out);
+        if (i < 0) {
+            return false;
+        }
+        if (i + 1 < end && data[i] == DEGREE_LEAD && data[i + 1] == DEGREE_TRAIL) {
+            i += 2;
+        }
+        if (i < end && data[i] == 'C') {
+            i++;
+        }
+        if (i != end) {
+            return false;
+        }
+        out.kind = DecodedReading.Kind.SENSOR;
+        return true;
+    }
+
+    @Override
+    public String getName() {
+        return "board-sample";
+    }
+}
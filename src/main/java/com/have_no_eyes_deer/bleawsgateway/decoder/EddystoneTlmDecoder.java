@@ -0,0 +1,41 @@
+package com.have_no_eyes_deer.bleawsgateway.decoder;
+
+import com.have_no_eyes_deer.bleawsgateway.model.DecodedReading;
+
+/**
+ * Eddystone TLM decoder - unencrypted telemetry frame in the service data of UUID 0xFEAA
+ *
+ * Frame type 0x20, version 0x00, then big-endian battery voltage (mV), beacon temperature
+ * (signed 8.8 fixed point, 0x8000 = not supported), advertising PDU count and time since
+ * power-on in 0.1 s. The temperature becomes a typed field and the PDU count the sample
+ * number; the voltage stays in the published hex payload (the battery field is a percentage).
+ */
+public class EddystoneTlmDecoder implements PayloadDecoder {
+
+    private static final int FRAME_TLM = 0x20;
+    private static final int VERSION_PLAIN = 0x00;
+    private static final int FRAME_LENGTH = 14;
+    private static final int TEMPERATURE_NOT_SUPPORTED = 0x8000;
+
+    @Override
+    public boolean decode(byte[] data, int offset, int length, DecodedReading out) {
+        if (length < FRAME_LENGTH || (data[offset] & 0xFF) != FRAME_TLM || data[offset + 1] != VERSION_PLAIN) {
+            return false;
+        }
+        int temperature = ((data[offset + 4] & 0xFF) << 8) | (data[offset + 5] & 0xFF);
+        if (temperature != TEMPERATURE_NOT_SUPPORTED) {
+            out.set(DecodedReading.TEMPERATURE, (short) temperature / 256.0);
+        }
+        long pduCount = ((data[offset + 6] & 0xFFL) << 24) | ((data[offset + 7] & 0xFF) << 16)
+                | ((data[offset + 8] & 0xFF) << 8) | (data[offset + 9] & 0xFF);
+        out.set(DecodedReading.SAMPLE_NUMBER, pduCount);
+        out.kind = DecodedReading.Kind.SENSOR;
+        out.binaryPayload = true;
+        return true;
+    }
+
+    @Override
+    public String getName() {
+        return "eddystone-tlm";
+    }
+}
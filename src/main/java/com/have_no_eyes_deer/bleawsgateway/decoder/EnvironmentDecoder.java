@@ -0,0 +1,41 @@
+package com.have_no_eyes_deer.bleawsgateway.decoder;
+
+import com.have_no_eyes_deer.bleawsgateway.model.DecodedReading;
+
+/**
+ * Environment decoder - "T:<temperature>,H:<humidity>,B:<battery>"
+ * (the format MockDataGenerator produces)
+ */
+public class EnvironmentDecoder implements PayloadDecoder {
+
+    private static final byte[] TEMPERATURE = {'T', ':'};
+    private static final byte[] HUMIDITY = {',', 'H', ':'};
+    private static final byte[] BATTERY = {',', 'B', ':'};
+
+    @Override
+    public boolean decode(byte[] data, int offset, int length, DecodedReading out) {
+        int end = offset + length;
+        if (!NumberParser.startsWith(data, offset, end, TEMPERATURE)) {
+            return false;
+        }
+        int i = NumberParser.parse(data, offset + TEMPERATURE.length, end, DecodedReading.TEMPERATURE, out);
+        if (i < 0 || !NumberParser.startsWith(data, i, end, HUMIDITY)) {
+            return false;
+        }
+        i = NumberParser.parse(data, i + HUMIDITY.length, end, DecodedReading.HUMIDITY, out);
+        if (i < 0 || !NumberParser.startsWith(data, i, end, BATTERY)) {
+            return false;
+        }
+        i = NumberParser.parseInteger(data, i + BATTERY.length, end, DecodedReading.BATTERY, out);
+        if (i != end) {
+            return false;
+        }
+        out.kind = DecodedReading.Kind.SENSOR;
+        return true;
+    }
+
+    @Override
+    public String getName() {
+        return "environment";
+    }
+}
@@ -0,0 +1,32 @@
+package com.have_no_eyes_deer.bleawsgateway.decoder;
+
+import com.have_no_eyes_deer.bleawsgateway.model.DecodedReading;
+
+/**
+ * iBeacon decoder - Apple (company 0x004C) manufacturer data "02 15", proximity UUID, major,
+ * minor, measured power
+ *
+ * An iBeacon carries no measurements; the reading is only a sighting, published with the
+ * payload as hex.
+ */
+public class IBeaconDecoder implements PayloadDecoder {
+
+    public static final int APPLE_COMPANY_ID = 0x004C;
+    private static final byte[] PREFIX = {0x02, 0x15};
+    private static final int FRAME_LENGTH = 23;
+
+    @Override
+    public boolean decode(byte[] data, int offset, int length, DecodedReading out) {
+        if (length != FRAME_LENGTH || data[offset] != PREFIX[0] || data[offset + 1] != PREFIX[1]) {
+            return false;
+        }
+        out.kind = DecodedReading.Kind.RAW;
+        out.binaryPayload = true;
+        return true;
+    }
+
+    @Override
+    public String getName() {
+        return "ibeacon";
+    }
+}
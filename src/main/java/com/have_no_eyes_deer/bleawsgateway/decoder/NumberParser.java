@@ -0,0 +1,103 @@
+package com.have_no_eyes_deer.bleawsgateway.decoder;
+
+import com.have_no_eyes_deer.bleawsgateway.model.DecodedReading;
+
+/**
+ * Number parser - reads "-?digits(.digits)?" from ASCII bytes without allocating
+ */
+final class NumberParser {
+
+    private static final int MAX_DIGITS = 18; // fits a long mantissa
+    private static final double[] POW10 = new double[MAX_DIGITS + 1];
+
+    static {
+        double value = 1;
+        for (int i = 0; i <= MAX_DIGITS; i++) {
+            POW10[i] = value;
+            value *= 10;
+        }
+    }
+
+    private NumberParser() {
+    }
+
+    /**
+     * Parse a number starting at start and store it as the given field
+     * @return index just after the number, or -1 if there is no valid number at start
+     */
+    static int parse(byte[] data, int start, int end, int field, DecodedReading out) {
+        int i = start;
+        boolean negative = false;
+        if (i < end && data[i] == '-') {
+            negative = true;
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int integerStart = i;
+        while (i < end && isDigit(data[i])) {
+            mantissa = mantissa * 10 + (data[i] - '0');
+            digits++;
+            i++;
+        }
+        if (i == integerStart) {
+            return -1;
+        }
+        int fractionDigits = 0;
+        if (i < end && data[i] == '.') {
+            int fractionStart = ++i;
+            while (i < end && isDigit(data[i])) {
+                mantissa = mantissa * 10 + (data[i] - '0');
+                digits++;
+                i++;
+            }
+            fractionDigits = i - fractionStart;
+            if (fractionDigits == 0) {
+                return -1;
+            }
+        }
+        if (digits > MAX_DIGITS) {
+            return -1;
+        }
+        double value = mantissa / POW10[fractionDigits];
+        out.set(field, negative ? -value : value, start, i - start);
+        return i;
+    }
+
+    /**
+     * Parse an unsigned integer
+     * @return index just after the digits, or -1 if there are none
+     */
+    static int parseInteger(byte[] data, int start, int end, int field, DecodedReading out) {
+        long value = 0;
+        int i = start;
+        while (i < end && isDigit(data[i]) && i - start < MAX_DIGITS) {
+            value = value * 10 + (data[i] - '0');
+            i++;
+        }
+        if (i == start || (i < end && isDigit(data[i]))) {
+            return -1;
+        }
+        out.set(field, value, start, i - start);
+        return i;
+    }
+
+    static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
+    }
+
+    /**
+     * Whether data[offset..] starts with the ASCII prefix
+     */
+    static boolean startsWith(byte[] data, int offset, int end, byte[] prefix) {
+        if (end - offset < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (data[offset + i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
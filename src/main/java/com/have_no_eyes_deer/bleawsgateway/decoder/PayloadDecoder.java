@@ -0,0 +1,25 @@
+package com.have_no_eyes_deer.bleawsgateway.decoder;
+
+import com.have_no_eyes_deer.bleawsgateway.model.DecodedReading;
+
+/**
+ * Payload decoder interface - parses one notification format into typed fields
+ * Implementations must not allocate and must be safe to call from any single thread at a time
+ */
+public interface PayloadDecoder {
+
+    /**
+     * Decode a notification value
+     * @param data raw value
+     * @param offset start of the value in data
+     * @param length value length
+     * @param out reading to fill (already reset)
+     * @return false if the value is not in this decoder's format
+     */
+    boolean decode(byte[] data, int offset, int length, DecodedReading out);
+
+    /**
+     * Decoder name, used in statistics
+     */
+    String getName();
+}
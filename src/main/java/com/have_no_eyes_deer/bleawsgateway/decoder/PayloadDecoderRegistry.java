@@ -0,0 +1,162 @@
+package com.have_no_eyes_deer.bleawsgateway.decoder;
+
+import com.have_no_eyes_deer.bleawsgateway.model.DecodedReading;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Payload decoder registry - picks the decoder for a notification source
+ *
+ * Lookup order: characteristic UUID → service UUID → device name prefix. A keyed decoder
+ * that rejects the value falls through to the probe decoders (tried in registration order)
+ * and finally to the fallback, so every value decodes to at least a RAW reading.
+ * Resolve once per source and keep the result; decode() itself does not allocate.
+ * Advertisement payloads come with their service data UUID, or manufacturerKey(companyId),
+ * as the service.
+ */
+public class PayloadDecoderRegistry {
+
+    // Nano 33 board (board_program.py)
+    public static final String BOARD_SERVICE_UUID = "4a981234-1cc4-e7c1-c757-f1267dd021e8";
+    public static final String BOARD_NOTIFY_CHARACTERISTIC_UUID = "4a981236-1cc4-e7c1-c757-f1267dd021e8";
+    // Advertisement service data
+    public static final String BTHOME_SERVICE_UUID = "0000fcd2-0000-1000-8000-00805f9b34fb";
+    public static final String EDDYSTONE_SERVICE_UUID = "0000feaa-0000-1000-8000-00805f9b34fb";
+
+    private static class NamePrefix {
+        final String prefix;
+        final PayloadDecoder decoder;
+
+        NamePrefix(String prefix, PayloadDecoder decoder) {
+            this.prefix = prefix;
+            this.decoder = decoder;
+        }
+    }
+
+    private final ConcurrentHashMap<String, PayloadDecoder> byCharacteristic = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, PayloadDecoder> byService = new ConcurrentHashMap<>();
+    private final List<NamePrefix> byNamePrefix = new CopyOnWriteArrayList<>();
+    private final List<PayloadDecoder> probes = new CopyOnWriteArrayList<>();
+    private volatile PayloadDecoder fallback = new RawPayloadDecoder();
+
+    /**
+     * Registry with the formats our boards and the mock generator emit
+     */
+    public static PayloadDecoderRegistry createDefault() {
+        PayloadDecoderRegistry registry = new PayloadDecoderRegistry();
+        BoardSampleDecoder boardSample = new BoardSampleDecoder();
+        registry.registerCharacteristic(BOARD_NOTIFY_CHARACTERISTIC_UUID, boardSample);
+        registry.addProbe(new TemperatureSampleDecoder());
+        registry.addProbe(boardSample);
+        registry.addProbe(new EnvironmentDecoder());
+        registry.registerService(BTHOME_SERVICE_UUID, new BTHomeDecoder());
+        registry.registerService(EDDYSTONE_SERVICE_UUID, new EddystoneTlmDecoder());
+        registry.registerManufacturer(IBeaconDecoder.APPLE_COMPANY_ID, new IBeaconDecoder());
+        return registry;
+    }
+
+    /**
+     * Source key of manufacturer specific advertisement data, used in place of a service UUID
+     */
+    public static String manufacturerKey(int companyId) {
+        return String.format(Locale.US, "manufacturer-%04x", companyId);
+    }
+
+    public void registerCharacteristic(String characteristicUuid, PayloadDecoder decoder) {
+        byCharacteristic.put(normalize(characteristicUuid), decoder);
+    }
+
+    public void registerService(String serviceUuid, PayloadDecoder decoder) {
+        byService.put(normalize(serviceUuid), decoder);
+    }
+
+    /**
+     * Decoder for the manufacturer specific advertisement data of a company id
+     */
+    public void registerManufacturer(int companyId, PayloadDecoder decoder) {
+        registerService(manufacturerKey(companyId), decoder);
+    }
+
+    public void registerNamePrefix(String namePrefix, PayloadDecoder decoder) {
+        byNamePrefix.add(new NamePrefix(namePrefix, decoder));
+    }
+
+    /**
+     * Add a decoder tried (in order) for values without a keyed decoder
+     */
+    public void addProbe(PayloadDecoder decoder) {
+        probes.add(decoder);
+    }
+
+    public void setFallback(PayloadDecoder decoder) {
+        this.fallback = decoder != null ? decoder : new RawPayloadDecoder();
+    }
+
+    /**
+     * Find the decoder registered for a source
+     * @return keyed decoder, or null if only the probes apply
+     */
+    public PayloadDecoder resolve(String serviceUuid, String characteristicUuid, String deviceName) {
+        PayloadDecoder decoder;
+        if (characteristicUuid != null && (decoder = byCharacteristic.get(normalize(characteristicUuid))) != null) {
+            return decoder;
+        }
+        if (serviceUuid != null && (decoder = byService.get(normalize(serviceUuid))) != null) {
+            return decoder;
+        }
+        if (deviceName != null) {
+            for (NamePrefix entry : byNamePrefix) {
+                if (deviceName.startsWith(entry.prefix)) {
+                    return entry.decoder;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Decode a value
+     * @param keyed decoder from resolve(), may be null
+     */
+    public void decode(PayloadDecoder keyed, byte[] data, int offset, int length, DecodedReading out) {
+        if (keyed != null && tryDecode(keyed, data, offset, length, out)) {
+            return;
+        }
+        for (int i = 0, n = probes.size(); i < n; i++) {
+            PayloadDecoder probe = probes.get(i);
+            if (probe != keyed && tryDecode(probe, data, offset, length, out)) {
+                return;
+            }
+        }
+        PayloadDecoder last = fallback;
+        if (!tryDecode(last, data, offset, length, out)) {
+            out.reset();
+            out.decoderName = last.getName();
+        }
+    }
+
+    /**
+     * Resolve and decode in one call (for callers without a per-source cache)
+     */
+    public void decode(String serviceUuid, String characteristicUuid, String deviceName,
+                       byte[] data, DecodedReading out) {
+        decode(resolve(serviceUuid, characteristicUuid, deviceName), data, 0, data.length, out);
+    }
+
+    private static boolean tryDecode(PayloadDecoder decoder, byte[] data, int offset, int length,
+                                     DecodedReading out) {
+        out.reset();
+        if (decoder.decode(data, offset, length, out)) {
+            out.decoderName = decoder.getName();
+            return true;
+        }
+        return false;
+    }
+
+    private static String normalize(String uuid) {
+        return uuid.toLowerCase(Locale.US);
+    }
+}
@@ -0,0 +1,20 @@
+package com.have_no_eyes_deer.bleawsgateway.decoder;
+
+import com.have_no_eyes_deer.bleawsgateway.model.DecodedReading;
+
+/**
+ * Raw payload decoder - fallback that accepts anything and extracts no fields
+ */
+public class RawPayloadDecoder implements PayloadDecoder {
+
+    @Override
+    public boolean decode(byte[] data, int offset, int length, DecodedReading out) {
+        out.kind = DecodedReading.Kind.RAW;
+        return true;
+    }
+
+    @Override
+    public String getName() {
+        return "raw";
+    }
+}
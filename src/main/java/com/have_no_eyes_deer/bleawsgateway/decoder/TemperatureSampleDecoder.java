@@ -0,0 +1,32 @@
+package com.have_no_eyes_deer.bleawsgateway.decoder;
+
+import com.have_no_eyes_deer.bleawsgateway.model.DecodedReading;
+
+/**
+ * Temperature sample decoder - "T<sample>:<temperature>C", e.g. "T1:23.5C"
+ */
+public class TemperatureSampleDecoder implements PayloadDecoder {
+
+    @Override
+    public boolean decode(byte[] data, int offset, int length, DecodedReading out) {
+        int end = offset + length;
+        if (length < 5 || data[offset] != 'T' || data[end - 1] != 'C') {
+            return false;
+        }
+        int i = NumberParser.parseInteger(data, offset + 1, end, DecodedReading.SAMPLE_NUMBER, out);
+        if (i < 0 || i >= end || data[i] != ':') {
+            return false;
+        }
+        i = NumberParser.parse(data, i + 1, end - 1, DecodedReading.TEMPERATURE, out);
+        if (i != end - 1) {
+            return false;
+        }
+        out.kind = DecodedReading.Kind.TEMPERATURE_SAMPLE;
+        return true;
+    }
+
+    @Override
+    public String getName() {
+        return "temperature-sample";
+    }
+}
@@ -0,0 +1,352 @@
+package com.have_no_eyes_deer.bleawsgateway.filter;
+
+import com.have_no_eyes_deer.bleawsgateway.model.BleDataModel;
+import com.have_no_eyes_deer.bleawsgateway.model.DecodedReading;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Reading filter - report-by-exception stage that drops readings whose decoded values did
+ * not change enough to be worth an MQTT message
+ *
+ * Rules are set per decoded field, either for all devices or for one device address. State is
+ * kept per stream, i.e. per device and characteristic (L2CAP channel, advertisement source key:
+ * BleDataModel.getCharacteristicUuid()), so two probes of one device that report the same field
+ * are filtered independently. A reading is forwarded when any of its fields asks for it:
+ * <ul>
+ *   <li>deadband: the value moved more than max(absoluteDeadband, percentDeadband % of the
+ *       last published value) away from the last published value (both 0: any change)</li>
+ *   <li>heartbeat: nothing was published for the stream for maxSilenceMs</li>
+ *   <li>swinging door: with swingingDoorDeviation &gt; 0 the deadband is replaced by
+ *       swinging door compression; when the current point no longer fits the corridor from
+ *       the last published point, the previous (held back) reading is released instead, so
+ *       linear interpolation between published readings stays within the deviation</li>
+ * </ul>
+ * ...but never more often than the largest minIntervalMs of its fields. Readings without
+ * decoded numeric fields, or without any rule, always pass.
+ *
+ * Not thread-safe: the pipeline calls filter() from its transform thread only. Rules may be
+ * changed from any thread.
+ */
+public class ReadingFilter {
+
+    public static class Rule {
+        public double absoluteDeadband;
+        public double percentDeadband;
+        public long minIntervalMs;
+        public long maxSilenceMs;           // 0: no heartbeat
+        public double swingingDoorDeviation; // 0: deadband instead of swinging door
+
+        public Rule() {
+        }
+
+        public Rule(double absoluteDeadband, double percentDeadband, long minIntervalMs, long maxSilenceMs) {
+            this.absoluteDeadband = absoluteDeadband;
+            this.percentDeadband = percentDeadband;
+            this.minIntervalMs = minIntervalMs;
+            this.maxSilenceMs = maxSilenceMs;
+        }
+
+        public static Rule swingingDoor(double deviation, long minIntervalMs, long maxSilenceMs) {
+            Rule rule = new Rule(0, 0, minIntervalMs, maxSilenceMs);
+            rule.swingingDoorDeviation = deviation;
+            return rule;
+        }
+    }
+
+    /**
+     * Filter state of one field of one stream
+     */
+    private static class FieldState {
+        boolean published;
+        double lastValue;       // last published value
+        // Swinging door: anchor is the last published point
+        long anchorTime;
+        double anchorValue;
+        boolean doorOpen;       // at least one point since the anchor
+        double upperSlope;
+        double lowerSlope;
+    }
+
+    private static class StreamState {
+        final FieldState[] fields = new FieldState[DecodedReading.FIELD_COUNT];
+        boolean published;
+        long lastPublishedTime;
+        BleDataModel held;      // last suppressed reading of a swinging door field, candidate for release
+        Rule[] rules;
+        long rulesVersion = -1;
+
+        StreamState() {
+            for (int i = 0; i < fields.length; i++) {
+                fields[i] = new FieldState();
+            }
+        }
+    }
+
+    private final Rule[] defaultRules = new Rule[DecodedReading.FIELD_COUNT];
+    private final Map<String, Rule[]> deviceRules = new ConcurrentHashMap<>();
+    private volatile long rulesVersion = 0;
+
+    // device address -> characteristic (source key) -> state
+    private final Map<String, Map<String, StreamState>> devices = new HashMap<>();
+    private final double[] upperScratch = new double[DecodedReading.FIELD_COUNT];
+    private final double[] lowerScratch = new double[DecodedReading.FIELD_COUNT];
+
+    // Statistics counters, written by the filtering thread
+    private volatile long inputCount = 0;
+    private volatile long forwardedCount = 0;
+    private volatile long heartbeatCount = 0;
+    private volatile long releasedCount = 0;
+
+    /**
+     * Rule for a field of every device without a device rule for it
+     */
+    public synchronized void setDefaultRule(int field, Rule rule) {
+        defaultRules[field] = rule;
+        rulesVersion++;
+    }
+
+    /**
+     * Rule for one field of one device, overrides the default rule
+     */
+    public synchronized void setRule(String deviceAddress, int field, Rule rule) {
+        Rule[] rules = deviceRules.get(deviceAddress);
+        rules = rules != null ? rules.clone() : new Rule[DecodedReading.FIELD_COUNT];
+        rules[field] = rule;
+        deviceRules.put(deviceAddress, rules);
+        rulesVersion++;
+    }
+
+    /**
+     * Filter one reading
+     * @param out receives the readings to publish, in order: nothing, the reading itself,
+     *            and/or an earlier held-back reading released by the swinging door
+     * @return number of readings added to out
+     */
+    public int filter(BleDataModel reading, List<BleDataModel> out) {
+        return filter(reading, out, null);
+    }
+
+    /**
+     * Filter one reading and report the ones the filter lets go of for good
+     * @param dropped receives the readings that will never be published: the reading itself when
+     *                it is suppressed and not held back, or an earlier held-back reading that is
+     *                replaced or no longer needed. Every reading ends up in out or in dropped
+     *                exactly once, so pooled records can be recycled. May be null.
+     */
+    public int filter(BleDataModel reading, List<BleDataModel> out, List<BleDataModel> dropped) {
+        inputCount++;
+        DecodedReading decoded = reading.getDecoded();
+        if (decoded == null || !decoded.hasNumericFields()) {
+            return forward(reading, null, out, dropped);
+        }
+
+        StreamState state = stateFor(reading);
+        Rule[] rules = rulesFor(state, reading.getDeviceAddress());
+        long minInterval = -1;
+        boolean swingingDoor = false;
+        for (int field = 0; field < DecodedReading.FIELD_COUNT; field++) {
+            if (decoded.has(field) && rules[field] != null) {
+                minInterval = Math.max(minInterval, rules[field].minIntervalMs);
+                swingingDoor |= rules[field].swingingDoorDeviation > 0;
+            }
+        }
+        if (minInterval < 0 || !state.published) {
+            return forward(reading, state, out, dropped); // no rule applies, or first reading
+        }
+
+        long time = reading.getTimestampMillis();
+        int added = 0;
+
+        // Swinging door: does the current point still fit every corridor?
+        boolean fits = fitsDoors(state, rules, decoded, time);
+        if (!fits && state.held != null
+                && state.held.getTimestampMillis() - state.lastPublishedTime >= minInterval) {
+            BleDataModel held = state.held;
+            added += forward(held, state, out, dropped);
+            releasedCount++;
+            fits = fitsDoors(state, rules, decoded, time); // corridor from the released point
+        }
+
+        boolean wanted = !fits; // nothing held back to release, the point itself breaks out
+        boolean heartbeat = false;
+        long sinceLast = time - state.lastPublishedTime;
+        for (int field = 0; field < DecodedReading.FIELD_COUNT; field++) {
+            Rule rule = rules[field];
+            if (!decoded.has(field) || rule == null) continue;
+            FieldState fieldState = state.fields[field];
+            if (!fieldState.published) {
+                wanted = true; // field seen for the first time
+            } else if (rule.maxSilenceMs > 0 && sinceLast >= rule.maxSilenceMs) {
+                wanted = true;
+                heartbeat = true;
+            } else if (rule.swingingDoorDeviation <= 0
+                    && exceedsDeadband(rule, fieldState.lastValue, decoded.get(field))) {
+                wanted = true;
+            }
+        }
+
+        if (wanted && sinceLast >= minInterval) {
+            if (heartbeat) heartbeatCount++;
+            return added + forward(reading, state, out, dropped);
+        }
+
+        if (swingingDoor) {
+            // Only a swinging door may publish the point later; a deadband drops it for good
+            commitDoors(state, rules, decoded);
+            drop(state.held, dropped);
+            state.held = reading;
+        } else {
+            drop(reading, dropped);
+        }
+        return added;
+    }
+
+    private StreamState stateFor(BleDataModel reading) {
+        Map<String, StreamState> streams = devices.get(reading.getDeviceAddress());
+        if (streams == null) {
+            streams = new HashMap<>(4);
+            devices.put(reading.getDeviceAddress(), streams);
+        }
+        StreamState state = streams.get(reading.getCharacteristicUuid());
+        if (state == null) {
+            state = new StreamState();
+            streams.put(reading.getCharacteristicUuid(), state);
+        }
+        return state;
+    }
+
+    private static void drop(BleDataModel reading, List<BleDataModel> dropped) {
+        if (reading != null && dropped != null) {
+            dropped.add(reading);
+        }
+    }
+
+    private int forward(BleDataModel reading, StreamState state, List<BleDataModel> out,
+                        List<BleDataModel> dropped) {
+        out.add(reading);
+        forwardedCount++;
+        if (state == null) {
+            return 1;
+        }
+        if (state.held != reading) {
+            drop(state.held, dropped); // the corridor restarts from this reading
+        }
+        DecodedReading decoded = reading.getDecoded();
+        long time = reading.getTimestampMillis();
+        for (int field = 0; field < DecodedReading.FIELD_COUNT; field++) {
+            if (!decoded.has(field)) continue;
+            FieldState fieldState = state.fields[field];
+            fieldState.published = true;
+            fieldState.lastValue = decoded.get(field);
+            fieldState.anchorTime = time;
+            fieldState.anchorValue = fieldState.lastValue;
+            fieldState.doorOpen = false;
+        }
+        state.published = true;
+        state.lastPublishedTime = time;
+        state.held = null;
+        return 1;
+    }
+
+    private static boolean exceedsDeadband(Rule rule, double lastValue, double value) {
+        double threshold = Math.max(rule.absoluteDeadband, Math.abs(lastValue) * rule.percentDeadband / 100);
+        return Math.abs(value - lastValue) > threshold;
+    }
+
+    /**
+     * Narrow every swinging door field's corridor with the point into the scratch slopes
+     * @return false if a point fell outside its corridor
+     */
+    private boolean fitsDoors(StreamState state, Rule[] rules, DecodedReading decoded, long time) {
+        boolean fits = true;
+        for (int field = 0; field < DecodedReading.FIELD_COUNT; field++) {
+            Rule rule = rules[field];
+            if (!decoded.has(field) || rule == null || rule.swingingDoorDeviation <= 0) continue;
+            FieldState fieldState = state.fields[field];
+            if (!fieldState.published) continue;
+
+            double value = decoded.get(field);
+            double deviation = rule.swingingDoorDeviation;
+            long dt = time - fieldState.anchorTime;
+            if (dt <= 0) {
+                // Same instant as the anchor: only the deviation itself counts
+                upperScratch[field] = fieldState.doorOpen ? fieldState.upperSlope : Double.POSITIVE_INFINITY;
+                lowerScratch[field] = fieldState.doorOpen ? fieldState.lowerSlope : Double.NEGATIVE_INFINITY;
+                if (Math.abs(value - fieldState.anchorValue) > deviation) fits = false;
+                continue;
+            }
+            double upper = (value + deviation - fieldState.anchorValue) / dt;
+            double lower = (value - deviation - fieldState.anchorValue) / dt;
+            if (fieldState.doorOpen) {
+                upper = Math.min(upper, fieldState.upperSlope);
+                lower = Math.max(lower, fieldState.lowerSlope);
+            }
+            upperScratch[field] = upper;
+            lowerScratch[field] = lower;
+            // The point itself must lie inside the corridor, otherwise the line from the anchor
+            // to it (if it is released later) would miss an earlier point by more than the deviation
+            double slope = (value - fieldState.anchorValue) / dt;
+            if (slope > upper || slope < lower) fits = false;
+        }
+        return fits;
+    }
+
+    private void commitDoors(StreamState state, Rule[] rules, DecodedReading decoded) {
+        for (int field = 0; field < DecodedReading.FIELD_COUNT; field++) {
+            Rule rule = rules[field];
+            if (!decoded.has(field) || rule == null || rule.swingingDoorDeviation <= 0) continue;
+            FieldState fieldState = state.fields[field];
+            if (!fieldState.published) continue;
+            fieldState.upperSlope = upperScratch[field];
+            fieldState.lowerSlope = lowerScratch[field];
+            fieldState.doorOpen = true;
+        }
+    }
+
+    private Rule[] rulesFor(StreamState state, String deviceAddress) {
+        long version = rulesVersion;
+        if (state.rulesVersion != version) {
+            synchronized (this) {
+                Rule[] rules = defaultRules.clone();
+                Rule[] overrides = deviceRules.get(deviceAddress);
+                if (overrides != null) {
+                    for (int field = 0; field < rules.length; field++) {
+                        if (overrides[field] != null) rules[field] = overrides[field];
+                    }
+                }
+                state.rules = rules;
+                state.rulesVersion = rulesVersion;
+            }
+        }
+        return state.rules;
+    }
+
+    // ======================== statistics ========================
+
+    public long getInputCount() {
+        return inputCount;
+    }
+
+    public long getForwardedCount() {
+        return forwardedCount;
+    }
+
+    public long getSuppressedCount() {
+        return Math.max(0, inputCount - forwardedCount);
+    }
+
+    public long getHeartbeatCount() {
+        return heartbeatCount;
+    }
+
+    /**
+     * Held-back readings published later by the swinging door
+     */
+    public long getReleasedCount() {
+        return releasedCount;
+    }
+}
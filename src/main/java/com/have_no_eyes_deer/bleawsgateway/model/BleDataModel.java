@@ -1,20 +1,28 @@
 package com.have_no_eyes_deer.bleawsgateway.model;
 
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.Date;
 
 /**
  * BLE data model - used for data transfer between BLE module and MQTT module
  * This class defines standard data format to avoid coupling between modules
+ *
+ * The pipeline reuses instances (see ReadingPool): the metadata strings are shared references
+ * from its device table, rawData may be longer than rawLength, and the Date and the String form
+ * are only created when asked for.
  */
 public class BleDataModel {
     private String deviceAddress;     // BLE device address
     private String deviceName;        // BLE device name
     private String serviceUuid;       // Service UUID
     private String characteristicUuid; // Characteristic UUID
-    private byte[] rawData;          // Raw data
-    private String dataString;       // String format data
-    private Date timestamp;          // Timestamp
-    private DataType dataType;       // Data type
+    private byte[] rawData;          // Raw data, valid up to rawLength
+    private int rawLength;
+    private String dataString;       // String format data, decoded from rawData on first use when null
+    private long timestamp;          // Timestamp, epoch millis
+    private DataType dataType;       // Data type, detected on first use
+    private DecodedReading decoded;  // Typed fields, set by the pipeline decode stage
 
     public enum DataType {
         SENSOR_DATA,    // Sensor data
@@ -32,9 +40,13 @@ public class BleDataModel {
         this.serviceUuid = serviceUuid;
         this.characteristicUuid = characteristicUuid;
         this.rawData = rawData;
+        this.rawLength = rawData != null ? rawData.length : 0;
         this.dataString = dataString;
-        this.timestamp = new Date();
-        this.dataType = detectDataType(dataString);
+        this.timestamp = System.currentTimeMillis();
+    }
+
+    // Empty record for pools, filled with reset() and setRawData(byte[], int)
+    public BleDataModel() {
     }
 
     // Simplified constructor
@@ -44,11 +56,14 @@ public class BleDataModel {
 
     // Auto-detect data type
     private DataType detectDataType(String data) {
+        if (decoded != null && decoded.hasNumericFields()) {
+            return DataType.SENSOR_DATA;
+        }
         if (data == null) return DataType.UNKNOWN;
         
         // Simple detection logic, can be enhanced
         if (data.contains("temperature") || data.contains("humidity") || 
-            data.matches(".*\\d+\\.\\d+.*")) {
+            containsDecimal(data)) {
             return DataType.SENSOR_DATA;
         } else if (data.startsWith("OK") || data.startsWith("ERROR")) {
             return DataType.COMMAND_RESPONSE;
@@ -59,6 +74,20 @@ public class BleDataModel {
         return DataType.UNKNOWN;
     }
 
+    // Same as matches(".*\\d+\\.\\d+.*") without compiling a pattern
+    private static boolean containsDecimal(String data) {
+        for (int i = data.indexOf('.'); i > 0; i = data.indexOf('.', i + 1)) {
+            if (i + 1 < data.length() && isDigit(data.charAt(i - 1)) && isDigit(data.charAt(i + 1))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
     // Getters and Setters
     public String getDeviceAddress() { return deviceAddress; }
     public void setDeviceAddress(String deviceAddress) { this.deviceAddress = deviceAddress; }
@@ -72,21 +101,72 @@ public class BleDataModel {
     public String getCharacteristicUuid() { return characteristicUuid; }
     public void setCharacteristicUuid(String characteristicUuid) { this.characteristicUuid = characteristicUuid; }
 
-    public byte[] getRawData() { return rawData; }
-    public void setRawData(byte[] rawData) { this.rawData = rawData; }
+    /**
+     * @return exactly the payload bytes; a copy when the record's buffer is larger than the payload
+     */
+    public byte[] getRawData() {
+        if (rawData != null && rawLength != rawData.length) {
+            return Arrays.copyOf(rawData, rawLength);
+        }
+        return rawData;
+    }
+    public void setRawData(byte[] rawData) {
+        setRawData(rawData, rawData != null ? rawData.length : 0);
+    }
+
+    /**
+     * Payload without copying: the first rawLength bytes of getRawBuffer()
+     */
+    public byte[] getRawBuffer() { return rawData; }
+    public int getRawLength() { return rawLength; }
+    public void setRawData(byte[] buffer, int length) {
+        this.rawData = buffer;
+        this.rawLength = length;
+        this.dataString = null;
+    }
 
-    public String getDataString() { return dataString; }
+    public String getDataString() {
+        if (dataString == null && rawData != null) {
+            dataString = new String(rawData, 0, rawLength, StandardCharsets.UTF_8);
+        }
+        return dataString;
+    }
     public void setDataString(String dataString) { this.dataString = dataString; }
 
-    public Date getTimestamp() { return timestamp; }
-    public void setTimestamp(Date timestamp) { this.timestamp = timestamp; }
+    public Date getTimestamp() { return new Date(timestamp); }
+    public void setTimestamp(Date timestamp) { this.timestamp = timestamp.getTime(); }
+
+    public long getTimestampMillis() { return timestamp; }
+    public void setTimestampMillis(long timestamp) { this.timestamp = timestamp; }
 
-    public DataType getDataType() { return dataType; }
+    public DataType getDataType() {
+        if (dataType == null) {
+            dataType = detectDataType(getDataString());
+        }
+        return dataType;
+    }
     public void setDataType(DataType dataType) { this.dataType = dataType; }
 
+    public DecodedReading getDecoded() { return decoded; }
+    public void setDecoded(DecodedReading decoded) { this.decoded = decoded; }
+
+    /**
+     * Refill a reused record; the buffer and decoded reading are left to the owner
+     */
+    public void reset(String deviceAddress, String deviceName, String serviceUuid, String characteristicUuid,
+                      long timestamp) {
+        this.deviceAddress = deviceAddress;
+        this.deviceName = deviceName;
+        this.serviceUuid = serviceUuid;
+        this.characteristicUuid = characteristicUuid;
+        this.timestamp = timestamp;
+        this.dataString = null;
+        this.dataType = null;
+    }
+
     @Override
     public String toString() {
         return String.format("BleDataModel{device='%s', data='%s', type=%s, time=%s}",
-                deviceAddress, dataString, dataType, timestamp);
+                deviceAddress, getDataString(), getDataType(), getTimestamp());
     }
 }
\ No newline at end of file
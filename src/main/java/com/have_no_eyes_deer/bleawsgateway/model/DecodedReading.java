@@ -0,0 +1,84 @@
+package com.have_no_eyes_deer.bleawsgateway.model;
+
+/**
+ * Decoded reading - typed fields a PayloadDecoder extracted from a notification
+ *
+ * Numeric fields keep both the parsed value and the position of their digits in the raw
+ * payload, so encoders can copy the original digits instead of formatting a double. Fields
+ * of binary payloads (advertisement formats) have no digits and are formatted from the value.
+ */
+public class DecodedReading {
+
+    // Field ids
+    public static final int SAMPLE_NUMBER = 0;
+    public static final int TEMPERATURE = 1;
+    public static final int HUMIDITY = 2;
+    public static final int BATTERY = 3;
+    public static final int FIELD_COUNT = 4;
+
+    private static final String[] FIELD_NAMES = {"sampleNumber", "temperature", "humidity", "battery"};
+
+    public enum Kind {
+        TEMPERATURE_SAMPLE, // "T1:23.5C" style, published with type "temperature"
+        SENSOR,             // typed fields, published as sensor_data plus the fields
+        RAW                 // nothing recognised
+    }
+
+    public Kind kind = Kind.RAW;
+    public String decoderName;
+    public boolean binaryPayload;       // raw payload is not text, published as hex
+
+    private int presentMask;
+    private final double[] values = new double[FIELD_COUNT];
+    private final int[] offsets = new int[FIELD_COUNT];
+    private final int[] lengths = new int[FIELD_COUNT];
+
+    public void reset() {
+        kind = Kind.RAW;
+        decoderName = null;
+        binaryPayload = false;
+        presentMask = 0;
+    }
+
+    /**
+     * @param offset position of the value's digits in the raw payload
+     * @param length number of digit bytes
+     */
+    public void set(int field, double value, int offset, int length) {
+        values[field] = value;
+        offsets[field] = offset;
+        lengths[field] = length;
+        presentMask |= 1 << field;
+    }
+
+    /**
+     * Field decoded from binary, without digits in the payload (lengthOf() is 0)
+     */
+    public void set(int field, double value) {
+        set(field, value, 0, 0);
+    }
+
+    public boolean has(int field) {
+        return (presentMask & (1 << field)) != 0;
+    }
+
+    public double get(int field) {
+        return has(field) ? values[field] : Double.NaN;
+    }
+
+    public int offsetOf(int field) {
+        return offsets[field];
+    }
+
+    public int lengthOf(int field) {
+        return lengths[field];
+    }
+
+    public boolean hasNumericFields() {
+        return presentMask != 0;
+    }
+
+    public static String fieldName(int field) {
+        return FIELD_NAMES[field];
+    }
+}
@@ -165,11 +165,17 @@ public class PerformanceDataManager {
     }
     
     // ==================== BLE data interface ====================
+    // Recorded from the ingest pipeline worker threads, hence synchronized
     
     private long lastBleMessageTime = 0;
     private Map<String, Long> bleMessageTimestamps = new ConcurrentHashMap<>(); // Store timestamp for each BLE message
     
     public void recordBleMessage(String deviceAddress, String data) {
+        recordBleMessage(deviceAddress);
+    }
+    
+    // Only the arrival is counted, so the pipeline does not have to decode the payload for it
+    public synchronized void recordBleMessage(String deviceAddress) {
         long currentTime = System.currentTimeMillis();
         totalBleMessages++;
         lastBleMessageTime = currentTime;
@@ -183,6 +189,42 @@ public class PerformanceDataManager {
             currentTime - entry.getValue() > 30000);
     }
     
+    // ==================== Reading filter interface ====================
+    
+    private long filterForwarded = 0;
+    private long filterSuppressed = 0;
+    
+    /**
+     * Outcome of the report-by-exception filter for one incoming reading
+     * @param readingsOut readings it released for publishing (0 = suppressed; 2 when an earlier
+     *                    held-back reading is released too)
+     */
+    public synchronized void recordReadingFiltered(int readingsOut) {
+        filterForwarded += readingsOut;
+        filterSuppressed += 1 - readingsOut;
+    }
+    
+    public synchronized long getFilterForwardedCount() {
+        return filterForwarded;
+    }
+    
+    public synchronized long getFilterSuppressedCount() {
+        return Math.max(0, filterSuppressed);
+    }
+    
+    /**
+     * Share of filtered readings that were never published, 0..1
+     */
+    public synchronized double getFilterSuppressionRatio() {
+        long suppressed = Math.max(0, filterSuppressed);
+        long total = filterForwarded + suppressed;
+        return total > 0 ? (double) suppressed / total : 0;
+    }
+    
+    public synchronized double getFilterSavedCostUSD() {
+        return Math.max(0, filterSuppressed) * AWS_IOT_MESSAGE_COST;
+    }
+    
     // ==================== MQTT data interface ====================
     
     private int mqttSuccessInLastSecond = 0;
@@ -190,13 +232,13 @@ public class PerformanceDataManager {
     private long lastMqttCountReset = System.currentTimeMillis();
     private Map<String, Long> mqttSendStartTimes = new ConcurrentHashMap<>();
     
-    public void recordMqttSendStart() {
+    public synchronized void recordMqttSendStart() {
         long currentTime = System.currentTimeMillis();
         String messageId = "mqtt_" + currentTime + "_" + totalMqttMessages;
         mqttSendStartTimes.put(messageId, currentTime);
     }
     
-    public void recordMqttSendComplete(boolean success) {
+    public synchronized void recordMqttSendComplete(boolean success) {
         long currentTime = System.currentTimeMillis();
         
         if (success) {
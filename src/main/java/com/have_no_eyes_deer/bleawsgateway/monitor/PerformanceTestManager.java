@@ -6,12 +6,36 @@ import android.os.Handler;
 import android.os.Looper;
 import android.util.Log;
 
+import com.have_no_eyes_deer.bleawsgateway.ble.BleManager;
+import com.have_no_eyes_deer.bleawsgateway.ble.DeviceConnectionManager;
+import com.have_no_eyes_deer.bleawsgateway.ble.GattThreadPool;
+import com.have_no_eyes_deer.bleawsgateway.ble.L2capChannel;
+import com.have_no_eyes_deer.bleawsgateway.codec.PayloadCodecs;
+import com.have_no_eyes_deer.bleawsgateway.decoder.PayloadDecoder;
+import com.have_no_eyes_deer.bleawsgateway.decoder.PayloadDecoderRegistry;
+import com.have_no_eyes_deer.bleawsgateway.model.BleDataModel;
+import com.have_no_eyes_deer.bleawsgateway.model.DecodedReading;
+import com.have_no_eyes_deer.bleawsgateway.mqtt.MqttDataSender;
+import com.have_no_eyes_deer.bleawsgateway.pipeline.JsonWriter;
+import com.have_no_eyes_deer.bleawsgateway.pipeline.NotificationRingBuffer;
+import com.have_no_eyes_deer.bleawsgateway.pipeline.ReadingPool;
+import com.have_no_eyes_deer.bleawsgateway.pipeline.TelemetryFormatter;
+import com.have_no_eyes_deer.bleawsgateway.store.SegmentedMessageLog;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
 
 /**
  * Performance Test Manager - Specifically designed for testing latency and memory usage
@@ -21,6 +45,8 @@ public class PerformanceTestManager {
     private static final String TAG = "PerformanceTestManager";
     private static final int DEFAULT_TEST_DURATION = 30000; // 30 second test
     private static final int DEFAULT_SAMPLE_INTERVAL = 100; // 100ms sampling interval
+    private static final long TRANSPORT_SETTLE_MS = 1000;
+    private static final long L2CAP_OPEN_TIMEOUT_MS = 5000;
     
     private Context context;
     private Handler handler;
@@ -37,6 +63,7 @@ public class PerformanceTestManager {
     private List<MemoryTestResult> memoryResults = new ArrayList<>();
     private List<CpuTestResult> cpuResults = new ArrayList<>();
     private List<TestResult> allTestResults = new ArrayList<>();
+    private List<TestResult> benchmarkResults = new ArrayList<>();
     
     // Test configuration
     private int testDuration = DEFAULT_TEST_DURATION;
@@ -191,7 +218,10 @@ public class PerformanceTestManager {
             // 3. CPU stress test
             runCpuStressTest();
             
-            // 4. Generate test report
+            // 4. Gateway component benchmarks
+            runGatewayBenchmarks();
+            
+            // 5. Generate test report
             generateTestReport();
             
         } catch (Exception e) {
@@ -412,6 +442,393 @@ public class PerformanceTestManager {
         return new CpuTestResult(timestamp, memoryUsageRatio * 100, Thread.activeCount());
     }
     
+    // ==================== Gateway Component Benchmarks ====================
+    
+    private void runGatewayBenchmarks() {
+        notifyTestProgress("Gateway Benchmarks", 0, "Starting gateway component benchmarks");
+        try {
+            benchmarkResults.add(runStoreAppendBenchmark(
+                new File(context.getCacheDir(), "bench_spool"), 20000, 256));
+            benchmarkResults.add(runJsonEncodeBenchmark(50000));
+            benchmarkResults.add(runPayloadDecodeBenchmark(100000));
+            benchmarkResults.add(runPayloadCodecBenchmark(50000));
+            benchmarkResults.add(runReadingAllocationBenchmark(100000));
+        } catch (Exception e) {
+            Log.e(TAG, "Gateway benchmark error", e);
+            notifyTestError("Gateway Benchmarks", "Benchmark error: " + e.getMessage());
+        }
+        notifyTestProgress("Gateway Benchmarks", 100, "Gateway component benchmarks completed");
+    }
+    
+    /**
+     * Append throughput of the MQTT spool log, without and with periodic force()
+     * @param directory scratch directory, deleted afterwards
+     */
+    public TestResult runStoreAppendBenchmark(File directory, int recordCount, int payloadBytes) throws Exception {
+        String payload = new String(new char[payloadBytes]).replace('\0', 'x');
+        String topic = "devices/AABBCCDDEEFF/data";
+        long start = System.currentTimeMillis();
+        TestResult result = new TestResult("Spool Append Benchmark", 0, true);
+        
+        int[] syncEvery = {0, 100};
+        for (int interval : syncEvery) {
+            deleteRecursively(directory);
+            SegmentedMessageLog log = new SegmentedMessageLog(directory);
+            try {
+                long t0 = System.nanoTime();
+                for (int i = 0; i < recordCount; i++) {
+                    log.append(topic, payload, i);
+                    if (interval > 0 && (i + 1) % interval == 0) {
+                        log.sync();
+                    }
+                }
+                long elapsedNs = Math.max(1, System.nanoTime() - t0);
+                double recordsPerSecond = recordCount * 1e9 / elapsedNs;
+                double mbPerSecond = recordsPerSecond * (payloadBytes + topic.length()) / (1024 * 1024);
+                result.details.add(String.format("Spool append (%s): %.0f records/s, %.1f MB/s, %.2fus/record",
+                    interval > 0 ? "force every " + interval : "page cache",
+                    recordsPerSecond, mbPerSecond, elapsedNs / 1000.0 / recordCount));
+            } finally {
+                log.close();
+            }
+        }
+        deleteRecursively(directory);
+        
+        result.duration = System.currentTimeMillis() - start;
+        result.summary = String.format("%d records of %d bytes", recordCount, payloadBytes);
+        return result;
+    }
+    
+    /**
+     * Telemetry JSON encoding: the former String.format path vs the streaming JsonWriter
+     */
+    public TestResult runJsonEncodeBenchmark(int operations) {
+        long start = System.currentTimeMillis();
+        TestResult result = new TestResult("JSON Encode Benchmark", 0, true);
+        BleDataModel[] readings = {
+            new BleDataModel("AA:BB:CC:DD:EE:FF", "NanoBowen", "svc", "chr",
+                "T1:23.5C".getBytes(StandardCharsets.UTF_8), "T1:23.5C"),
+            new BleDataModel("AA:BB:CC:DD:EE:FF", "NanoBowen", "svc", "chr",
+                "T:25.1,H:60.2,B:87".getBytes(StandardCharsets.UTF_8), "T:25.1,H:60.2,B:87")
+        };
+        SimpleDateFormat isoFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.US);
+        isoFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+        TelemetryFormatter formatter = new TelemetryFormatter();
+        JsonWriter writer = new JsonWriter();
+        int[] index = {0};
+        
+        addBenchmarkLine(result, "String.format", operations,
+            () -> legacyTelemetryJson(readings[index[0]++ & 1], isoFormat).length());
+        addBenchmarkLine(result, "JsonWriter -> String", operations,
+            () -> formatter.toJson(readings[index[0]++ & 1]).length());
+        addBenchmarkLine(result, "JsonWriter bytes", operations, () -> {
+            formatter.encode(readings[index[0]++ & 1], writer);
+            return writer.length();
+        });
+        
+        result.duration = System.currentTimeMillis() - start;
+        result.summary = String.format("%d payloads per variant", operations);
+        return result;
+    }
+    
+    /**
+     * Payload parsing: regex match + split per message vs the decoder registry
+     */
+    public TestResult runPayloadDecodeBenchmark(int operations) {
+        long start = System.currentTimeMillis();
+        TestResult result = new TestResult("Payload Decode Benchmark", 0, true);
+        String[] values = {"T1:23.5C", "Sample:23.4\u00b0C", "T:25.1,H:60.2,B:87"};
+        byte[][] raw = new byte[values.length][];
+        for (int i = 0; i < values.length; i++) {
+            raw[i] = values[i].getBytes(StandardCharsets.UTF_8);
+        }
+        PayloadDecoderRegistry registry = PayloadDecoderRegistry.createDefault();
+        PayloadDecoder keyed = registry.resolve(null, "chr", null);
+        DecodedReading reading = new DecodedReading();
+        int[] index = {0};
+        
+        addBenchmarkLine(result, "regex + split", operations, () -> {
+            String value = values[index[0]++ % values.length];
+            if (value.matches("T\\d+:[\\d.]+C")) {
+                return (long) Double.parseDouble(value.split(":")[1].replace("C", ""));
+            }
+            return value.matches(".*\\d+\\.\\d+.*") ? 1 : 0;
+        });
+        addBenchmarkLine(result, "PayloadDecoderRegistry", operations, () -> {
+            byte[] value = raw[index[0]++ % raw.length];
+            registry.decode(keyed, value, 0, value.length, reading);
+            return (long) reading.get(DecodedReading.TEMPERATURE);
+        });
+        
+        result.duration = System.currentTimeMillis() - start;
+        result.summary = String.format("%d payloads per variant", operations);
+        return result;
+    }
+    
+    /**
+     * Wire size and encode cost of each payload codec for the readings our boards send
+     */
+    public TestResult runPayloadCodecBenchmark(int operations) {
+        long start = System.currentTimeMillis();
+        TestResult result = new TestResult("Payload Codec Benchmark", 0, true);
+        String[] values = {"T1:23.5C", "Sample:23.4\u00b0C", "T:25.1,H:60.2,B:87"};
+        BleDataModel[] readings = new BleDataModel[values.length];
+        for (int i = 0; i < values.length; i++) {
+            byte[] raw = values[i].getBytes(StandardCharsets.UTF_8);
+            readings[i] = new BleDataModel("AA:BB:CC:DD:EE:FF", "NanoBowen", "svc", "chr", raw, values[i]);
+        }
+        int[] index = {0};
+        
+        for (String name : PayloadCodecs.NAMES) {
+            MqttDataSender.PayloadCodec codec = PayloadCodecs.create(name);
+            long totalBytes = 0;
+            for (BleDataModel reading : readings) {
+                totalBytes += codec.encode(reading).length;
+            }
+            long gcBefore = getGcCount();
+            double nsPerOp = measureNsPerOp(operations / 10, operations,
+                () -> codec.encode(readings[index[0]++ % readings.length]).length);
+            long gcAfter = getGcCount();
+            result.details.add(String.format("%s: %d B/msg, %.0f ns/op%s", name,
+                totalBytes / readings.length, nsPerOp,
+                gcBefore >= 0 ? ", " + (gcAfter - gcBefore) + " GCs" : ""));
+        }
+        
+        result.duration = System.currentTimeMillis() - start;
+        result.summary = String.format("%d payloads per codec", operations);
+        return result;
+    }
+    
+    /**
+     * Per-notification allocation: a fresh BleDataModel (UUID strings, payload copy, String, Date,
+     * DecodedReading) vs a pooled record filled from interned device metadata
+     */
+    public TestResult runReadingAllocationBenchmark(int operations) {
+        long start = System.currentTimeMillis();
+        TestResult result = new TestResult("Reading Allocation Benchmark", 0, true);
+        String[] values = {"T1:23.5C", "Sample:23.4\u00b0C", "T:25.1,H:60.2,B:87"};
+        byte[][] raw = new byte[values.length][];
+        for (int i = 0; i < values.length; i++) {
+            raw[i] = values[i].getBytes(StandardCharsets.UTF_8);
+        }
+        UUID serviceUuid = UUID.fromString("0000ffe0-0000-1000-8000-00805f9b34fb");
+        UUID characteristicUuid = UUID.fromString("0000ffe1-0000-1000-8000-00805f9b34fb");
+        String serviceString = serviceUuid.toString();
+        String characteristicString = characteristicUuid.toString();
+        PayloadDecoderRegistry registry = PayloadDecoderRegistry.createDefault();
+        PayloadDecoder keyed = registry.resolve(serviceString, characteristicString, "NanoBowen");
+        ReadingPool pool = new ReadingPool(16, NotificationRingBuffer.DEFAULT_SLOT_SIZE);
+        int[] index = {0};
+        
+        addAllocationLine(result, "new BleDataModel", operations, () -> {
+            byte[] value = raw[index[0]++ % raw.length];
+            byte[] copy = Arrays.copyOf(value, value.length);
+            BleDataModel data = new BleDataModel("AA:BB:CC:DD:EE:FF", "NanoBowen", serviceUuid.toString(),
+                characteristicUuid.toString(), copy, new String(copy, StandardCharsets.UTF_8));
+            DecodedReading reading = new DecodedReading();
+            registry.decode(keyed, copy, 0, copy.length, reading);
+            data.setDecoded(reading);
+            return data.getTimestamp().getTime() + data.getDataString().length();
+        });
+        addAllocationLine(result, "ReadingPool", operations, () -> {
+            byte[] value = raw[index[0]++ % raw.length];
+            BleDataModel data = pool.acquire(value, value.length);
+            data.reset("AA:BB:CC:DD:EE:FF", "NanoBowen", serviceString, characteristicString,
+                System.currentTimeMillis());
+            registry.decode(keyed, data.getRawBuffer(), 0, data.getRawLength(), data.getDecoded());
+            long sink = data.getTimestampMillis() + data.getRawLength();
+            pool.release(data);
+            return sink;
+        });
+        
+        result.duration = System.currentTimeMillis() - start;
+        result.summary = String.format("%d readings per variant, %d pooled records created",
+            operations, pool.getCreatedCount());
+        return result;
+    }
+    
+    /**
+     * Transport comparison for one connected device: payload bytes/s of its GATT notifications,
+     * then of an L2CAP channel on the given PSM. The peripheral has to stream continuously over
+     * whichever transport is open. Blocking; run it off the main thread.
+     */
+    public TestResult runTransportThroughputComparison(BleManager bleManager, String deviceAddress, int psm,
+                                                       int creditWindow, long measureMs) throws InterruptedException {
+        long start = System.currentTimeMillis();
+        TestResult result = new TestResult("Transport Throughput Comparison", 0, true);
+        int previousPsm = bleManager.getL2capPsm(deviceAddress);
+        int previousCreditWindow = bleManager.getL2capCreditWindow(deviceAddress);
+        try {
+            bleManager.setL2capTransport(deviceAddress, 0, 0);
+            DeviceConnectionManager.DeviceConnectionInfo info = bleManager.getDeviceInfo(deviceAddress);
+            if (info == null) {
+                result.success = false;
+                result.summary = "Device not connected: " + deviceAddress;
+                return result;
+            }
+            Thread.sleep(TRANSPORT_SETTLE_MS);
+            long gattBefore = info.bytesReceived;
+            long t0 = System.currentTimeMillis();
+            Thread.sleep(measureMs);
+            double gattKBps = (info.bytesReceived - gattBefore) / 1.024 / Math.max(1, System.currentTimeMillis() - t0);
+            result.details.add(String.format("GATT notifications: %.1f KB/s (MTU %d)", gattKBps, info.mtu));
+            
+            bleManager.setL2capTransport(deviceAddress, psm, creditWindow);
+            L2capChannel channel = bleManager.getL2capChannel(deviceAddress);
+            long deadline = System.currentTimeMillis() + L2CAP_OPEN_TIMEOUT_MS;
+            while (channel != null && !channel.isOpen() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+            }
+            if (channel == null || !channel.isOpen()) {
+                result.success = false;
+                result.details.add(String.format("L2CAP CoC (PSM 0x%04x): channel did not open", psm));
+                result.summary = String.format("GATT %.1f KB/s, L2CAP unavailable", gattKBps);
+                return result;
+            }
+            Thread.sleep(TRANSPORT_SETTLE_MS);
+            long bytesBefore = channel.getBytesReceived();
+            long framesBefore = channel.getFramesReceived();
+            t0 = System.currentTimeMillis();
+            Thread.sleep(measureMs);
+            double l2capKBps = (channel.getBytesReceived() - bytesBefore) / 1.024
+                / Math.max(1, System.currentTimeMillis() - t0);
+            result.details.add(String.format("L2CAP CoC (PSM 0x%04x): %.1f KB/s (%d frames, %d credits granted, %d malformed)",
+                psm, l2capKBps, channel.getFramesReceived() - framesBefore, channel.getCreditsGranted(),
+                channel.getMalformedCount()));
+            result.summary = String.format("GATT %.1f KB/s, L2CAP %.1f KB/s (x%.1f)", gattKBps, l2capKBps,
+                gattKBps > 0 ? l2capKBps / gattKBps : 0);
+            return result;
+        } finally {
+            bleManager.setL2capTransport(deviceAddress, previousPsm, previousCreditWindow);
+            result.duration = System.currentTimeMillis() - start;
+        }
+    }
+    
+    /**
+     * Callback thread report for the connected devices: CPU time of each thread that delivered
+     * GATT notifications and the latency from callback entry to the reading being handed to the
+     * pipeline, measured over measureMs. Blocking; run it off the main thread.
+     */
+    public TestResult runCallbackThreadReport(BleManager bleManager, long measureMs) throws InterruptedException {
+        long start = System.currentTimeMillis();
+        TestResult result = new TestResult("GATT Callback Threads", 0, true);
+        bleManager.resetCallbackThreadStats();
+        Thread.sleep(measureMs);
+        List<GattThreadPool.ThreadStats> threads = bleManager.getCallbackThreadStats();
+        long callbacks = 0;
+        long cpuNanos = 0;
+        long worstP99 = 0;
+        for (GattThreadPool.ThreadStats stats : threads) {
+            result.details.add(stats.toString());
+            callbacks += stats.getCallbackCount();
+            cpuNanos += stats.getCpuNanos();
+            worstP99 = Math.max(worstP99, stats.getLatencyMicros().percentile(99));
+        }
+        result.success = callbacks > 0;
+        result.summary = String.format("%s: %d callbacks on %d threads, cpu %dms, worst p99 %dus",
+            bleManager.getCallbackThreadingMode(), callbacks, threads.size(), cpuNanos / 1_000_000L, worstP99);
+        result.duration = System.currentTimeMillis() - start;
+        return result;
+    }
+    
+    private void addAllocationLine(TestResult result, String variant, int operations, LongSupplier op) {
+        long gcBefore = getGcCount();
+        long allocatedBefore = getAllocatedBytes();
+        double nsPerOp = measureNsPerOp(operations / 10, operations, op);
+        long allocatedAfter = getAllocatedBytes();
+        long gcAfter = getGcCount();
+        // Includes the warm-up operations
+        int counted = operations + operations / 10;
+        result.details.add(String.format("%s: %.0f ns/op%s%s", variant, nsPerOp,
+            allocatedBefore >= 0 ? String.format(", %.0f B/op", (double) (allocatedAfter - allocatedBefore) / counted) : "",
+            gcBefore >= 0 ? ", " + (gcAfter - gcBefore) + " GCs" : ""));
+    }
+    
+    private void addBenchmarkLine(TestResult result, String variant, int operations, LongSupplier op) {
+        long gcBefore = getGcCount();
+        double nsPerOp = measureNsPerOp(operations / 10, operations, op);
+        long gcAfter = getGcCount();
+        result.details.add(String.format("%s: %.0f ns/op%s", variant, nsPerOp,
+            gcBefore >= 0 ? ", " + (gcAfter - gcBefore) + " GCs" : ""));
+    }
+    
+    // Keeps benchmark results observable so the work is not optimized away
+    private static volatile long benchmarkSink;
+    
+    /**
+     * JMH-style measurement: warm-up operations, then timed operations
+     * @return average nanoseconds per operation
+     */
+    private static double measureNsPerOp(int warmupOps, int measuredOps, LongSupplier op) {
+        long sink = 0;
+        for (int i = 0; i < warmupOps; i++) {
+            sink += op.getAsLong();
+        }
+        long t0 = System.nanoTime();
+        for (int i = 0; i < measuredOps; i++) {
+            sink += op.getAsLong();
+        }
+        long elapsed = System.nanoTime() - t0;
+        benchmarkSink += sink;
+        return (double) elapsed / measuredOps;
+    }
+    
+    // Bytes allocated by the runtime so far, all threads; -1 where ART does not report it
+    private static long getAllocatedBytes() {
+        try {
+            String bytes = Debug.getRuntimeStat("art.gc.bytes-allocated");
+            return bytes != null ? Long.parseLong(bytes) : -1;
+        } catch (Exception e) {
+            return -1;
+        }
+    }
+    
+    private static long getGcCount() {
+        try {
+            String count = Debug.getRuntimeStat("art.gc.gc-count");
+            return count != null ? Long.parseLong(count) : -1;
+        } catch (Exception e) {
+            return -1;
+        }
+    }
+    
+    // Baseline for the JSON benchmark: the encoder used before JsonWriter
+    private static String legacyTelemetryJson(BleDataModel data, SimpleDateFormat isoFormat) {
+        byte[] raw = data.getRawData();
+        String utf8Data = raw != null ? new String(raw, StandardCharsets.UTF_8) : "";
+        String deviceName = data.getDeviceName();
+        String timestamp = isoFormat.format(data.getTimestamp());
+        if (utf8Data.matches("T\\d+:[\\d.]+C")) {
+            String[] parts = utf8Data.split(":");
+            return String.format(
+                "{\"device\":\"%s\",\"deviceName\":\"%s\",\"timestamp\":\"%s\",\"type\":\"temperature\",\"sampleNumber\":%s,\"temperature\":%s,\"unit\":\"C\",\"rawData\":\"%s\"}",
+                legacyEscape(data.getDeviceAddress()), legacyEscape(deviceName), timestamp,
+                parts[0].substring(1), parts[1].replace("C", ""), legacyEscape(utf8Data));
+        }
+        return String.format(
+            "{\"device\":\"%s\",\"deviceName\":\"%s\",\"timestamp\":\"%s\",\"data\":\"%s\",\"dataLength\":%d,\"type\":\"sensor_data\"}",
+            legacyEscape(data.getDeviceAddress()), legacyEscape(deviceName), timestamp,
+            legacyEscape(utf8Data), raw != null ? raw.length : 0);
+    }
+    
+    private static String legacyEscape(String str) {
+        return str.replace("\\", "\\\\")
+                  .replace("\"", "\\\"")
+                  .replace("\n", "\\n")
+                  .replace("\r", "\\r")
+                  .replace("\t", "\\t");
+    }
+    
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+    
     // ==================== Test Report Generation ====================
     
     private void generateTestReport() {
@@ -451,6 +868,11 @@ public class PerformanceTestManager {
                 avgCpu, cpuResults.stream().mapToInt(r -> r.threadCount).max().orElse(0)));
         }
         
+        // Gateway component benchmarks
+        for (TestResult benchmark : benchmarkResults) {
+            result.details.addAll(benchmark.details);
+        }
+        
         result.summary = String.format("Test completed, total duration %dms, memory growth %dMB", 
             result.duration, currentMemoryUsage - baselineMemoryUsage);
         
@@ -472,6 +894,7 @@ public class PerformanceTestManager {
         memoryResults.clear();
         cpuResults.clear();
         allTestResults.clear();
+        benchmarkResults.clear();
         messageStartTimes.clear();
         totalLatency.set(0);
         messageCountProcessed.set(0);
@@ -6,6 +6,8 @@ import android.net.TrafficStats;
 import android.os.Debug;
 import android.os.Handler;
 import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
 
 import java.io.BufferedReader;
 import java.io.FileReader;
@@ -39,6 +41,8 @@ public class ResourceMonitor {
     // CPU calculation related
     private long lastCpuTotal = 0;
     private long lastCpuIdle = 0;
+    private long lastProcessCpuMs = -1;
+    private long lastProcessSampleMs = 0;
     
     public interface ResourceMonitorListener {
         void onResourceDataUpdate(ResourceData data);
@@ -51,6 +55,7 @@ public class ResourceMonitor {
         public long memoryUsageMB;
         public float networkSpeedKBps;
         public long totalMemoryMB;
+        public float processCpuPercent;   // this app only, of one core; /proc/stat is not readable from Android 8
         
         public ResourceData(long timestamp, float cpuUsage, long memoryUsage, 
                           float networkSpeed, long totalMemory) {
@@ -63,8 +68,8 @@ public class ResourceMonitor {
         
         @Override
         public String toString() {
-            return String.format("CPU: %.1f%%, Memory: %dMB, Network: %.1fKB/s", 
-                cpuUsagePercent, memoryUsageMB, networkSpeedKBps);
+            return String.format("CPU: %.1f%% (app %.1f%%), Memory: %dMB, Network: %.1fKB/s", 
+                cpuUsagePercent, processCpuPercent, memoryUsageMB, networkSpeedKBps);
         }
     }
     
@@ -131,6 +136,7 @@ public class ResourceMonitor {
             float networkSpeed = getNetworkSpeed();
             
             ResourceData data = new ResourceData(timestamp, cpuUsage, memoryUsage, networkSpeed, totalMemory);
+            data.processCpuPercent = getProcessCpuUsage();
             
             // Add to history data
             resourceDataHistory.add(data);
@@ -195,6 +201,26 @@ public class ResourceMonitor {
         return 0.0f;
     }
     
+    /**
+     * CPU time used by this process so far (all threads), for measuring a piece of work
+     * such as a scan mode over a period
+     */
+    public static long getProcessCpuTimeMs() {
+        return Process.getElapsedCpuTime();
+    }
+    
+    private float getProcessCpuUsage() {
+        long cpuMs = getProcessCpuTimeMs();
+        long now = SystemClock.elapsedRealtime();
+        float usage = 0.0f;
+        if (lastProcessCpuMs >= 0 && now > lastProcessSampleMs) {
+            usage = 100.0f * (cpuMs - lastProcessCpuMs) / (now - lastProcessSampleMs);
+        }
+        lastProcessCpuMs = cpuMs;
+        lastProcessSampleMs = now;
+        return Math.max(0, usage);
+    }
+    
     private float getSimplifiedCpuUsage() {
         // Use Debug API to get a rough CPU usage rate
         Debug.MemoryInfo memInfo = new Debug.MemoryInfo();
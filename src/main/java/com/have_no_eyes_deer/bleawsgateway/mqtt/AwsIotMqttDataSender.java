@@ -0,0 +1,368 @@
+package com.have_no_eyes_deer.bleawsgateway.mqtt;
+
+import android.util.Log;
+
+import com.have_no_eyes_deer.bleawsgateway.model.BleDataModel;
+import com.have_no_eyes_deer.bleawsgateway.pipeline.TelemetryFormatter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * AWS IoT MQTT sender - publishes through AWSIotMqttManager with delivery callbacks
+ *
+ * Every publish takes a permit from a bounded in-flight window and gives it back when the
+ * SDK reports delivery (or failure), so a slow link applies backpressure to the caller
+ * instead of piling messages up inside the SDK. Delivery latency is measured from the
+ * publish call to the delivery callback. Connection state follows the SDK status callback.
+ */
+public class AwsIotMqttDataSender implements MqttDataSender {
+    private static final String TAG = "AwsIotMqttDataSender";
+
+    private static final int DEFAULT_MAX_IN_FLIGHT = 32;
+    private static final long DEFAULT_WINDOW_TIMEOUT_MS = 5000;
+
+    public enum ConnectionState {
+        DISCONNECTED,
+        CONNECTING,
+        CONNECTED,
+        RECONNECTING,
+        CONNECTION_LOST
+    }
+
+    /**
+     * The MQTT client underneath the sender, AwsIotMqttTransport in the app
+     */
+    public interface Transport {
+        void connect(TransportListener listener) throws Exception;
+        void publish(String payload, String topic, boolean qos1, long token) throws Exception;
+        void publish(byte[] payload, String topic, boolean qos1, long token) throws Exception;
+        void disconnect();
+    }
+
+    /**
+     * Transport callbacks, may arrive on any thread
+     */
+    public interface TransportListener {
+        void onStateChanged(ConnectionState state, Throwable throwable);
+        void onDeliveryComplete(long token, boolean success);
+    }
+
+    public interface ConnectionStateListener {
+        void onConnectionStateChanged(ConnectionState state, Throwable throwable);
+    }
+
+    /**
+     * Delivery listener, invoked on the transport callback thread
+     */
+    public interface DeliveryListener {
+        void onDelivered(String topic, boolean success, long latencyMs);
+    }
+
+    private static class InFlight {
+        final String topic;
+        final String message;   // null for binary payloads
+        final int binaryLength;
+        final long startNanos;
+        final DeliveryCallback callback;    // sendConfirmed only
+
+        InFlight(String topic, String message, int binaryLength, long startNanos, DeliveryCallback callback) {
+            this.topic = topic;
+            this.message = message;
+            this.binaryLength = binaryLength;
+            this.startNanos = startNanos;
+            this.callback = callback;
+        }
+    }
+
+    private final Transport transport;
+    private final boolean qos1;
+    private final int maxInFlight;
+    private final long windowTimeoutMs;
+    private final Semaphore window;
+    private final Map<Long, InFlight> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong nextToken = new AtomicLong();
+    private final TelemetryFormatter formatter = new TelemetryFormatter(); // guarded by itself
+
+    private volatile ConnectionState state = ConnectionState.DISCONNECTED;
+    private volatile MqttStatusListener statusListener;
+    private volatile ConnectionStateListener connectionStateListener;
+    private volatile DeliveryListener deliveryListener;
+
+    // Statistics counters
+    private final AtomicLong publishedCount = new AtomicLong();
+    private final AtomicLong deliveredCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+    private final AtomicLong windowFullCount = new AtomicLong();
+    private final AtomicLong totalLatencyNanos = new AtomicLong();
+    private final AtomicLong maxLatencyNanos = new AtomicLong();
+
+    public AwsIotMqttDataSender(Transport transport) {
+        this(transport, false, DEFAULT_MAX_IN_FLIGHT, DEFAULT_WINDOW_TIMEOUT_MS);
+    }
+
+    /**
+     * @param qos1 publish with QoS 1 (PUBACK) instead of QoS 0
+     * @param maxInFlight maximum publishes awaiting their delivery callback
+     * @param windowTimeoutMs how long a publish waits for a free window slot
+     */
+    public AwsIotMqttDataSender(Transport transport, boolean qos1, int maxInFlight, long windowTimeoutMs) {
+        if (maxInFlight <= 0) {
+            throw new IllegalArgumentException("maxInFlight must be positive: " + maxInFlight);
+        }
+        this.transport = transport;
+        this.qos1 = qos1;
+        this.maxInFlight = maxInFlight;
+        this.windowTimeoutMs = windowTimeoutMs;
+        this.window = new Semaphore(maxInFlight);
+    }
+
+    public void setConnectionStateListener(ConnectionStateListener listener) {
+        this.connectionStateListener = listener;
+    }
+
+    public void setDeliveryListener(DeliveryListener listener) {
+        this.deliveryListener = listener;
+    }
+
+    public ConnectionState getConnectionState() {
+        return state;
+    }
+
+    // ======================== MqttDataSender ========================
+
+    @Override
+    public boolean sendData(BleDataModel data, String topic) {
+        String json;
+        synchronized (formatter) {
+            json = formatter.toJson(data);
+        }
+        return sendMessage(json, topic);
+    }
+
+    /**
+     * Hand a message to the transport; blocks while the in-flight window is full
+     * @return false if not connected, the window stayed full or the transport threw
+     */
+    @Override
+    public boolean sendMessage(String message, String topic) {
+        return send(message, null, topic, qos1, null);
+    }
+
+    /**
+     * Same as sendMessage for an encoded binary payload
+     */
+    @Override
+    public boolean sendBytes(byte[] payload, String topic) {
+        return send(null, payload, topic, qos1, null);
+    }
+
+    /**
+     * Always published with QoS 1; the callback gets the PUBACK, or a failure when the
+     * connection drops before it arrived
+     */
+    @Override
+    public boolean sendConfirmed(String message, byte[] payload, String topic, DeliveryCallback callback) {
+        return send(message, payload, topic, true, callback);
+    }
+
+    private boolean send(String message, byte[] payload, String topic, boolean qos1, DeliveryCallback callback) {
+        if (state != ConnectionState.CONNECTED) {
+            return false;
+        }
+
+        try {
+            if (!window.tryAcquire(windowTimeoutMs, TimeUnit.MILLISECONDS)) {
+                windowFullCount.incrementAndGet();
+                notifyError("In-flight window full, dropping message to " + topic);
+                return false;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+
+        long token = nextToken.incrementAndGet();
+        inFlight.put(token, new InFlight(topic, message, payload != null ? payload.length : 0, System.nanoTime(),
+                callback));
+        try {
+            if (payload != null) {
+                transport.publish(payload, topic, qos1, token);
+            } else {
+                transport.publish(message, topic, qos1, token);
+            }
+            publishedCount.incrementAndGet();
+            return true;
+        } catch (Exception e) {
+            if (inFlight.remove(token) != null) {
+                window.release();
+            }
+            failedCount.incrementAndGet();
+            Log.e(TAG, "Publish failed: " + e.getMessage());
+            notifyError("Publish failed: " + e.getMessage());
+            return false;
+        }
+    }
+
+    @Override
+    public int sendBatchData(List<BleDataModel> dataList, String topic) {
+        int sent = 0;
+        for (BleDataModel data : dataList) {
+            if (sendData(data, topic)) {
+                sent++;
+            }
+        }
+        return sent;
+    }
+
+    @Override
+    public boolean isConnected() {
+        return state == ConnectionState.CONNECTED;
+    }
+
+    @Override
+    public boolean connect() {
+        try {
+            transport.connect(transportListener);
+            return true;
+        } catch (Exception e) {
+            Log.e(TAG, "Connect failed: " + e.getMessage());
+            notifyError("Connect failed: " + e.getMessage());
+            return false;
+        }
+    }
+
+    @Override
+    public void disconnect() {
+        transport.disconnect();
+        transportListener.onStateChanged(ConnectionState.DISCONNECTED, null);
+    }
+
+    @Override
+    public void setStatusListener(MqttStatusListener listener) {
+        this.statusListener = listener;
+    }
+
+    // ======================== transport callbacks ========================
+
+    private final TransportListener transportListener = new TransportListener() {
+        @Override
+        public void onStateChanged(ConnectionState newState, Throwable throwable) {
+            ConnectionState previous = state;
+            state = newState;
+            if (newState != ConnectionState.CONNECTED && newState != ConnectionState.CONNECTING) {
+                // Callbacks for messages written before the link dropped may never arrive
+                failAllInFlight();
+            }
+
+            ConnectionStateListener stateListener = connectionStateListener;
+            if (stateListener != null) {
+                stateListener.onConnectionStateChanged(newState, throwable);
+            }
+            MqttStatusListener listener = statusListener;
+            if (listener != null) {
+                if (newState == ConnectionState.CONNECTED) {
+                    listener.onConnected();
+                } else if (previous == ConnectionState.CONNECTED) {
+                    listener.onDisconnected();
+                }
+            }
+        }
+
+        @Override
+        public void onDeliveryComplete(long token, boolean success) {
+            complete(token, success);
+        }
+    };
+
+    private void complete(long token, boolean success) {
+        InFlight entry = inFlight.remove(token);
+        if (entry == null) {
+            return; // already failed when the connection dropped
+        }
+        window.release();
+
+        long latencyNanos = System.nanoTime() - entry.startNanos;
+        if (success) {
+            deliveredCount.incrementAndGet();
+            totalLatencyNanos.addAndGet(latencyNanos);
+            long max;
+            while (latencyNanos > (max = maxLatencyNanos.get())
+                    && !maxLatencyNanos.compareAndSet(max, latencyNanos)) {
+                // retry
+            }
+        } else {
+            failedCount.incrementAndGet();
+        }
+
+        if (entry.callback != null) {
+            entry.callback.onDeliveryComplete(success);
+        }
+        DeliveryListener delivery = deliveryListener;
+        if (delivery != null) {
+            delivery.onDelivered(entry.topic, success, TimeUnit.NANOSECONDS.toMillis(latencyNanos));
+        }
+        MqttStatusListener listener = statusListener;
+        if (listener != null) {
+            if (success) {
+                listener.onMessageSent(entry.topic,
+                        entry.message != null ? entry.message : "<" + entry.binaryLength + " bytes>");
+            } else {
+                listener.onError("Delivery failed on " + entry.topic);
+            }
+        }
+    }
+
+    private void failAllInFlight() {
+        for (Long token : new ArrayList<>(inFlight.keySet())) {
+            complete(token, false);
+        }
+    }
+
+    private void notifyError(String error) {
+        MqttStatusListener listener = statusListener;
+        if (listener != null) {
+            listener.onError(error);
+        }
+    }
+
+    // ======================== statistics ========================
+
+    public int getInFlightCount() {
+        return inFlight.size();
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    public long getPublishedCount() {
+        return publishedCount.get();
+    }
+
+    public long getDeliveredCount() {
+        return deliveredCount.get();
+    }
+
+    public long getFailedCount() {
+        return failedCount.get();
+    }
+
+    public long getWindowFullCount() {
+        return windowFullCount.get();
+    }
+
+    public double getAverageDeliveryLatencyMs() {
+        long delivered = deliveredCount.get();
+        return delivered > 0 ? totalLatencyNanos.get() / 1_000_000.0 / delivered : 0;
+    }
+
+    public double getMaxDeliveryLatencyMs() {
+        return maxLatencyNanos.get() / 1_000_000.0;
+    }
+}
@@ -0,0 +1,72 @@
+package com.have_no_eyes_deer.bleawsgateway.mqtt;
+
+import com.amazonaws.mobileconnectors.iot.AWSIotMqttClientStatusCallback.AWSIotMqttClientStatus;
+import com.amazonaws.mobileconnectors.iot.AWSIotMqttManager;
+import com.amazonaws.mobileconnectors.iot.AWSIotMqttMessageDeliveryCallback;
+import com.amazonaws.mobileconnectors.iot.AWSIotMqttQos;
+
+import java.security.KeyStore;
+
+/**
+ * AWSIotMqttManager transport for AwsIotMqttDataSender
+ */
+public class AwsIotMqttTransport implements AwsIotMqttDataSender.Transport {
+
+    private final AWSIotMqttManager mqttManager;
+    private final KeyStore keyStore;
+    private volatile AwsIotMqttDataSender.TransportListener listener;
+
+    public AwsIotMqttTransport(String clientId, String endpoint, KeyStore keyStore, int keepAliveSeconds) {
+        this.mqttManager = new AWSIotMqttManager(clientId, endpoint);
+        this.mqttManager.setKeepAlive(keepAliveSeconds);
+        this.keyStore = keyStore;
+    }
+
+    @Override
+    public void connect(AwsIotMqttDataSender.TransportListener listener) {
+        this.listener = listener;
+        mqttManager.connect(keyStore, (status, throwable) ->
+                listener.onStateChanged(toConnectionState(status), throwable));
+    }
+
+    @Override
+    public void publish(String payload, String topic, boolean qos1, long token) {
+        mqttManager.publishString(payload, topic, qos1 ? AWSIotMqttQos.QOS1 : AWSIotMqttQos.QOS0,
+                deliveryCallback(), token);
+    }
+
+    @Override
+    public void publish(byte[] payload, String topic, boolean qos1, long token) {
+        mqttManager.publishData(payload, topic, qos1 ? AWSIotMqttQos.QOS1 : AWSIotMqttQos.QOS0,
+                deliveryCallback(), token);
+    }
+
+    private AWSIotMqttMessageDeliveryCallback deliveryCallback() {
+        AwsIotMqttDataSender.TransportListener target = listener;
+        return (status, userData) -> target.onDeliveryComplete(
+                (Long) userData, status == AWSIotMqttMessageDeliveryCallback.MessageDeliveryStatus.Success);
+    }
+
+    @Override
+    public void disconnect() {
+        try {
+            mqttManager.disconnect();
+        } catch (Exception ignored) {
+            // already disconnected
+        }
+    }
+
+    private static AwsIotMqttDataSender.ConnectionState toConnectionState(AWSIotMqttClientStatus status) {
+        switch (status) {
+            case Connecting:
+                return AwsIotMqttDataSender.ConnectionState.CONNECTING;
+            case Connected:
+                return AwsIotMqttDataSender.ConnectionState.CONNECTED;
+            case Reconnecting:
+                return AwsIotMqttDataSender.ConnectionState.RECONNECTING;
+            case ConnectionLost:
+            default:
+                return AwsIotMqttDataSender.ConnectionState.CONNECTION_LOST;
+        }
+    }
+}
@@ -0,0 +1,444 @@
+package com.have_no_eyes_deer.bleawsgateway.mqtt;
+
+import com.have_no_eyes_deer.bleawsgateway.model.BleDataModel;
+import com.have_no_eyes_deer.bleawsgateway.pipeline.TelemetryFormatter;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Batching MQTT sender - decorates another MqttDataSender and coalesces readings per topic
+ * into a single JSON array payload; binary payloads (sendBytes) are concatenated, which is
+ * a valid CBOR sequence / MessagePack stream / run of self-delimiting frames
+ *
+ * A topic's batch is flushed when it holds maxMessages readings, when adding the next
+ * reading would exceed maxBatchBytes, or when its oldest reading is maxDelayMs old.
+ * AWS IoT meters messages in 5 KB units and rejects payloads over 128 KB, so the byte
+ * budget defaults to one billing unit and can never exceed the broker limit.
+ *
+ * sendMessage / sendBytes return true once the reading is queued and every batch the call
+ * flushed was accepted by the delegate; false means the reading was rejected or a batch it
+ * flushed failed. Batches flushed later by the timer, flush() or disconnect() report their
+ * outcome through the BatchListener (BatchResult.success) and getFailedBatches().
+ */
+public class BatchingMqttDataSender implements MqttDataSender {
+
+    public static final int AWS_IOT_MAX_PAYLOAD_BYTES = 128 * 1024;
+    public static final int AWS_IOT_BILLING_UNIT_BYTES = 5 * 1024;
+
+    private static final int DEFAULT_MAX_MESSAGES = 50;
+    private static final int DEFAULT_MAX_BATCH_BYTES = AWS_IOT_BILLING_UNIT_BYTES;
+    private static final long DEFAULT_MAX_DELAY_MS = 1000;
+
+    /**
+     * Batch metrics listener, invoked on the flushing thread
+     */
+    public interface BatchListener {
+        void onBatchFlushed(BatchResult result);
+    }
+
+    public static class BatchResult {
+        public String topic;
+        public int messageCount;
+        public int payloadBytes;
+        public int unbatchedBytes;      // sum of the individual payloads
+        public int billingUnits;        // 5 KB metering units for the batch
+        public long latencyMs;          // oldest reading enqueued → batch handed to the delegate
+        public boolean success;
+        public FlushReason reason;
+
+        /**
+         * Units that would have been billed without batching per billed unit
+         */
+        public double getCompressionRatio() {
+            return billingUnits > 0 ? (double) unbatchedBillingUnits() / billingUnits : 0;
+        }
+
+        int unbatchedBillingUnits() {
+            // each individual message is at least one unit
+            return Math.max(messageCount, billingUnitsFor(unbatchedBytes));
+        }
+    }
+
+    public enum FlushReason {
+        COUNT, SIZE, TIME, MANUAL
+    }
+
+    /**
+     * Pending readings for one topic
+     */
+    private static class Batch {
+        final boolean binary;
+        final List<String> items = new ArrayList<>();
+        final List<byte[]> frames = new ArrayList<>();
+        int payloadBytes;
+        int unbatchedBytes = 0;
+        long oldestEnqueueTime;
+
+        Batch(boolean binary) {
+            this.binary = binary;
+            this.payloadBytes = binary ? 0 : 2;   // "[" + "]"
+        }
+
+        int size() {
+            return binary ? frames.size() : items.size();
+        }
+
+        int separatorBytes() {
+            return binary || items.isEmpty() ? 0 : 1;
+        }
+    }
+
+    private final MqttDataSender delegate;
+    private final int maxMessages;
+    private final int maxBatchBytes;
+    private final long maxDelayMs;
+    private final ScheduledExecutorService flushScheduler;
+    private final TelemetryFormatter formatter = new TelemetryFormatter(); // guarded by this
+
+    private final Map<String, Batch> batches = new HashMap<>(); // guarded by this
+    private volatile BatchListener batchListener;
+    private volatile MqttStatusListener statusListener;
+
+    // Statistics counters, guarded by statsLock
+    private final Object statsLock = new Object();
+    private long totalBatches = 0;
+    private long totalUnbatchedBillingUnits = 0;
+    private long totalBillingUnits = 0;
+    private long totalBatchLatencyMs = 0;
+    private long maxBatchLatencyMs = 0;
+    private long failedBatches = 0;
+
+    public BatchingMqttDataSender(MqttDataSender delegate) {
+        this(delegate, DEFAULT_MAX_MESSAGES, DEFAULT_MAX_BATCH_BYTES, DEFAULT_MAX_DELAY_MS);
+    }
+
+    /**
+     * @param maxMessages flush when a topic has this many readings
+     * @param maxBatchBytes flush before the payload would exceed this size (capped at 128 KB)
+     * @param maxDelayMs flush when the oldest reading of a topic is this old
+     */
+    public BatchingMqttDataSender(MqttDataSender delegate, int maxMessages, int maxBatchBytes, long maxDelayMs) {
+        if (maxMessages <= 0 || maxBatchBytes <= 2 || maxDelayMs <= 0) {
+            throw new IllegalArgumentException("invalid batch limits");
+        }
+        this.delegate = delegate;
+        this.maxMessages = maxMessages;
+        this.maxBatchBytes = Math.min(maxBatchBytes, AWS_IOT_MAX_PAYLOAD_BYTES);
+        this.maxDelayMs = maxDelayMs;
+        this.flushScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "mqtt-batch-flush");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long tick = Math.max(10, maxDelayMs / 4);
+        flushScheduler.scheduleAtFixedRate(this::flushExpired, tick, tick, TimeUnit.MILLISECONDS);
+    }
+
+    public void setBatchListener(BatchListener listener) {
+        this.batchListener = listener;
+    }
+
+    // ======================== MqttDataSender ========================
+
+    @Override
+    public boolean sendData(BleDataModel data, String topic) {
+        String json;
+        synchronized (this) {
+            json = formatter.toJson(data);
+        }
+        return sendMessage(json, topic);
+    }
+
+    /**
+     * Queue one JSON value for the topic's batch
+     * @return false if the message alone exceeds the broker payload limit, or a batch flushed
+     *         by this call was not accepted by the delegate
+     */
+    @Override
+    public boolean sendMessage(String message, String topic) {
+        return enqueue(topic, message, null, utf8Length(message));
+    }
+
+    /**
+     * Queue one encoded binary payload for the topic's batch
+     * @return false if the payload alone exceeds the broker payload limit, or a batch flushed
+     *         by this call was not accepted by the delegate
+     */
+    @Override
+    public boolean sendBytes(byte[] payload, String topic) {
+        return enqueue(topic, null, payload, payload.length);
+    }
+
+    private boolean enqueue(String topic, String message, byte[] frame, int messageBytes) {
+        boolean binary = frame != null;
+        if (messageBytes + (binary ? 0 : 2) > AWS_IOT_MAX_PAYLOAD_BYTES) {
+            MqttStatusListener listener = statusListener;
+            if (listener != null) {
+                listener.onError("Message exceeds AWS IoT payload limit: " + messageBytes + " bytes");
+            }
+            return false;
+        }
+
+        List<PendingFlush> ready = new ArrayList<>(2);
+        synchronized (this) {
+            Batch batch = batches.get(topic);
+            if (batch != null && batch.binary != binary) {
+                // JSON and binary payloads never share a batch
+                ready.add(new PendingFlush(topic, batches.remove(topic), FlushReason.MANUAL));
+                batch = null;
+            }
+            if (batch != null && batch.size() > 0
+                    && batch.payloadBytes + messageBytes + batch.separatorBytes() > maxBatchBytes) {
+                ready.add(new PendingFlush(topic, batches.remove(topic), FlushReason.SIZE));
+                batch = null;
+            }
+            if (batch == null) {
+                batch = new Batch(binary);
+                batch.oldestEnqueueTime = System.currentTimeMillis();
+                batches.put(topic, batch);
+            }
+            batch.payloadBytes += messageBytes + batch.separatorBytes();
+            batch.unbatchedBytes += messageBytes;
+            if (binary) {
+                batch.frames.add(frame);
+            } else {
+                batch.items.add(message);
+            }
+
+            if (batch.size() >= maxMessages) {
+                ready.add(new PendingFlush(topic, batches.remove(topic), FlushReason.COUNT));
+            } else if (batch.payloadBytes >= maxBatchBytes) {
+                ready.add(new PendingFlush(topic, batches.remove(topic), FlushReason.SIZE));
+            }
+        }
+        boolean published = true;
+        for (PendingFlush flush : ready) {
+            published &= publish(flush);
+        }
+        return published;
+    }
+
+    @Override
+    public int sendBatchData(List<BleDataModel> dataList, String topic) {
+        int accepted = 0;
+        for (BleDataModel data : dataList) {
+            if (sendData(data, topic)) {
+                accepted++;
+            }
+        }
+        return accepted;
+    }
+
+    @Override
+    public boolean isConnected() {
+        return delegate.isConnected();
+    }
+
+    @Override
+    public boolean connect() {
+        return delegate.connect();
+    }
+
+    @Override
+    public void disconnect() {
+        flush();
+        flushScheduler.shutdownNow();
+        delegate.disconnect();
+    }
+
+    @Override
+    public void setStatusListener(MqttStatusListener listener) {
+        this.statusListener = listener;
+        delegate.setStatusListener(listener);
+    }
+
+    // ======================== flushing ========================
+
+    private static class PendingFlush {
+        final String topic;
+        final Batch batch;
+        final FlushReason reason;
+
+        PendingFlush(String topic, Batch batch, FlushReason reason) {
+            this.topic = topic;
+            this.batch = batch;
+            this.reason = reason;
+        }
+    }
+
+    /**
+     * Flush every pending batch immediately
+     */
+    public void flush() {
+        List<PendingFlush> ready = new ArrayList<>();
+        synchronized (this) {
+            for (Map.Entry<String, Batch> entry : batches.entrySet()) {
+                ready.add(new PendingFlush(entry.getKey(), entry.getValue(), FlushReason.MANUAL));
+            }
+            batches.clear();
+        }
+        for (PendingFlush flush : ready) {
+            publish(flush);
+        }
+    }
+
+    private void flushExpired() {
+        long now = System.currentTimeMillis();
+        List<PendingFlush> ready = new ArrayList<>();
+        synchronized (this) {
+            Iterator<Map.Entry<String, Batch>> it = batches.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<String, Batch> entry = it.next();
+                if (now - entry.getValue().oldestEnqueueTime >= maxDelayMs) {
+                    ready.add(new PendingFlush(entry.getKey(), entry.getValue(), FlushReason.TIME));
+                    it.remove();
+                }
+            }
+        }
+        for (PendingFlush flush : ready) {
+            publish(flush);
+        }
+    }
+
+    /**
+     * @return whether the delegate accepted the batch
+     */
+    private boolean publish(PendingFlush flush) {
+        Batch batch = flush.batch;
+        boolean success;
+        try {
+            if (batch.binary) {
+                byte[] payload = new byte[batch.payloadBytes];
+                int offset = 0;
+                for (byte[] frame : batch.frames) {
+                    System.arraycopy(frame, 0, payload, offset, frame.length);
+                    offset += frame.length;
+                }
+                success = delegate.sendBytes(payload, flush.topic);
+            } else {
+                StringBuilder payload = new StringBuilder(batch.payloadBytes);
+                payload.append('[');
+                for (int i = 0; i < batch.items.size(); i++) {
+                    if (i > 0) payload.append(',');
+                    payload.append(batch.items.get(i));
+                }
+                payload.append(']');
+                success = delegate.sendMessage(payload.toString(), flush.topic);
+            }
+        } catch (Exception e) {
+            success = false;
+            MqttStatusListener listener = statusListener;
+            if (listener != null) {
+                listener.onError("Batch publish failed: " + e.getMessage());
+            }
+        }
+
+        BatchResult result = new BatchResult();
+        result.topic = flush.topic;
+        result.messageCount = batch.size();
+        result.payloadBytes = batch.payloadBytes;
+        result.unbatchedBytes = batch.unbatchedBytes;
+        result.billingUnits = billingUnitsFor(batch.payloadBytes);
+        result.latencyMs = System.currentTimeMillis() - batch.oldestEnqueueTime;
+        result.success = success;
+        result.reason = flush.reason;
+
+        synchronized (statsLock) {
+            totalBatches++;
+            if (success) {
+                totalUnbatchedBillingUnits += result.unbatchedBillingUnits();
+                totalBillingUnits += result.billingUnits;
+                totalBatchLatencyMs += result.latencyMs;
+                maxBatchLatencyMs = Math.max(maxBatchLatencyMs, result.latencyMs);
+            } else {
+                failedBatches++;
+            }
+        }
+
+        BatchListener listener = batchListener;
+        if (listener != null) {
+            listener.onBatchFlushed(result);
+        }
+        return success;
+    }
+
+    // ======================== statistics ========================
+
+    public long getTotalBatches() {
+        synchronized (statsLock) {
+            return totalBatches;
+        }
+    }
+
+    public long getFailedBatches() {
+        synchronized (statsLock) {
+            return failedBatches;
+        }
+    }
+
+    public long getTotalBilledUnits() {
+        synchronized (statsLock) {
+            return totalBillingUnits;
+        }
+    }
+
+    public double getAverageBatchLatencyMs() {
+        synchronized (statsLock) {
+            long succeeded = totalBatches - failedBatches;
+            return succeeded > 0 ? (double) totalBatchLatencyMs / succeeded : 0;
+        }
+    }
+
+    public long getMaxBatchLatencyMs() {
+        synchronized (statsLock) {
+            return maxBatchLatencyMs;
+        }
+    }
+
+    /**
+     * Units that would have been billed without batching per billed unit so far,
+     * the same ratio as BatchResult.getCompressionRatio() over all published batches
+     */
+    public double getCompressionRatio() {
+        synchronized (statsLock) {
+            return totalBillingUnits > 0 ? (double) totalUnbatchedBillingUnits / totalBillingUnits : 0;
+        }
+    }
+
+    public synchronized int getPendingMessageCount() {
+        int pending = 0;
+        for (Batch batch : batches.values()) {
+            pending += batch.size();
+        }
+        return pending;
+    }
+
+    static int billingUnitsFor(int payloadBytes) {
+        return Math.max(1, (payloadBytes + AWS_IOT_BILLING_UNIT_BYTES - 1) / AWS_IOT_BILLING_UNIT_BYTES);
+    }
+
+    private static int utf8Length(String message) {
+        int length = 0;
+        for (int i = 0; i < message.length(); i++) {
+            char c = message.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c)) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+}
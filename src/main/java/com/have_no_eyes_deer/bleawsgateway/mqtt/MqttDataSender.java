@@ -23,6 +23,30 @@ public interface MqttDataSender {
      */
     boolean sendMessage(String message, String topic);
     
+    /**
+     * send binary payload (CBOR, MessagePack, binary frame)
+     * @param payload encoded payload
+     * @param topic MQTT topic
+     * @return 
+     */
+    boolean sendBytes(byte[] payload, String topic);
+    
+    /**
+     * send with delivery confirmation (QoS 1 where the broker acknowledges)
+     * The default treats a message accepted by sendMessage / sendBytes as delivered.
+     * @param message text message, null for a binary payload
+     * @param payload binary payload, null for a text message
+     * @param callback invoked once with the outcome, on any thread; not invoked if this returns false
+     * @return false if the message was not accepted
+     */
+    default boolean sendConfirmed(String message, byte[] payload, String topic, DeliveryCallback callback) {
+        boolean sent = payload != null ? sendBytes(payload, topic) : sendMessage(message, topic);
+        if (sent) {
+            callback.onDeliveryComplete(true);
+        }
+        return sent;
+    }
+    
     /**
      * batch send data
      * @param dataList data list
@@ -54,6 +78,28 @@ public interface MqttDataSender {
      */
     void setStatusListener(MqttStatusListener listener);
     
+    /**
+     * Payload codec interface - encodes a reading for the wire
+     * MQTT 3.1.1 (what the AWS IoT Android SDK speaks) has no content-type property, so each
+     * codec publishes under its own topic suffix
+     */
+    interface PayloadCodec {
+        String getName();
+        String getContentType();
+        /** appended to the device data topic, "" keeps the plain JSON topic */
+        String getTopicSuffix();
+        /** true: send with sendBytes, false: UTF-8 text for sendMessage */
+        boolean isBinary();
+        byte[] encode(BleDataModel data);
+    }
+    
+    /**
+     * Delivery outcome of sendConfirmed
+     */
+    interface DeliveryCallback {
+        void onDeliveryComplete(boolean success);
+    }
+    
     /**
      * MQTT status listener interface
      */
@@ -0,0 +1,358 @@
+package com.have_no_eyes_deer.bleawsgateway.mqtt;
+
+import android.util.Log;
+
+import com.have_no_eyes_deer.bleawsgateway.model.BleDataModel;
+import com.have_no_eyes_deer.bleawsgateway.pipeline.TelemetryFormatter;
+import com.have_no_eyes_deer.bleawsgateway.store.SegmentedMessageLog;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Store-and-forward MQTT sender - spools messages to a SegmentedMessageLog while the
+ * uplink is unavailable and replays them in order once it is back
+ *
+ * In {@link Mode#ON_FAILURE} messages go straight to the uplink while it is connected and
+ * the spool is empty; anything else is appended to the log so ordering is kept. In
+ * {@link Mode#WRITE_AHEAD} every message is logged first and only sent by the replay
+ * thread. Replay is rate limited so a long backlog does not starve live traffic.
+ *
+ * Everything goes out through the uplink's sendConfirmed (QoS 1 on AWS IoT), because an
+ * accepted publish is only queued in the client and is lost if the connection drops before the
+ * PUBACK. The log cursor moves only over the delivered prefix of the replayed records: a
+ * failed delivery rewinds replay to the first unconfirmed record, so records after it may be
+ * published twice (at-least-once). A direct publish that fails is spooled after the fact and
+ * is then replayed behind the records spooled meanwhile.
+ */
+public class StoreAndForwardMqttDataSender implements MqttDataSender {
+    private static final String TAG = "StoreAndForwardSender";
+
+    private static final int DEFAULT_REPLAY_RATE_PER_SECOND = 20;
+    private static final long REPLAY_TICK_MS = 100;
+    private static final long SYNC_INTERVAL_MS = 1000;
+    private static final int MAX_REPLAY_IN_FLIGHT = 32;
+
+    public enum Mode {
+        ON_FAILURE,
+        WRITE_AHEAD
+    }
+
+    private final SegmentedMessageLog log;     // null: forward only, nothing is spooled
+    private final Mode mode;
+    private final Object forwardLock = new Object();
+    private final ScheduledExecutorService replayScheduler;
+    private final TelemetryFormatter formatter = new TelemetryFormatter(); // guarded by itself
+    private final List<SegmentedMessageLog.Record> replayBatch = new ArrayList<>();
+    // Replayed records awaiting their delivery, oldest first; guarded by forwardLock
+    private final ArrayDeque<Replay> replayInFlight = new ArrayDeque<>();
+    private int replayGeneration;           // bumped on a rewind, stale callbacks are ignored
+
+    private volatile MqttDataSender uplink;
+    private volatile MqttStatusListener statusListener;
+    private volatile int replayRatePerSecond = DEFAULT_REPLAY_RATE_PER_SECOND;
+    private long lastSyncTime = 0;
+
+    // Statistics counters
+    private final AtomicLong forwardedCount = new AtomicLong();
+    private final AtomicLong spooledCount = new AtomicLong();
+    private final AtomicLong replayedCount = new AtomicLong();
+    private final AtomicLong lostCount = new AtomicLong();
+    private final AtomicLong redeliveryCount = new AtomicLong();
+
+    private static class Replay {
+        final SegmentedMessageLog.Record record;
+        final int generation;
+        boolean delivered;
+
+        Replay(SegmentedMessageLog.Record record, int generation) {
+            this.record = record;
+            this.generation = generation;
+        }
+    }
+
+    public StoreAndForwardMqttDataSender(SegmentedMessageLog log) {
+        this(log, Mode.ON_FAILURE);
+    }
+
+    public StoreAndForwardMqttDataSender(SegmentedMessageLog log, Mode mode) {
+        this.log = log;
+        this.mode = mode;
+        this.replayScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "mqtt-replay");
+            thread.setDaemon(true);
+            return thread;
+        });
+        replayScheduler.scheduleWithFixedDelay(this::replayTick, REPLAY_TICK_MS, REPLAY_TICK_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Set (or replace) the sender that actually reaches the broker, e.g. after a new connect
+     */
+    public void setUplink(MqttDataSender uplink) {
+        this.uplink = uplink;
+    }
+
+    public void setReplayRatePerSecond(int replayRatePerSecond) {
+        this.replayRatePerSecond = Math.max(1, replayRatePerSecond);
+    }
+
+    // ======================== MqttDataSender ========================
+
+    @Override
+    public boolean sendData(BleDataModel data, String topic) {
+        String json;
+        synchronized (formatter) {
+            json = formatter.toJson(data);
+        }
+        return sendMessage(json, topic);
+    }
+
+    /**
+     * @return true if the message was handed to the uplink or spooled durably; a handed-over
+     * message whose delivery fails is spooled then
+     */
+    @Override
+    public boolean sendMessage(String message, String topic) {
+        return forward(message, null, topic);
+    }
+
+    /**
+     * Binary payloads are spooled and replayed like text messages
+     */
+    @Override
+    public boolean sendBytes(byte[] payload, String topic) {
+        return forward(null, payload, topic);
+    }
+
+    private boolean forward(String message, byte[] payload, String topic) {
+        synchronized (forwardLock) {
+            MqttDataSender target = uplink;
+            boolean direct = mode == Mode.ON_FAILURE && target != null && target.isConnected()
+                    && (log == null || log.getPendingRecords() == 0);
+            if (direct) {
+                try {
+                    if (target.sendConfirmed(message, payload, topic,
+                            success -> onDirectDelivered(success, message, payload, topic))) {
+                        return true;
+                    }
+                } catch (Exception e) {
+                    Log.w(TAG, "Uplink publish failed, spooling: " + e.getMessage());
+                }
+            }
+            return spool(message, payload, topic);
+        }
+    }
+
+    private void onDirectDelivered(boolean success, String message, byte[] payload, String topic) {
+        if (success) {
+            forwardedCount.incrementAndGet();
+            return;
+        }
+        synchronized (forwardLock) {
+            redeliveryCount.incrementAndGet();
+            spool(message, payload, topic);
+        }
+    }
+
+    @Override
+    public int sendBatchData(List<BleDataModel> dataList, String topic) {
+        int accepted = 0;
+        for (BleDataModel data : dataList) {
+            if (sendData(data, topic)) {
+                accepted++;
+            }
+        }
+        return accepted;
+    }
+
+    @Override
+    public boolean isConnected() {
+        MqttDataSender target = uplink;
+        return target != null && target.isConnected();
+    }
+
+    @Override
+    public boolean connect() {
+        MqttDataSender target = uplink;
+        return target != null && target.connect();
+    }
+
+    /**
+     * Stop replaying, disconnect the uplink and close the log; spooled records stay on disk
+     */
+    @Override
+    public void disconnect() {
+        replayScheduler.shutdown();
+        try {
+            replayScheduler.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        MqttDataSender target = uplink;
+        if (target != null) {
+            target.disconnect();
+        }
+        if (log != null) {
+            synchronized (forwardLock) {
+                log.close();
+            }
+        }
+    }
+
+    @Override
+    public void setStatusListener(MqttStatusListener listener) {
+        this.statusListener = listener;
+        MqttDataSender target = uplink;
+        if (target != null) {
+            target.setStatusListener(listener);
+        }
+    }
+
+    // ======================== spool / replay ========================
+
+    private boolean spool(String message, byte[] payload, String topic) {
+        if (log == null) {
+            lostCount.incrementAndGet();
+            return false;
+        }
+        try {
+            long now = System.currentTimeMillis();
+            boolean appended = payload != null
+                    ? log.append(topic, payload, now)
+                    : log.append(topic, message, now);
+            if (appended) {
+                spooledCount.incrementAndGet();
+                return true;
+            }
+            Log.e(TAG, "Message too large to spool for " + topic);
+        } catch (IOException e) {
+            Log.e(TAG, "Spool append failed: " + e.getMessage());
+            MqttStatusListener listener = statusListener;
+            if (listener != null) {
+                listener.onError("Spool append failed: " + e.getMessage());
+            }
+        }
+        lostCount.incrementAndGet();
+        return false;
+    }
+
+    private void replayTick() {
+        if (log == null) {
+            return;
+        }
+        try {
+            synchronized (forwardLock) {
+                long now = System.currentTimeMillis();
+                if (now - lastSyncTime >= SYNC_INTERVAL_MS) {
+                    log.sync();
+                    lastSyncTime = now;
+                }
+
+                MqttDataSender target = uplink;
+                int inFlight = replayInFlight.size();
+                if (target == null || !target.isConnected() || log.getPendingRecords() == 0
+                        || inFlight >= MAX_REPLAY_IN_FLIGHT) {
+                    return;
+                }
+
+                // Continue after the last record in flight; retention may have dropped the
+                // segments of the older ones, so counting them from the cursor would skip records
+                int budget = (int) Math.max(1, replayRatePerSecond * REPLAY_TICK_MS / 1000);
+                budget = Math.min(budget, MAX_REPLAY_IN_FLIGHT - inFlight);
+                Replay last = replayInFlight.peekLast();
+                replayBatch.clear();
+                log.read(last != null ? last.record : null, budget, replayBatch);
+                int generation = replayGeneration;
+                for (int i = 0; i < replayBatch.size() && generation == replayGeneration; i++) {
+                    SegmentedMessageLog.Record record = replayBatch.get(i);
+                    Replay replay = new Replay(record, generation);
+                    replayInFlight.addLast(replay);
+                    boolean sent;
+                    try {
+                        sent = target.sendConfirmed(record.binary ? null : record.payload,
+                                record.binary ? record.data : null, record.topic,
+                                success -> onReplayDelivered(replay, success));
+                    } catch (Exception e) {
+                        sent = false;
+                    }
+                    if (!sent) {
+                        replayInFlight.remove(replay);
+                        break; // keep order: retry from here on the next tick
+                    }
+                    replayedCount.incrementAndGet();
+                }
+                replayBatch.clear();
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Replay failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Acknowledge the delivered prefix; a failure rewinds replay to the first unconfirmed record
+     */
+    private void onReplayDelivered(Replay replay, boolean success) {
+        synchronized (forwardLock) {
+            if (replay.generation != replayGeneration) {
+                return; // dropped by an earlier rewind, will be replayed again
+            }
+            replay.delivered = success;
+            Replay lastDelivered = null;
+            while (!replayInFlight.isEmpty() && replayInFlight.peekFirst().delivered) {
+                lastDelivered = replayInFlight.pollFirst();
+            }
+            if (!success) {
+                redeliveryCount.addAndGet(replayInFlight.size());
+                replayInFlight.clear();
+                replayGeneration++;
+            }
+            if (lastDelivered != null) {
+                try {
+                    log.acknowledge(lastDelivered.record);
+                } catch (IOException e) {
+                    Log.e(TAG, "Acknowledge failed: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    // ======================== statistics ========================
+
+    public long getPendingCount() {
+        return log != null ? log.getPendingRecords() : 0;
+    }
+
+    public long getForwardedCount() {
+        return forwardedCount.get();
+    }
+
+    public long getSpooledCount() {
+        return spooledCount.get();
+    }
+
+    public long getReplayedCount() {
+        return replayedCount.get();
+    }
+
+    public long getLostCount() {
+        return lostCount.get();
+    }
+
+    /**
+     * Messages published again because their delivery (or an earlier one) failed
+     */
+    public long getRedeliveryCount() {
+        return redeliveryCount.get();
+    }
+
+    public SegmentedMessageLog getLog() {
+        return log;
+    }
+}
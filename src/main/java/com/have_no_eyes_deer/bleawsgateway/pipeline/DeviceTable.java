@@ -0,0 +1,144 @@
+package com.have_no_eyes_deer.bleawsgateway.pipeline;
+
+import com.have_no_eyes_deer.bleawsgateway.decoder.PayloadDecoder;
+import com.have_no_eyes_deer.bleawsgateway.decoder.PayloadDecoderRegistry;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Device table - maps a (device address, characteristic) stream to a small int index so ring
+ * buffer slots only carry an int instead of strings
+ *
+ * A multi-sensor peripheral notifying on several characteristics gets one entry per
+ * characteristic, so each stream keeps its own framing, decoder and route. Connected devices
+ * come with their DeviceRegistry id and their streams are found through an array indexed by
+ * it; devices without one (advertisements) are looked up by address.
+ */
+public class DeviceTable {
+
+    public static class Entry {
+        public final int index;
+        public final String deviceAddress;
+        public final String characteristicUuid;     // stream key, may be null
+        public volatile String deviceName;
+        public volatile String serviceUuid;
+        final Entry nextStream;                     // other characteristics of the same device
+
+        // Decoder resolved for (registry, routes version), decode thread only
+        PayloadDecoderRegistry decoderRegistry;
+        int decoderRoutesVersion;
+        PayloadDecoder decoder;
+
+        Entry(int index, String deviceAddress, String characteristicUuid, Entry nextStream) {
+            this.index = index;
+            this.deviceAddress = deviceAddress;
+            this.characteristicUuid = characteristicUuid;
+            this.nextStream = nextStream;
+        }
+
+        boolean isStream(String characteristicUuid) {
+            // Callers pass the same interned strings, equals() only on a miss
+            return this.characteristicUuid == characteristicUuid
+                    || (characteristicUuid != null && characteristicUuid.equals(this.characteristicUuid));
+        }
+    }
+
+    // Newest stream of each device, older ones chained through nextStream
+    private final ConcurrentHashMap<String, Entry> byAddress = new ConcurrentHashMap<>();
+    // Same heads indexed by DeviceRegistry id, written under this
+    private volatile Entry[] byDeviceId = new Entry[16];
+    private volatile Entry[] byIndex = new Entry[16];
+    private int size = 0; // guarded by this
+
+    /**
+     * Resolve (or assign) the index of a device's characteristic stream and refresh its metadata
+     */
+    public int indexOf(String deviceAddress, String deviceName, String serviceUuid, String characteristicUuid) {
+        Entry entry = find(byAddress.get(deviceAddress), characteristicUuid);
+        if (entry == null) {
+            entry = register(deviceAddress, characteristicUuid);
+        }
+        if (deviceName != null && !deviceName.equals(entry.deviceName)) {
+            entry.deviceName = deviceName;
+        }
+        if (serviceUuid != null && !serviceUuid.equals(entry.serviceUuid)) {
+            entry.serviceUuid = serviceUuid;
+        }
+        return entry.index;
+    }
+
+    /**
+     * Same as above for a device with a DeviceRegistry id (or DeviceRegistry.NO_ID): once the stream
+     * is known, no hashing and no lock
+     */
+    public int indexOf(int deviceId, String deviceAddress, String deviceName, String serviceUuid,
+                       String characteristicUuid) {
+        if (deviceId < 0) {
+            return indexOf(deviceAddress, deviceName, serviceUuid, characteristicUuid);
+        }
+        Entry[] heads = byDeviceId;
+        Entry head = deviceId < heads.length ? heads[deviceId] : null;
+        // A registry id is only reused for another address after a scan-only device was forgotten
+        Entry entry = head != null && head.deviceAddress.equals(deviceAddress) ? find(head, characteristicUuid) : null;
+        if (entry == null) {
+            entry = register(deviceId, deviceAddress, characteristicUuid);
+        }
+        if (deviceName != null && !deviceName.equals(entry.deviceName)) {
+            entry.deviceName = deviceName;
+        }
+        if (serviceUuid != null && !serviceUuid.equals(entry.serviceUuid)) {
+            entry.serviceUuid = serviceUuid;
+        }
+        return entry.index;
+    }
+
+    private synchronized Entry register(int deviceId, String deviceAddress, String characteristicUuid) {
+        Entry entry = register(deviceAddress, characteristicUuid);
+        Entry[] heads = byDeviceId;
+        if (deviceId >= heads.length) {
+            heads = Arrays.copyOf(heads, Math.max(heads.length * 2, deviceId + 1));
+        }
+        heads[deviceId] = byAddress.get(deviceAddress);
+        byDeviceId = heads;
+        return entry;
+    }
+
+    private static Entry find(Entry head, String characteristicUuid) {
+        for (Entry entry = head; entry != null; entry = entry.nextStream) {
+            if (entry.isStream(characteristicUuid)) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    private synchronized Entry register(String deviceAddress, String characteristicUuid) {
+        Entry head = byAddress.get(deviceAddress);
+        Entry entry = find(head, characteristicUuid);
+        if (entry != null) {
+            return entry;
+        }
+        Entry[] table = byIndex;
+        if (size == table.length) {
+            table = Arrays.copyOf(table, table.length * 2);
+        }
+        entry = new Entry(size, deviceAddress, characteristicUuid, head);
+        table[size++] = entry;
+        byIndex = table;
+        byAddress.put(deviceAddress, entry);
+        return entry;
+    }
+
+    public Entry get(int index) {
+        Entry[] table = byIndex;
+        return index >= 0 && index < table.length ? table[index] : null;
+    }
+
+    /**
+     * Number of streams
+     */
+    public synchronized int size() {
+        return size;
+    }
+}
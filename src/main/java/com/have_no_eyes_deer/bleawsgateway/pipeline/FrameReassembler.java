@@ -0,0 +1,368 @@
+package com.have_no_eyes_deer.bleawsgateway.pipeline;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Frame reassembler - stitches notifications into frames for payloads larger than the MTU
+ *
+ * A payload longer than MTU-3 bytes arrives as several notifications. Each (device,
+ * characteristic) stream is cut into frames by its {@link Framing}: a length prefix or a
+ * delimiter byte, or no framing at all (every notification is one frame, the default).
+ * Framings are looked up like decoders: characteristic UUID → service UUID → device name
+ * prefix → default, once per stream.
+ *
+ * Runs on the GATT callback threads. Every stream owns one buffer of maxFrameLength bytes,
+ * allocated when the stream is first seen; frames that lie within one notification are handed
+ * to the sink straight from the notification value, without a copy. A partial frame older than
+ * the framing's timeout is dropped when the next fragment arrives or on expire(). Frames
+ * longer than maxFrameLength and invalid length prefixes are counted as malformed and
+ * dropped: a length-prefixed stream resyncs at the next notification, a delimited one at the
+ * next delimiter.
+ */
+public class FrameReassembler {
+
+    public static final int DEFAULT_MAX_FRAME_LENGTH = NotificationRingBuffer.DEFAULT_SLOT_SIZE;
+    public static final long DEFAULT_TIMEOUT_MS = 2_000;
+
+    public static class Framing {
+        public enum Mode {
+            NONE,
+            LENGTH_PREFIXED,    // [length][payload], the length excludes itself
+            DELIMITED           // payload ends at the delimiter byte, which is not part of the frame
+        }
+
+        public static final Framing NONE = new Framing(Mode.NONE, 0, false, (byte) 0, DEFAULT_MAX_FRAME_LENGTH, 0);
+
+        public final Mode mode;
+        public final int lengthBytes;
+        public final boolean bigEndian;
+        public final byte delimiter;
+        public final int maxFrameLength;
+        public final long timeoutMs;
+
+        private Framing(Mode mode, int lengthBytes, boolean bigEndian, byte delimiter, int maxFrameLength, long timeoutMs) {
+            if (maxFrameLength <= 0) {
+                throw new IllegalArgumentException("maxFrameLength must be positive: " + maxFrameLength);
+            }
+            this.mode = mode;
+            this.lengthBytes = lengthBytes;
+            this.bigEndian = bigEndian;
+            this.delimiter = delimiter;
+            this.maxFrameLength = maxFrameLength;
+            this.timeoutMs = timeoutMs;
+        }
+
+        /**
+         * @param lengthBytes 1, 2 or 4 byte length prefix
+         */
+        public static Framing lengthPrefixed(int lengthBytes, boolean bigEndian, int maxFrameLength, long timeoutMs) {
+            if (lengthBytes != 1 && lengthBytes != 2 && lengthBytes != 4) {
+                throw new IllegalArgumentException("length prefix must be 1, 2 or 4 bytes: " + lengthBytes);
+            }
+            return new Framing(Mode.LENGTH_PREFIXED, lengthBytes, bigEndian, (byte) 0, maxFrameLength, timeoutMs);
+        }
+
+        public static Framing delimited(byte delimiter, int maxFrameLength, long timeoutMs) {
+            return new Framing(Mode.DELIMITED, 0, false, delimiter, maxFrameLength, timeoutMs);
+        }
+    }
+
+    /**
+     * Receives complete frames; the buffer is only valid for the duration of the call
+     */
+    public interface FrameSink {
+        void onFrame(int deviceIndex, long timestamp, byte[] buffer, int offset, int length);
+    }
+
+    private static final class Stream {
+        final String characteristicUuid;
+        final Framing framing;
+        final byte[] buffer;
+        final Stream next;          // other characteristics of the same device
+        int length;                 // bytes buffered, including the length prefix
+        int expected = -1;          // payload length once the prefix is complete
+        long startedAt;             // first fragment of the partial frame
+        boolean discarding;         // delimited: skipping a malformed frame
+
+        Stream(String characteristicUuid, Framing framing, Stream next) {
+            this.characteristicUuid = characteristicUuid;
+            this.framing = framing;
+            this.buffer = framing.mode == Framing.Mode.NONE
+                    ? null : new byte[framing.maxFrameLength + framing.lengthBytes];
+            this.next = next;
+        }
+
+        void reset() {
+            length = 0;
+            expected = -1;
+            discarding = false;
+        }
+    }
+
+    private final Map<String, Framing> byCharacteristic = new HashMap<>();
+    private final Map<String, Framing> byService = new HashMap<>();
+    private final List<String> namePrefixes = new ArrayList<>();
+    private final List<Framing> namePrefixFramings = new ArrayList<>();
+    private Framing defaultFraming = Framing.NONE;
+
+    private volatile Stream[] streams = new Stream[16];  // by device index
+
+    private final AtomicLong fragmentCount = new AtomicLong();
+    private final AtomicLong frameCount = new AtomicLong();
+    private final AtomicLong malformedCount = new AtomicLong();
+    private final AtomicLong timedOutCount = new AtomicLong();
+
+    // ======================== configuration ========================
+
+    public synchronized void registerCharacteristic(String characteristicUuid, Framing framing) {
+        byCharacteristic.put(characteristicUuid, framing);
+        clearStreams();
+    }
+
+    public synchronized void registerService(String serviceUuid, Framing framing) {
+        byService.put(serviceUuid, framing);
+        clearStreams();
+    }
+
+    public synchronized void registerNamePrefix(String namePrefix, Framing framing) {
+        namePrefixes.add(namePrefix);
+        namePrefixFramings.add(framing);
+        clearStreams();
+    }
+
+    public synchronized void setDefaultFraming(Framing framing) {
+        defaultFraming = framing != null ? framing : Framing.NONE;
+        clearStreams();
+    }
+
+    // guarded by this; partial frames of the old framings are dropped
+    private void clearStreams() {
+        streams = new Stream[streams.length];
+    }
+
+    private Framing resolve(String serviceUuid, String characteristicUuid, String deviceName) {
+        Framing framing = characteristicUuid != null ? byCharacteristic.get(characteristicUuid) : null;
+        if (framing == null && serviceUuid != null) {
+            framing = byService.get(serviceUuid);
+        }
+        if (framing == null && deviceName != null) {
+            for (int i = 0; i < namePrefixes.size(); i++) {
+                if (deviceName.startsWith(namePrefixes.get(i))) {
+                    framing = namePrefixFramings.get(i);
+                    break;
+                }
+            }
+        }
+        return framing != null ? framing : defaultFraming;
+    }
+
+    // ======================== ingest ========================
+
+    /**
+     * Feed one notification value; complete frames go to the sink before this returns
+     */
+    public void accept(int deviceIndex, String serviceUuid, String characteristicUuid, String deviceName,
+                       long timestamp, byte[] value, int offset, int length, FrameSink sink) {
+        fragmentCount.incrementAndGet();
+        Stream stream = streamFor(deviceIndex, serviceUuid, characteristicUuid, deviceName);
+        if (stream.framing.mode == Framing.Mode.NONE) {
+            frameCount.incrementAndGet();
+            sink.onFrame(deviceIndex, timestamp, value, offset, length);
+            return;
+        }
+        synchronized (stream) {
+            if ((stream.length > 0 || stream.discarding) && timestamp - stream.startedAt > stream.framing.timeoutMs) {
+                timedOutCount.incrementAndGet();
+                stream.reset();
+            }
+            if (stream.framing.mode == Framing.Mode.LENGTH_PREFIXED) {
+                acceptLengthPrefixed(stream, deviceIndex, timestamp, value, offset, offset + length, sink);
+            } else {
+                acceptDelimited(stream, deviceIndex, timestamp, value, offset, offset + length, sink);
+            }
+        }
+    }
+
+    /**
+     * Drop partial frames that waited longer than their timeout
+     */
+    public void expire(long now) {
+        for (Stream head : streams) {
+            for (Stream stream = head; stream != null; stream = stream.next) {
+                if (stream.framing.mode == Framing.Mode.NONE) continue;
+                synchronized (stream) {
+                    if ((stream.length > 0 || stream.discarding) && now - stream.startedAt > stream.framing.timeoutMs) {
+                        timedOutCount.incrementAndGet();
+                        stream.reset();
+                    }
+                }
+            }
+        }
+    }
+
+    private Stream streamFor(int deviceIndex, String serviceUuid, String characteristicUuid, String deviceName) {
+        Stream[] table = streams;
+        if (deviceIndex < table.length) {
+            for (Stream stream = table[deviceIndex]; stream != null; stream = stream.next) {
+                if (stream.characteristicUuid == null ? characteristicUuid == null
+                        : stream.characteristicUuid.equals(characteristicUuid)) {
+                    return stream;
+                }
+            }
+        }
+        return addStream(deviceIndex, serviceUuid, characteristicUuid, deviceName);
+    }
+
+    private synchronized Stream addStream(int deviceIndex, String serviceUuid, String characteristicUuid, String deviceName) {
+        Stream[] table = streams;
+        if (deviceIndex >= table.length) {
+            table = Arrays.copyOf(table, Math.max(table.length * 2, deviceIndex + 1));
+        } else {
+            table = table.clone();
+        }
+        for (Stream stream = table[deviceIndex]; stream != null; stream = stream.next) {
+            if (stream.characteristicUuid == null ? characteristicUuid == null
+                    : stream.characteristicUuid.equals(characteristicUuid)) {
+                return stream;  // added by another thread meanwhile
+            }
+        }
+        Stream stream = new Stream(characteristicUuid, resolve(serviceUuid, characteristicUuid, deviceName),
+                table[deviceIndex]);
+        table[deviceIndex] = stream;
+        streams = table;
+        return stream;
+    }
+
+    // guarded by stream
+    private void acceptLengthPrefixed(Stream stream, int deviceIndex, long timestamp,
+                                      byte[] data, int pos, int end, FrameSink sink) {
+        Framing framing = stream.framing;
+        int header = framing.lengthBytes;
+        while (pos < end) {
+            if (stream.length == 0 && end - pos >= header) {
+                int frameLength = readLength(data, pos, framing);
+                if (frameLength <= 0 || frameLength > framing.maxFrameLength) {
+                    malformedCount.incrementAndGet();
+                    return; // resync at the next notification
+                }
+                if (end - pos - header >= frameLength) {
+                    // Whole frame inside this notification
+                    frameCount.incrementAndGet();
+                    sink.onFrame(deviceIndex, timestamp, data, pos + header, frameLength);
+                    pos += header + frameLength;
+                    continue;
+                }
+            }
+            if (stream.length == 0) {
+                stream.startedAt = timestamp;
+            }
+            int wanted = stream.expected < 0 ? header - stream.length : header + stream.expected - stream.length;
+            int n = Math.min(wanted, end - pos);
+            System.arraycopy(data, pos, stream.buffer, stream.length, n);
+            stream.length += n;
+            pos += n;
+            if (stream.expected < 0 && stream.length == header) {
+                int frameLength = readLength(stream.buffer, 0, framing);
+                if (frameLength <= 0 || frameLength > framing.maxFrameLength) {
+                    malformedCount.incrementAndGet();
+                    stream.reset();
+                    return;
+                }
+                stream.expected = frameLength;
+            }
+            if (stream.expected >= 0 && stream.length == header + stream.expected) {
+                frameCount.incrementAndGet();
+                sink.onFrame(deviceIndex, stream.startedAt, stream.buffer, header, stream.expected);
+                stream.reset();
+            }
+        }
+    }
+
+    // guarded by stream
+    private void acceptDelimited(Stream stream, int deviceIndex, long timestamp,
+                                 byte[] data, int pos, int end, FrameSink sink) {
+        Framing framing = stream.framing;
+        while (pos < end) {
+            int delimiterAt = pos;
+            while (delimiterAt < end && data[delimiterAt] != framing.delimiter) {
+                delimiterAt++;
+            }
+            int n = delimiterAt - pos;
+            if (delimiterAt == end) {
+                // No delimiter yet: keep the partial frame
+                if (stream.discarding) return;
+                if (stream.length == 0) {
+                    stream.startedAt = timestamp;
+                }
+                if (stream.length + n > framing.maxFrameLength) {
+                    malformedCount.incrementAndGet();
+                    stream.length = 0;
+                    stream.discarding = true;
+                    return;
+                }
+                System.arraycopy(data, pos, stream.buffer, stream.length, n);
+                stream.length += n;
+                return;
+            }
+            if (stream.discarding) {
+                stream.discarding = false;
+            } else if (stream.length == 0) {
+                if (n > 0) {
+                    frameCount.incrementAndGet();
+                    sink.onFrame(deviceIndex, timestamp, data, pos, n);
+                }
+            } else if (stream.length + n > framing.maxFrameLength) {
+                malformedCount.incrementAndGet();
+                stream.reset();
+            } else {
+                System.arraycopy(data, pos, stream.buffer, stream.length, n);
+                frameCount.incrementAndGet();
+                sink.onFrame(deviceIndex, stream.startedAt, stream.buffer, 0, stream.length + n);
+                stream.reset();
+            }
+            pos = delimiterAt + 1;
+        }
+    }
+
+    private static int readLength(byte[] data, int pos, Framing framing) {
+        int value = 0;
+        for (int i = 0; i < framing.lengthBytes; i++) {
+            int b = data[pos + i] & 0xFF;
+            if (framing.bigEndian) {
+                value = (value << 8) | b;
+            } else {
+                value |= b << (8 * i);
+            }
+        }
+        return value;
+    }
+
+    // ======================== statistics ========================
+
+    public long getFragmentCount() {
+        return fragmentCount.get();
+    }
+
+    public long getFrameCount() {
+        return frameCount.get();
+    }
+
+    /**
+     * Frames dropped for an invalid length prefix or for exceeding maxFrameLength
+     */
+    public long getMalformedCount() {
+        return malformedCount.get();
+    }
+
+    /**
+     * Partial frames dropped after the framing's timeout
+     */
+    public long getTimedOutCount() {
+        return timedOutCount.get();
+    }
+}
@@ -0,0 +1,861 @@
+package com.have_no_eyes_deer.bleawsgateway.pipeline;
+
+import android.util.Log;
+
+import com.have_no_eyes_deer.bleawsgateway.aggregate.WindowAggregate;
+import com.have_no_eyes_deer.bleawsgateway.aggregate.WindowAggregator;
+import com.have_no_eyes_deer.bleawsgateway.ble.DeviceRegistry;
+import com.have_no_eyes_deer.bleawsgateway.ble.L2capChannel;
+import com.have_no_eyes_deer.bleawsgateway.decoder.PayloadDecoder;
+import com.have_no_eyes_deer.bleawsgateway.filter.ReadingFilter;
+import com.have_no_eyes_deer.bleawsgateway.decoder.PayloadDecoderRegistry;
+import com.have_no_eyes_deer.bleawsgateway.model.BleDataModel;
+import com.have_no_eyes_deer.bleawsgateway.monitor.PerformanceDataManager;
+import com.have_no_eyes_deer.bleawsgateway.mqtt.MqttDataSender;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Gateway Pipeline - headless BLE → MQTT forwarding path
+ *
+ * Notifications are handed over on the GATT callback thread and then flow through
+ * dedicated decode → transform → publish worker threads, so neither the binder thread
+ * nor the main looper ever formats JSON or talks to the MQTT client. The UI only sees
+ * a throttled {@link PipelineSummary}.
+ *
+ * The GATT side writes into a preallocated {@link NotificationRingBuffer}; the stages after
+ * it are connected by small bounded queues, so a slow broker backs up into the ring where
+ * the configured overflow policy is the single, counted point of loss.
+ */
+public class GatewayPipeline {
+
+    private static final String TAG = "GatewayPipeline";
+    private static final long DEFAULT_SUMMARY_INTERVAL_MS = 500;
+    private static final int MAX_RECENT_READINGS = 20;
+    private static final int DEFAULT_RING_CAPACITY = 1024;
+    private static final int STAGE_QUEUE_CAPACITY = 64;
+    private static final int READING_POOL_CAPACITY = 2 * STAGE_QUEUE_CAPACITY + 16; // both queues full, plus stages
+    private static final int DRAIN_BATCH = 64;
+    private static final long IDLE_PARK_NANOS = 10_000_000L; // 10ms, producers unpark earlier
+    private static final long FRAME_EXPIRE_INTERVAL_MS = 250;
+    private static final long AGGREGATE_GRACE_MS = 500;       // readings still in flight when a window ends
+
+    /**
+     * Publish stage sink, same argument order as MqttDataSender.sendMessage
+     * @return false when the broker is not available and the reading was skipped
+     */
+    public interface Publisher {
+        boolean publish(String payload, String topic) throws Exception;
+    }
+
+    /**
+     * Publish stage sink for binary codecs, same argument order as MqttDataSender.sendBytes
+     */
+    public interface BinaryPublisher {
+        boolean publish(byte[] payload, String topic) throws Exception;
+    }
+
+    public interface SummaryListener {
+        void onSummary(PipelineSummary summary);
+    }
+
+    /**
+     * Reading travelling through the stages; recycled like the records (freeEnvelopes)
+     */
+    private static class Envelope {
+        long receivedAt;
+        BleDataModel data;
+        boolean pooled;          // data came from the readingPool and goes back after publish
+        String topic;
+        String payload;
+        byte[] binaryPayload;    // set instead of payload by binary codecs
+        boolean released;        // held back by the filter earlier, already counted as received
+        WindowAggregate aggregate; // set instead of data for window aggregates
+
+        Envelope reset(long receivedAt) {
+            this.receivedAt = receivedAt;
+            data = null;
+            pooled = false;
+            topic = null;
+            payload = null;
+            binaryPayload = null;
+            released = false;
+            aggregate = null;
+            return this;
+        }
+    }
+
+    /**
+     * Entry of the recent readings ring; the raw bytes are copied into its own buffer, which only
+     * grows, and the entries are turned into PipelineSummary.Readings once per summary
+     */
+    private static class RecentReading {
+        String deviceAddress;
+        String deviceName;
+        byte[] rawData = new byte[0];
+        int rawLength;
+        long receivedAt;
+        String topic;
+        boolean published;
+        boolean suppressed;
+        boolean aggregatedOnly;
+        boolean aggregate;
+        String error;
+
+        void setRawData(byte[] bytes, int length) {
+            if (rawData.length < length) {
+                rawData = new byte[length];
+            }
+            if (length > 0) {
+                System.arraycopy(bytes, 0, rawData, 0, length);
+            }
+            rawLength = length;
+        }
+
+        PipelineSummary.Reading toReading() {
+            PipelineSummary.Reading reading = new PipelineSummary.Reading(deviceAddress, deviceName,
+                    Arrays.copyOf(rawData, rawLength), receivedAt);
+            reading.topic = topic;
+            reading.published = published;
+            reading.suppressed = suppressed;
+            reading.aggregatedOnly = aggregatedOnly;
+            reading.aggregate = aggregate;
+            reading.error = error;
+            return reading;
+        }
+    }
+
+    private final NotificationRingBuffer ringBuffer;
+    private final DeviceTable deviceTable = new DeviceTable();
+    private final StreamRoutes streamRoutes = new StreamRoutes();
+    private final FrameReassembler frameReassembler = new FrameReassembler();
+    private final FrameReassembler.FrameSink frameSink = this::publishFrame;
+    private final ReadingPool readingPool;
+    private final ArrayBlockingQueue<Envelope> freeEnvelopes = new ArrayBlockingQueue<>(READING_POOL_CAPACITY);
+    private final BlockingQueue<Envelope> transformQueue = new ArrayBlockingQueue<>(STAGE_QUEUE_CAPACITY);
+    private final BlockingQueue<Envelope> publishQueue = new ArrayBlockingQueue<>(STAGE_QUEUE_CAPACITY);
+    private final Thread decodeThread;
+    private final Thread transformThread;
+    private final Thread publishThread;
+    private final ScheduledExecutorService summaryScheduler;
+    private final TelemetryFormatter formatter = new TelemetryFormatter(); // transform thread only
+    private final List<BleDataModel> filtered = new ArrayList<>(2);       // transform thread only
+    private final List<BleDataModel> dropped = new ArrayList<>(2);        // transform thread only
+    private final List<WindowAggregate> aggregates = new ArrayList<>();   // transform thread only
+
+    private volatile Publisher publisher;
+    private volatile BinaryPublisher binaryPublisher;
+    private volatile MqttDataSender.PayloadCodec payloadCodec; // null: formatter JSON, transform thread only
+    private volatile ReadingFilter readingFilter;              // transform thread only
+    private volatile WindowAggregator windowAggregator;        // transform thread only
+    private volatile boolean publishRawReadings = true;
+    private volatile PayloadDecoderRegistry decoderRegistry = PayloadDecoderRegistry.createDefault();
+    private volatile PerformanceDataManager performanceManager;
+    private volatile SummaryListener summaryListener;
+    private volatile Executor summaryExecutor;
+    private volatile boolean running = true;
+    private volatile long monotonicOffsetMs = Long.MIN_VALUE; // wall clock ms minus elapsedRealtime ms
+
+    // Statistics counters
+    private final AtomicLong totalReceived = new AtomicLong();
+    private final AtomicLong totalPublished = new AtomicLong();
+    private final AtomicLong totalFailed = new AtomicLong();
+    private final AtomicLong totalSkipped = new AtomicLong();
+    private final AtomicLong totalSuppressed = new AtomicLong();
+    private final AtomicLong totalAggregated = new AtomicLong();
+
+    // Period statistics, guarded by periodLock
+    private final Object periodLock = new Object();
+    private final RecentReading[] recentReadings = new RecentReading[MAX_RECENT_READINGS];
+    private int recentHead = 0;             // oldest entry
+    private int recentCount = 0;
+    private int receivedInPeriod = 0;
+    private int publishedInPeriod = 0;
+    private int omittedInPeriod = 0;
+    private long latencySumInPeriod = 0;
+    private long maxLatencyInPeriod = 0;
+
+    public GatewayPipeline() {
+        this(DEFAULT_SUMMARY_INTERVAL_MS);
+    }
+
+    public GatewayPipeline(long summaryIntervalMs) {
+        this(summaryIntervalMs, DEFAULT_RING_CAPACITY, NotificationRingBuffer.OverflowPolicy.DROP_OLDEST);
+    }
+
+    /**
+     * @param ringCapacity ring buffer slots, power of two
+     * @param overflowPolicy what the GATT callback does when the ring is full
+     */
+    public GatewayPipeline(long summaryIntervalMs, int ringCapacity,
+                           NotificationRingBuffer.OverflowPolicy overflowPolicy) {
+        ringBuffer = new NotificationRingBuffer(ringCapacity, overflowPolicy);
+        readingPool = new ReadingPool(READING_POOL_CAPACITY, ringBuffer.getSlotSize());
+
+        decodeThread = namedThread("pipeline-decode", this::runDecodeLoop);
+        transformThread = namedThread("pipeline-transform", this::runTransformLoop);
+        publishThread = namedThread("pipeline-publish", this::runPublishLoop);
+        ringBuffer.setConsumerThread(decodeThread);
+        decodeThread.start();
+        transformThread.start();
+        publishThread.start();
+
+        summaryScheduler = Executors.newSingleThreadScheduledExecutor(
+                runnable -> namedThread("pipeline-summary", runnable));
+        summaryScheduler.scheduleAtFixedRate(this::emitSummary,
+                summaryIntervalMs, summaryIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    // ======================== configuration ========================
+
+    public void setPublisher(Publisher publisher) {
+        this.publisher = publisher;
+    }
+
+    public void setPerformanceDataManager(PerformanceDataManager performanceManager) {
+        this.performanceManager = performanceManager;
+    }
+
+    public void setBinaryPublisher(BinaryPublisher binaryPublisher) {
+        this.binaryPublisher = binaryPublisher;
+    }
+
+    /**
+     * Select the wire encoding; binary codecs go to the BinaryPublisher
+     * @param codec codec owned by the pipeline from now on, null for the built-in JSON
+     */
+    public void setPayloadCodec(MqttDataSender.PayloadCodec codec) {
+        this.payloadCodec = codec;
+    }
+
+    /**
+     * Report-by-exception filter run on the decoded values before encoding, null to publish every reading
+     * @param filter filter owned by the pipeline from now on (its rules may still be changed)
+     */
+    public void setReadingFilter(ReadingFilter filter) {
+        this.readingFilter = filter;
+    }
+
+    /**
+     * Fold every decoded reading into windows published to devices/&lt;id&gt;/agg, before the ReadingFilter
+     * @param aggregator aggregator owned by the pipeline from now on, null to stop aggregating
+     * @param publishRaw false to publish only the aggregates, not the individual readings
+     */
+    public void setWindowAggregator(WindowAggregator aggregator, boolean publishRaw) {
+        this.publishRawReadings = publishRaw || aggregator == null;
+        this.windowAggregator = aggregator;
+    }
+
+    /**
+     * Replace the payload decoders (defaults: PayloadDecoderRegistry.createDefault())
+     */
+    public void setDecoderRegistry(PayloadDecoderRegistry registry) {
+        this.decoderRegistry = registry != null ? registry : PayloadDecoderRegistry.createDefault();
+    }
+
+    /**
+     * Framing of notifications larger than the MTU, per characteristic / service / name prefix;
+     * without registrations every notification is one reading
+     */
+    public FrameReassembler getFrameReassembler() {
+        return frameReassembler;
+    }
+
+    /**
+     * Decoder and topic per (device, characteristic) stream, for peripherals with several sensors
+     */
+    public StreamRoutes getStreamRoutes() {
+        return streamRoutes;
+    }
+
+    public ReadingPool getReadingPool() {
+        return readingPool;
+    }
+
+    /**
+     * @param listener summary listener
+     * @param callbackExecutor executor the listener is invoked on (e.g. the main thread)
+     */
+    public void setSummaryListener(SummaryListener listener, Executor callbackExecutor) {
+        this.summaryExecutor = callbackExecutor;
+        this.summaryListener = listener;
+    }
+
+    // ======================== ingest ========================
+
+    /**
+     * Entry point, called directly on the GATT callback thread - reassembles frames and copies
+     * them into the ring buffer and returns; never allocates once the device is known
+     */
+    public void onNotification(String deviceAddress, String deviceName,
+                               String serviceUuid, String characteristicUuid, byte[] value) {
+        onNotificationAt(DeviceRegistry.NO_ID, deviceAddress, deviceName, serviceUuid, characteristicUuid, value,
+                System.currentTimeMillis());
+    }
+
+    /**
+     * Same as above with the monotonic arrival time (SystemClock.elapsedRealtimeNanos()) taken in the
+     * GATT callback; readings are stamped with it mapped onto the wall clock, so queueing on the callback
+     * thread and wall clock adjustments do not reorder or shift them
+     */
+    public void onNotification(String deviceAddress, String deviceName,
+                               String serviceUuid, String characteristicUuid, byte[] value, long timestampNanos) {
+        onNotificationAt(DeviceRegistry.NO_ID, deviceAddress, deviceName, serviceUuid, characteristicUuid, value,
+                wallClockMillis(timestampNanos));
+    }
+
+    /**
+     * Same as above for a device with a DeviceRegistry id (BleManager.NotificationSink): its streams
+     * are found by id, without hashing the address
+     */
+    public void onNotification(int deviceId, String deviceAddress, String deviceName,
+                               String serviceUuid, String characteristicUuid, byte[] value, long timestampNanos) {
+        onNotificationAt(deviceId, deviceAddress, deviceName, serviceUuid, characteristicUuid, value,
+                wallClockMillis(timestampNanos));
+    }
+
+    /**
+     * Sensor payload from an advertisement (AdvertisementIngest.Sink), on the scan callback thread.
+     * Advertisements are whole datagrams, so they skip the frame reassembler; the source key takes
+     * the place of the service and characteristic UUID when the decoder is resolved.
+     */
+    public void onAdvertisement(String deviceAddress, String deviceName, String sourceKey,
+                                byte[] data, int offset, int length, long timestampNanos) {
+        if (!running || data == null) return;
+
+        int deviceIndex = deviceTable.indexOf(deviceAddress, deviceName, sourceKey, sourceKey);
+        totalReceived.incrementAndGet();
+        publishFrame(deviceIndex, wallClockMillis(timestampNanos), data, offset, length);
+    }
+
+    /**
+     * Frame of an L2CAP channel (BleManager.NotificationSink.onChannelFrame), on the channel's reader
+     * thread. The channel delimits its frames itself, so they skip the frame reassembler as well.
+     * With the BLOCK ring policy a full ring blocks the reader, and the peripheral runs out of credits.
+     */
+    public void onChannelFrame(String deviceAddress, String deviceName, String sourceKey,
+                               byte[] buffer, int offset, int length, long timestampNanos) {
+        onChannelFrame(DeviceRegistry.NO_ID, deviceAddress, deviceName, sourceKey, buffer, offset, length,
+                timestampNanos);
+    }
+
+    /**
+     * Same as above for a device with a DeviceRegistry id
+     */
+    public void onChannelFrame(int deviceId, String deviceAddress, String deviceName, String sourceKey,
+                               byte[] buffer, int offset, int length, long timestampNanos) {
+        if (!running || buffer == null) return;
+
+        int deviceIndex = deviceTable.indexOf(deviceId, deviceAddress, deviceName, L2capChannel.SERVICE_KEY,
+                sourceKey);
+        totalReceived.incrementAndGet();
+        publishFrame(deviceIndex, wallClockMillis(timestampNanos), buffer, offset, length);
+    }
+
+    private long wallClockMillis(long timestampNanos) {
+        long offset = monotonicOffsetMs;
+        if (offset == Long.MIN_VALUE) {
+            // Anchored once, on the first notification: the callback has only just taken timestampNanos
+            offset = System.currentTimeMillis() - timestampNanos / 1_000_000L;
+            monotonicOffsetMs = offset;
+        }
+        return offset + timestampNanos / 1_000_000L;
+    }
+
+    private void onNotificationAt(int deviceId, String deviceAddress, String deviceName,
+                                  String serviceUuid, String characteristicUuid, byte[] value, long timestamp) {
+        if (!running || value == null) return;
+
+        int deviceIndex = deviceTable.indexOf(deviceId, deviceAddress, deviceName, serviceUuid, characteristicUuid);
+        totalReceived.incrementAndGet();
+        frameReassembler.accept(deviceIndex, serviceUuid, characteristicUuid, deviceName,
+                timestamp, value, 0, value.length, frameSink);
+    }
+
+    private void publishFrame(int deviceIndex, long timestamp, byte[] buffer, int offset, int length) {
+        // The ring's preallocated slots keep their own copy; the caller's array is not retained
+        ringBuffer.publish(deviceIndex, timestamp, buffer, offset, length);
+    }
+
+    // ======================== stages ========================
+
+    private void runDecodeLoop() {
+        NotificationRingBuffer.SlotHandler handler = this::decode;
+        long lastExpire = 0;
+        while (running || ringBuffer.size() > 0) {
+            if (ringBuffer.drain(handler, DRAIN_BATCH) == 0) {
+                long now = System.currentTimeMillis();
+                if (now - lastExpire >= FRAME_EXPIRE_INTERVAL_MS) {
+                    frameReassembler.expire(now);
+                    lastExpire = now;
+                }
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+            }
+        }
+    }
+
+    private void decode(int deviceIndex, long timestamp, byte[] buffer, int length) {
+        DeviceTable.Entry device = deviceTable.get(deviceIndex);
+
+        // Pooled record: the metadata strings are the device table's, the payload is copied into the
+        // record's own buffer and the string form is decoded only if a consumer asks for it
+        BleDataModel data = readingPool.acquire(buffer, length);
+        data.reset(device.deviceAddress, device.deviceName, device.serviceUuid, device.characteristicUuid,
+                timestamp);
+        Envelope envelope = acquireEnvelope(timestamp);
+        envelope.data = data;
+        envelope.pooled = true;
+
+        // Parse once here; the transform stage and consumers only read the typed fields
+        PayloadDecoderRegistry registry = decoderRegistry;
+        registry.decode(decoderFor(device, registry, streamRoutes), data.getRawBuffer(), 0, length,
+                data.getDecoded());
+
+        PerformanceDataManager monitor = performanceManager;
+        if (monitor != null) {
+            monitor.recordBleMessage(device.deviceAddress);
+        }
+        handOff(transformQueue, envelope);
+    }
+
+    /**
+     * Decoder for a stream: its route's, else the registry's; resolved again only when the
+     * registry or the routes change
+     */
+    private static PayloadDecoder decoderFor(DeviceTable.Entry device, PayloadDecoderRegistry registry,
+                                             StreamRoutes routes) {
+        int routesVersion = routes.getVersion();
+        if (device.decoderRegistry != registry || device.decoderRoutesVersion != routesVersion) {
+            StreamRoutes.Route route = routes.find(device.deviceAddress, device.characteristicUuid);
+            device.decoder = route != null && route.decoder != null ? route.decoder
+                    : registry.resolve(device.serviceUuid, device.characteristicUuid, device.deviceName);
+            device.decoderRoutesVersion = routesVersion;
+            device.decoderRegistry = registry;
+        }
+        return device.decoder;
+    }
+
+    private void runTransformLoop() {
+        Envelope envelope;
+        Runnable onIdle = this::advanceAggregates;
+        while ((envelope = nextFrom(transformQueue, decodeThread, onIdle)) != null) {
+            transform(envelope);
+        }
+        // Partial windows would otherwise be lost on shutdown
+        WindowAggregator aggregator = windowAggregator;
+        if (aggregator != null) {
+            aggregator.flush(aggregates);
+            publishAggregates();
+        }
+    }
+
+    private void transform(Envelope envelope) {
+        WindowAggregator aggregator = windowAggregator;
+        if (aggregator != null) {
+            advanceAggregates();
+            aggregator.add(envelope.data, aggregates);
+            publishAggregates();
+            if (!publishRawReadings) {
+                totalAggregated.incrementAndGet();
+                recordSuppressed(envelope, true);
+                recycle(envelope);
+                return;
+            }
+        }
+        filter(envelope);
+    }
+
+    /**
+     * Close the windows of devices that went quiet, also called while the transform queue is idle
+     */
+    private void advanceAggregates() {
+        WindowAggregator aggregator = windowAggregator;
+        if (aggregator != null && aggregator.advanceTo(System.currentTimeMillis() - AGGREGATE_GRACE_MS, aggregates) > 0) {
+            publishAggregates();
+        }
+    }
+
+    private void publishAggregates() {
+        for (int i = 0; i < aggregates.size(); i++) {
+            WindowAggregate aggregate = aggregates.get(i);
+            Envelope envelope = acquireEnvelope(System.currentTimeMillis());
+            envelope.aggregate = aggregate;
+            try {
+                envelope.topic = formatter.aggregateTopicFor(aggregate.deviceAddress);
+                envelope.payload = formatter.toJson(aggregate);
+            } catch (Exception e) {
+                Log.e(TAG, "Aggregate encoding failed: " + e.getMessage());
+                totalFailed.incrementAndGet();
+                recordReading(envelope, false, e.getClass().getSimpleName());
+                recycle(envelope);
+                continue;
+            }
+            handOff(publishQueue, envelope);
+        }
+        aggregates.clear();
+    }
+
+    private void filter(Envelope envelope) {
+        ReadingFilter filter = readingFilter;
+        if (filter == null) {
+            encode(envelope);
+            return;
+        }
+
+        // The publish stage recycles envelope.data once it is handed over, compare against this
+        BleDataModel current = envelope.data;
+        filtered.clear();
+        filter.filter(current, filtered, dropped);
+        PerformanceDataManager monitor = performanceManager;
+        if (monitor != null) {
+            monitor.recordReadingFiltered(filtered.size());
+        }
+        boolean suppressed = !filtered.contains(current);
+        if (suppressed) {
+            // Suppressed: either held back by the filter (recycled once released or dropped) or in dropped
+            totalSuppressed.incrementAndGet();
+            recordSuppressed(envelope, false);
+        }
+        for (int i = 0; i < filtered.size(); i++) {
+            BleDataModel data = filtered.get(i);
+            if (data == current) {
+                encode(envelope);
+            } else {
+                // Earlier reading released by the swinging door
+                Envelope released = acquireEnvelope(data.getTimestampMillis());
+                released.data = data;
+                released.pooled = true;
+                released.released = true;
+                totalSuppressed.decrementAndGet();
+                encode(released);
+            }
+        }
+        filtered.clear();
+        if (suppressed) {
+            // The record stays with the filter or is in dropped, only the envelope is done
+            envelope.pooled = false;
+            recycle(envelope);
+        }
+        // Only now: the decode thread reuses released records right away
+        for (int i = 0; i < dropped.size(); i++) {
+            readingPool.release(dropped.get(i));
+        }
+        dropped.clear();
+    }
+
+    private void encode(Envelope envelope) {
+        try {
+            MqttDataSender.PayloadCodec codec = payloadCodec;
+            BleDataModel data = envelope.data;
+            String routed = streamRoutes.topicFor(data.getDeviceAddress(), data.getCharacteristicUuid());
+            envelope.topic = routed != null ? routed : formatter.topicFor(data.getDeviceAddress());
+            if (codec == null) {
+                envelope.payload = formatter.toJson(data);
+            } else {
+                envelope.topic += codec.getTopicSuffix();
+                byte[] encoded = codec.encode(data);
+                if (codec.isBinary()) {
+                    envelope.binaryPayload = encoded;
+                } else {
+                    envelope.payload = new String(encoded, StandardCharsets.UTF_8);
+                }
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Transform failed: " + e.getMessage());
+            totalFailed.incrementAndGet();
+            recordReading(envelope, false, e.getClass().getSimpleName());
+            recycle(envelope);
+            return;
+        }
+        handOff(publishQueue, envelope);
+    }
+
+    private void runPublishLoop() {
+        Envelope envelope;
+        while ((envelope = nextFrom(publishQueue, transformThread, null)) != null) {
+            publish(envelope);
+        }
+    }
+
+    private void publish(Envelope envelope) {
+        try {
+            publishEnvelope(envelope);
+        } finally {
+            recycle(envelope);
+        }
+    }
+
+    private void publishEnvelope(Envelope envelope) {
+        Publisher target = publisher;
+        BinaryPublisher binaryTarget = binaryPublisher;
+        boolean binary = envelope.binaryPayload != null;
+        if (binary ? binaryTarget == null : target == null) {
+            totalSkipped.incrementAndGet();
+            recordReading(envelope, false, null);
+            return;
+        }
+
+        PerformanceDataManager monitor = performanceManager;
+        if (monitor != null) monitor.recordMqttSendStart();
+        try {
+            boolean published = binary
+                    ? binaryTarget.publish(envelope.binaryPayload, envelope.topic)
+                    : target.publish(envelope.payload, envelope.topic);
+            if (published) {
+                totalPublished.incrementAndGet();
+                if (monitor != null) monitor.recordMqttSendComplete(true);
+                recordReading(envelope, true, null);
+            } else {
+                totalSkipped.incrementAndGet();
+                recordReading(envelope, false, null);
+            }
+        } catch (Exception e) {
+            totalFailed.incrementAndGet();
+            if (monitor != null) monitor.recordMqttSendComplete(false);
+            recordReading(envelope, false, e.getClass().getSimpleName());
+        }
+    }
+
+    private Envelope acquireEnvelope(long receivedAt) {
+        Envelope envelope = freeEnvelopes.poll();
+        return (envelope != null ? envelope : new Envelope()).reset(receivedAt);
+    }
+
+    /**
+     * Return the envelope and its pooled reading once nothing refers to them any more; the payload
+     * has been encoded and the summary keeps its own copy of the raw bytes
+     */
+    private void recycle(Envelope envelope) {
+        if (envelope.pooled) {
+            readingPool.release(envelope.data);
+        }
+        freeEnvelopes.offer(envelope.reset(0));
+    }
+
+    /**
+     * Blocking hand-off to the next stage, this is where a slow broker applies back pressure
+     */
+    private void handOff(BlockingQueue<Envelope> queue, Envelope envelope) {
+        try {
+            queue.put(envelope);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @param onIdle run on the stage thread each time the poll times out, may be null
+     * @return next envelope, or null once the upstream stage has finished and the queue is empty
+     */
+    private Envelope nextFrom(BlockingQueue<Envelope> queue, Thread upstream, Runnable onIdle) {
+        try {
+            while (true) {
+                Envelope envelope = queue.poll(IDLE_PARK_NANOS, TimeUnit.NANOSECONDS);
+                if (envelope != null) return envelope;
+                if (!running && !upstream.isAlive() && queue.isEmpty()) return null;
+                if (onIdle != null) onIdle.run();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    // ======================== summary ========================
+
+    /**
+     * @param aggregatedOnly raw readings disabled, the reading only goes into a window aggregate
+     */
+    private void recordSuppressed(Envelope envelope, boolean aggregatedOnly) {
+        BleDataModel data = envelope.data;
+        synchronized (periodLock) {
+            receivedInPeriod++;
+            RecentReading reading = nextRecentReading(data.getDeviceAddress(), data.getDeviceName(),
+                    envelope.receivedAt);
+            reading.setRawData(data.getRawBuffer(), data.getRawLength());
+            reading.suppressed = !aggregatedOnly;
+            reading.aggregatedOnly = aggregatedOnly;
+        }
+    }
+
+    private void recordReading(Envelope envelope, boolean published, String error) {
+        long latency = System.currentTimeMillis() - envelope.receivedAt;
+        synchronized (periodLock) {
+            if (!envelope.released && envelope.aggregate == null) {
+                receivedInPeriod++;
+            }
+            if (published) {
+                publishedInPeriod++;
+                latencySumInPeriod += latency;
+                maxLatencyInPeriod = Math.max(maxLatencyInPeriod, latency);
+            }
+
+            RecentReading reading;
+            if (envelope.aggregate != null) {
+                WindowAggregate aggregate = envelope.aggregate;
+                reading = nextRecentReading(aggregate.deviceAddress, aggregate.deviceName, envelope.receivedAt);
+                byte[] payload = envelope.payload != null
+                        ? envelope.payload.getBytes(StandardCharsets.UTF_8) : new byte[0];
+                reading.setRawData(payload, payload.length);
+                reading.aggregate = true;
+            } else {
+                BleDataModel data = envelope.data;
+                reading = nextRecentReading(data.getDeviceAddress(), data.getDeviceName(), envelope.receivedAt);
+                reading.setRawData(data.getRawBuffer(), data.getRawLength());
+            }
+            reading.topic = envelope.topic;
+            reading.published = published;
+            reading.error = error;
+        }
+    }
+
+    /**
+     * Next entry of the ring, the oldest one when it is full
+     */
+    // guarded by periodLock
+    private RecentReading nextRecentReading(String deviceAddress, String deviceName, long receivedAt) {
+        int index;
+        if (recentCount == MAX_RECENT_READINGS) {
+            index = recentHead;
+            recentHead = (recentHead + 1) % MAX_RECENT_READINGS;
+            omittedInPeriod++;
+        } else {
+            index = (recentHead + recentCount) % MAX_RECENT_READINGS;
+            recentCount++;
+        }
+        RecentReading reading = recentReadings[index];
+        if (reading == null) {
+            reading = new RecentReading();
+            recentReadings[index] = reading;
+        }
+        reading.deviceAddress = deviceAddress;
+        reading.deviceName = deviceName;
+        reading.receivedAt = receivedAt;
+        reading.topic = null;
+        reading.published = false;
+        reading.suppressed = false;
+        reading.aggregatedOnly = false;
+        reading.aggregate = false;
+        reading.error = null;
+        return reading;
+    }
+
+    private void emitSummary() {
+        SummaryListener listener = summaryListener;
+        Executor executor = summaryExecutor;
+        if (listener == null || executor == null) return;
+
+        PipelineSummary summary = new PipelineSummary();
+        synchronized (periodLock) {
+            if (receivedInPeriod == 0) return;
+            summary.receivedInPeriod = receivedInPeriod;
+            summary.publishedInPeriod = publishedInPeriod;
+            summary.averageLatencyMs = publishedInPeriod > 0 ? latencySumInPeriod / publishedInPeriod : 0;
+            summary.maxLatencyMs = maxLatencyInPeriod;
+            summary.omittedReadings = omittedInPeriod;
+            summary.recentReadings = new ArrayList<>(recentCount);
+            for (int i = 0; i < recentCount; i++) {
+                summary.recentReadings.add(recentReadings[(recentHead + i) % MAX_RECENT_READINGS].toReading());
+            }
+            recentHead = 0;
+            recentCount = 0;
+            receivedInPeriod = 0;
+            publishedInPeriod = 0;
+            omittedInPeriod = 0;
+            latencySumInPeriod = 0;
+            maxLatencyInPeriod = 0;
+        }
+        summary.timestamp = System.currentTimeMillis();
+        summary.totalReceived = totalReceived.get();
+        summary.totalPublished = totalPublished.get();
+        summary.totalFailed = totalFailed.get();
+        summary.totalSkipped = totalSkipped.get();
+        summary.totalSuppressed = totalSuppressed.get();
+        summary.totalAggregated = totalAggregated.get();
+        summary.totalDropped = getTotalDropped();
+        summary.totalMalformedFrames = frameReassembler.getMalformedCount();
+        summary.totalTimedOutFrames = frameReassembler.getTimedOutCount();
+        executor.execute(() -> listener.onSummary(summary));
+    }
+
+    // ======================== state ========================
+
+    public long getTotalReceived() {
+        return totalReceived.get();
+    }
+
+    public long getTotalPublished() {
+        return totalPublished.get();
+    }
+
+    public long getTotalFailed() {
+        return totalFailed.get();
+    }
+
+    public long getTotalSkipped() {
+        return totalSkipped.get();
+    }
+
+    /**
+     * Readings the ReadingFilter kept from the publisher
+     */
+    public long getTotalSuppressed() {
+        return totalSuppressed.get();
+    }
+
+    /**
+     * Readings only published as part of a window aggregate (raw readings disabled)
+     */
+    public long getTotalAggregated() {
+        return totalAggregated.get();
+    }
+
+    /**
+     * Notifications lost at the ring buffer (overflow or oversized value)
+     */
+    public long getTotalDropped() {
+        return ringBuffer.getDroppedOldestCount() + ringBuffer.getDroppedNewestCount()
+                + ringBuffer.getOversizedCount();
+    }
+
+    public NotificationRingBuffer getRingBuffer() {
+        return ringBuffer;
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Stop accepting notifications and let already queued readings drain
+     */
+    public void shutdown() {
+        running = false;
+        LockSupport.unpark(decodeThread);
+        try {
+            decodeThread.join(1000);
+            transformThread.join(1000);
+            publishThread.join(2000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        summaryScheduler.shutdownNow();
+    }
+
+    private static Thread namedThread(String name, Runnable runnable) {
+        Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+}
@@ -0,0 +1,442 @@
+package com.have_no_eyes_deer.bleawsgateway.pipeline;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * JSON writer - streams UTF-8 JSON into a reusable byte array
+ *
+ * Strings are escaped and UTF-8 encoded in a single pass, raw UTF-8 byte values are
+ * validated and escaped without decoding, and ISO-8601 timestamps reuse the formatted
+ * "yyyy-MM-ddTHH:mm:ss." prefix while the second does not change. After warm-up a
+ * payload is encoded without allocating. Not thread-safe.
+ */
+public final class JsonWriter {
+
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] NULL = {'n', 'u', 'l', 'l'};
+    private static final int TIMESTAMP_PREFIX_LENGTH = 20; // yyyy-MM-ddTHH:mm:ss.
+
+    private byte[] buffer;
+    private int length;
+    private boolean needsComma;
+    private boolean afterName;
+
+    // Cached timestamp prefix for cachedSecond
+    private final byte[] timestampPrefix = new byte[TIMESTAMP_PREFIX_LENGTH];
+    private long cachedSecond = Long.MIN_VALUE;
+
+    public JsonWriter() {
+        this(512);
+    }
+
+    public JsonWriter(int initialCapacity) {
+        buffer = new byte[Math.max(16, initialCapacity)];
+    }
+
+    public JsonWriter reset() {
+        length = 0;
+        needsComma = false;
+        afterName = false;
+        return this;
+    }
+
+    // ======================== structure ========================
+
+    public JsonWriter beginObject() {
+        beforeValue();
+        put('{');
+        needsComma = false;
+        return this;
+    }
+
+    public JsonWriter endObject() {
+        put('}');
+        needsComma = true;
+        return this;
+    }
+
+    public JsonWriter beginArray() {
+        beforeValue();
+        put('[');
+        needsComma = false;
+        return this;
+    }
+
+    public JsonWriter endArray() {
+        put(']');
+        needsComma = true;
+        return this;
+    }
+
+    public JsonWriter name(String name) {
+        if (needsComma) {
+            put(',');
+        }
+        writeQuoted(name);
+        put(':');
+        afterName = true;
+        return this;
+    }
+
+    // ======================== values ========================
+
+    public JsonWriter value(String value) {
+        beforeValue();
+        if (value == null) {
+            putBytes(NULL, 0, NULL.length);
+        } else {
+            writeQuoted(value);
+        }
+        needsComma = true;
+        return this;
+    }
+
+    public JsonWriter value(long value) {
+        beforeValue();
+        ensureCapacity(20);
+        if (value == Long.MIN_VALUE) {
+            byte[] digits = Long.toString(value).getBytes(StandardCharsets.US_ASCII);
+            putBytes(digits, 0, digits.length);
+        } else {
+            if (value < 0) {
+                buffer[length++] = '-';
+                value = -value;
+            }
+            int start = length;
+            do {
+                buffer[length++] = (byte) ('0' + (value % 10));
+                value /= 10;
+            } while (value != 0);
+            reverse(start, length - 1);
+        }
+        needsComma = true;
+        return this;
+    }
+
+    /**
+     * Write a double in Double.toString form (whole numbers without ".0"), NaN and infinities as null
+     */
+    public JsonWriter value(double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            beforeValue();
+            putBytes(NULL, 0, NULL.length);
+            needsComma = true;
+            return this;
+        }
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            return value((long) value);
+        }
+        byte[] digits = Double.toString(value).getBytes(StandardCharsets.US_ASCII);
+        return rawValue(digits, 0, digits.length);
+    }
+
+    /**
+     * Write bytes that already form a JSON literal (e.g. a validated number) unquoted
+     */
+    public JsonWriter rawValue(byte[] bytes, int offset, int count) {
+        beforeValue();
+        putBytes(bytes, offset, count);
+        needsComma = true;
+        return this;
+    }
+
+    /**
+     * Write a "-?digits(.digits)?" slice as a JSON number; leading zeros of the integer part,
+     * which JSON does not allow, are dropped ("-05.2" becomes -5.2)
+     */
+    public JsonWriter numberValue(byte[] bytes, int offset, int count) {
+        boolean negative = count > 0 && bytes[offset] == '-';
+        int digits = negative ? offset + 1 : offset;
+        int end = offset + count;
+        while (digits + 1 < end && bytes[digits] == '0' && bytes[digits + 1] != '.') {
+            digits++;
+        }
+        beforeValue();
+        if (negative) {
+            ensureCapacity(1);
+            buffer[length++] = '-';
+        }
+        putBytes(bytes, digits, end - digits);
+        needsComma = true;
+        return this;
+    }
+
+    /**
+     * Write UTF-8 bytes as a JSON string; malformed sequences become U+FFFD
+     */
+    public JsonWriter utf8Value(byte[] bytes, int offset, int count) {
+        beforeValue();
+        ensureCapacity(count * 6 + 2);
+        byte[] out = buffer;
+        int pos = length;
+        out[pos++] = '"';
+        int end = offset + count;
+        int i = offset;
+        while (i < end) {
+            int b = bytes[i] & 0xFF;
+            if (b < 0x80) {
+                pos = putAscii(out, pos, b);
+                i++;
+                continue;
+            }
+            int sequenceLength = utf8SequenceLength(bytes, i, end);
+            if (sequenceLength == 0) {
+                out[pos++] = (byte) 0xEF;
+                out[pos++] = (byte) 0xBF;
+                out[pos++] = (byte) 0xBD;
+                i++;
+            } else {
+                System.arraycopy(bytes, i, out, pos, sequenceLength);
+                pos += sequenceLength;
+                i += sequenceLength;
+            }
+        }
+        out[pos++] = '"';
+        length = pos;
+        needsComma = true;
+        return this;
+    }
+
+    /**
+     * Write bytes as a JSON string of lowercase hex digits
+     */
+    public JsonWriter hexValue(byte[] bytes, int offset, int count) {
+        beforeValue();
+        ensureCapacity(count * 2 + 2);
+        byte[] out = buffer;
+        int pos = length;
+        out[pos++] = '"';
+        for (int i = offset, end = offset + count; i < end; i++) {
+            out[pos++] = HEX[(bytes[i] >> 4) & 0x0F];
+            out[pos++] = HEX[bytes[i] & 0x0F];
+        }
+        out[pos++] = '"';
+        length = pos;
+        needsComma = true;
+        return this;
+    }
+
+    /**
+     * Write an ISO-8601 UTC timestamp with millisecond precision, e.g. "2025-01-31T08:15:30.123Z"
+     */
+    public JsonWriter timestampValue(long epochMillis) {
+        beforeValue();
+        long second = Math.floorDiv(epochMillis, 1000);
+        int millis = Math.floorMod(epochMillis, 1000);
+        if (second != cachedSecond) {
+            formatTimestampPrefix(second);
+            cachedSecond = second;
+        }
+        ensureCapacity(TIMESTAMP_PREFIX_LENGTH + 6);
+        buffer[length++] = '"';
+        System.arraycopy(timestampPrefix, 0, buffer, length, TIMESTAMP_PREFIX_LENGTH);
+        length += TIMESTAMP_PREFIX_LENGTH;
+        buffer[length++] = (byte) ('0' + millis / 100);
+        buffer[length++] = (byte) ('0' + (millis / 10) % 10);
+        buffer[length++] = (byte) ('0' + millis % 10);
+        buffer[length++] = 'Z';
+        buffer[length++] = '"';
+        needsComma = true;
+        return this;
+    }
+
+    // ======================== output ========================
+
+    /**
+     * The backing array, valid up to length(); reused by the next reset()
+     */
+    public byte[] buffer() {
+        return buffer;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buffer, length);
+    }
+
+    @Override
+    public String toString() {
+        return new String(buffer, 0, length, StandardCharsets.UTF_8);
+    }
+
+    // ======================== internals ========================
+
+    private void beforeValue() {
+        if (afterName) {
+            afterName = false;
+        } else if (needsComma) {
+            put(',');
+        }
+    }
+
+    private void writeQuoted(String value) {
+        int count = value.length();
+        ensureCapacity(count * 6 + 2);
+        byte[] out = buffer;
+        int pos = length;
+        out[pos++] = '"';
+        for (int i = 0; i < count; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                pos = putAscii(out, pos, c);
+            } else if (c < 0x800) {
+                out[pos++] = (byte) (0xC0 | (c >> 6));
+                out[pos++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < count
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                out[pos++] = (byte) (0xF0 | (codePoint >> 18));
+                out[pos++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                out[pos++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                out[pos++] = (byte) (0x80 | (codePoint & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                out[pos++] = '?'; // unpaired surrogate, same as String.getBytes
+            } else {
+                out[pos++] = (byte) (0xE0 | (c >> 12));
+                out[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                out[pos++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        out[pos++] = '"';
+        length = pos;
+    }
+
+    /**
+     * Append one ASCII character with JSON escaping; caller ensured capacity
+     */
+    private static int putAscii(byte[] out, int pos, int c) {
+        if (c >= 0x20 && c != '"' && c != '\\') {
+            out[pos++] = (byte) c;
+            return pos;
+        }
+        out[pos++] = '\\';
+        switch (c) {
+            case '"':  out[pos++] = '"'; break;
+            case '\\': out[pos++] = '\\'; break;
+            case '\n': out[pos++] = 'n'; break;
+            case '\r': out[pos++] = 'r'; break;
+            case '\t': out[pos++] = 't'; break;
+            case '\b': out[pos++] = 'b'; break;
+            case '\f': out[pos++] = 'f'; break;
+            default:
+                out[pos++] = 'u';
+                out[pos++] = '0';
+                out[pos++] = '0';
+                out[pos++] = HEX[c >> 4];
+                out[pos++] = HEX[c & 0xF];
+                break;
+        }
+        return pos;
+    }
+
+    /**
+     * @return length of the well-formed multi-byte UTF-8 sequence at i, or 0 if malformed
+     */
+    private static int utf8SequenceLength(byte[] bytes, int i, int end) {
+        int b = bytes[i] & 0xFF;
+        int needed;
+        int min = 0x80;
+        int max = 0xBF;
+        if (b >= 0xC2 && b <= 0xDF) {
+            needed = 1;
+        } else if (b >= 0xE0 && b <= 0xEF) {
+            needed = 2;
+            if (b == 0xE0) min = 0xA0;       // overlong
+            else if (b == 0xED) max = 0x9F;  // surrogates
+        } else if (b >= 0xF0 && b <= 0xF4) {
+            needed = 3;
+            if (b == 0xF0) min = 0x90;       // overlong
+            else if (b == 0xF4) max = 0x8F;  // above U+10FFFF
+        } else {
+            return 0;
+        }
+        if (i + needed >= end) {
+            return 0; // truncated
+        }
+        int second = bytes[i + 1] & 0xFF;
+        if (second < min || second > max) {
+            return 0;
+        }
+        for (int k = 2; k <= needed; k++) {
+            int next = bytes[i + k] & 0xFF;
+            if (next < 0x80 || next > 0xBF) {
+                return 0;
+            }
+        }
+        return needed + 1;
+    }
+
+    private void formatTimestampPrefix(long epochSecond) {
+        long days = Math.floorDiv(epochSecond, 86400);
+        int secondOfDay = Math.floorMod(epochSecond, 86400);
+
+        // Civil date from day count (proleptic Gregorian)
+        long z = days + 719468;
+        long era = (z >= 0 ? z : z - 146096) / 146097;
+        long dayOfEra = z - era * 146097;
+        long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        long year = yearOfEra + era * 400;
+        long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        long mp = (5 * dayOfYear + 2) / 153;
+        int day = (int) (dayOfYear - (153 * mp + 2) / 5 + 1);
+        int month = (int) (mp < 10 ? mp + 3 : mp - 9);
+        if (month <= 2) {
+            year++;
+        }
+
+        byte[] p = timestampPrefix;
+        int y = (int) year;
+        p[0] = (byte) ('0' + (y / 1000) % 10);
+        p[1] = (byte) ('0' + (y / 100) % 10);
+        p[2] = (byte) ('0' + (y / 10) % 10);
+        p[3] = (byte) ('0' + y % 10);
+        p[4] = '-';
+        p[5] = (byte) ('0' + month / 10);
+        p[6] = (byte) ('0' + month % 10);
+        p[7] = '-';
+        p[8] = (byte) ('0' + day / 10);
+        p[9] = (byte) ('0' + day % 10);
+        p[10] = 'T';
+        int hour = secondOfDay / 3600;
+        int minute = (secondOfDay / 60) % 60;
+        int second = secondOfDay % 60;
+        p[11] = (byte) ('0' + hour / 10);
+        p[12] = (byte) ('0' + hour % 10);
+        p[13] = ':';
+        p[14] = (byte) ('0' + minute / 10);
+        p[15] = (byte) ('0' + minute % 10);
+        p[16] = ':';
+        p[17] = (byte) ('0' + second / 10);
+        p[18] = (byte) ('0' + second % 10);
+        p[19] = '.';
+    }
+
+    private void put(int b) {
+        ensureCapacity(1);
+        buffer[length++] = (byte) b;
+    }
+
+    private void putBytes(byte[] bytes, int offset, int count) {
+        ensureCapacity(count);
+        System.arraycopy(bytes, offset, buffer, length, count);
+        length += count;
+    }
+
+    private void reverse(int from, int to) {
+        while (from < to) {
+            byte tmp = buffer[from];
+            buffer[from++] = buffer[to];
+            buffer[to--] = tmp;
+        }
+    }
+
+    private void ensureCapacity(int extra) {
+        if (length + extra > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + extra));
+        }
+    }
+}
@@ -0,0 +1,237 @@
+package com.have_no_eyes_deer.bleawsgateway.pipeline;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Notification ring buffer - bounded, preallocated, lock-free hand-off between the
+ * GATT callback threads (multiple producers) and the pipeline decode thread (single consumer)
+ *
+ * Every slot holds a device index, a receive timestamp and a fixed-size region of one
+ * shared byte slab, so publishing a notification never allocates. Producers claim
+ * sequences with a CAS on the producer cursor (Disruptor style) and mark the slot
+ * available once written; the consumer copies a slot into its own scratch buffer and then
+ * commits by advancing the consumer cursor. Under {@link OverflowPolicy#DROP_OLDEST} a
+ * producer may advance the consumer cursor itself, in which case the consumer's commit
+ * CAS fails and the (possibly overwritten) copy is discarded.
+ */
+public class NotificationRingBuffer {
+
+    public static final int DEFAULT_SLOT_SIZE = 512; // max ATT attribute value length
+
+    public enum OverflowPolicy {
+        DROP_OLDEST,    // overwrite the oldest unread notification
+        DROP_NEWEST,    // reject the incoming notification
+        BLOCK           // park the producer (GATT callback thread) until space frees up
+    }
+
+    /**
+     * Consumer callback; the buffer is only valid for the duration of the call
+     */
+    public interface SlotHandler {
+        void onSlot(int deviceIndex, long timestamp, byte[] buffer, int length);
+    }
+
+    private final int capacity;
+    private final int mask;
+    private final int slotSize;
+    private final OverflowPolicy policy;
+
+    // Slot storage (struct-of-arrays)
+    private final int[] deviceIndexes;
+    private final long[] timestamps;
+    private final int[] lengths;
+    private final byte[] slab;
+    private final AtomicLongArray availableSequences;
+
+    private final AtomicLong producerCursor = new AtomicLong(0);  // next sequence to claim
+    private final AtomicLong consumerCursor = new AtomicLong(0);  // next sequence to read
+    private final byte[] scratch;                                  // consumer thread only
+    private volatile Thread consumerThread;
+
+    // Statistics counters
+    private final AtomicLong publishedCount = new AtomicLong();
+    private final AtomicLong consumedCount = new AtomicLong();
+    private final AtomicLong droppedOldestCount = new AtomicLong();
+    private final AtomicLong droppedNewestCount = new AtomicLong();
+    private final AtomicLong blockedCount = new AtomicLong();
+    private final AtomicLong oversizedCount = new AtomicLong();
+
+    public NotificationRingBuffer(int capacity, OverflowPolicy policy) {
+        this(capacity, DEFAULT_SLOT_SIZE, policy);
+    }
+
+    public NotificationRingBuffer(int capacity, int slotSize, OverflowPolicy policy) {
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("capacity must be a power of two: " + capacity);
+        }
+        if (slotSize <= 0) {
+            throw new IllegalArgumentException("slotSize must be positive: " + slotSize);
+        }
+        this.capacity = capacity;
+        this.mask = capacity - 1;
+        this.slotSize = slotSize;
+        this.policy = policy;
+        this.deviceIndexes = new int[capacity];
+        this.timestamps = new long[capacity];
+        this.lengths = new int[capacity];
+        this.slab = new byte[capacity * slotSize];
+        this.availableSequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            availableSequences.set(i, -1);
+        }
+        this.scratch = new byte[slotSize];
+    }
+
+    // ======================== producer side ========================
+
+    /**
+     * Publish one notification, called on the GATT callback thread
+     * @return false if the notification was rejected (DROP_NEWEST overflow or oversized value)
+     */
+    public boolean publish(int deviceIndex, long timestamp, byte[] value, int offset, int length) {
+        if (length > slotSize) {
+            oversizedCount.incrementAndGet();
+            return false;
+        }
+
+        long sequence = claim();
+        if (sequence < 0) {
+            droppedNewestCount.incrementAndGet();
+            return false;
+        }
+
+        int slot = (int) (sequence & mask);
+        deviceIndexes[slot] = deviceIndex;
+        timestamps[slot] = timestamp;
+        lengths[slot] = length;
+        System.arraycopy(value, offset, slab, slot * slotSize, length);
+        availableSequences.set(slot, sequence); // volatile write publishes the slot contents
+
+        publishedCount.incrementAndGet();
+        Thread consumer = consumerThread;
+        if (consumer != null) {
+            LockSupport.unpark(consumer);
+        }
+        return true;
+    }
+
+    private long claim() {
+        boolean blocked = false;
+        while (true) {
+            long current = producerCursor.get();
+            long consumed = consumerCursor.get();
+            if (current - consumed < capacity) {
+                if (producerCursor.compareAndSet(current, current + 1)) {
+                    return current;
+                }
+                continue;
+            }
+
+            // Ring is full
+            switch (policy) {
+                case DROP_NEWEST:
+                    return -1;
+                case DROP_OLDEST:
+                    // Slot 'consumed' must have been published before it can be reclaimed
+                    if (availableSequences.get((int) (consumed & mask)) == consumed
+                            && consumerCursor.compareAndSet(consumed, consumed + 1)) {
+                        droppedOldestCount.incrementAndGet();
+                    } else {
+                        Thread.yield();
+                    }
+                    break;
+                case BLOCK:
+                default:
+                    if (!blocked) {
+                        blocked = true;
+                        blockedCount.incrementAndGet();
+                    }
+                    LockSupport.parkNanos(50_000L);
+                    break;
+            }
+        }
+    }
+
+    // ======================== consumer side ========================
+
+    /**
+     * Register the single consumer thread so producers can wake it up
+     */
+    public void setConsumerThread(Thread thread) {
+        this.consumerThread = thread;
+    }
+
+    /**
+     * Drain up to maxSlots notifications, must only be called from the consumer thread
+     * @return number of notifications handed to the handler
+     */
+    public int drain(SlotHandler handler, int maxSlots) {
+        int handled = 0;
+        while (handled < maxSlots) {
+            long sequence = consumerCursor.get();
+            int slot = (int) (sequence & mask);
+            if (availableSequences.get(slot) != sequence) {
+                break; // nothing published yet at this sequence
+            }
+
+            int deviceIndex = deviceIndexes[slot];
+            long timestamp = timestamps[slot];
+            int length = lengths[slot];
+            System.arraycopy(slab, slot * slotSize, scratch, 0, length);
+
+            // Commit; fails if a DROP_OLDEST producer reclaimed the slot meanwhile
+            if (!consumerCursor.compareAndSet(sequence, sequence + 1)) {
+                continue;
+            }
+            consumedCount.incrementAndGet();
+            handler.onSlot(deviceIndex, timestamp, scratch, length);
+            handled++;
+        }
+        return handled;
+    }
+
+    // ======================== statistics ========================
+
+    public int size() {
+        long size = producerCursor.get() - consumerCursor.get();
+        return (int) Math.max(0, Math.min(size, capacity));
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int getSlotSize() {
+        return slotSize;
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return policy;
+    }
+
+    public long getPublishedCount() {
+        return publishedCount.get();
+    }
+
+    public long getConsumedCount() {
+        return consumedCount.get();
+    }
+
+    public long getDroppedOldestCount() {
+        return droppedOldestCount.get();
+    }
+
+    public long getDroppedNewestCount() {
+        return droppedNewestCount.get();
+    }
+
+    public long getBlockedCount() {
+        return blockedCount.get();
+    }
+
+    public long getOversizedCount() {
+        return oversizedCount.get();
+    }
+}
@@ -0,0 +1,52 @@
+package com.have_no_eyes_deer.bleawsgateway.pipeline;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Pipeline summary - throttled snapshot of the ingest pipeline delivered to the UI
+ */
+public class PipelineSummary {
+    public long timestamp;
+    public long totalReceived;
+    public long totalPublished;
+    public long totalFailed;
+    public long totalSkipped;
+    public long totalSuppressed;    // dropped by the ReadingFilter as unchanged
+    public long totalAggregated;    // only published inside window aggregates
+    public long totalDropped;       // lost at the ring buffer overflow policy
+    public long totalMalformedFrames; // dropped by the FrameReassembler (bad length or too long)
+    public long totalTimedOutFrames;  // partial frames whose remaining fragments never arrived
+    public int receivedInPeriod;
+    public int publishedInPeriod;
+    public long averageLatencyMs;   // BLE receive → publish complete, averaged over the period
+    public long maxLatencyMs;
+    public int omittedReadings;     // readings in the period that did not fit into recentReadings
+    public List<Reading> recentReadings = new ArrayList<>();
+
+    public static class Reading {
+        public String deviceAddress;
+        public String deviceName;
+        public byte[] rawData;
+        public long receivedAt;
+        public String topic;
+        public boolean published;
+        public boolean suppressed;  // held back by the ReadingFilter
+        public boolean aggregatedOnly; // raw readings disabled, only counted in a window aggregate
+        public boolean aggregate;   // window aggregate, rawData holds its JSON payload
+        public String error;        // null when published or skipped
+
+        public Reading(String deviceAddress, String deviceName, byte[] rawData, long receivedAt) {
+            this.deviceAddress = deviceAddress;
+            this.deviceName = deviceName;
+            this.rawData = rawData;
+            this.receivedAt = receivedAt;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("PipelineSummary{received=%d, published=%d, failed=%d, avgLatency=%dms}",
+                totalReceived, totalPublished, totalFailed, averageLatencyMs);
+    }
+}
@@ -0,0 +1,86 @@
+package com.have_no_eyes_deer.bleawsgateway.pipeline;
+
+import com.have_no_eyes_deer.bleawsgateway.model.BleDataModel;
+import com.have_no_eyes_deer.bleawsgateway.model.DecodedReading;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reading pool - recycles the BleDataModel records of the pipeline so a notification does
+ * not allocate a model, a payload array and a DecodedReading each
+ *
+ * Each record owns a buffer of the ring's slot size and its own DecodedReading. The decode
+ * stage acquires a record per reading and the pipeline releases it once the reading has been
+ * published (or failed, or was only aggregated, or was dropped by the ReadingFilter). A record
+ * that is never released, e.g. one still held back by a filter that was replaced, is simply
+ * left to the GC and replaced by a new one.
+ *
+ * acquire() and release() may be called from different threads.
+ */
+public class ReadingPool {
+
+    private final ArrayBlockingQueue<BleDataModel> free;
+    private final int bufferSize;
+
+    // Statistics counters
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong reused = new AtomicLong();
+    private final AtomicLong discarded = new AtomicLong();
+
+    /**
+     * @param capacity   records kept for reuse, about the number of readings in flight
+     * @param bufferSize payload buffer of each record, the largest value it holds without growing
+     */
+    public ReadingPool(int capacity, int bufferSize) {
+        this.free = new ArrayBlockingQueue<>(capacity);
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * Take a record and copy the payload into it; the metadata is left to the caller (reset())
+     */
+    public BleDataModel acquire(byte[] value, int length) {
+        BleDataModel record = free.poll();
+        if (record == null) {
+            record = new BleDataModel();
+            record.setDecoded(new DecodedReading());
+            record.setRawData(new byte[Math.max(bufferSize, length)], 0);
+            created.incrementAndGet();
+        } else {
+            reused.incrementAndGet();
+        }
+        byte[] buffer = record.getRawBuffer();
+        if (buffer.length < length) {
+            buffer = new byte[length];
+        }
+        System.arraycopy(value, 0, buffer, 0, length);
+        record.setRawData(buffer, length);
+        return record;
+    }
+
+    /**
+     * Return a record; it must not be used afterwards by whoever released it
+     */
+    public void release(BleDataModel record) {
+        if (!free.offer(record)) {
+            discarded.incrementAndGet();
+        }
+    }
+
+    public int getAvailable() {
+        return free.size();
+    }
+
+    public long getCreatedCount() {
+        return created.get();
+    }
+
+    public long getReusedCount() {
+        return reused.get();
+    }
+
+    public long getDiscardedCount() {
+        return discarded.get();
+    }
+}
@@ -0,0 +1,137 @@
+package com.have_no_eyes_deer.bleawsgateway.pipeline;
+
+import com.have_no_eyes_deer.bleawsgateway.decoder.PayloadDecoder;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Stream routes - decoder and MQTT topic per (device, characteristic) stream
+ *
+ * A multi-sensor peripheral notifies on one characteristic per sensor; each stream can get
+ * its own decoder and topic here. A route without a device address applies to the
+ * characteristic on every device, the route of the exact (device, characteristic) pair wins.
+ * Streams without a route use the PayloadDecoderRegistry and the device's data topic.
+ *
+ * Copy-on-write: routes change rarely, the decode and transform threads read them on every
+ * reading without locking or allocating. getVersion() changes with every update, so the
+ * pipeline knows when its resolved decoders are stale.
+ */
+public class StreamRoutes {
+
+    public static class Route {
+        public final String deviceAddress;          // null = every device
+        public final String characteristicUuid;
+        public final PayloadDecoder decoder;        // null = resolve from the registry
+        public final String topic;                  // null = the device's data topic
+
+        Route(String deviceAddress, String characteristicUuid, PayloadDecoder decoder, String topic) {
+            this.deviceAddress = deviceAddress;
+            this.characteristicUuid = characteristicUuid;
+            this.decoder = decoder;
+            this.topic = topic;
+        }
+
+        @Override
+        public String toString() {
+            return (deviceAddress != null ? deviceAddress : "*") + " " + characteristicUuid + " -> "
+                    + (decoder != null ? decoder.getClass().getSimpleName() : "registry") + ", "
+                    + (topic != null ? topic : "device topic");
+        }
+    }
+
+    // device address -> characteristic -> route
+    private volatile Map<String, Map<String, Route>> byDevice = Collections.emptyMap();
+    // characteristic -> route, for every device
+    private volatile Map<String, Route> byCharacteristic = Collections.emptyMap();
+    private volatile int version;
+
+    /**
+     * Route a stream
+     * @param deviceAddress      null for every device
+     * @param characteristicUuid characteristic UUID, or the source key of advertisements / L2CAP channels
+     * @param decoder            null to keep the registry's decoder
+     * @param topic              null to keep the device's data topic
+     */
+    public synchronized void add(String deviceAddress, String characteristicUuid, PayloadDecoder decoder, String topic) {
+        if (characteristicUuid == null) {
+            throw new IllegalArgumentException("characteristicUuid is required");
+        }
+        String key = characteristicUuid.toLowerCase(Locale.US);
+        Route route = new Route(deviceAddress, key, decoder, topic);
+        if (deviceAddress == null) {
+            Map<String, Route> copy = new HashMap<>(byCharacteristic);
+            copy.put(key, route);
+            byCharacteristic = copy;
+        } else {
+            Map<String, Map<String, Route>> copy = new HashMap<>(byDevice);
+            Map<String, Route> streams = new HashMap<>(copy.getOrDefault(deviceAddress, Collections.emptyMap()));
+            streams.put(key, route);
+            copy.put(deviceAddress, streams);
+            byDevice = copy;
+        }
+        version++;
+    }
+
+    public synchronized void remove(String deviceAddress, String characteristicUuid) {
+        String key = characteristicUuid.toLowerCase(Locale.US);
+        if (deviceAddress == null) {
+            Map<String, Route> copy = new HashMap<>(byCharacteristic);
+            copy.remove(key);
+            byCharacteristic = copy;
+        } else {
+            Map<String, Route> streams = byDevice.get(deviceAddress);
+            if (streams == null) return;
+            Map<String, Map<String, Route>> copy = new HashMap<>(byDevice);
+            Map<String, Route> remaining = new HashMap<>(streams);
+            remaining.remove(key);
+            if (remaining.isEmpty()) {
+                copy.remove(deviceAddress);
+            } else {
+                copy.put(deviceAddress, remaining);
+            }
+            byDevice = copy;
+        }
+        version++;
+    }
+
+    public synchronized void clear() {
+        byDevice = Collections.emptyMap();
+        byCharacteristic = Collections.emptyMap();
+        version++;
+    }
+
+    /**
+     * @return the route of the stream, or null
+     */
+    public Route find(String deviceAddress, String characteristicUuid) {
+        if (characteristicUuid == null) return null;
+        Map<String, Route> streams = deviceAddress != null ? byDevice.get(deviceAddress) : null;
+        Route route = streams != null ? streams.get(characteristicUuid) : null;
+        return route != null ? route : byCharacteristic.get(characteristicUuid);
+    }
+
+    /**
+     * @return the routed topic of the stream, or null for the device's data topic
+     */
+    public String topicFor(String deviceAddress, String characteristicUuid) {
+        Route route = find(deviceAddress, characteristicUuid);
+        return route != null ? route.topic : null;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public List<Route> getRoutes() {
+        List<Route> routes = new ArrayList<>(byCharacteristic.values());
+        for (Map<String, Route> streams : byDevice.values()) {
+            routes.addAll(streams.values());
+        }
+        return routes;
+    }
+}
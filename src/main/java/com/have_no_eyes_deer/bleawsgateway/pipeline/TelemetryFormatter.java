@@ -0,0 +1,139 @@
+package com.have_no_eyes_deer.bleawsgateway.pipeline;
+
+import com.have_no_eyes_deer.bleawsgateway.aggregate.WindowAggregate;
+import com.have_no_eyes_deer.bleawsgateway.decoder.PayloadDecoderRegistry;
+import com.have_no_eyes_deer.bleawsgateway.model.BleDataModel;
+import com.have_no_eyes_deer.bleawsgateway.model.DecodedReading;
+
+/**
+ * Telemetry formatter - turns a BLE reading into the MQTT topic and JSON payload
+ * Not thread-safe: each pipeline owns one instance and only touches it from the transform thread
+ */
+public class TelemetryFormatter {
+
+    private static final byte[] EMPTY = new byte[0];
+
+    private final JsonWriter writer = new JsonWriter();
+    private final PayloadDecoderRegistry decoders = PayloadDecoderRegistry.createDefault();
+    private final DecodedReading scratch = new DecodedReading();
+
+    public String topicFor(String deviceAddress) {
+        return "devices/" + deviceAddress.replace(":", "") + "/data";
+    }
+
+    /**
+     * Topic of the window aggregates, next to the raw readings
+     */
+    public String aggregateTopicFor(String deviceAddress) {
+        return "devices/" + deviceAddress.replace(":", "") + "/agg";
+    }
+
+    public String toJson(BleDataModel data) {
+        encode(data, writer);
+        return writer.toString();
+    }
+
+    /**
+     * Encode the reading into the writer (which is reset first) without intermediate strings
+     */
+    public void encode(BleDataModel data, JsonWriter out) {
+        byte[] raw = data.getRawBuffer();    // valid up to getRawLength(), no copy for pooled readings
+        int rawLength = raw != null ? data.getRawLength() : 0;
+        String deviceName = data.getDeviceName();
+        if (deviceName == null || deviceName.trim().isEmpty()) {
+            deviceName = "Unknown";
+        }
+
+        out.reset()
+                .beginObject()
+                .name("device").value(data.getDeviceAddress())
+                .name("deviceName").value(deviceName)
+                .name("timestamp").timestampValue(data.getTimestampMillis());
+
+        DecodedReading reading = data.getDecoded();
+        if (reading == null) {
+            // Not from the pipeline decode stage
+            reading = scratch;
+            decoders.decode(decoders.resolve(data.getServiceUuid(), data.getCharacteristicUuid(), data.getDeviceName()),
+                    raw != null ? raw : EMPTY, 0, rawLength, reading);
+        }
+
+        if (reading.kind == DecodedReading.Kind.TEMPERATURE_SAMPLE) {
+            // Temperature data (format: T1:23.5C)
+            out.name("type").value("temperature");
+            writeField(out, raw, reading, DecodedReading.SAMPLE_NUMBER);
+            writeField(out, raw, reading, DecodedReading.TEMPERATURE);
+            out.name("unit").value("C")
+                    .name("rawData").utf8Value(raw, 0, rawLength);
+        } else {
+            // General sensor data, plus whatever typed fields the decoder found
+            out.name("data");
+            if (reading.binaryPayload) {
+                out.hexValue(raw, 0, rawLength);
+            } else {
+                out.utf8Value(raw != null ? raw : EMPTY, 0, rawLength);
+            }
+            out.name("dataLength").value(rawLength)
+                    .name("type").value("sensor_data");
+            for (int field = 0; field < DecodedReading.FIELD_COUNT; field++) {
+                if (reading.has(field)) {
+                    writeField(out, raw, reading, field);
+                }
+            }
+            if (reading.has(DecodedReading.TEMPERATURE)) {
+                out.name("unit").value("C");
+            }
+        }
+        out.endObject();
+    }
+
+    /**
+     * Window aggregate as JSON, one object per aggregated field:
+     * {"device":..,"characteristic":..,"type":"aggregate","windowStart":..,"windowEnd":..,"samples":n,
+     *  "temperature":{"count":n,"min":..,"max":..,"mean":..},...}
+     */
+    public String toJson(WindowAggregate aggregate) {
+        String deviceName = aggregate.deviceName;
+        if (deviceName == null || deviceName.trim().isEmpty()) {
+            deviceName = "Unknown";
+        }
+        writer.reset()
+                .beginObject()
+                .name("device").value(aggregate.deviceAddress)
+                .name("deviceName").value(deviceName);
+        if (aggregate.characteristicUuid != null) {
+            writer.name("characteristic").value(aggregate.characteristicUuid);
+        }
+        writer.name("type").value("aggregate")
+                .name("windowStart").timestampValue(aggregate.windowStart)
+                .name("windowEnd").timestampValue(aggregate.windowEnd)
+                .name("samples").value(aggregate.samples);
+        for (int field = 0; field < DecodedReading.FIELD_COUNT; field++) {
+            if (!aggregate.has(field)) continue;
+            writer.name(DecodedReading.fieldName(field))
+                    .beginObject()
+                    .name("count").value(aggregate.count[field])
+                    .name("min").value(aggregate.min[field])
+                    .name("max").value(aggregate.max[field])
+                    // Rounded so a mean of 0.1 steps does not print as 23.450000000000003
+                    .name("mean").value(Math.round(aggregate.mean(field) * 10_000) / 10_000.0)
+                    .endObject();
+        }
+        writer.endObject();
+        return writer.toString();
+    }
+
+    /**
+     * Copy the field's digits straight from the payload (leading zeros dropped to keep the JSON valid)
+     */
+    private static void writeField(JsonWriter out, byte[] raw, DecodedReading reading, int field) {
+        int offset = reading.offsetOf(field);
+        int length = reading.lengthOf(field);
+        if (length == 0) {
+            // Decoded from a binary payload, no digits to copy
+            out.name(DecodedReading.fieldName(field)).value(reading.get(field));
+            return;
+        }
+        out.name(DecodedReading.fieldName(field)).numberValue(raw, offset, length);
+    }
+}
@@ -0,0 +1,566 @@
+package com.have_no_eyes_deer.bleawsgateway.store;
+
+import android.util.Log;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * Segmented message log - append-only, memory-mapped store for MQTT messages that could
+ * not be delivered yet
+ *
+ * The log is a directory of fixed-size segment files named by a increasing segment
+ * number. Each record is [int bodyLength][int crc32(body)][long timestamp]
+ * [short flags|topicLength][topic][payload]; the top bit of the topic length marks a binary
+ * payload (AWS IoT topics are at most 256 bytes, so older logs never set it). The length is
+ * written last so a zero length marks
+ * the end of the written data. A cursor file (also mapped) holds the position of the
+ * first unacknowledged record. On open the active segment is scanned and a torn tail
+ * record (bad CRC) is cut off.
+ *
+ * Retention: when a segment is sealed, the oldest segments are deleted while the log
+ * exceeds maxTotalBytes or a sealed segment is older than maxAgeMs, even if they still
+ * hold unacknowledged records (counted as dropped). Not thread-safe on its own; all
+ * public methods are synchronized.
+ */
+public class SegmentedMessageLog implements Closeable {
+    private static final String TAG = "SegmentedMessageLog";
+
+    public static final int DEFAULT_SEGMENT_SIZE = 4 * 1024 * 1024;
+    public static final long DEFAULT_MAX_TOTAL_BYTES = 64L * 1024 * 1024;
+    public static final long DEFAULT_MAX_AGE_MS = 7L * 24 * 60 * 60 * 1000;
+
+    private static final int HEADER_SIZE = 8;       // body length + crc
+    private static final int FIXED_BODY_SIZE = 10;  // timestamp + topic length
+    private static final int CURSOR_SIZE = 16;      // segment + offset + crc
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String CURSOR_FILE = "cursor";
+    private static final int BINARY_FLAG = 0x8000;
+    private static final int MAX_TOPIC_LENGTH = 0x7FFF;
+
+    public static class Record {
+        public long segment;
+        public int offset;
+        public long timestamp;
+        public String topic;
+        public String payload;      // text records
+        public byte[] data;         // binary records, payload is null
+        public boolean binary;
+        int nextOffset;
+    }
+
+    private final File directory;
+    private final int segmentSize;
+    private final long maxTotalBytes;
+    private final long maxAgeMs;
+    private final TreeMap<Long, File> segments = new TreeMap<>();
+    private final CRC32 crc = new CRC32();
+    private byte[] scratch = new byte[1024];
+
+    // Write side
+    private long writeSegment;
+    private MappedByteBuffer writeBuffer;
+    private int writeOffset;
+
+    // Read side (first unacknowledged record)
+    private long readSegment;
+    private int readOffset;
+    private final MappedByteBuffer cursorBuffer;
+    private long cachedReadSegment = -1;
+    private ByteBuffer cachedReadBuffer;
+
+    private boolean closed = false;
+
+    // Statistics counters
+    private long pendingRecords = 0;
+    private long appendedRecords = 0;
+    private long acknowledgedRecords = 0;
+    private long droppedRecords = 0;
+    private long corruptedRecords = 0;
+
+    public SegmentedMessageLog(File directory) throws IOException {
+        this(directory, DEFAULT_SEGMENT_SIZE, DEFAULT_MAX_TOTAL_BYTES, DEFAULT_MAX_AGE_MS);
+    }
+
+    public SegmentedMessageLog(File directory, int segmentSize, long maxTotalBytes, long maxAgeMs) throws IOException {
+        if (segmentSize < 1024) {
+            throw new IllegalArgumentException("segmentSize too small: " + segmentSize);
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create log directory " + directory);
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxTotalBytes = maxTotalBytes;
+        this.maxAgeMs = maxAgeMs;
+
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(SEGMENT_SUFFIX));
+        if (files != null) {
+            for (File file : files) {
+                try {
+                    String name = file.getName();
+                    segments.put(Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length())), file);
+                } catch (NumberFormatException e) {
+                    Log.w(TAG, "Ignoring unexpected file " + file.getName());
+                }
+            }
+        }
+
+        if (segments.isEmpty()) {
+            openWriteSegment(0);
+        } else {
+            writeSegment = segments.lastKey();
+            writeBuffer = map(segments.get(writeSegment));
+            writeOffset = recoverWriteOffset();
+        }
+
+        cursorBuffer = mapCursor();
+        loadCursor();
+        pendingRecords = countRecordsFrom(readSegment, readOffset);
+        Log.d(TAG, "Opened " + directory + ": " + segments.size() + " segments, "
+                + pendingRecords + " pending records");
+    }
+
+    // ======================== append ========================
+
+    /**
+     * Append a message; the record is visible to read() immediately and reaches the file
+     * system with the page cache (call sync() to force it to storage)
+     * @return false if the record can never fit into a segment
+     */
+    public synchronized boolean append(String topic, String payload, long timestamp) throws IOException {
+        return append(topic, payload.getBytes(StandardCharsets.UTF_8), false, timestamp);
+    }
+
+    /**
+     * Append a binary payload (read back with Record.binary set)
+     */
+    public synchronized boolean append(String topic, byte[] payload, long timestamp) throws IOException {
+        return append(topic, payload, true, timestamp);
+    }
+
+    private boolean append(String topic, byte[] payloadBytes, boolean binary, long timestamp) throws IOException {
+        ensureOpen();
+        byte[] topicBytes = topic.getBytes(StandardCharsets.UTF_8);
+        if (topicBytes.length > MAX_TOPIC_LENGTH) {
+            return false;
+        }
+        int bodyLength = FIXED_BODY_SIZE + topicBytes.length + payloadBytes.length;
+        int recordSize = HEADER_SIZE + bodyLength;
+        if (recordSize > segmentSize) {
+            return false;
+        }
+        if (writeOffset + recordSize > segmentSize) {
+            rollover();
+        }
+
+        byte[] body = scratch(bodyLength);
+        putLong(body, 0, timestamp);
+        int topicField = topicBytes.length | (binary ? BINARY_FLAG : 0);
+        body[8] = (byte) (topicField >>> 8);
+        body[9] = (byte) topicField;
+        System.arraycopy(topicBytes, 0, body, FIXED_BODY_SIZE, topicBytes.length);
+        System.arraycopy(payloadBytes, 0, body, FIXED_BODY_SIZE + topicBytes.length, payloadBytes.length);
+        crc.reset();
+        crc.update(body, 0, bodyLength);
+
+        ByteBuffer view = writeBuffer.duplicate();
+        view.position(writeOffset + HEADER_SIZE);
+        view.put(body, 0, bodyLength);
+        writeBuffer.putInt(writeOffset + 4, (int) crc.getValue());
+        writeBuffer.putInt(writeOffset, bodyLength); // length last: marks the record complete
+
+        writeOffset += recordSize;
+        pendingRecords++;
+        appendedRecords++;
+        return true;
+    }
+
+    // ======================== read / acknowledge ========================
+
+    /**
+     * Read up to maxRecords unacknowledged records, oldest first, without consuming them
+     */
+    public synchronized int read(int maxRecords, List<Record> out) throws IOException {
+        return read(null, maxRecords, out);
+    }
+
+    /**
+     * Read up to maxRecords unacknowledged records that follow the given one, e.g. the last
+     * record already being delivered; starts at the cursor when that record was acknowledged
+     * or dropped by retention meanwhile
+     */
+    public synchronized int read(Record after, int maxRecords, List<Record> out) throws IOException {
+        ensureOpen();
+        long segment = readSegment;
+        int offset = readOffset;
+        if (after != null && (after.segment > readSegment
+                || (after.segment == readSegment && after.nextOffset > readOffset))) {
+            segment = after.segment;
+            offset = after.nextOffset;
+        }
+        int count = 0;
+        while (count < maxRecords) {
+            Record record = readAt(segment, offset);
+            if (record != null) {
+                out.add(record);
+                offset = record.nextOffset;
+                count++;
+                continue;
+            }
+            // End of this segment
+            Long next = segments.higherKey(segment);
+            if (segment == writeSegment || next == null) {
+                break;
+            }
+            segment = next;
+            offset = 0;
+        }
+        return count;
+    }
+
+    /**
+     * Mark every record up to and including the given one as delivered
+     */
+    public synchronized void acknowledge(Record record) throws IOException {
+        ensureOpen();
+        if (record.segment < readSegment
+                || (record.segment == readSegment && record.nextOffset <= readOffset)) {
+            return; // already acknowledged
+        }
+        long count = countRecordsBetween(readSegment, readOffset, record.segment, record.nextOffset);
+        pendingRecords = Math.max(0, pendingRecords - count);
+        acknowledgedRecords += count;
+        readSegment = record.segment;
+        readOffset = record.nextOffset;
+        storeCursor();
+
+        // Segments before the cursor are fully delivered
+        while (!segments.isEmpty() && segments.firstKey() < readSegment) {
+            deleteSegment(segments.firstKey());
+        }
+    }
+
+    /**
+     * Force written records and the cursor to storage
+     */
+    public synchronized void sync() {
+        if (closed) return;
+        writeBuffer.force();
+        cursorBuffer.force();
+    }
+
+    @Override
+    public synchronized void close() {
+        if (closed) return;
+        sync();
+        closed = true;
+        cachedReadBuffer = null;
+    }
+
+    // ======================== statistics ========================
+
+    public synchronized long getPendingRecords() {
+        return pendingRecords;
+    }
+
+    public synchronized long getAppendedRecords() {
+        return appendedRecords;
+    }
+
+    public synchronized long getAcknowledgedRecords() {
+        return acknowledgedRecords;
+    }
+
+    public synchronized long getDroppedRecords() {
+        return droppedRecords;
+    }
+
+    public synchronized long getCorruptedRecords() {
+        return corruptedRecords;
+    }
+
+    public synchronized int getSegmentCount() {
+        return segments.size();
+    }
+
+    public synchronized long getSizeBytes() {
+        return (long) segments.size() * segmentSize;
+    }
+
+    // ======================== segments ========================
+
+    private void rollover() throws IOException {
+        writeBuffer.force();
+        File sealed = segments.get(writeSegment);
+        sealed.setLastModified(System.currentTimeMillis());
+        openWriteSegment(writeSegment + 1);
+        enforceRetention();
+    }
+
+    private void openWriteSegment(long segment) throws IOException {
+        File file = new File(directory, String.format(Locale.US, "%020d%s", segment, SEGMENT_SUFFIX));
+        writeBuffer = map(file);
+        writeSegment = segment;
+        writeOffset = 0;
+        segments.put(segment, file);
+    }
+
+    private void enforceRetention() throws IOException {
+        long now = System.currentTimeMillis();
+        while (segments.size() > 1) {
+            long oldest = segments.firstKey();
+            File file = segments.get(oldest);
+            boolean overSize = (long) segments.size() * segmentSize > maxTotalBytes;
+            boolean expired = now - file.lastModified() > maxAgeMs;
+            if (!overSize && !expired) {
+                break;
+            }
+            if (oldest >= readSegment) {
+                // Unacknowledged records are lost
+                long lost = oldest == readSegment ? countRecordsInSegment(oldest, readOffset)
+                        : countRecordsInSegment(oldest, 0);
+                droppedRecords += lost;
+                pendingRecords = Math.max(0, pendingRecords - lost);
+                Log.w(TAG, "Retention dropped " + lost + " undelivered records from segment " + oldest);
+            }
+            deleteSegment(oldest);
+            if (oldest >= readSegment) {
+                readSegment = segments.firstKey();
+                readOffset = 0;
+                storeCursor();
+            }
+        }
+    }
+
+    private void deleteSegment(long segment) {
+        File file = segments.remove(segment);
+        if (segment == cachedReadSegment) {
+            cachedReadSegment = -1;
+            cachedReadBuffer = null;
+        }
+        if (file != null && !file.delete()) {
+            Log.w(TAG, "Failed to delete " + file);
+        }
+    }
+
+    private MappedByteBuffer map(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            if (raf.length() != segmentSize) {
+                raf.setLength(segmentSize);
+            }
+            return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        }
+    }
+
+    private ByteBuffer bufferFor(long segment) throws IOException {
+        if (segment == writeSegment) {
+            return writeBuffer;
+        }
+        if (segment != cachedReadSegment) {
+            File file = segments.get(segment);
+            if (file == null) {
+                return null;
+            }
+            try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+                cachedReadBuffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0,
+                        Math.min(raf.length(), segmentSize));
+            }
+            cachedReadSegment = segment;
+        }
+        return cachedReadBuffer;
+    }
+
+    // ======================== records ========================
+
+    /**
+     * @return the record at the given position, or null at the end of the segment data
+     */
+    private Record readAt(long segment, int offset) throws IOException {
+        ByteBuffer buffer = bufferFor(segment);
+        if (buffer == null || offset + HEADER_SIZE > buffer.capacity()) {
+            return null;
+        }
+        int bodyLength = buffer.getInt(offset);
+        if (bodyLength < FIXED_BODY_SIZE || offset + HEADER_SIZE + bodyLength > buffer.capacity()) {
+            return null;
+        }
+        int storedCrc = buffer.getInt(offset + 4);
+        byte[] body = scratch(bodyLength);
+        ByteBuffer view = buffer.duplicate();
+        view.position(offset + HEADER_SIZE);
+        view.get(body, 0, bodyLength);
+        crc.reset();
+        crc.update(body, 0, bodyLength);
+        if ((int) crc.getValue() != storedCrc) {
+            corruptedRecords++;
+            Log.w(TAG, "CRC mismatch in segment " + segment + " at " + offset);
+            return null;
+        }
+
+        int topicField = ((body[8] & 0xFF) << 8) | (body[9] & 0xFF);
+        int topicLength = topicField & MAX_TOPIC_LENGTH;
+        if (FIXED_BODY_SIZE + topicLength > bodyLength) {
+            corruptedRecords++;
+            return null;
+        }
+        Record record = new Record();
+        record.segment = segment;
+        record.offset = offset;
+        record.timestamp = getLong(body, 0);
+        record.topic = new String(body, FIXED_BODY_SIZE, topicLength, StandardCharsets.UTF_8);
+        int payloadOffset = FIXED_BODY_SIZE + topicLength;
+        record.binary = (topicField & BINARY_FLAG) != 0;
+        if (record.binary) {
+            record.data = Arrays.copyOfRange(body, payloadOffset, bodyLength);
+        } else {
+            record.payload = new String(body, payloadOffset, bodyLength - payloadOffset, StandardCharsets.UTF_8);
+        }
+        record.nextOffset = offset + HEADER_SIZE + bodyLength;
+        return record;
+    }
+
+    /**
+     * Scan the active segment for the end of valid data and clear a torn tail
+     */
+    private int recoverWriteOffset() throws IOException {
+        int offset = 0;
+        Record record;
+        long corruptedBefore = corruptedRecords;
+        while ((record = readAt(writeSegment, offset)) != null) {
+            offset = record.nextOffset;
+        }
+        if (corruptedRecords > corruptedBefore || (offset + 4 <= segmentSize && writeBuffer.getInt(offset) != 0)) {
+            Log.w(TAG, "Truncating torn record in segment " + writeSegment + " at " + offset);
+            for (int i = offset; i < segmentSize; i++) {
+                writeBuffer.put(i, (byte) 0);
+            }
+            writeBuffer.force();
+        }
+        return offset;
+    }
+
+    private long countRecordsInSegment(long segment, int fromOffset) throws IOException {
+        long count = 0;
+        Record record;
+        int offset = fromOffset;
+        while ((record = readAt(segment, offset)) != null) {
+            offset = record.nextOffset;
+            count++;
+        }
+        return count;
+    }
+
+    private long countRecordsFrom(long segment, int offset) throws IOException {
+        long count = countRecordsInSegment(segment, offset);
+        for (Long next : segments.tailMap(segment, false).keySet()) {
+            count += countRecordsInSegment(next, 0);
+        }
+        return count;
+    }
+
+    private long countRecordsBetween(long fromSegment, int fromOffset, long toSegment, int toOffset) throws IOException {
+        long count = 0;
+        long segment = fromSegment;
+        int offset = fromOffset;
+        while (segment < toSegment || (segment == toSegment && offset < toOffset)) {
+            Record record = readAt(segment, offset);
+            if (record == null) {
+                Long next = segments.higherKey(segment);
+                if (next == null) break;
+                segment = next;
+                offset = 0;
+                continue;
+            }
+            offset = record.nextOffset;
+            count++;
+        }
+        return count;
+    }
+
+    // ======================== cursor ========================
+
+    private MappedByteBuffer mapCursor() throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(new File(directory, CURSOR_FILE), "rw")) {
+            if (raf.length() != CURSOR_SIZE) {
+                raf.setLength(CURSOR_SIZE);
+            }
+            return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, CURSOR_SIZE);
+        }
+    }
+
+    private void loadCursor() {
+        long segment = cursorBuffer.getLong(0);
+        int offset = cursorBuffer.getInt(8);
+        boolean valid = cursorBuffer.getInt(12) == cursorChecksum(segment, offset)
+                && segments.containsKey(segment) && offset >= 0 && offset <= segmentSize;
+        if (valid) {
+            readSegment = segment;
+            readOffset = offset;
+        } else {
+            // No cursor yet, or its segment was removed: start at the oldest segment
+            readSegment = segments.firstKey();
+            readOffset = 0;
+            storeCursor();
+        }
+    }
+
+    private void storeCursor() {
+        cursorBuffer.putLong(0, readSegment);
+        cursorBuffer.putInt(8, readOffset);
+        cursorBuffer.putInt(12, cursorChecksum(readSegment, readOffset));
+    }
+
+    private int cursorChecksum(long segment, int offset) {
+        crc.reset();
+        byte[] bytes = new byte[12];
+        putLong(bytes, 0, segment);
+        bytes[8] = (byte) (offset >>> 24);
+        bytes[9] = (byte) (offset >>> 16);
+        bytes[10] = (byte) (offset >>> 8);
+        bytes[11] = (byte) offset;
+        crc.update(bytes, 0, bytes.length);
+        return (int) crc.getValue();
+    }
+
+    // ======================== helpers ========================
+
+    private byte[] scratch(int length) {
+        if (scratch.length < length) {
+            scratch = new byte[Math.max(length, scratch.length * 2)];
+        }
+        return scratch;
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Log is closed");
+        }
+    }
+
+    private static void putLong(byte[] bytes, int offset, long value) {
+        for (int i = 7; i >= 0; i--) {
+            bytes[offset + i] = (byte) value;
+            value >>>= 8;
+        }
+    }
+
+    private static long getLong(byte[] bytes, int offset) {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (bytes[offset + i] & 0xFF);
+        }
+        return value;
+    }
+}
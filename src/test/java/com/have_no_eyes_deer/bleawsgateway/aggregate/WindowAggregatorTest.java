@@ -0,0 +1,182 @@
+package com.have_no_eyes_deer.bleawsgateway.aggregate;
+
+import com.have_no_eyes_deer.bleawsgateway.decoder.PayloadDecoderRegistry;
+import com.have_no_eyes_deer.bleawsgateway.model.BleDataModel;
+import com.have_no_eyes_deer.bleawsgateway.model.DecodedReading;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class WindowAggregatorTest {
+
+    private static final long BASE = 1_700_000_000_000L; // multiple of 10s
+
+    private final PayloadDecoderRegistry decoders = PayloadDecoderRegistry.createDefault();
+    private final List<WindowAggregate> out = new ArrayList<>();
+
+    private BleDataModel reading(String address, long time, String value) {
+        return reading(address, "chr", time, value);
+    }
+
+    private BleDataModel reading(String address, String characteristic, long time, String value) {
+        byte[] raw = value.getBytes(StandardCharsets.UTF_8);
+        BleDataModel data = new BleDataModel(address, "Nano", "svc", characteristic, raw, value);
+        data.setTimestamp(new Date(time));
+        DecodedReading decoded = new DecodedReading();
+        decoders.decode(null, raw, 0, raw.length, decoded);
+        data.setDecoded(decoded);
+        return data;
+    }
+
+    @Test
+    public void tumblingWindowEmitsMinMaxMeanCount() {
+        WindowAggregator aggregator = new WindowAggregator(10_000);
+
+        aggregator.add(reading("AA", BASE + 1_000, "T:20.0,H:50.0,B:90"), out);
+        aggregator.add(reading("AA", BASE + 4_000, "T:22.0,H:40.0,B:89"), out);
+        aggregator.add(reading("AA", BASE + 9_999, "T:24.5,H:45.0,B:88"), out);
+        assertTrue(out.isEmpty());
+
+        assertEquals(1, aggregator.add(reading("AA", BASE + 10_000, "T:30.0,H:30.0,B:80"), out));
+        WindowAggregate window = out.get(0);
+        assertEquals("AA", window.deviceAddress);
+        assertEquals(BASE, window.windowStart);
+        assertEquals(BASE + 10_000, window.windowEnd);
+        assertEquals(3, window.samples);
+        assertEquals(3, window.count[DecodedReading.TEMPERATURE]);
+        assertEquals(20.0, window.min[DecodedReading.TEMPERATURE], 0);
+        assertEquals(24.5, window.max[DecodedReading.TEMPERATURE], 0);
+        assertEquals(22.1666, window.mean(DecodedReading.TEMPERATURE), 1e-3);
+        assertEquals(45.0, window.mean(DecodedReading.HUMIDITY), 1e-9);
+        assertEquals(88, window.min[DecodedReading.BATTERY], 0);
+        assertFalse(window.has(DecodedReading.SAMPLE_NUMBER));
+    }
+
+    @Test
+    public void streamsOfOneDeviceAreAggregatedSeparately() {
+        WindowAggregator aggregator = new WindowAggregator(10_000);
+
+        aggregator.add(reading("AA", "probe-a", BASE + 1_000, "Sample:20.0°C"), out);
+        aggregator.add(reading("AA", "probe-b", BASE + 2_000, "Sample:80.0°C"), out);
+        aggregator.add(reading("AA", "probe-a", BASE + 3_000, "Sample:22.0°C"), out);
+        assertEquals(2, aggregator.advanceTo(BASE + 10_000, out));
+
+        assertEquals(1, aggregator.getDeviceCount());
+        for (WindowAggregate window : out) {
+            assertEquals("AA", window.deviceAddress);
+            if (window.characteristicUuid.equals("probe-a")) {
+                assertEquals(2, window.samples);
+                assertEquals(22.0, window.max[DecodedReading.TEMPERATURE], 0);
+                assertEquals(21.0, window.mean(DecodedReading.TEMPERATURE), 1e-9);
+            } else {
+                assertEquals("probe-b", window.characteristicUuid);
+                assertEquals(80.0, window.min[DecodedReading.TEMPERATURE], 0);
+            }
+        }
+    }
+
+    @Test
+    public void slidingWindowMergesPanes() {
+        WindowAggregator aggregator = new WindowAggregator(30_000, 10_000);
+
+        for (int second = 0; second < 40; second++) {
+            aggregator.add(reading("AA", BASE + second * 1000L, "Sample:" + second), out);
+        }
+
+        // Boundaries at 10s, 20s, 30s closed so far
+        assertEquals(3, out.size());
+        WindowAggregate third = out.get(2);
+        assertEquals(BASE, third.windowStart);
+        assertEquals(BASE + 30_000, third.windowEnd);
+        assertEquals(30, third.count[DecodedReading.TEMPERATURE]);
+        assertEquals(0, third.min[DecodedReading.TEMPERATURE], 0);
+        assertEquals(29, third.max[DecodedReading.TEMPERATURE], 0);
+
+        out.clear();
+        aggregator.advanceTo(BASE + 60_000, out);
+        // 40s, 50s and 60s windows still contain samples 10..39; the 70s window would not
+        assertEquals(3, out.size());
+        assertEquals(30, out.get(0).count[DecodedReading.TEMPERATURE]);
+        assertEquals(10, out.get(0).min[DecodedReading.TEMPERATURE], 0);
+        assertEquals(20, out.get(1).count[DecodedReading.TEMPERATURE]);
+        assertEquals(10, out.get(2).count[DecodedReading.TEMPERATURE]);
+        assertEquals(34.5, out.get(2).mean(DecodedReading.TEMPERATURE), 1e-9);
+    }
+
+    @Test
+    public void idleGapsAreSkippedAndAdvanceIsIdempotent() {
+        WindowAggregator aggregator = new WindowAggregator(10_000);
+        aggregator.add(reading("AA", BASE + 5_000, "Sample:1"), out);
+
+        assertEquals(0, aggregator.advanceTo(BASE + 9_000, out));
+        assertEquals(1, aggregator.advanceTo(BASE + 10_500, out));
+        assertEquals(0, aggregator.advanceTo(BASE + 11_000, out));
+        assertEquals(0, aggregator.advanceTo(BASE + 3_600_000, out));
+
+        // An hour later the device reports again: one window, no empty ones in between
+        aggregator.add(reading("AA", BASE + 3_600_000 + 1, "Sample:2"), out);
+        aggregator.add(reading("AA", BASE + 3_610_000, "Sample:3"), out);
+        assertEquals(2, out.size());
+        assertEquals(BASE + 3_600_000, out.get(1).windowStart);
+        assertEquals(2, out.get(1).mean(DecodedReading.TEMPERATURE), 0);
+    }
+
+    @Test
+    public void rawReadingsAreCountedButNotAggregated() {
+        WindowAggregator aggregator = new WindowAggregator(10_000);
+        aggregator.add(reading("AA", BASE, "status ok"), out);
+        aggregator.add(reading("AA", BASE + 1, "Sample:4"), out);
+        aggregator.flush(out);
+
+        assertEquals(1, out.size());
+        assertEquals(2, out.get(0).samples);
+        assertEquals(1, out.get(0).count[DecodedReading.TEMPERATURE]);
+        assertTrue(Double.isNaN(out.get(0).min[DecodedReading.HUMIDITY]));
+    }
+
+    @Test
+    public void hundredsOfVirtualDevices() {
+        int devices = 500;
+        WindowAggregator aggregator = new WindowAggregator(10_000, 5_000);
+
+        // 1 Hz per device for 60s, interleaved like notifications from many links
+        for (int second = 0; second < 60; second++) {
+            for (int device = 0; device < devices; device++) {
+                String value = String.format("T:%d.5,H:50.0,B:%d", device % 40, 100 - second);
+                aggregator.add(reading("DEV" + device, BASE + second * 1000L + device, value), out);
+            }
+        }
+        aggregator.advanceTo(BASE + 60_000, out);
+
+        assertEquals(devices, aggregator.getDeviceCount());
+        assertEquals(60L * devices, aggregator.getInputCount());
+        Map<String, Integer> windowsPerDevice = new HashMap<>();
+        for (WindowAggregate window : out) {
+            windowsPerDevice.merge(window.deviceAddress, 1, Integer::sum);
+            int device = Integer.parseInt(window.deviceAddress.substring(3));
+            assertEquals(device % 40 + 0.5, window.mean(DecodedReading.TEMPERATURE), 1e-9);
+            long seconds = (window.windowEnd - window.windowStart) / 1000;
+            assertEquals(window.windowStart == BASE - 5_000 ? 5 : seconds, window.samples);
+            double firstSecond = Math.max(0, (window.windowStart - BASE) / 1000);
+            assertEquals(100 - firstSecond, window.max[DecodedReading.BATTERY], 0);
+        }
+        // Windows ending at 5s, 10s, ... 60s
+        for (int device = 0; device < devices; device++) {
+            assertEquals(Integer.valueOf(12), windowsPerDevice.get("DEV" + device));
+        }
+        assertEquals(12L * devices, aggregator.getEmittedCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void windowMustBeMultipleOfHop() {
+        new WindowAggregator(10_000, 3_000);
+    }
+}
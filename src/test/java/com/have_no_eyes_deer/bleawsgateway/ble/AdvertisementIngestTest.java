@@ -0,0 +1,149 @@
+package com.have_no_eyes_deer.bleawsgateway.ble;
+
+import com.have_no_eyes_deer.bleawsgateway.decoder.IBeaconDecoder;
+import com.have_no_eyes_deer.bleawsgateway.decoder.PayloadDecoderRegistry;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class AdvertisementIngestTest {
+
+    private static final long MS = 1_000_000L;
+
+    private final AdvertisementIngest ingest = AdvertisementIngest.createDefault();
+    private final List<String> forwarded = new ArrayList<>();
+    private final AdvertisementIngest.Sink sink = (address, name, sourceKey, data, offset, length, timestampNanos) -> {
+        StringBuilder hex = new StringBuilder();
+        for (int i = offset; i < offset + length; i++) {
+            hex.append(String.format("%02x", data[i] & 0xFF));
+        }
+        forwarded.add(address + " " + sourceKey + " " + hex);
+    };
+
+    private static String address(int i) {
+        return String.format("A4:C1:38:%02X:%02X:%02X", (i >> 16) & 0xFF, (i >> 8) & 0xFF, i & 0xFF);
+    }
+
+    /** Flags, BTHome service data (packet id, temperature 0.01 C), complete local name */
+    private static byte[] bthome(int packetId, int centiDegrees) {
+        return new byte[]{0x02, 0x01, 0x06,
+                0x09, 0x16, (byte) 0xD2, (byte) 0xFC, 0x40, 0x00, (byte) packetId, 0x02,
+                (byte) centiDegrees, (byte) (centiDegrees >> 8),
+                0x04, 0x09, 'A', 'T', 'C',
+                0x00, 0x00, 0x00};                  // padding
+    }
+
+    @Test
+    public void bthomeRepeatsAreDroppedByPacketId() {
+        assertEquals(1, ingest.accept(address(1), "ATC", bthome(7, 2130), 0, sink));
+        // Same packet again on the other channels and advertising intervals
+        for (int i = 1; i <= 30; i++) {
+            assertEquals(0, ingest.accept(address(1), "ATC", bthome(7, 2130), i * 100 * MS, sink));
+        }
+        assertEquals(1, ingest.accept(address(1), "ATC", bthome(8, 2131), 3_100 * MS, sink));
+        // Another device with the same packet id is not a repeat
+        assertEquals(1, ingest.accept(address(2), "ATC", bthome(8, 2131), 3_100 * MS, sink));
+
+        assertEquals(List.of(
+                address(1) + " " + PayloadDecoderRegistry.BTHOME_SERVICE_UUID + " 400007025208",
+                address(1) + " " + PayloadDecoderRegistry.BTHOME_SERVICE_UUID + " 400008025308",
+                address(2) + " " + PayloadDecoderRegistry.BTHOME_SERVICE_UUID + " 400008025308"), forwarded);
+        assertEquals(30, ingest.getDuplicateCount());
+        assertEquals(33, ingest.getAdvertisementCount());
+    }
+
+    @Test
+    public void unchangedContentIsRepeatedOncePerInterval() {
+        ingest.setRepeatInterval(10_000);
+        byte[] beacon = new byte[30];
+        beacon[0] = 0x1A;                           // 26 bytes: type, company id, 02 15, 16 + 2 + 2 + 1
+        beacon[1] = (byte) 0xFF;
+        beacon[2] = 0x4C;
+        beacon[3] = 0x00;
+        beacon[4] = 0x02;
+        beacon[5] = 0x15;
+        beacon[26] = 0x01;                          // minor
+        for (int i = 0; i < 250; i++) {
+            ingest.accept(address(3), null, beacon, i * 100 * MS, sink);
+        }
+        // t = 0, 10 s and 20 s over 25 s
+        assertEquals(3, forwarded.size());
+        assertTrue(forwarded.get(0).startsWith(address(3) + " manufacturer-004c 0215"));
+
+        ingest.expire(40_000 * MS);
+        assertEquals(0, ingest.getTrackedCount());
+    }
+
+    @Test
+    public void onlyRegisteredSourcesAndPrefixesAreForwarded() {
+        // Apple continuity data (not an iBeacon), Eddystone UID frame, unknown service data
+        byte[] record = {
+                0x05, (byte) 0xFF, 0x4C, 0x00, 0x10, 0x05,
+                0x05, 0x16, (byte) 0xAA, (byte) 0xFE, 0x00, (byte) 0xE7,
+                0x04, 0x16, 0x0F, 0x18, 0x5A};
+        assertEquals(0, ingest.accept(address(4), null, record, 0, sink));
+
+        // Vendor format by company id, content deduplicated
+        ingest.addManufacturer(0x0059, null, null);
+        byte[] vendor = {0x06, (byte) 0xFF, 0x59, 0x00, 0x01, 0x02, 0x03};
+        assertEquals(1, ingest.accept(address(4), null, vendor, 0, sink));
+        assertEquals(0, ingest.accept(address(4), null, vendor, MS, sink));
+        assertEquals(address(4) + " manufacturer-0059 010203", forwarded.get(0));
+    }
+
+    @Test
+    public void malformedRecordsAreIgnored() {
+        // AD length running past the end, empty service data, bad address
+        assertEquals(0, ingest.accept(address(5), null, new byte[]{0x09, 0x16, (byte) 0xD2, (byte) 0xFC, 0x40}, 0, sink));
+        assertEquals(0, ingest.accept(address(5), null, new byte[]{0x01, 0x16}, 0, sink));
+        assertEquals(0, ingest.accept("not-an-address", null, bthome(1, 0), 0, sink));
+        assertEquals(0, ingest.accept(address(5), null, null, 0, sink));
+        try {
+            ingest.addServiceData("4a981234-1cc4-e7c1-c757-f1267dd021e8", null, null);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void scanKeysCoverEverySource() {
+        List<AdvertisementIngest.ScanKey> keys = AdvertisementIngest.createDefault().getScanKeys();
+        assertEquals(3, keys.size());
+        assertEquals(PayloadDecoderRegistry.BTHOME_SERVICE_UUID, keys.get(0).serviceUuid);
+        assertEquals(0, keys.get(0).prefix.length);
+        assertEquals(PayloadDecoderRegistry.EDDYSTONE_SERVICE_UUID, keys.get(1).serviceUuid);
+        assertArrayEquals(new byte[]{0x20}, keys.get(1).prefix);
+        assertNull(keys.get(2).serviceUuid);
+        assertEquals(IBeaconDecoder.APPLE_COMPANY_ID, keys.get(2).manufacturerId);
+        assertArrayEquals(new byte[]{0x02, 0x15}, keys.get(2).prefix);
+    }
+
+    @Test
+    public void hundredsOfSensorsWithoutConnections() {
+        // 500 BTHome sensors advertising every 100 ms, a new measurement every 10 s, for 60 s
+        Random random = new Random(7);
+        int sensors = 500;
+        long[] next = new long[sensors];
+        for (int i = 0; i < sensors; i++) {
+            next[i] = random.nextInt(100) * MS;
+        }
+        long received = 0;
+        for (long now = 0; now < 60_000 * MS; now += 100 * MS) {
+            for (int i = 0; i < sensors; i++) {
+                while (next[i] <= now) {
+                    int packetId = (int) (next[i] / (10_000 * MS));
+                    ingest.accept(address(i), "ATC", bthome(packetId, 2000 + i), next[i], sink);
+                    next[i] += 100 * MS;
+                    received++;
+                }
+            }
+        }
+        assertEquals(sensors * 6, forwarded.size());
+        assertEquals(received - forwarded.size(), ingest.getDuplicateCount());
+    }
+}
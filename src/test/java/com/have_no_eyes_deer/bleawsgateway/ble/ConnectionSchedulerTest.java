@@ -0,0 +1,189 @@
+package com.have_no_eyes_deer.bleawsgateway.ble;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ConnectionSchedulerTest {
+
+    private final List<String> connects = new ArrayList<>();
+    private final List<String> disconnects = new ArrayList<>();
+    private final long[] clock = {1_000_000};
+    private final ConnectionScheduler scheduler = new ConnectionScheduler(2, new ConnectionScheduler.Connector() {
+        @Override
+        public void connect(String deviceAddress) {
+            connects.add(deviceAddress);
+        }
+
+        @Override
+        public void disconnect(String deviceAddress) {
+            disconnects.add(deviceAddress);
+        }
+    }, () -> clock[0]);
+
+    {
+        scheduler.configure(10_000, 30_000, 3_000, 3);
+    }
+
+    private void connect(String address, int priority) {
+        scheduler.request(address, priority);
+        scheduler.onConnected(address);
+    }
+
+    @Test
+    public void queuesBeyondSlotsAndAdmitsByPriority() {
+        assertTrue(scheduler.request("A", 1));
+        assertTrue(scheduler.request("B", 1));
+        assertFalse(scheduler.request("C", 1));
+        clock[0] += 1;
+        assertFalse(scheduler.request("D", 5));
+        assertEquals(2, scheduler.getWaitingCount());
+        assertTrue(scheduler.isWaiting("C"));
+
+        scheduler.onConnected("A");
+        scheduler.onDisconnected("A"); // dropped, re-queued behind D and C
+        assertEquals(List.of("A", "B", "D"), connects);
+
+        scheduler.release("B");
+        scheduler.onDisconnected("B");
+        assertEquals(List.of("A", "B", "D", "C"), connects);
+        assertEquals(1, scheduler.getWaitingCount());
+        assertEquals(2, scheduler.getSlotsInUse());
+    }
+
+    @Test
+    public void agingLetsLongWaitingRequestsWin() {
+        connect("A", 1);
+        connect("B", 1);
+        scheduler.request("LOW", 1);
+        clock[0] += 35_000;                 // 3.5 levels of aging
+        scheduler.onActivity("A");          // busy links, no preemption
+        scheduler.onActivity("B");
+        scheduler.request("HIGH", 3);
+
+        scheduler.release("A");
+        scheduler.onDisconnected("A");
+        assertEquals("LOW", connects.get(connects.size() - 1));
+    }
+
+    @Test
+    public void preemptsIdleLowerPriorityLink() {
+        connect("A", 1);
+        connect("B", 2);
+        clock[0] += 31_000;
+        scheduler.onActivity("B");
+
+        assertFalse(scheduler.request("URGENT", 5));
+        assertEquals(List.of("A"), disconnects);   // B is not idle, A is
+        assertEquals(1, scheduler.getPreemptedCount());
+
+        scheduler.onDisconnected("A");
+        assertEquals("URGENT", connects.get(connects.size() - 1));
+        assertTrue(scheduler.isWaiting("A"));      // preempted links wait for a slot again
+    }
+
+    @Test
+    public void equalPriorityAndActiveLinksAreNotPreempted() {
+        connect("A", 3);
+        connect("B", 1);
+        scheduler.request("C", 3);
+        clock[0] += 10_000;
+        scheduler.tick();
+        assertTrue(disconnects.isEmpty());          // B is still within the idle timeout
+
+        clock[0] += 25_000;
+        scheduler.onActivity("B");
+        scheduler.tick();
+        assertTrue(disconnects.isEmpty());
+
+        clock[0] += 30_000;
+        scheduler.tick();
+        assertEquals(List.of("B"), disconnects);
+        scheduler.tick();
+        assertEquals(1, disconnects.size());        // one preemption per waiting request
+    }
+
+    @Test
+    public void failedConnectsAreRetriedThenGivenUp() {
+        List<String> gaveUp = new ArrayList<>();
+        scheduler.setListener(new ConnectionScheduler.Listener() {
+            @Override
+            public void onAdmitted(String deviceAddress, long waitedMs) {
+            }
+
+            @Override
+            public void onPreempted(String deviceAddress, String forDeviceAddress) {
+            }
+
+            @Override
+            public void onRequeued(String deviceAddress, int attempt) {
+            }
+
+            @Override
+            public void onGaveUp(String deviceAddress) {
+                gaveUp.add(deviceAddress);
+            }
+        });
+
+        scheduler.request("A", 1);
+        scheduler.onConnectFailed("A");
+        scheduler.onConnectFailed("A");
+        assertEquals(3, connects.size());
+        scheduler.onConnectFailed("A");
+        assertEquals(List.of("A"), gaveUp);
+        assertEquals(0, scheduler.getSlotsInUse());
+        assertFalse(scheduler.isWaiting("A"));
+    }
+
+    @Test
+    public void releaseCancelsQueuedRequest() {
+        connect("A", 1);
+        connect("B", 1);
+        scheduler.request("C", 1);
+        scheduler.release("C");
+        scheduler.release("A");
+        scheduler.onDisconnected("A");
+        assertEquals(List.of("A", "B"), connects);
+        assertEquals(1, scheduler.getSlotsInUse());
+    }
+
+    @Test
+    public void simulationOfSixtyDevicesOnFiveSlots() {
+        FakeGattSimulation simulation = new FakeGattSimulation(5, 42);
+        simulation.scheduler.configure(10_000, 15_000, 3_000, 3);
+        Random random = new Random(7);
+        for (int i = 0; i < 60; i++) {
+            int priority = i % 10 == 0 ? 3 : (i % 3 == 0 ? 2 : 1);
+            simulation.addDevice(String.format("DEV%02d", i), priority,
+                    random.nextInt(30_000), 5_000 + random.nextInt(15_000));
+        }
+        simulation.run(3_600_000);
+
+        List<Long> high = simulation.timesToConnect(3);
+        List<Long> medium = simulation.timesToConnect(2);
+        List<Long> low = simulation.timesToConnect(1);
+        assertTrue("not every device finished by " + simulation.now() + "ms", simulation.allDone());
+        assertTrue(simulation.maxLinked <= 5);
+        assertTrue(simulation.scheduler.getPreemptedCount() > 0);
+
+        assertEquals(60, high.size() + medium.size() + low.size());
+        // Each priority connects earlier than the next lower one, at the median and at p90
+        long highP50 = FakeGattSimulation.percentile(high, 50);
+        long highP90 = FakeGattSimulation.percentile(high, 90);
+        long mediumP50 = FakeGattSimulation.percentile(medium, 50);
+        long mediumP90 = FakeGattSimulation.percentile(medium, 90);
+        long lowP50 = FakeGattSimulation.percentile(low, 50);
+        long lowP90 = FakeGattSimulation.percentile(low, 90);
+        assertTrue("high p50 " + highP50 + "ms", highP50 < mediumP50);
+        assertTrue("medium p50 " + mediumP50 + "ms", mediumP50 < lowP50);
+        assertTrue("high p90 " + highP90 + "ms", highP90 < mediumP90);
+        assertTrue("medium p90 " + mediumP90 + "ms", mediumP90 < lowP90);
+        assertTrue(highP90 < lowP50);
+        // Preemption gets high priority devices a slot within about two connection holds
+        assertTrue("high p50 " + highP50 + "ms", highP50 < 40_000);
+    }
+}
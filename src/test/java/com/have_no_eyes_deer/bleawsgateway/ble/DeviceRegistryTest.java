@@ -0,0 +1,157 @@
+package com.have_no_eyes_deer.bleawsgateway.ble;
+
+import com.have_no_eyes_deer.bleawsgateway.ble.DeviceConnectionManager.DeviceConnectionInfo.ConnectionState;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class DeviceRegistryTest {
+
+    private final DeviceRegistry registry = new DeviceRegistry();
+
+    private static String address(int i) {
+        return String.format("C8:2B:96:%02X:%02X:%02X", (i >> 16) & 0xFF, (i >> 8) & 0xFF, i & 0xFF);
+    }
+
+    @Test
+    public void idsAreDenseAndStable() {
+        assertEquals(DeviceRegistry.NO_ID, registry.idOf(address(1)));
+        assertEquals(0, registry.register(address(1)));
+        assertEquals(1, registry.register(address(2)));
+        assertEquals(0, registry.register(address(1)));
+        assertEquals(1, registry.idOf(address(2)));
+        assertEquals(DeviceRegistry.NO_ID, registry.idOf(null));
+        assertEquals(2, registry.size());
+        assertEquals(address(2), registry.getAddress(1));
+        assertEquals(DeviceRegistry.UNKNOWN_RSSI, registry.getRssi(0));
+        assertEquals(ConnectionState.DISCONNECTED, registry.getState(0));
+        try {
+            registry.getState(2);
+            fail();
+        } catch (IndexOutOfBoundsException expected) {
+        }
+    }
+
+    @Test
+    public void stateAndCountersPerDevice() {
+        int id = registry.register(address(7));
+        registry.setName(id, "THERMO-7");
+        registry.setName(id, " ");                      // keeps the last real name
+        registry.onSeen(id, -61, 1_000);
+        assertEquals("THERMO-7", registry.getName(id));
+        assertEquals(-61, registry.getRssi(id));
+
+        registry.setState(id, ConnectionState.CONNECTING);
+        assertFalse(registry.isConnected(id));
+        registry.setState(id, ConnectionState.CONNECTED);
+        registry.setState(id, ConnectionState.READY);
+        assertTrue(registry.isConnected(id));
+        registry.onData(id, 20, 2_000);
+        registry.onData(id, 12, 3_000);
+        assertEquals(2, registry.getValuesReceived(id));
+        assertEquals(32, registry.getBytesReceived(id));
+        assertEquals(3_000, registry.getLastDataNanos(id));
+        assertEquals(3_000, registry.getLastSeenNanos(id));
+        assertEquals(List.of(id), registry.getConnectedIds());
+
+        // A reconnect keeps the id and the counters
+        registry.setState(id, ConnectionState.DISCONNECTED);
+        assertEquals(id, registry.register(address(7)));
+        registry.setState(id, ConnectionState.CONNECTED);
+        assertEquals(2, registry.getConnectCount(id));
+        assertEquals(32, registry.getBytesReceived(id));
+        assertEquals(1, registry.countConnected());
+    }
+
+    @Test
+    public void scanOnlyIdsAreReleasedAndReused() {
+        int connected = registry.register(address(1));
+        registry.setState(connected, ConnectionState.CONNECTED);
+        registry.setState(connected, ConnectionState.DISCONNECTED);
+        assertFalse(registry.release(connected));       // was connected once: keeps its id
+
+        // Rotating random addresses, each forgotten by the scanner after a while
+        for (int i = 100; i < 10_100; i++) {
+            int id = registry.register(address(i));
+            registry.onSeen(id, -70, i);
+            if (i >= 102) {
+                assertTrue(registry.release(registry.idOf(address(i - 2))));
+            }
+        }
+        assertEquals(4, registry.size());
+        assertEquals(3, registry.getDeviceCount());
+        assertEquals(DeviceRegistry.NO_ID, registry.idOf(address(10_097)));
+
+        int reused = registry.idOf(address(10_098));
+        assertTrue(registry.release(reused));
+        assertFalse(registry.release(reused));           // already free
+        assertNull(registry.getAddress(reused));
+        assertEquals(reused, registry.register(address(5)));
+        assertEquals(DeviceRegistry.UNKNOWN_RSSI, registry.getRssi(reused));
+        assertEquals(0, registry.getLastSeenNanos(reused));
+        assertEquals(address(5), registry.getAddress(reused));
+        assertEquals(connected, registry.idOf(address(1)));
+
+        int connecting = registry.register(address(6));
+        registry.setState(connecting, ConnectionState.CONNECTING);
+        assertFalse(registry.release(connecting));
+        assertSame(DeviceRegistry.getShared(), DeviceRegistry.getShared());
+    }
+
+    @Test
+    public void concurrentRegistrationAndCountingLoseNothing() throws Exception {
+        // Four scanners register overlapping addresses while a data thread counts on the first device;
+        // the chunk table grows several times underneath it
+        int devices = 2_000;
+        int threads = 4;
+        int id0 = registry.register(address(0));
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread[] workers = new Thread[threads + 1];
+        for (int t = 0; t < threads; t++) {
+            int offset = t;
+            workers[t] = new Thread(() -> {
+                try {
+                    start.await();
+                    for (int i = 0; i < devices; i++) {
+                        int index = (i * 7 + offset * 500) % devices;
+                        int id = registry.register(address(index));
+                        assertEquals(address(index), registry.getAddress(id));
+                        registry.onSeen(id, -50 - index % 40, i);
+                    }
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            });
+        }
+        workers[threads] = new Thread(() -> {
+            try {
+                start.await();
+                for (int i = 0; i < 100_000; i++) {
+                    registry.onData(id0, 1, i);
+                }
+            } catch (Throwable e) {
+                failure.compareAndSet(null, e);
+            }
+        });
+        for (Thread worker : workers) {
+            worker.start();
+        }
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join(10_000);
+        }
+        assertNull(failure.get());
+        assertEquals(devices, registry.size());
+        for (int i = 0; i < devices; i++) {
+            assertEquals(address(i), registry.getAddress(registry.idOf(address(i))));
+        }
+        assertEquals(100_000, registry.getValuesReceived(id0));
+        assertEquals(100_000, registry.getBytesReceived(id0));
+    }
+}
@@ -0,0 +1,228 @@
+package com.have_no_eyes_deer.bleawsgateway.ble;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+/**
+ * Discrete-event simulation of devices contending for the ConnectionScheduler slots over a
+ * fake GATT layer with a virtual clock
+ *
+ * Every device asks for a connection at a random time, streams notifications for a session,
+ * then stays connected but idle until it lingered long enough and releases its slot. Connect
+ * attempts take a random latency and fail now and then, established links drop now and then.
+ */
+class FakeGattSimulation implements ConnectionScheduler.Connector {
+
+    static class Device {
+        final String address;
+        final int priority;
+        final long arrivalTime;
+        long wantedSince;           // request or slot loss, for time-to-connect
+        long sessionLeft;           // ms of streaming still to do
+        boolean linked;             // connecting or connected on the fake radio
+        boolean connected;
+        boolean done;
+        final List<Long> timesToConnect = new ArrayList<>();
+
+        Device(String address, int priority, long arrivalTime, long sessionMs) {
+            this.address = address;
+            this.priority = priority;
+            this.arrivalTime = arrivalTime;
+            this.sessionLeft = sessionMs;
+        }
+    }
+
+    private static class Event implements Comparable<Event> {
+        final long time;
+        final long sequence;
+        final Runnable action;
+
+        Event(long time, long sequence, Runnable action) {
+            this.time = time;
+            this.sequence = sequence;
+            this.action = action;
+        }
+
+        @Override
+        public int compareTo(Event other) {
+            if (time != other.time) return Long.compare(time, other.time);
+            return Long.compare(sequence, other.sequence);
+        }
+    }
+
+    // Fake radio parameters
+    long minConnectMs = 300;
+    long maxConnectMs = 1500;
+    double connectFailureRate = 0.05;
+    double dropRatePerSecond = 0.002;
+    long disconnectMs = 100;
+    long lingerMs = 60_000;
+    long tickMs = 1_000;
+
+    final Random random;
+    final ConnectionScheduler scheduler;
+    final Map<String, Device> devices = new HashMap<>();
+    private final PriorityQueue<Event> events = new PriorityQueue<>();
+    private long now = 0;
+    private long sequence = 0;
+    int linked = 0;
+    int maxLinked = 0;
+    int gaveUp = 0;
+
+    FakeGattSimulation(int slots, long seed) {
+        random = new Random(seed);
+        scheduler = new ConnectionScheduler(slots, this, () -> now);
+        scheduler.setListener(new ConnectionScheduler.Listener() {
+            @Override
+            public void onAdmitted(String deviceAddress, long waitedMs) {
+            }
+
+            @Override
+            public void onPreempted(String deviceAddress, String forDeviceAddress) {
+            }
+
+            @Override
+            public void onRequeued(String deviceAddress, int attempt) {
+            }
+
+            @Override
+            public void onGaveUp(String deviceAddress) {
+                // The app asks again, as MainActivity does on the next scan result
+                gaveUp++;
+                Device device = devices.get(deviceAddress);
+                at(now + 5_000, () -> {
+                    device.wantedSince = now;
+                    scheduler.request(deviceAddress, device.priority);
+                });
+            }
+        });
+    }
+
+    void addDevice(String address, int priority, long arrivalTime, long sessionMs) {
+        Device device = new Device(address, priority, arrivalTime, sessionMs);
+        devices.put(address, device);
+        at(arrivalTime, () -> {
+            device.wantedSince = now;
+            scheduler.request(address, priority);
+        });
+    }
+
+    /**
+     * Run until every device finished its session or the time limit is reached
+     */
+    void run(long untilMs) {
+        at(tickMs, this::tick);
+        while (!events.isEmpty()) {
+            Event event = events.poll();
+            if (event.time > untilMs) break;
+            now = event.time;
+            event.action.run();
+            if (allDone()) break;
+        }
+    }
+
+    long now() {
+        return now;
+    }
+
+    boolean allDone() {
+        for (Device device : devices.values()) {
+            if (!device.done) return false;
+        }
+        return true;
+    }
+
+    /**
+     * First time-to-connect of the devices with the given priority, sorted
+     */
+    List<Long> timesToConnect(int priority) {
+        List<Long> times = new ArrayList<>();
+        for (Device device : devices.values()) {
+            if (device.priority == priority && !device.timesToConnect.isEmpty()) {
+                times.add(device.timesToConnect.get(0));
+            }
+        }
+        Collections.sort(times);
+        return times;
+    }
+
+    static long percentile(List<Long> sorted, double p) {
+        if (sorted.isEmpty()) return -1;
+        int index = (int) Math.ceil(p / 100.0 * sorted.size()) - 1;
+        return sorted.get(Math.max(0, Math.min(sorted.size() - 1, index)));
+    }
+
+    // ======================== fake GATT ========================
+
+    @Override
+    public void connect(String deviceAddress) {
+        Device device = devices.get(deviceAddress);
+        setLinked(device, true);
+        long latency = minConnectMs + (long) (random.nextDouble() * (maxConnectMs - minConnectMs));
+        at(now + latency, () -> {
+            if (!device.linked) return;
+            if (random.nextDouble() < connectFailureRate) {
+                setLinked(device, false);
+                scheduler.onConnectFailed(deviceAddress);
+                return;
+            }
+            device.connected = true;
+            device.timesToConnect.add(now - device.wantedSince);
+            scheduler.onConnected(deviceAddress);
+            at(now + 1_000, () -> stream(device));
+        });
+    }
+
+    @Override
+    public void disconnect(String deviceAddress) {
+        Device device = devices.get(deviceAddress);
+        at(now + disconnectMs, () -> linkLost(device));
+    }
+
+    private void stream(Device device) {
+        if (!device.connected) return;
+        if (random.nextDouble() < dropRatePerSecond) {
+            linkLost(device);
+            return;
+        }
+        if (device.sessionLeft > 0) {
+            device.sessionLeft -= 1_000;
+            scheduler.onActivity(device.address);
+            if (device.sessionLeft <= 0) {
+                device.done = true;
+                // Idle while lingering, then the app lets go
+                at(now + lingerMs, () -> scheduler.release(device.address));
+            }
+        }
+        at(now + 1_000, () -> stream(device));
+    }
+
+    private void linkLost(Device device) {
+        if (!device.linked) return;
+        device.connected = false;
+        setLinked(device, false);
+        if (!device.done) device.wantedSince = now;
+        scheduler.onDisconnected(device.address);
+    }
+
+    private void setLinked(Device device, boolean value) {
+        if (device.linked == value) return;
+        device.linked = value;
+        linked += value ? 1 : -1;
+        maxLinked = Math.max(maxLinked, linked);
+    }
+
+    private void tick() {
+        scheduler.tick();
+        at(now + tickMs, this::tick);
+    }
+
+    private void at(long time, Runnable action) {
+        events.add(new Event(time, sequence++, action));
+    }
+}
@@ -0,0 +1,176 @@
+package com.have_no_eyes_deer.bleawsgateway.ble;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class GattOperationQueueTest {
+
+    private final long[] clock = {1_000};
+    private final List<GattOperationQueue.Operation> started = new ArrayList<>();
+    private final List<String> results = new ArrayList<>();
+    private int stackBusyAbove = Integer.MAX_VALUE;   // reject starts beyond this many in flight
+    private boolean rejectAll = false;
+    private final GattOperationQueue.Stats stats = new GattOperationQueue.Stats();
+    private GattOperationQueue queue;
+
+    {
+        queue = new GattOperationQueue("AA", operation -> {
+            if (rejectAll || queue.getInFlightCount() > stackBusyAbove) return false;
+            started.add(operation);
+            return true;
+        }, () -> clock[0], stats);
+        queue.configure(5_000, 3, 4, 16);
+    }
+
+    private GattOperationQueue.Operation op(GattOperationQueue.Type type, String name) {
+        return new GattOperationQueue.Operation(type, name, new byte[]{1}, (operation, success) ->
+                results.add(operation.target + (success ? ":ok" : ":failed")));
+    }
+
+    @Test
+    public void operationsRunOneAtATime() {
+        queue.enqueue(op(GattOperationQueue.Type.WRITE, "w1"));
+        queue.enqueue(op(GattOperationQueue.Type.WRITE_DESCRIPTOR, "ccc"));
+        queue.enqueue(op(GattOperationQueue.Type.READ, "r1"));
+        queue.enqueue(op(GattOperationQueue.Type.WRITE, "w2"));
+        assertEquals(1, started.size());
+        assertEquals(4, queue.getDepth());
+
+        // A read callback does not complete the write in flight
+        queue.onComplete(GattOperationQueue.Type.READ, true);
+        assertEquals(1, started.size());
+
+        clock[0] += 30;
+        queue.onComplete(GattOperationQueue.Type.WRITE, true);
+        queue.onComplete(GattOperationQueue.Type.WRITE_DESCRIPTOR, true);
+        queue.onComplete(GattOperationQueue.Type.READ, true);
+        queue.onComplete(GattOperationQueue.Type.WRITE, true);
+
+        assertEquals(List.of("w1:ok", "ccc:ok", "r1:ok", "w2:ok"), results);
+        assertEquals(0, queue.getDepth());
+        assertEquals(4, stats.getMaxDepth());
+        assertEquals(30, stats.getLatency(GattOperationQueue.Type.WRITE).getMaxMs());
+    }
+
+    @Test
+    public void writesWithoutResponsePipelineUpToWindow() {
+        for (int i = 0; i < 10; i++) {
+            queue.enqueue(op(GattOperationQueue.Type.WRITE_NO_RESPONSE, "n" + i));
+        }
+        queue.enqueue(op(GattOperationQueue.Type.READ, "r"));
+        assertEquals(4, queue.getInFlightCount());
+
+        queue.onComplete(GattOperationQueue.Type.WRITE, true);
+        assertEquals(5, started.size());
+        assertEquals("n4", started.get(4).target);
+
+        for (int i = 0; i < 9; i++) {
+            queue.onComplete(GattOperationQueue.Type.WRITE, true);
+        }
+        // The read waited for the whole window to drain
+        assertEquals("r", started.get(10).target);
+        assertEquals(1, queue.getInFlightCount());
+        assertEquals(List.of("n0:ok", "n1:ok", "n2:ok", "n3:ok", "n4:ok", "n5:ok", "n6:ok", "n7:ok",
+                "n8:ok", "n9:ok"), results);
+    }
+
+    @Test
+    public void busyStackDelaysWithoutUsingAttempts() {
+        stackBusyAbove = 1;     // the stack takes one operation at a time
+        for (int i = 0; i < 5; i++) {
+            queue.enqueue(op(GattOperationQueue.Type.WRITE_NO_RESPONSE, "n" + i));
+        }
+        assertEquals(1, queue.getInFlightCount());
+        for (int i = 0; i < 5; i++) {
+            queue.onComplete(GattOperationQueue.Type.WRITE_NO_RESPONSE, true);
+        }
+        assertEquals(5, results.size());
+        assertEquals(0, stats.getRetryCount());
+        assertEquals(0, stats.getFailedCount());
+    }
+
+    @Test
+    public void failedOperationIsRetriedThenReported() {
+        queue.enqueue(op(GattOperationQueue.Type.WRITE, "w"));
+        queue.enqueue(op(GattOperationQueue.Type.READ, "r"));
+
+        queue.onComplete(GattOperationQueue.Type.WRITE, false);
+        assertEquals(1, started.size());            // retry is delayed
+        queue.tick();
+        assertEquals(1, started.size());
+        clock[0] += 100;
+        queue.tick();
+        assertEquals(2, started.size());
+        assertEquals("w", started.get(1).target);   // retried before the read
+
+        queue.onComplete(GattOperationQueue.Type.WRITE, false);
+        clock[0] += 100;
+        queue.tick();
+        queue.onComplete(GattOperationQueue.Type.WRITE, false);
+        assertEquals(List.of("w:failed"), results);
+        assertEquals("r", started.get(started.size() - 1).target);
+        assertEquals(2, stats.getRetryCount());
+        assertEquals(1, stats.getFailedCount());
+    }
+
+    @Test
+    public void timedOutOperationIsRetriedAndLateCallbackIgnored() {
+        queue.enqueue(op(GattOperationQueue.Type.REQUEST_MTU, "mtu"));
+        clock[0] += 5_000;
+        queue.tick();
+        assertEquals(1, stats.getTimeoutCount());
+        clock[0] += 100;
+        queue.tick();
+        assertEquals(2, started.size());
+
+        queue.onComplete(GattOperationQueue.Type.REQUEST_MTU, true);
+        queue.onComplete(GattOperationQueue.Type.REQUEST_MTU, true);   // late, nothing in flight
+        assertEquals(List.of("mtu:ok"), results);
+        assertEquals(1, stats.getCompletedCount());
+    }
+
+    @Test
+    public void rejectedStartWithNothingInFlightCountsAsAttempt() {
+        rejectAll = true;
+        queue.enqueue(op(GattOperationQueue.Type.WRITE, "w"));
+        for (int i = 0; i < 3; i++) {
+            clock[0] += 100;
+            queue.tick();
+        }
+        assertEquals(List.of("w:failed"), results);
+        assertEquals(0, queue.getDepth());
+    }
+
+    @Test
+    public void fullQueueRejectsAndCloseFailsPending() {
+        for (int i = 0; i < 16; i++) {
+            assertTrue(queue.enqueue(op(GattOperationQueue.Type.WRITE, "w" + i)));
+        }
+        assertFalse(queue.enqueue(op(GattOperationQueue.Type.WRITE, "overflow")));
+        assertEquals(1, stats.getRejectedFullCount());
+
+        queue.close();
+        assertEquals(16, results.size());
+        assertTrue(results.stream().allMatch(r -> r.endsWith(":failed")));
+        assertFalse(queue.enqueue(op(GattOperationQueue.Type.WRITE, "late")));
+    }
+
+    @Test
+    public void latencyHistogramPercentiles() {
+        GattOperationQueue.LatencyHistogram histogram = new GattOperationQueue.LatencyHistogram();
+        for (int i = 0; i < 90; i++) histogram.record(3);
+        for (int i = 0; i < 9; i++) histogram.record(40);
+        histogram.record(700);
+
+        assertEquals(100, histogram.getCount());
+        assertEquals(3, histogram.percentileMs(50));
+        assertEquals(63, histogram.percentileMs(99));
+        assertEquals(700, histogram.percentileMs(100));
+        assertEquals(13, histogram.getAverageMs());
+        assertEquals(90, histogram.getBuckets()[2]);
+    }
+}
@@ -0,0 +1,121 @@
+package com.have_no_eyes_deer.bleawsgateway.ble;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+public class GattServiceCacheTest {
+
+    private static final UUID SERVICE = UUID.fromString("6e400001-b5a3-f393-e0a9-e50e24dcca9e");
+    private static final UUID NOTIFY = UUID.fromString("6e400003-b5a3-f393-e0a9-e50e24dcca9e");
+    private static final UUID WRITE = UUID.fromString("6e400002-b5a3-f393-e0a9-e50e24dcca9e");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static GattServiceCache.Entry entry(String address) {
+        GattServiceCache.Entry entry = new GattServiceCache.Entry(address);
+        entry.notifyService = SERVICE;
+        entry.notifyCharacteristic = NOTIFY;
+        entry.writeService = SERVICE;
+        entry.writeCharacteristic = WRITE;
+        return entry;
+    }
+
+    @Test
+    public void entriesSurviveRestart() throws IOException {
+        File file = new File(folder.getRoot(), "cache");
+        GattServiceCache cache = new GattServiceCache(file);
+        assertNull(cache.get("AA"));
+        cache.put(entry("AA"));
+        GattServiceCache.Entry notifyOnly = new GattServiceCache.Entry("BB");
+        notifyOnly.notifyService = SERVICE;
+        notifyOnly.notifyCharacteristic = NOTIFY;
+        cache.put(notifyOnly);
+        cache.checkDatabaseHash("AA", new byte[]{0x01, (byte) 0xAB});
+
+        GattServiceCache reloaded = new GattServiceCache(file);
+        assertEquals(2, reloaded.size());
+        GattServiceCache.Entry aa = reloaded.get("AA");
+        assertEquals(NOTIFY, aa.notifyCharacteristic);
+        assertEquals(WRITE, aa.writeCharacteristic);
+        assertEquals("01ab", aa.databaseHash);
+        GattServiceCache.Entry bb = reloaded.get("BB");
+        assertNull(bb.writeService);
+        assertNull(bb.databaseHash);
+        assertEquals(2, reloaded.getHitCount());
+    }
+
+    @Test
+    public void changedDatabaseHashInvalidates() {
+        GattServiceCache cache = new GattServiceCache(null);
+        cache.put(entry("AA"));
+        assertTrue(cache.checkDatabaseHash("AA", new byte[]{1, 2, 3}));
+        assertTrue(cache.checkDatabaseHash("AA", new byte[]{1, 2, 3}));
+        assertTrue(cache.checkDatabaseHash("AA", null));  // read failed, keep the entry
+
+        assertFalse(cache.checkDatabaseHash("AA", new byte[]{1, 2, 4}));
+        assertNull(cache.get("AA"));
+        assertEquals(1, cache.getInvalidationCount());
+
+        // Rediscovered entry keeps the hash it was checked against
+        cache.put(entry("AA"));
+        assertTrue(cache.checkDatabaseHash("AA", new byte[]{1, 2, 4}));
+        cache.put(entry("AA"));
+        assertFalse(cache.checkDatabaseHash("AA", new byte[]{9}));
+    }
+
+    @Test
+    public void discoveryTimeSaved() {
+        GattServiceCache cache = new GattServiceCache(null);
+        assertEquals(0, cache.getEstimatedTimeSavedMs());
+        cache.recordDiscovery(false, 1_200);
+        cache.recordDiscovery(false, 800);
+        cache.recordDiscovery(true, 150);
+        cache.recordDiscovery(true, 250);
+        cache.recordDiscovery(true, 200);
+
+        assertEquals(1_000, cache.getAverageFullDiscoveryMs());
+        assertEquals(200, cache.getAverageCachedDiscoveryMs());
+        assertEquals(2_400, cache.getEstimatedTimeSavedMs());
+    }
+
+    @Test
+    public void everyNotifyCharacteristicIsKept() throws IOException {
+        UUID battery = UUID.fromString("0000180f-0000-1000-8000-00805f9b34fb");
+        UUID level = UUID.fromString("00002a19-0000-1000-8000-00805f9b34fb");
+        File file = new File(folder.getRoot(), "cache");
+        GattServiceCache cache = new GattServiceCache(file);
+        GattServiceCache.Entry sensor = new GattServiceCache.Entry("AA");
+        sensor.addNotify(SERVICE, NOTIFY);
+        sensor.addNotify(battery, level);
+        cache.put(sensor);
+
+        GattServiceCache.Entry reloaded = new GattServiceCache(file).get("AA");
+        assertEquals(2, reloaded.getNotifyCount());
+        assertEquals(NOTIFY, reloaded.notifyCharacteristic);
+        assertEquals(battery, reloaded.getNotifyService(1));
+        assertEquals(level, reloaded.getNotifyCharacteristic(1));
+        assertEquals(0, new GattServiceCache.Entry("BB").getNotifyCount());
+    }
+
+    @Test
+    public void corruptLinesAreSkipped() throws IOException {
+        File file = folder.newFile("cache");
+        Files.write(file.toPath(), ("AA\t-\t" + SERVICE + "\t" + NOTIFY + "\t-\t-\n"
+                + "BB\tbroken\n"
+                + "CC\t-\tnot-a-uuid\t-\t-\t-\n").getBytes(StandardCharsets.UTF_8));
+
+        GattServiceCache cache = new GattServiceCache(file);
+        assertEquals(1, cache.size());
+        assertEquals(NOTIFY, cache.get("AA").notifyCharacteristic);
+    }
+}
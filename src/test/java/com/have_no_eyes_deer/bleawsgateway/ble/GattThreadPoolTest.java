@@ -0,0 +1,175 @@
+package com.have_no_eyes_deer.bleawsgateway.ble;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class GattThreadPoolTest {
+
+    private static final long MS = 1_000_000L;
+
+    /** Stand-in for a HandlerThread */
+    private static class FakeLane implements GattThreadPool.Lane {
+        final String name;
+        boolean quit;
+
+        FakeLane(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public void quit() {
+            quit = true;
+        }
+    }
+
+    private final List<FakeLane> created = new ArrayList<>();
+
+    private GattThreadPool<FakeLane> pool(GattThreadPool.Mode mode, int poolSize) {
+        return new GattThreadPool<>(mode, poolSize, "gatt-link-", name -> {
+            FakeLane lane = new FakeLane(name);
+            created.add(lane);
+            return lane;
+        });
+    }
+
+    private static String address(int i) {
+        return String.format("AA:BB:CC:DD:EE:%02X", i);
+    }
+
+    @Test
+    public void perLinkLanesAreReusedByLaterLinks() {
+        GattThreadPool<FakeLane> pool = pool(GattThreadPool.Mode.PER_LINK, 0);
+        FakeLane first = pool.acquire(address(1));
+        FakeLane second = pool.acquire(address(2));
+        assertNotSame(first, second);
+        assertSame(first, pool.acquire(address(1)));    // a reconnect keeps its lane
+        assertEquals("gatt-link-0", first.name);
+        assertEquals(2, pool.getThreadCount());
+
+        pool.release(address(1));
+        assertFalse(first.quit);
+        assertNull(pool.laneOf(address(1)));
+        pool.release(address(1));                       // twice is harmless
+        // Rotating addresses take over the idle lane instead of starting threads
+        for (int i = 10; i < 20; i++) {
+            assertSame(first, pool.acquire(address(i)));
+            pool.release(address(i));
+        }
+        assertEquals(2, created.size());
+        assertEquals(2, pool.getThreadCount());
+
+        pool.shutdown();
+        assertTrue(first.quit);
+        assertTrue(second.quit);
+        assertNull(pool.acquire(address(3)));
+    }
+
+    @Test
+    public void sharedLanesAreBalancedAndKept() {
+        GattThreadPool<FakeLane> pool = pool(GattThreadPool.Mode.SHARED, 2);
+        for (int i = 0; i < 5; i++) {
+            pool.acquire(address(i));
+        }
+        assertEquals(2, created.size());
+        // 0, 2, 4 on the first lane, 1, 3 on the second
+        assertSame(pool.laneOf(address(0)), pool.laneOf(address(4)));
+        assertSame(pool.laneOf(address(1)), pool.laneOf(address(3)));
+
+        // The lane with fewer links takes the next one
+        pool.release(address(0));
+        pool.release(address(2));
+        assertSame(created.get(0), pool.acquire(address(5)));
+        assertFalse(created.get(0).quit);
+
+        pool.shutdown();
+        assertTrue(created.get(0).quit);
+        assertTrue(created.get(1).quit);
+    }
+
+    @Test
+    public void binderModeHasNoLanes() {
+        GattThreadPool<FakeLane> pool = pool(GattThreadPool.Mode.BINDER, 0);
+        assertNull(pool.acquire(address(1)));
+        pool.release(address(1));
+        assertEquals(0, pool.getThreadCount());
+        try {
+            pool(GattThreadPool.Mode.SHARED, 0);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    /**
+     * Statistics entry of a thread with the given name, as its callbacks would see it
+     */
+    private static GattThreadPool.ThreadStats statsOf(GattThreadPool<FakeLane> pool, String threadName)
+            throws InterruptedException {
+        GattThreadPool.ThreadStats[] stats = new GattThreadPool.ThreadStats[1];
+        Thread thread = new Thread(() -> stats[0] = pool.currentThreadStats(), threadName);
+        thread.start();
+        thread.join();
+        return stats[0];
+    }
+
+    @Test
+    public void cpuAndEnqueueLatencyPerThread() throws Exception {
+        GattThreadPool<FakeLane> pool = pool(GattThreadPool.Mode.SHARED, 2);
+        GattThreadPool.ThreadStats link0 = statsOf(pool, "gatt-link-0");
+        GattThreadPool.ThreadStats link1 = statsOf(pool, "gatt-link-1");
+        // gatt-link-0 spends 5 ms of CPU per second, gatt-link-1 twice as much
+        for (int i = 0; i <= 100; i++) {
+            long now = i * 10 * MS;
+            link0.record(now, 1_000 * MS + i * 50_000L, 40_000L);
+            link1.record(now, i * 100_000L, i == 100 ? 3 * MS : 80_000L);
+        }
+        List<GattThreadPool.ThreadStats> stats = pool.getThreadStats();
+        assertEquals(2, stats.size());
+        GattThreadPool.ThreadStats busiest = stats.get(0);
+        assertEquals("gatt-link-1", busiest.threadName);
+        assertEquals(10 * MS, busiest.getCpuNanos());
+        assertEquals(1.0, busiest.getCpuPercent(), 0.001);
+        assertEquals(101, busiest.getCallbackCount());
+        assertEquals(127, busiest.getLatencyMicros().percentile(50));     // 80 us in the [64, 128) bucket
+        assertEquals(3_000, busiest.getLatencyMicros().getMax());
+        assertEquals(0.5, stats.get(1).getCpuPercent(), 0.001);
+
+        // Without thread CPU time only the latency is kept
+        statsOf(pool, "Binder:1234_2").record(0, -1, 10_000L);
+        assertTrue(pool.getStatsSummary().contains("Binder:1234_2: 1 callbacks, cpu 0ms (0.0%)"));
+        pool.resetStats();
+        assertTrue(pool.getThreadStats().isEmpty());
+    }
+
+    @Test
+    public void dataPathLooksUpItsThreadOnceAndSamplesCpu() throws Exception {
+        GattThreadPool<FakeLane> pool = pool(GattThreadPool.Mode.BINDER, 0);
+        GattThreadPool.ThreadStats stats = pool.currentThreadStats();
+        assertSame(stats, pool.currentThreadStats());
+        assertEquals(Thread.currentThread().getName(), stats.threadName);
+        int samples = 0;
+        for (int i = 0; i < 640; i++) {
+            boolean sample = stats.wantsCpuSample();
+            if (sample) samples++;
+            stats.record(i * MS, sample ? i * 100_000L : -1, 10_000L);
+        }
+        assertEquals(10, samples);
+        assertEquals(640, stats.getCallbackCount());
+        assertEquals(576 * 100_000L, stats.getCpuNanos());         // first to last sample
+        assertEquals(10.0, stats.getCpuPercent(), 0.001);
+
+        // Other threads get their own entry; a reset keeps the cached one in use
+        GattThreadPool.ThreadStats[] other = new GattThreadPool.ThreadStats[1];
+        Thread thread = new Thread(() -> other[0] = pool.currentThreadStats(), "gatt-test-thread");
+        thread.start();
+        thread.join();
+        assertNotSame(stats, other[0]);
+        pool.resetStats();
+        stats.record(0, -1, 10_000L);
+        assertEquals(1, pool.getThreadStats().size());
+        assertSame(stats, pool.getThreadStats().get(0));
+    }
+}
@@ -0,0 +1,245 @@
+package com.have_no_eyes_deer.bleawsgateway.ble;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class L2capChannelTest {
+
+    /** Both ends of a socket: the peripheral writes to toGateway and reads fromGateway */
+    private final PipedOutputStream toGateway = new PipedOutputStream();
+    private final PipedInputStream fromGateway = new PipedInputStream(256);
+    private final BlockingQueue<String> events = new LinkedBlockingQueue<>();
+    private final List<String> frames = new ArrayList<>();
+    private L2capChannel channel;
+
+    private L2capChannel.Endpoint endpoint(int gatewayBuffer) throws IOException {
+        PipedInputStream in = new PipedInputStream(toGateway, gatewayBuffer);
+        PipedOutputStream out = new PipedOutputStream(fromGateway);
+        // Closing the socket ends the stream on both sides
+        return new L2capChannel.Endpoint(in, out, 247, () -> {
+            toGateway.close();
+            out.close();
+        });
+    }
+
+    private L2capChannel open(int creditWindow, L2capChannel.Listener listener) {
+        channel = new L2capChannel("AA:BB:CC:DD:EE:FF", () -> endpoint(4096), 64, creditWindow, listener,
+                System::nanoTime);
+        channel.open();
+        return channel;
+    }
+
+    private final L2capChannel.Listener recorder = new L2capChannel.Listener() {
+        @Override
+        public void onOpened(String deviceAddress, int maxReceivePacketSize) {
+            events.add("open " + maxReceivePacketSize);
+        }
+
+        @Override
+        public void onFrame(String deviceAddress, byte[] buffer, int offset, int length, long timestampNanos) {
+            synchronized (frames) {
+                frames.add(new String(buffer, offset, length));
+            }
+            events.add("frame");
+        }
+
+        @Override
+        public void onClosed(String deviceAddress, String error) {
+            events.add("closed " + error);
+        }
+    };
+
+    private static byte[] frame(String payload) {
+        byte[] frame = new byte[payload.length() + 2];
+        frame[0] = (byte) payload.length();
+        frame[1] = (byte) (payload.length() >> 8);
+        System.arraycopy(payload.getBytes(), 0, frame, 2, payload.length());
+        return frame;
+    }
+
+    private String nextEvent() throws InterruptedException {
+        String event = events.poll(5, TimeUnit.SECONDS);
+        assertNotNull("timed out", event);
+        return event;
+    }
+
+    private int readCreditGrant() throws IOException {
+        assertEquals(L2capChannel.CREDIT_GRANT, fromGateway.read());
+        return fromGateway.read() | (fromGateway.read() << 8);
+    }
+
+    @After
+    public void tearDown() {
+        if (channel != null) {
+            channel.close();
+        }
+    }
+
+    @Test
+    public void framesAreCutFromTheStreamAndCreditsToppedUp() throws Exception {
+        open(4, recorder);
+        assertEquals("open 247", nextEvent());
+        assertEquals(4, readCreditGrant());
+
+        // One SDU with a frame and a half, then the rest
+        byte[] first = frame("T:21.5");
+        byte[] second = frame("T:21.6,H:40.0");
+        byte[] sdu = new byte[first.length + 5];
+        System.arraycopy(first, 0, sdu, 0, first.length);
+        System.arraycopy(second, 0, sdu, first.length, 5);
+        toGateway.write(sdu);
+        toGateway.write(second, 5, second.length - 5);
+        toGateway.flush();
+        assertEquals("frame", nextEvent());
+        assertEquals("frame", nextEvent());
+        // Half the window delivered: two more credits
+        assertEquals(2, readCreditGrant());
+        assertEquals(List.of("T:21.5", "T:21.6,H:40.0"), frames);
+        assertEquals(6, channel.getCreditsGranted());
+        assertEquals(2, channel.getFramesReceived());
+        assertEquals(first.length + second.length, channel.getBytesReceived());
+        assertEquals("l2cap-psm-0080", L2capChannel.sourceKey(0x80));
+    }
+
+    @Test
+    public void oversizedFramesAreDropped() throws Exception {
+        open(0, recorder);
+        assertEquals("open 247", nextEvent());
+        // The rest of the SDU is skipped, the next one starts a new frame
+        toGateway.write(frame(new String(new char[100]).replace('\0', 'x')));
+        toGateway.flush();
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (channel.getMalformedCount() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        toGateway.write(frame("ok"));
+        toGateway.flush();
+        assertEquals("frame", nextEvent());
+        assertEquals(List.of("ok"), frames);
+        assertEquals(1, channel.getMalformedCount());
+        assertEquals(0, fromGateway.available());     // no frame credits without a window
+    }
+
+    @Test
+    public void framesKeepTheReadTimestampInNanos() throws Exception {
+        BlockingQueue<Long> stamps = new LinkedBlockingQueue<>();
+        L2capChannel.Listener stamper = new L2capChannel.Listener() {
+            @Override
+            public void onOpened(String deviceAddress, int maxReceivePacketSize) {
+                events.add("open");
+            }
+
+            @Override
+            public void onFrame(String deviceAddress, byte[] buffer, int offset, int length, long timestampNanos) {
+                stamps.add(timestampNanos);
+            }
+
+            @Override
+            public void onClosed(String deviceAddress, String error) {
+            }
+        };
+        channel = new L2capChannel("AA:BB:CC:DD:EE:FF", () -> endpoint(4096), 64, 0, stamper,
+                () -> 5_001_234_567L);
+        channel.open();
+        assertEquals("open", nextEvent());
+        toGateway.write(frame("T:21.5"));
+        toGateway.flush();
+        assertEquals(Long.valueOf(5_001_234_567L), stamps.poll(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void blockingListenerHoldsBackTheSender() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        L2capChannel.Listener slow = new L2capChannel.Listener() {
+            @Override
+            public void onOpened(String deviceAddress, int maxReceivePacketSize) {
+                events.add("open");
+            }
+
+            @Override
+            public void onFrame(String deviceAddress, byte[] buffer, int offset, int length, long timestampNanos) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                events.add("frame");
+            }
+
+            @Override
+            public void onClosed(String deviceAddress, String error) {
+                events.add("closed " + error);
+            }
+        };
+        channel = new L2capChannel("AA:BB:CC:DD:EE:FF", () -> endpoint(64), 64, 0, slow, System::nanoTime);
+        channel.open();
+        assertEquals("open", nextEvent());
+
+        // The reader is stuck in the first frame, so the 64-byte socket buffer fills up
+        Thread sender = new Thread(() -> {
+            try {
+                for (int i = 0; i < 20; i++) {
+                    toGateway.write(frame("reading-" + i));
+                }
+                toGateway.flush();
+            } catch (IOException ignored) {
+            }
+        });
+        sender.start();
+        sender.join(500);
+        assertTrue(sender.isAlive());
+        assertTrue(channel.getBytesReceived() < 64 * 2);
+
+        release.countDown();
+        for (int i = 0; i < 20; i++) {
+            assertEquals("frame", nextEvent());
+        }
+        sender.join(5_000);
+        assertFalse(sender.isAlive());
+        assertEquals(20, channel.getFramesReceived());
+    }
+
+    @Test
+    public void closeAndFailuresAreReported() throws Exception {
+        open(0, recorder);
+        assertEquals("open 247", nextEvent());
+        assertTrue(channel.isOpen());
+        assertTrue(channel.write(new byte[]{0x01}));
+        assertEquals(0x01, fromGateway.read());
+        channel.close();
+        assertEquals("closed null", nextEvent());
+        assertFalse(channel.isOpen());
+        assertFalse(channel.write(new byte[]{0x01}));
+
+        channel = new L2capChannel("AA:BB:CC:DD:EE:FF", () -> {
+            throw new IOException("read failed, socket might closed or timeout");
+        }, 64, 0, recorder, System::nanoTime);
+        channel.open();
+        assertEquals("closed connect failed: read failed, socket might closed or timeout", nextEvent());
+        try {
+            new L2capChannel("AA:BB:CC:DD:EE:FF", null, 64, 0x10000, recorder, System::nanoTime);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void peerCloseIsAnError() throws Exception {
+        open(0, recorder);
+        assertEquals("open 247", nextEvent());
+        toGateway.close();
+        assertEquals("closed closed by peer", nextEvent());
+    }
+}
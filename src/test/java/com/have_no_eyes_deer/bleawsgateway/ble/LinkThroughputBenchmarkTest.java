@@ -0,0 +1,135 @@
+package com.have_no_eyes_deer.bleawsgateway.ble;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class LinkThroughputBenchmarkTest {
+
+    /**
+     * Peripheral that always has data to notify, with a simple link layer airtime model:
+     * each connection event fits as many full-MTU notifications as its airtime allows, capped
+     * by the controller's packets per event
+     */
+    private static class FakePeripheral implements LinkThroughputBenchmark.Link {
+        final int maxMtu;
+        final boolean supportsTwoMegPhy;
+        final int maxPacketsPerEvent = 6;
+        final double eventShare = 0.7;      // part of the interval the central gives this link
+
+        final long[] clock = {0};
+        int mtu = LinkProfile.DEFAULT_MTU;
+        double intervalMs = 48.75;          // stack default, balanced
+        int phyMbps = 1;
+        long bytes;
+        private double nextEventMs;
+
+        FakePeripheral(int maxMtu, boolean supportsTwoMegPhy) {
+            this.maxMtu = maxMtu;
+            this.supportsTwoMegPhy = supportsTwoMegPhy;
+        }
+
+        @Override
+        public void apply(LinkProfile profile) {
+            if (profile.targetMtu > mtu) {
+                mtu = Math.min(profile.targetMtu, maxMtu);
+            }
+            if (profile.connectionPriority == LinkProfile.ConnectionPriority.HIGH) intervalMs = 11.25;
+            else if (profile.connectionPriority == LinkProfile.ConnectionPriority.BALANCED) intervalMs = 48.75;
+            else if (profile.connectionPriority == LinkProfile.ConnectionPriority.LOW_POWER) intervalMs = 112.5;
+            phyMbps = profile.preferTwoMegPhy && supportsTwoMegPhy ? 2 : 1;
+        }
+
+        @Override
+        public long getBytesReceived() {
+            return bytes;
+        }
+
+        @Override
+        public int getMtu() {
+            return mtu;
+        }
+
+        void advanceTo(long timeMs) {
+            int payload = LinkProfile.maxPayload(mtu);
+            // ATT + L2CAP + LL overhead, inter-frame spaces and the empty ack
+            double packetUs = (payload + 17) * 8.0 / phyMbps + 150 + 80.0 / phyMbps + 150;
+            int packets = (int) Math.min(maxPacketsPerEvent, Math.floor(intervalMs * 1000 * eventShare / packetUs));
+            while (nextEventMs <= timeMs) {
+                bytes += (long) packets * payload;
+                nextEventMs += intervalMs;
+            }
+            clock[0] = timeMs;
+        }
+    }
+
+    private static List<LinkThroughputBenchmark.Result> run(FakePeripheral peripheral, List<LinkProfile> profiles) {
+        LinkThroughputBenchmark benchmark = new LinkThroughputBenchmark(peripheral, profiles, 1_000, 10_000,
+                () -> peripheral.clock[0]);
+        benchmark.start();
+        long time = 0;
+        do {
+            time += 250;
+            peripheral.advanceTo(time);
+        } while (benchmark.tick());
+        return benchmark.getResults();
+    }
+
+    @Test
+    public void profilesOrderedByThroughput() {
+        FakePeripheral peripheral = new FakePeripheral(247, true);
+        List<LinkThroughputBenchmark.Result> results = run(peripheral, List.of(LinkProfile.DEFAULT,
+                LinkProfile.LOW_POWER, LinkProfile.BALANCED, LinkProfile.THROUGHPUT));
+        assertEquals(4, results.size());
+        assertEquals(23, results.get(0).mtu);
+        assertEquals(247, results.get(3).mtu);      // the peripheral settled below the 517 asked for
+        for (int i = 1; i < results.size(); i++) {
+            assertTrue(results.get(i).bytesPerSecond > results.get(i - 1).bytesPerSecond);
+        }
+        // 20 byte notifications are the bottleneck the profiles remove
+        assertTrue(results.get(3).bytesPerSecond > 20 * results.get(0).bytesPerSecond);
+        for (LinkThroughputBenchmark.Result result : results) {
+            assertEquals(10_000, result.durationMs);
+        }
+    }
+
+    @Test
+    public void twoMegPhyOnlyHelpsWhenSupported() {
+        double withPhy = run(new FakePeripheral(247, true), List.of(LinkProfile.THROUGHPUT)).get(0).bytesPerSecond;
+        double without = run(new FakePeripheral(247, false), List.of(LinkProfile.THROUGHPUT)).get(0).bytesPerSecond;
+        assertTrue(withPhy > without);
+    }
+
+    @Test
+    public void settleTimeIsNotMeasured() {
+        FakePeripheral peripheral = new FakePeripheral(247, true);
+        peripheral.advanceTo(0);
+        LinkThroughputBenchmark benchmark = new LinkThroughputBenchmark(peripheral,
+                List.of(LinkProfile.BALANCED), 5_000, 1_000, () -> peripheral.clock[0]);
+        benchmark.start();
+        peripheral.advanceTo(4_000);
+        assertTrue(benchmark.tick());
+        peripheral.advanceTo(5_000);
+        assertTrue(benchmark.tick());                // measuring starts
+        long before = peripheral.getBytesReceived();
+        peripheral.advanceTo(6_000);
+        assertFalse(benchmark.tick());
+        assertEquals(peripheral.getBytesReceived() - before, benchmark.getResults().get(0).bytes);
+        assertTrue(benchmark.isFinished());
+    }
+
+    @Test
+    public void profileNamesAndLimits() {
+        assertSame(LinkProfile.THROUGHPUT, LinkProfile.forName("throughput"));
+        assertSame(LinkProfile.LOW_POWER, LinkProfile.forName("low-power"));
+        assertSame(LinkProfile.DEFAULT, LinkProfile.forName("unknown"));
+        assertEquals(244, LinkProfile.maxPayload(247));
+        try {
+            new LinkProfile("bad", 600, null, false);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+}
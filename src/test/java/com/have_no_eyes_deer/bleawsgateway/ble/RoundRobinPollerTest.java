@@ -0,0 +1,154 @@
+package com.have_no_eyes_deer.bleawsgateway.ble;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class RoundRobinPollerTest {
+
+    private static final long STEP_MS = 100;
+
+    /**
+     * Fake radio: connects take connectMs, subscribed devices notify once a second
+     */
+    private static class FakeLink implements RoundRobinPoller.Link {
+        final long[] clock = {0};
+        final Map<String, Long> connecting = new HashMap<>();   // address → ready time
+        final Map<String, Long> subscribed = new HashMap<>();   // address → next notification
+        final Set<String> unreachable = new HashSet<>();
+        final List<String> connects = new ArrayList<>();
+        long connectMs = 500;
+        int maxLinked = 0;
+        RoundRobinPoller poller;
+
+        @Override
+        public void connect(String deviceAddress, RoundRobinPoller.Mode mode) {
+            connects.add(deviceAddress);
+            connecting.put(deviceAddress, clock[0] + connectMs);
+            maxLinked = Math.max(maxLinked, connecting.size() + subscribed.size());
+        }
+
+        @Override
+        public void disconnect(String deviceAddress) {
+            connecting.remove(deviceAddress);
+            subscribed.remove(deviceAddress);
+        }
+
+        void run(long untilMs) {
+            while (clock[0] < untilMs) {
+                clock[0] += STEP_MS;
+                for (String address : new ArrayList<>(connecting.keySet())) {
+                    if (connecting.get(address) > clock[0] || unreachable.contains(address)) continue;
+                    connecting.remove(address);
+                    RoundRobinPoller.Mode mode = poller.getVisitMode(address);
+                    if (mode == null) continue;
+                    subscribed.put(address, clock[0] + (mode == RoundRobinPoller.Mode.READ ? STEP_MS : 1_000));
+                    poller.onReady(address);
+                }
+                for (String address : new ArrayList<>(subscribed.keySet())) {
+                    Long next = subscribed.get(address);
+                    if (next == null || next > clock[0]) continue;
+                    subscribed.put(address, next + 1_000);
+                    poller.onSample(address);
+                }
+                poller.tick();
+            }
+        }
+    }
+
+    private static List<RoundRobinPoller.RosterEntry> roster(int devices, double target, long windowMs,
+                                                             RoundRobinPoller.Mode mode) {
+        List<RoundRobinPoller.RosterEntry> roster = new ArrayList<>();
+        for (int i = 0; i < devices; i++) {
+            roster.add(new RoundRobinPoller.RosterEntry(String.format("DEV%02d", i), target, windowMs, mode));
+        }
+        return roster;
+    }
+
+    private static RoundRobinPoller poller(FakeLink link, List<RoundRobinPoller.RosterEntry> roster, int lanes) {
+        RoundRobinPoller poller = new RoundRobinPoller(roster, lanes, link, () -> link.clock[0]);
+        link.poller = poller;
+        return poller;
+    }
+
+    @Test
+    public void thirtySensorsOnFiveLanesMeetTheirTarget() {
+        FakeLink link = new FakeLink();
+        RoundRobinPoller poller = poller(link, roster(30, 6, 5_000, RoundRobinPoller.Mode.NOTIFY), 5);
+        poller.start();
+        link.run(10 * 60_000);
+
+        assertTrue(link.maxLinked <= 5);
+        for (RoundRobinPoller.DeviceReport row : poller.getReport()) {
+            assertEquals(row.toString(), 6.0, row.achievedSamplesPerMinute, 0.5);
+            assertEquals(0, row.failedVisits);
+            assertEquals(500, row.averageConnectMs);
+        }
+    }
+
+    @Test
+    public void devicesAheadOfTargetAreLeftAlone() {
+        FakeLink link = new FakeLink();
+        // Capacity of one lane far exceeds what two slow sensors need
+        RoundRobinPoller poller = poller(link, roster(2, 2, 5_000, RoundRobinPoller.Mode.NOTIFY), 1);
+        poller.start();
+        link.run(5 * 60_000);
+
+        for (RoundRobinPoller.DeviceReport row : poller.getReport()) {
+            assertEquals(row.toString(), 2.0, row.achievedSamplesPerMinute, 1.0);
+        }
+        assertTrue("duty cycle, not back-to-back visits: " + link.connects.size(), link.connects.size() < 20);
+    }
+
+    @Test
+    public void readModeEndsVisitAfterOneSample() {
+        FakeLink link = new FakeLink();
+        RoundRobinPoller poller = poller(link, roster(10, 4, 60_000, RoundRobinPoller.Mode.READ), 2);
+        poller.start();
+        link.run(3 * 60_000);
+
+        for (RoundRobinPoller.DeviceReport row : poller.getReport()) {
+            assertEquals(row.samples, row.visits, 1);   // the last visit may still be open
+            assertEquals(row.toString(), 4.0, row.achievedSamplesPerMinute, 0.7);
+        }
+    }
+
+    @Test
+    public void unreachableDeviceTimesOutAndDoesNotStarveOthers() {
+        FakeLink link = new FakeLink();
+        link.unreachable.add("DEV00");
+        RoundRobinPoller poller = poller(link, roster(4, 6, 5_000, RoundRobinPoller.Mode.NOTIFY), 1);
+        poller.setConnectTimeoutMs(2_000);
+        poller.start();
+        link.run(5 * 60_000);
+
+        List<RoundRobinPoller.DeviceReport> report = poller.getReport();
+        assertEquals(0, report.get(0).samples);
+        assertTrue(report.get(0).failedVisits > 0);
+        assertEquals(report.get(0).visits, report.get(0).failedVisits);
+        for (int i = 1; i < report.size(); i++) {
+            assertEquals(report.get(i).toString(), 6.0, report.get(i).achievedSamplesPerMinute, 1.0);
+        }
+    }
+
+    @Test
+    public void stopDisconnectsOpenVisits() {
+        FakeLink link = new FakeLink();
+        RoundRobinPoller poller = poller(link, roster(6, 6, 5_000, RoundRobinPoller.Mode.NOTIFY), 3);
+        poller.start();
+        link.run(2_000);
+        assertEquals(3, link.subscribed.size());
+
+        poller.stop();
+        assertTrue(link.subscribed.isEmpty());
+        assertFalse(poller.isRunning());
+        assertNull(poller.getVisitMode("DEV00"));
+    }
+}
@@ -0,0 +1,136 @@
+package com.have_no_eyes_deer.bleawsgateway.ble;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class ScanAggregatorTest {
+
+    private static final long MS = 1_000_000L;
+
+    private static String address(int i) {
+        return String.format("C0:%02X:%02X:00:00:%02X", (i >> 8) & 0xFF, i & 0xFF, i % 7);
+    }
+
+    @Test
+    public void duplicatesFoldIntoOneEntryWithSmoothedRssi() {
+        ScanAggregator aggregator = new ScanAggregator(0.25, 3, 30_000);
+        aggregator.onAdvertisement(null, "AA:BB:CC:DD:EE:FF", null, -60, 0);
+        ScanAggregator.Update update = aggregator.drain(0);
+        assertEquals(1, update.added.size());
+        assertEquals(-60, update.added.get(0).getRssi());
+
+        // One weak packet moves the smoothed value by a quarter of the jump only
+        aggregator.onAdvertisement(null, "AA:BB:CC:DD:EE:FF", "Nano", -90, 100 * MS);
+        ScanAggregator.Entry entry = aggregator.get("aa:bb:cc:dd:ee:ff");
+        assertEquals(-67.5, entry.smoothedRssi, 1e-9);
+        assertEquals(-90, entry.lastRssi);
+        assertEquals(1, aggregator.size());
+        assertEquals(2, entry.advertisementCount);
+
+        update = aggregator.drain(100 * MS);
+        assertEquals(0, update.added.size());
+        assertEquals(1, update.changed.size());
+        assertEquals("Nano", update.changed.get(0).name);
+    }
+
+    @Test
+    public void smallRssiChangesDoNotProduceDiffs() {
+        ScanAggregator aggregator = new ScanAggregator(0.25, 3, 30_000);
+        aggregator.onAdvertisement(null, "AA:BB:CC:DD:EE:01", "Nano", -60, 0);
+        aggregator.drain(0);
+        for (int i = 1; i <= 20; i++) {
+            aggregator.onAdvertisement(null, "AA:BB:CC:DD:EE:01", "Nano", i % 2 == 0 ? -58 : -62, i * 100 * MS);
+        }
+        assertTrue(aggregator.drain(2_000 * MS).isEmpty());
+
+        for (int i = 21; i <= 30; i++) {
+            aggregator.onAdvertisement(null, "AA:BB:CC:DD:EE:01", "Nano", -75, i * 100 * MS);
+        }
+        ScanAggregator.Update update = aggregator.drain(3_000 * MS);
+        assertEquals(1, update.changed.size());
+        assertTrue(update.changed.get(0).getRssi() <= -73);
+    }
+
+    @Test
+    public void advertisingIntervalFromTimestamps() {
+        ScanAggregator aggregator = new ScanAggregator();
+        long time = 0;
+        for (int i = 0; i < 50; i++) {
+            aggregator.onAdvertisement(null, "AA:BB:CC:DD:EE:02", null, -70, time);
+            time += (i % 2 == 0 ? 95 : 105) * MS;       // 100 ms with jitter
+        }
+        // A gap of missed packets is not an interval sample
+        aggregator.onAdvertisement(null, "AA:BB:CC:DD:EE:02", null, -70, time + 20_000 * MS);
+        assertEquals(100, aggregator.get("AA:BB:CC:DD:EE:02").advertisingIntervalMs, 5);
+    }
+
+    @Test
+    public void silentDevicesExpire() {
+        ScanAggregator aggregator = new ScanAggregator(0.25, 3, 1_000);
+        for (int i = 0; i < 300; i++) {
+            aggregator.onAdvertisement(null, address(i), null, -70, 0);
+        }
+        assertEquals(300, aggregator.drain(0).added.size());
+        // Every third device keeps advertising
+        for (int i = 0; i < 300; i += 3) {
+            aggregator.onAdvertisement(null, address(i), null, -70, 1_500 * MS);
+        }
+        ScanAggregator.Update update = aggregator.drain(1_600 * MS);
+        assertEquals(200, update.removed.size());
+        assertEquals(100, update.deviceCount);
+        for (int i = 0; i < 300; i++) {
+            assertEquals(i % 3 == 0, aggregator.get(address(i)) != null);
+        }
+    }
+
+    @Test
+    public void crowdedScanIsThrottledToTheDrainRate() {
+        // 400 tags advertising every 100-1000 ms for 10 s, drained 4 times per second
+        ScanAggregator aggregator = new ScanAggregator();
+        Random random = new Random(42);
+        int devices = 400;
+        long[] next = new long[devices];
+        int[] baseRssi = new int[devices];
+        for (int i = 0; i < devices; i++) {
+            next[i] = random.nextInt(1_000) * MS;
+            baseRssi[i] = -50 - random.nextInt(45);
+        }
+        long results = 0;
+        int updates = 0;
+        Set<String> seen = new HashSet<>();
+        for (long now = 250 * MS; now <= 10_000 * MS; now += 250 * MS) {
+            for (int i = 0; i < devices; i++) {
+                while (next[i] <= now) {
+                    aggregator.onAdvertisement(null, address(i), null, baseRssi[i] + random.nextInt(9) - 4, next[i]);
+                    next[i] += (100 + (i % 10) * 100) * MS;
+                    results++;
+                }
+            }
+            ScanAggregator.Update update = aggregator.drain(now);
+            if (!update.isEmpty()) updates++;
+            for (ScanAggregator.Entry entry : update.added) {
+                assertTrue(seen.add(entry.address));
+            }
+        }
+        assertEquals(devices, seen.size());
+        assertEquals(devices, aggregator.size());
+        assertTrue(updates <= 40);
+        // Thousands of scan results collapse into a few dozen list updates
+        assertTrue(results + " results for " + updates + " updates", results >= 250L * updates);
+        assertEquals(results, aggregator.getAdvertisementCount());
+    }
+
+    @Test
+    public void malformedAddressesAreIgnored() {
+        ScanAggregator aggregator = new ScanAggregator();
+        assertNull(aggregator.onAdvertisement(null, "not-an-address", null, -50, 0));
+        assertNull(aggregator.onAdvertisement(null, "AA-BB-CC-DD-EE-FF", null, -50, 0));
+        assertEquals(2, aggregator.getIgnoredCount());
+        assertEquals(0xAABBCCDDEEFFL, ScanAggregator.parseAddress("AA:BB:CC:DD:EE:FF"));
+    }
+}
@@ -0,0 +1,184 @@
+package com.have_no_eyes_deer.bleawsgateway.ble;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+public class ScanModeBenchmarkTest {
+
+    private static final UUID SENSOR_SERVICE = UUID.fromString("0000ffe0-0000-1000-8000-00805f9b34fb");
+
+    /**
+     * Crowded room: 200 devices advertising every 200 ms, every fifth one a sensor of ours.
+     * The controller hears the share of advertisements its duty cycle allows, drops what the
+     * hardware filters reject and either wakes the host per result or once per report delay.
+     * Each wakeup costs the host 0.2 ms of CPU, each result another 0.02 ms.
+     */
+    private static class FakeController implements ScanModeBenchmark.Scanner {
+        final long[] clock = {0};
+        ScanProfile profile;
+        long callbacks;
+        long results;
+        double cpuMs;
+        private double heard;           // fractional advertisements not yet reported
+        private long queued;
+        private long lastBatchMs;
+
+        @Override
+        public void apply(ScanProfile profile) {
+            this.profile = profile;
+            queued = 0;
+            lastBatchMs = clock[0];
+        }
+
+        @Override
+        public long getCallbackCount() {
+            return callbacks;
+        }
+
+        @Override
+        public long getResultCount() {
+            return results;
+        }
+
+        @Override
+        public long getCpuTimeMs() {
+            return (long) cpuMs;
+        }
+
+        void advanceTo(long timeMs) {
+            double duty = profile.scanMode == ScanProfile.ScanMode.LOW_LATENCY ? 1.0
+                    : profile.scanMode == ScanProfile.ScanMode.BALANCED ? 0.25 : 0.1;
+            int devices = profile.getHardwareFilters().isEmpty() ? 200 : 40;
+            heard += devices * (timeMs - clock[0]) / 200.0 * duty;
+            long count = (long) heard;
+            heard -= count;
+            if (profile.reportDelayMs == 0) {
+                callbacks += count;
+                results += count;
+                cpuMs += count * (0.2 + 0.02);
+            } else {
+                queued += count;
+                if (timeMs - lastBatchMs >= profile.reportDelayMs) {
+                    callbacks++;
+                    results += queued;
+                    cpuMs += 0.2 + queued * 0.02;
+                    queued = 0;
+                    lastBatchMs = timeMs;
+                }
+            }
+            clock[0] = timeMs;
+        }
+    }
+
+    private static List<ScanModeBenchmark.Result> run(List<ScanProfile> profiles) {
+        FakeController controller = new FakeController();
+        ScanModeBenchmark benchmark = new ScanModeBenchmark(controller, profiles, 2_000, 20_000,
+                () -> controller.clock[0]);
+        benchmark.start();
+        long time = 0;
+        do {
+            time += 250;
+            controller.advanceTo(time);
+        } while (benchmark.tick());
+        return benchmark.getResults();
+    }
+
+    @Test
+    public void batchingAndFilteringCutWakeups() {
+        List<ScanProfile.Filter> sensors = List.of(ScanProfile.Filter.service(SENSOR_SERVICE));
+        List<ScanModeBenchmark.Result> results = run(List.of(ScanProfile.LOW_LATENCY,
+                ScanProfile.LOW_LATENCY.withFilters(sensors), ScanProfile.DEFAULT, ScanProfile.LOW_POWER,
+                ScanProfile.LOW_POWER.withFilters(sensors)));
+
+        assertEquals(5, results.size());
+        ScanModeBenchmark.Result unfiltered = results.get(0);
+        ScanModeBenchmark.Result filtered = results.get(1);
+        ScanModeBenchmark.Result batched = results.get(3);
+        assertEquals(1_000, unfiltered.wakeupsPerSecond, 1);
+        assertEquals(5 * filtered.callbacks, unfiltered.callbacks, 5);
+        assertTrue(results.get(2).wakeupsPerSecond < unfiltered.wakeupsPerSecond);
+        // One wakeup per report delay, however many devices are in range
+        assertEquals(4, batched.callbacks);
+        assertTrue(batched.results > 1_000);
+        assertTrue(batched.cpuPercent * 10 < unfiltered.cpuPercent);
+        assertTrue(results.get(4).results < batched.results);
+        assertEquals(20_000, unfiltered.durationMs);
+    }
+
+    @Test
+    public void settleTimeIsNotMeasured() {
+        FakeController controller = new FakeController();
+        ScanModeBenchmark benchmark = new ScanModeBenchmark(controller, List.of(ScanProfile.LOW_LATENCY),
+                5_000, 1_000, () -> controller.clock[0]);
+        benchmark.start();
+        controller.advanceTo(5_000);
+        assertTrue(benchmark.tick());               // measuring starts
+        long before = controller.getCallbackCount();
+        controller.advanceTo(6_000);
+        assertFalse(benchmark.tick());
+        assertEquals(controller.getCallbackCount() - before, benchmark.getResults().get(0).callbacks);
+        assertTrue(benchmark.isFinished());
+    }
+
+    @Test
+    public void filtersMatchServiceNamePrefixAndManufacturerData() {
+        ScanProfile.Filter service = ScanProfile.Filter.service(SENSOR_SERVICE);
+        ScanProfile.Filter prefix = ScanProfile.Filter.namePrefix("Nano");
+        // Apple iBeacon prefix 0x02 0x15, second byte masked out
+        ScanProfile.Filter beacon = ScanProfile.Filter.manufacturer(0x004C, new byte[]{0x02, 0x15},
+                new byte[]{(byte) 0xFF, 0x00});
+
+        assertTrue(service.matches(null, List.of(SENSOR_SERVICE), null));
+        assertFalse(service.matches("Nano", Collections.emptyList(), null));
+        assertFalse(service.matches("Nano", null, null));
+        assertTrue(prefix.matches("Nano33 BLE", null, null));
+        assertFalse(prefix.matches("Arduino", null, null));
+        assertFalse(prefix.matches(null, null, null));
+        assertTrue(beacon.matches(null, null, id -> id == 0x004C ? new byte[]{0x02, 0x77, 0x01} : null));
+        assertFalse(beacon.matches(null, null, id -> id == 0x004C ? new byte[]{0x03, 0x15} : null));
+        assertFalse(beacon.matches(null, null, id -> id == 0x0059 ? new byte[]{0x02, 0x15} : null));
+        assertTrue(ScanProfile.Filter.manufacturer(0x0059, null, null)
+                .matches(null, null, id -> new byte[0]));
+    }
+
+    @Test
+    public void namePrefixTurnsHardwareFilteringOff() {
+        ScanProfile.Filter service = ScanProfile.Filter.service(SENSOR_SERVICE);
+        ScanProfile hardware = ScanProfile.LOW_POWER.withFilters(List.of(service));
+        assertEquals(1, hardware.getHardwareFilters().size());
+        assertFalse(hardware.needsSoftwareFilter());
+        assertEquals(5_000, hardware.reportDelayMs);
+
+        ScanProfile mixed = hardware.withFilters(List.of(service, ScanProfile.Filter.namePrefix("Nano")));
+        assertTrue(mixed.getHardwareFilters().isEmpty());
+        assertTrue(mixed.needsSoftwareFilter());
+        // Filters are OR'd: either the service or the name will do
+        assertTrue(mixed.accepts("Other", List.of(SENSOR_SERVICE), null));
+        assertTrue(mixed.accepts("Nano33", null, null));
+        assertFalse(mixed.accepts("Other", null, null));
+        assertTrue(ScanProfile.DEFAULT.accepts(null, null, null));
+        assertFalse(ScanProfile.DEFAULT.needsSoftwareFilter());
+    }
+
+    @Test
+    public void profileNamesAndLimits() {
+        assertSame(ScanProfile.LOW_LATENCY, ScanProfile.forName("low-latency"));
+        assertSame(ScanProfile.LOW_POWER, ScanProfile.forName("low-power"));
+        assertSame(ScanProfile.DEFAULT, ScanProfile.forName("unknown"));
+        try {
+            new ScanProfile("bad", ScanProfile.ScanMode.BALANCED, -1, null);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            ScanProfile.Filter.manufacturer(0x004C, new byte[]{0x02}, new byte[]{1, 2});
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+}
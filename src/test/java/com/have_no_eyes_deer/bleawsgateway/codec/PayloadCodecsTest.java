@@ -0,0 +1,239 @@
+package com.have_no_eyes_deer.bleawsgateway.codec;
+
+import com.have_no_eyes_deer.bleawsgateway.model.BleDataModel;
+import com.have_no_eyes_deer.bleawsgateway.mqtt.MqttDataSender;
+import com.have_no_eyes_deer.bleawsgateway.pipeline.TelemetryFormatter;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class PayloadCodecsTest {
+
+    private static final long TIMESTAMP = 1700000000123L;
+
+    private static BleDataModel reading(String value) {
+        BleDataModel data = new BleDataModel("AA:BB:CC:DD:EE:0F", "NanoBowen", "svc", "chr",
+                value.getBytes(StandardCharsets.UTF_8), value);
+        data.setTimestamp(new Date(TIMESTAMP));
+        return data;
+    }
+
+    @Test
+    public void jsonCodecMatchesFormatter() {
+        MqttDataSender.PayloadCodec codec = PayloadCodecs.create("JSON");
+        BleDataModel data = reading("T1:23.5C");
+
+        assertFalse(codec.isBinary());
+        assertEquals("", codec.getTopicSuffix());
+        assertEquals(new TelemetryFormatter().toJson(data),
+                new String(codec.encode(data), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void cborEncodesTypedMap() {
+        Map<String, Object> map = new MiniCbor(PayloadCodecs.create(PayloadCodecs.CBOR)
+                .encode(reading("T:21.5,H:40.2,B:87"))).readMap();
+
+        assertEquals("AA:BB:CC:DD:EE:0F", map.get("device"));
+        assertEquals("NanoBowen", map.get("deviceName"));
+        assertEquals(TIMESTAMP, map.get("timestamp"));
+        assertEquals("sensor_data", map.get("type"));
+        assertEquals(21.5f, map.get("temperature"));
+        assertEquals(40.2f, map.get("humidity"));
+        assertEquals(87L, map.get("battery"));
+        assertFalse(map.containsKey("data"));
+    }
+
+    @Test
+    public void cborHeadUsesShortestArgument() {
+        assertArrayEquals(new byte[]{0x17}, head(0, 23));
+        assertArrayEquals(new byte[]{0x18, 0x18}, head(0, 24));
+        assertArrayEquals(new byte[]{0x19, 0x01, 0x00}, head(0, 256));
+        assertArrayEquals(new byte[]{0x1A, 0x00, 0x01, 0x00, 0x00}, head(0, 65536));
+        assertEquals(9, head(0, TIMESTAMP).length);
+        assertArrayEquals(new byte[]{0x20}, head(1, 0)); // -1
+    }
+
+    @Test
+    public void messagePackEncodesTypedMap() {
+        Map<String, Object> map = new MiniMessagePack(PayloadCodecs.create(PayloadCodecs.MESSAGE_PACK)
+                .encode(reading("T12:-3C"))).readMap();
+
+        assertEquals("temperature", map.get("type"));
+        assertEquals(12L, map.get("sampleNumber"));
+        assertEquals(-3L, map.get("temperature"));
+        assertEquals(TIMESTAMP, map.get("timestamp"));
+
+        Map<String, Object> raw = new MiniMessagePack(PayloadCodecs.create(PayloadCodecs.MESSAGE_PACK)
+                .encode(reading("status ok"))).readMap();
+        assertArrayEquals("status ok".getBytes(StandardCharsets.UTF_8), (byte[]) raw.get("data"));
+    }
+
+    @Test
+    public void binaryFrameLayout() {
+        byte[] frame = PayloadCodecs.create(PayloadCodecs.BINARY).encode(reading("T7:23.5C"));
+        ByteBuffer buffer = ByteBuffer.wrap(frame);
+
+        assertEquals(BinaryFramePayloadCodec.FRAME_SIZE, frame.length);
+        assertEquals(BinaryFramePayloadCodec.VERSION, buffer.get(0));
+        assertEquals(BinaryFramePayloadCodec.KIND_TEMPERATURE_SAMPLE, buffer.get(1));
+        assertEquals(0b0011, buffer.get(2));
+        assertEquals((byte) 0xFF, buffer.get(3));
+        assertArrayEquals(new byte[]{(byte) 0xAA, (byte) 0xBB, (byte) 0xCC, (byte) 0xDD, (byte) 0xEE, 0x0F},
+                Arrays.copyOfRange(frame, 4, 10));
+        assertEquals(TIMESTAMP, buffer.getLong(10));
+        assertEquals(7, buffer.getInt(18));
+        assertEquals(23.5f, buffer.getFloat(22), 0);
+        assertTrue(Float.isNaN(buffer.getFloat(26)));
+
+        byte[] raw = PayloadCodecs.create(PayloadCodecs.BINARY).encode(reading("hello"));
+        assertEquals(BinaryFramePayloadCodec.FRAME_SIZE + 2 + 5, raw.length);
+        assertEquals(BinaryFramePayloadCodec.KIND_RAW, raw[1]);
+        assertEquals(5, ByteBuffer.wrap(raw).getShort(BinaryFramePayloadCodec.FRAME_SIZE));
+    }
+
+    @Test
+    public void binaryCodecsAreSmallerThanJson() {
+        BleDataModel data = reading("Sample:23.4°C");
+        int json = PayloadCodecs.create(PayloadCodecs.JSON).encode(data).length;
+        int cbor = PayloadCodecs.create(PayloadCodecs.CBOR).encode(data).length;
+        int msgpack = PayloadCodecs.create(PayloadCodecs.MESSAGE_PACK).encode(data).length;
+        int binary = PayloadCodecs.create(PayloadCodecs.BINARY).encode(data).length;
+
+        assertTrue(cbor < json);
+        assertTrue(msgpack <= cbor);
+        assertTrue(binary < msgpack);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownCodecIsRejected() {
+        PayloadCodecs.create("xml");
+    }
+
+    private static byte[] head(int major, long argument) {
+        PayloadBuffer out = new PayloadBuffer();
+        CborPayloadCodec.writeHead(out, major, argument);
+        return out.toByteArray();
+    }
+
+    /**
+     * Just enough CBOR to read the codec output back
+     */
+    private static class MiniCbor {
+        final ByteBuffer in;
+
+        MiniCbor(byte[] data) {
+            in = ByteBuffer.wrap(data);
+        }
+
+        Map<String, Object> readMap() {
+            Object value = read();
+            assertFalse(in.hasRemaining());
+            @SuppressWarnings("unchecked")
+            Map<String, Object> map = (Map<String, Object>) value;
+            return map;
+        }
+
+        Object read() {
+            int initial = in.get() & 0xFF;
+            if (initial == 0xFA) return in.getFloat();
+            int major = initial >> 5;
+            long argument = argument(initial & 0x1F);
+            switch (major) {
+                case 0: return argument;
+                case 1: return -1 - argument;
+                case 2: return bytes((int) argument);
+                case 3: return new String(bytes((int) argument), StandardCharsets.UTF_8);
+                case 5:
+                    Map<String, Object> map = new LinkedHashMap<>();
+                    for (int i = 0; i < argument; i++) {
+                        map.put((String) read(), read());
+                    }
+                    return map;
+                default: throw new AssertionError("unexpected major type " + major);
+            }
+        }
+
+        long argument(int info) {
+            if (info < 24) return info;
+            if (info == 24) return in.get() & 0xFF;
+            if (info == 25) return in.getShort() & 0xFFFF;
+            if (info == 26) return in.getInt() & 0xFFFFFFFFL;
+            return in.getLong();
+        }
+
+        byte[] bytes(int length) {
+            byte[] bytes = new byte[length];
+            in.get(bytes);
+            return bytes;
+        }
+    }
+
+    /**
+     * Just enough MessagePack to read the codec output back
+     */
+    private static class MiniMessagePack {
+        final ByteBuffer in;
+
+        MiniMessagePack(byte[] data) {
+            in = ByteBuffer.wrap(data);
+        }
+
+        Map<String, Object> readMap() {
+            Object value = read();
+            assertFalse(in.hasRemaining());
+            @SuppressWarnings("unchecked")
+            Map<String, Object> map = (Map<String, Object>) value;
+            return map;
+        }
+
+        Object read() {
+            int b = in.get() & 0xFF;
+            if (b < 0x80) return (long) b;
+            if (b >= 0xE0) return (long) (byte) b;
+            if ((b & 0xF0) == 0x80) return map(b & 0x0F);
+            if ((b & 0xE0) == 0xA0) return text(b & 0x1F);
+            switch (b) {
+                case 0xCA: return in.getFloat();
+                case 0xCC: return (long) (in.get() & 0xFF);
+                case 0xCD: return (long) (in.getShort() & 0xFFFF);
+                case 0xCE: return in.getInt() & 0xFFFFFFFFL;
+                case 0xCF: return in.getLong();
+                case 0xD0: return (long) in.get();
+                case 0xD1: return (long) in.getShort();
+                case 0xD2: return (long) in.getInt();
+                case 0xD3: return in.getLong();
+                case 0xD9: return text(in.get() & 0xFF);
+                case 0xC4: return bytes(in.get() & 0xFF);
+                case 0xDE: return map(in.getShort() & 0xFFFF);
+                default: throw new AssertionError("unexpected type byte " + b);
+            }
+        }
+
+        Map<String, Object> map(int entries) {
+            Map<String, Object> map = new LinkedHashMap<>();
+            for (int i = 0; i < entries; i++) {
+                map.put((String) read(), read());
+            }
+            return map;
+        }
+
+        String text(int length) {
+            return new String(bytes(length), StandardCharsets.UTF_8);
+        }
+
+        byte[] bytes(int length) {
+            byte[] bytes = new byte[length];
+            in.get(bytes);
+            return bytes;
+        }
+    }
+}
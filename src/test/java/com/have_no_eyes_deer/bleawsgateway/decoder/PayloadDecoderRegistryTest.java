@@ -0,0 +1,183 @@
+package com.have_no_eyes_deer.bleawsgateway.decoder;
+
+import com.have_no_eyes_deer.bleawsgateway.model.DecodedReading;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class PayloadDecoderRegistryTest {
+
+    private final PayloadDecoderRegistry registry = PayloadDecoderRegistry.createDefault();
+
+    private DecodedReading decode(String value) {
+        return decode(null, value);
+    }
+
+    private DecodedReading decode(String characteristicUuid, String value) {
+        DecodedReading reading = new DecodedReading();
+        registry.decode(null, characteristicUuid, null, value.getBytes(StandardCharsets.UTF_8), reading);
+        return reading;
+    }
+
+    private static String slice(String value, DecodedReading reading, int field) {
+        byte[] raw = value.getBytes(StandardCharsets.UTF_8);
+        return new String(raw, reading.offsetOf(field), reading.lengthOf(field), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void decodesTemperatureSample() {
+        DecodedReading reading = decode("T12:23.5C");
+
+        assertEquals(DecodedReading.Kind.TEMPERATURE_SAMPLE, reading.kind);
+        assertEquals("temperature-sample", reading.decoderName);
+        assertEquals(12, reading.get(DecodedReading.SAMPLE_NUMBER), 0);
+        assertEquals(23.5, reading.get(DecodedReading.TEMPERATURE), 1e-9);
+        assertEquals("12", slice("T12:23.5C", reading, DecodedReading.SAMPLE_NUMBER));
+        assertEquals("23.5", slice("T12:23.5C", reading, DecodedReading.TEMPERATURE));
+
+        assertEquals(-4, decode("T1:-4C").get(DecodedReading.TEMPERATURE), 0);
+    }
+
+    @Test
+    public void decodesBoardSample() {
+        DecodedReading reading = decode("Sample:23.4°C");
+
+        assertEquals(DecodedReading.Kind.SENSOR, reading.kind);
+        assertEquals(23.4, reading.get(DecodedReading.TEMPERATURE), 1e-9);
+        assertEquals("23.4", slice("Sample:23.4°C", reading, DecodedReading.TEMPERATURE));
+        assertFalse(reading.has(DecodedReading.SAMPLE_NUMBER));
+        assertEquals(19, decode("Sample:19").get(DecodedReading.TEMPERATURE), 0);
+    }
+
+    @Test
+    public void decodesEnvironment() {
+        String value = String.format("T:%.1f,H:%.1f,B:%d", 21.7, 55.0, 93);
+        DecodedReading reading = decode(value);
+
+        assertEquals("environment", reading.decoderName);
+        assertEquals(21.7, reading.get(DecodedReading.TEMPERATURE), 1e-9);
+        assertEquals(55.0, reading.get(DecodedReading.HUMIDITY), 1e-9);
+        assertEquals(93, reading.get(DecodedReading.BATTERY), 0);
+        assertEquals("93", slice(value, reading, DecodedReading.BATTERY));
+    }
+
+    @Test
+    public void malformedValuesFallBackToRaw() {
+        String[] values = {"", "T1:2.3.4C", "T:1.0,H:2.0", "Sample:", "T1:23.C", "T:1,H:2,B:3x", "hello", "Sample:1.5°F"};
+        for (String value : values) {
+            DecodedReading reading = decode(value);
+            assertEquals(value, DecodedReading.Kind.RAW, reading.kind);
+            assertEquals(value, "raw", reading.decoderName);
+            assertFalse(value, reading.hasNumericFields());
+            assertTrue(Double.isNaN(reading.get(DecodedReading.TEMPERATURE)));
+        }
+    }
+
+    @Test
+    public void keyedDecoderWinsAndUuidCaseIsIgnored() {
+        PayloadDecoder fixed = new PayloadDecoder() {
+            @Override
+            public boolean decode(byte[] data, int offset, int length, DecodedReading out) {
+                out.kind = DecodedReading.Kind.SENSOR;
+                out.set(DecodedReading.BATTERY, length, offset, length);
+                return true;
+            }
+
+            @Override
+            public String getName() {
+                return "fixed";
+            }
+        };
+        registry.registerCharacteristic("0000AAAA-0000-1000-8000-00805F9B34FB", fixed);
+        registry.registerNamePrefix("Nano", fixed);
+
+        assertSame(fixed, registry.resolve(null, "0000aaaa-0000-1000-8000-00805f9b34fb", null));
+        assertSame(fixed, registry.resolve(null, null, "Nano 33 BLE"));
+        assertNull(registry.resolve(null, null, "Other"));
+        assertTrue(registry.resolve(null, PayloadDecoderRegistry.BOARD_NOTIFY_CHARACTERISTIC_UUID.toUpperCase(),
+                null) instanceof BoardSampleDecoder);
+
+        assertEquals("fixed", decode("0000aaaa-0000-1000-8000-00805f9b34fb", "T1:23.5C").decoderName);
+    }
+
+    private DecodedReading decodeAdvertisement(String sourceKey, byte[] value) {
+        DecodedReading reading = new DecodedReading();
+        registry.decode(sourceKey, sourceKey, null, value, reading);
+        return reading;
+    }
+
+    @Test
+    public void decodesBTHomeServiceData() {
+        // v2 unencrypted: packet id 9, battery 87 %, temperature 23.45 C, humidity 55.5 %, voltage 3.0 V
+        byte[] value = {0x40, 0x00, 0x09, 0x01, 0x57, 0x02, 0x29, 0x09, 0x03, (byte) 0xAE, 0x15, 0x0C, (byte) 0xB8, 0x0B};
+        DecodedReading reading = decodeAdvertisement(PayloadDecoderRegistry.BTHOME_SERVICE_UUID, value);
+
+        assertEquals("bthome", reading.decoderName);
+        assertEquals(DecodedReading.Kind.SENSOR, reading.kind);
+        assertTrue(reading.binaryPayload);
+        assertEquals(9, reading.get(DecodedReading.SAMPLE_NUMBER), 0);
+        assertEquals(87, reading.get(DecodedReading.BATTERY), 0);
+        assertEquals(23.45, reading.get(DecodedReading.TEMPERATURE), 1e-9);
+        assertEquals(55.5, reading.get(DecodedReading.HUMIDITY), 1e-9);
+        assertEquals(0, reading.lengthOf(DecodedReading.TEMPERATURE));
+        assertEquals(9, BTHomeDecoder.packetId(value, 0, value.length));
+
+        // Negative 0.1 C temperature; encrypted and v1 payloads are not decoded
+        assertEquals(-5.5, decodeAdvertisement(PayloadDecoderRegistry.BTHOME_SERVICE_UUID,
+                new byte[]{0x40, 0x45, (byte) 0xC9, (byte) 0xFF}).get(DecodedReading.TEMPERATURE), 1e-9);
+        assertEquals("raw", decodeAdvertisement(PayloadDecoderRegistry.BTHOME_SERVICE_UUID,
+                new byte[]{0x41, 0x00, 0x09}).decoderName);
+        assertEquals("raw", decodeAdvertisement(PayloadDecoderRegistry.BTHOME_SERVICE_UUID,
+                new byte[]{0x20, 0x00, 0x09}).decoderName);
+        assertEquals(-1, BTHomeDecoder.packetId(new byte[]{0x40, 0x01, 0x57}, 0, 3));
+    }
+
+    @Test
+    public void bthomeTwoByteObjectsAmongBinarySensorIds() {
+        // CO2 800 ppm (0x12, two bytes) then humidity 55 %; a binary sensor (0x10 power on) after TVOC
+        DecodedReading reading = decodeAdvertisement(PayloadDecoderRegistry.BTHOME_SERVICE_UUID,
+                new byte[]{0x40, 0x12, 0x20, 0x03, 0x2E, 0x37});
+        assertEquals("bthome", reading.decoderName);
+        assertEquals(55, reading.get(DecodedReading.HUMIDITY), 1e-9);
+
+        reading = decodeAdvertisement(PayloadDecoderRegistry.BTHOME_SERVICE_UUID,
+                new byte[]{0x40, 0x13, 0x64, 0x00, 0x10, 0x01, 0x14, 0x10, 0x27, 0x01, 0x50});
+        assertEquals(80, reading.get(DecodedReading.BATTERY), 1e-9);
+    }
+
+    @Test
+    public void decodesEddystoneTlmAndIBeacon() {
+        // TLM: 3000 mV, 21.5 C, PDU count 1000, uptime 100 s
+        byte[] tlm = {0x20, 0x00, 0x0B, (byte) 0xB8, 0x15, (byte) 0x80, 0x00, 0x00, 0x03, (byte) 0xE8,
+                0x00, 0x00, 0x03, (byte) 0xE8};
+        DecodedReading reading = decodeAdvertisement(PayloadDecoderRegistry.EDDYSTONE_SERVICE_UUID, tlm);
+        assertEquals("eddystone-tlm", reading.decoderName);
+        assertEquals(21.5, reading.get(DecodedReading.TEMPERATURE), 1e-9);
+        assertEquals(1000, reading.get(DecodedReading.SAMPLE_NUMBER), 0);
+        tlm[4] = (byte) 0x80;
+        tlm[5] = 0x00;
+        assertFalse(decodeAdvertisement(PayloadDecoderRegistry.EDDYSTONE_SERVICE_UUID, tlm)
+                .has(DecodedReading.TEMPERATURE));
+
+        byte[] beacon = new byte[23];
+        beacon[0] = 0x02;
+        beacon[1] = 0x15;
+        String apple = PayloadDecoderRegistry.manufacturerKey(0x004C);
+        assertEquals("manufacturer-004c", apple);
+        reading = decodeAdvertisement(apple, beacon);
+        assertEquals("ibeacon", reading.decoderName);
+        assertEquals(DecodedReading.Kind.RAW, reading.kind);
+        assertTrue(reading.binaryPayload);
+    }
+
+    @Test
+    public void rejectedKeyedDecoderFallsThroughToProbes() {
+        DecodedReading reading = decode(PayloadDecoderRegistry.BOARD_NOTIFY_CHARACTERISTIC_UUID, "T3:20C");
+
+        assertEquals(DecodedReading.Kind.TEMPERATURE_SAMPLE, reading.kind);
+        assertEquals(3, reading.get(DecodedReading.SAMPLE_NUMBER), 0);
+    }
+}
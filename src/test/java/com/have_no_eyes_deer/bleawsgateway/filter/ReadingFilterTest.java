@@ -0,0 +1,204 @@
+package com.have_no_eyes_deer.bleawsgateway.filter;
+
+import com.have_no_eyes_deer.bleawsgateway.decoder.PayloadDecoderRegistry;
+import com.have_no_eyes_deer.bleawsgateway.model.BleDataModel;
+import com.have_no_eyes_deer.bleawsgateway.model.DecodedReading;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ReadingFilterTest {
+
+    private final PayloadDecoderRegistry decoders = PayloadDecoderRegistry.createDefault();
+    private final ReadingFilter filter = new ReadingFilter();
+    private final List<BleDataModel> out = new ArrayList<>();
+
+    private BleDataModel reading(String address, long time, String value) {
+        return reading(address, "chr", time, value);
+    }
+
+    private BleDataModel reading(String address, String characteristic, long time, String value) {
+        byte[] raw = value.getBytes(StandardCharsets.UTF_8);
+        BleDataModel data = new BleDataModel(address, "Nano", "svc", characteristic, raw, value);
+        data.setTimestamp(new Date(time));
+        DecodedReading decoded = new DecodedReading();
+        decoders.decode(null, raw, 0, raw.length, decoded);
+        data.setDecoded(decoded);
+        return data;
+    }
+
+    private BleDataModel temperature(long time, double value) {
+        return reading("AA", time, "Sample:" + value + "°C");
+    }
+
+    private boolean passes(BleDataModel data) {
+        out.clear();
+        filter.filter(data, out);
+        return out.contains(data);
+    }
+
+    @Test
+    public void absoluteDeadbandComparesWithLastPublishedValue() {
+        filter.setDefaultRule(DecodedReading.TEMPERATURE, new ReadingFilter.Rule(0.5, 0, 0, 0));
+
+        assertTrue(passes(temperature(0, 20.0)));   // first reading
+        assertFalse(passes(temperature(500, 20.3)));
+        assertFalse(passes(temperature(1000, 20.5)));
+        assertTrue(passes(temperature(1500, 20.6)));  // drifted past 0.5 from 20.0
+        assertFalse(passes(temperature(2000, 20.2)));
+
+        assertEquals(5, filter.getInputCount());
+        assertEquals(2, filter.getForwardedCount());
+        assertEquals(3, filter.getSuppressedCount());
+    }
+
+    @Test
+    public void percentDeadbandAndAnyChangeByDefault() {
+        filter.setDefaultRule(DecodedReading.TEMPERATURE, new ReadingFilter.Rule(0, 10, 0, 0));
+        assertTrue(passes(temperature(0, 20.0)));
+        assertFalse(passes(temperature(1, 21.9)));
+        assertTrue(passes(temperature(2, 22.1)));
+
+        filter.setRule("AA", DecodedReading.TEMPERATURE, new ReadingFilter.Rule());
+        assertFalse(passes(temperature(3, 22.1)));
+        assertTrue(passes(temperature(4, 22.2)));
+    }
+
+    @Test
+    public void minimumIntervalAndHeartbeat() {
+        filter.setDefaultRule(DecodedReading.TEMPERATURE, new ReadingFilter.Rule(0.5, 0, 1000, 5000));
+
+        assertTrue(passes(temperature(0, 20.0)));
+        assertFalse(passes(temperature(500, 30.0)));   // big change but too soon
+        assertTrue(passes(temperature(1000, 30.0)));
+        assertFalse(passes(temperature(4000, 30.0)));
+        assertTrue(passes(temperature(6000, 30.0)));    // heartbeat
+        assertEquals(1, filter.getHeartbeatCount());
+    }
+
+    @Test
+    public void devicesAndFieldsAreIndependent() {
+        filter.setDefaultRule(DecodedReading.TEMPERATURE, new ReadingFilter.Rule(1, 0, 0, 0));
+        filter.setDefaultRule(DecodedReading.BATTERY, new ReadingFilter.Rule(5, 0, 0, 0));
+
+        assertTrue(passes(reading("AA", 0, "T:20.0,H:50.0,B:90")));
+        assertTrue(passes(reading("BB", 0, "T:20.0,H:50.0,B:90")));
+        assertFalse(passes(reading("AA", 1, "T:20.5,H:80.0,B:88"))); // humidity has no rule
+        assertTrue(passes(reading("AA", 2, "T:20.5,H:80.0,B:84")));  // battery moved 6
+        assertFalse(passes(reading("BB", 3, "T:20.9,H:50.0,B:90")));
+    }
+
+    @Test
+    public void probesOfOneDeviceAreFilteredPerStream() {
+        filter.setDefaultRule(DecodedReading.TEMPERATURE, new ReadingFilter.Rule(1, 0, 0, 0));
+
+        assertTrue(passes(reading("AA", "probe-a", 0, "Sample:20.0°C")));
+        assertTrue(passes(reading("AA", "probe-b", 1, "Sample:35.0°C")));    // first of its stream
+        assertFalse(passes(reading("AA", "probe-a", 2, "Sample:20.5°C")));   // not against probe B
+        assertFalse(passes(reading("AA", "probe-b", 3, "Sample:35.5°C")));
+        assertTrue(passes(reading("AA", "probe-b", 4, "Sample:36.5°C")));
+    }
+
+    @Test
+    public void readingsWithoutNumericFieldsAlwaysPass() {
+        filter.setDefaultRule(DecodedReading.TEMPERATURE, new ReadingFilter.Rule(100, 0, 60_000, 0));
+        assertTrue(passes(reading("AA", 0, "status ok")));
+        assertTrue(passes(reading("AA", 1, "status ok")));
+        BleDataModel undecoded = new BleDataModel("AA", new byte[]{1}, "x");
+        assertTrue(passes(undecoded));
+    }
+
+    @Test
+    public void swingingDoorReleasesLastPointOfEachLinearSegment() {
+        filter.setDefaultRule(DecodedReading.TEMPERATURE, ReadingFilter.Rule.swingingDoor(0.2, 0, 0));
+
+        // Ramp up 1°/s for 5s, then flat
+        List<BleDataModel> published = new ArrayList<>();
+        for (int second = 0; second <= 10; second++) {
+            double value = 20 + Math.min(second, 5);
+            out.clear();
+            filter.filter(temperature(second * 1000L, value), out);
+            published.addAll(out);
+        }
+
+        // 20 (first), 25 at t=5s (end of the ramp, released when t=6s broke the corridor)
+        assertEquals(2, published.size());
+        assertEquals(0, published.get(0).getTimestamp().getTime());
+        assertEquals(5000, published.get(1).getTimestamp().getTime());
+        assertEquals(25.0, published.get(1).getDecoded().get(DecodedReading.TEMPERATURE), 1e-9);
+        assertEquals(1, filter.getReleasedCount());
+        assertEquals(11, filter.getInputCount());
+        assertEquals(9, filter.getSuppressedCount());
+    }
+
+    @Test
+    public void everyReadingIsPublishedOrDroppedOnce() {
+        filter.setDefaultRule(DecodedReading.TEMPERATURE, ReadingFilter.Rule.swingingDoor(0.2, 0, 0));
+        filter.setRule("BB", DecodedReading.TEMPERATURE, new ReadingFilter.Rule(1, 0, 0, 0));
+        List<BleDataModel> inputs = new ArrayList<>();
+        List<BleDataModel> published = new ArrayList<>();
+        List<BleDataModel> dropped = new ArrayList<>();
+        for (int second = 0; second <= 10; second++) {
+            BleDataModel door = temperature(second * 1000L, 20 + Math.min(second, 5));
+            BleDataModel deadband = reading("BB", second * 1000L, "Sample:" + (40.0 + second % 2) + "°C");
+            for (BleDataModel data : new BleDataModel[] {door, deadband}) {
+                inputs.add(data);
+                out.clear();
+                filter.filter(data, out, dropped);
+                published.addAll(out);
+            }
+        }
+        // A new reading with a held-back one before it always lets go of the older one
+        out.clear();
+        filter.filter(temperature(11_000, 40), out, dropped);
+        published.addAll(out);
+
+        for (BleDataModel data : inputs) {
+            int times = 0;
+            for (BleDataModel other : published) if (other == data) times++;
+            for (BleDataModel other : dropped) if (other == data) times++;
+            assertEquals(1, times);
+        }
+        // The deadband device's suppressed readings are not kept for later
+        for (BleDataModel data : dropped) {
+            if (data.getDeviceAddress().equals("BB")) assertFalse(published.contains(data));
+        }
+        assertEquals(10, dropped.stream().filter(d -> d.getDeviceAddress().equals("BB")).count());
+    }
+
+    @Test
+    public void swingingDoorInterpolationStaysWithinDeviation() {
+        double deviation = 0.3;
+        filter.setDefaultRule(DecodedReading.TEMPERATURE, ReadingFilter.Rule.swingingDoor(deviation, 0, 0));
+        long[] times = new long[200];
+        double[] values = new double[200];
+        List<BleDataModel> published = new ArrayList<>();
+        for (int i = 0; i < times.length; i++) {
+            times[i] = i * 500L;
+            values[i] = Math.round((20 + 3 * Math.sin(i / 15.0)) * 100) / 100.0;
+            out.clear();
+            filter.filter(temperature(times[i], values[i]), out);
+            published.addAll(out);
+        }
+
+        assertTrue(published.size() < times.length / 3);
+        // Every point between two published points is within the deviation of the line
+        for (int p = 0; p + 1 < published.size(); p++) {
+            long t0 = published.get(p).getTimestamp().getTime();
+            long t1 = published.get(p + 1).getTimestamp().getTime();
+            double v0 = published.get(p).getDecoded().get(DecodedReading.TEMPERATURE);
+            double v1 = published.get(p + 1).getDecoded().get(DecodedReading.TEMPERATURE);
+            for (int i = 0; i < times.length; i++) {
+                if (times[i] <= t0 || times[i] >= t1) continue;
+                double interpolated = v0 + (v1 - v0) * (times[i] - t0) / (t1 - t0);
+                assertEquals("t=" + times[i], values[i], interpolated, deviation + 1e-9);
+            }
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package com.have_no_eyes_deer.bleawsgateway.mqtt;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class AwsIotMqttDataSenderTest {
+
+    /**
+     * In-process broker: accepts publishes and acknowledges them from its own thread
+     */
+    static class FakeBroker implements AwsIotMqttDataSender.Transport {
+        final ScheduledExecutorService network = Executors.newSingleThreadScheduledExecutor();
+        final List<String> received = new CopyOnWriteArrayList<>();
+        final List<Long> heldTokens = new CopyOnWriteArrayList<>();
+        volatile AwsIotMqttDataSender.TransportListener listener;
+        volatile long ackDelayMs = 5;
+        volatile boolean holdAcks = false;
+        volatile boolean rejectDelivery = false;
+        final List<Boolean> qos1 = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void connect(AwsIotMqttDataSender.TransportListener listener) {
+            this.listener = listener;
+            network.execute(() -> {
+                listener.onStateChanged(AwsIotMqttDataSender.ConnectionState.CONNECTING, null);
+                listener.onStateChanged(AwsIotMqttDataSender.ConnectionState.CONNECTED, null);
+            });
+        }
+
+        @Override
+        public void publish(String payload, String topic, boolean qos1, long token) {
+            received.add(topic + " " + payload);
+            this.qos1.add(qos1);
+            acknowledge(token);
+        }
+
+        @Override
+        public void publish(byte[] payload, String topic, boolean qos1, long token) {
+            received.add(topic + " <" + payload.length + " bytes>");
+            this.qos1.add(qos1);
+            acknowledge(token);
+        }
+
+        private void acknowledge(long token) {
+            if (holdAcks) {
+                heldTokens.add(token);
+                return;
+            }
+            boolean success = !rejectDelivery;
+            network.schedule(() -> listener.onDeliveryComplete(token, success), ackDelayMs, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public void disconnect() {
+        }
+
+        void dropConnection() throws Exception {
+            network.submit(() -> listener.onStateChanged(
+                    AwsIotMqttDataSender.ConnectionState.CONNECTION_LOST, new RuntimeException("socket closed")))
+                    .get();
+        }
+
+        void releaseHeld() {
+            for (Long token : new ArrayList<>(heldTokens)) {
+                heldTokens.remove(token);
+                network.execute(() -> listener.onDeliveryComplete(token, true));
+            }
+        }
+    }
+
+    private FakeBroker broker;
+    private AwsIotMqttDataSender sender;
+
+    @Before
+    public void setUp() throws Exception {
+        broker = new FakeBroker();
+        sender = new AwsIotMqttDataSender(broker, false, 4, 100);
+        CountDownLatch connected = new CountDownLatch(1);
+        sender.setStatusListener(new MqttDataSender.MqttStatusListener() {
+            @Override public void onConnected() { connected.countDown(); }
+            @Override public void onDisconnected() { }
+            @Override public void onMessageSent(String topic, String message) { }
+            @Override public void onError(String error) { }
+        });
+        assertFalse(sender.isConnected());
+        assertTrue(sender.connect());
+        assertTrue(connected.await(2, TimeUnit.SECONDS));
+    }
+
+    @After
+    public void tearDown() {
+        sender.disconnect();
+        broker.network.shutdownNow();
+    }
+
+    @Test
+    public void reportsTrueConnectionState() throws Exception {
+        assertTrue(sender.isConnected());
+        assertEquals(AwsIotMqttDataSender.ConnectionState.CONNECTED, sender.getConnectionState());
+
+        broker.dropConnection();
+
+        assertFalse(sender.isConnected());
+        assertFalse(sender.sendMessage("{}", "t"));
+        assertTrue(broker.received.isEmpty());
+    }
+
+    @Test
+    public void deliveryCallbackReportsLatency() throws Exception {
+        broker.ackDelayMs = 30;
+        CountDownLatch delivered = new CountDownLatch(1);
+        List<Long> latencies = new CopyOnWriteArrayList<>();
+        sender.setDeliveryListener((topic, success, latencyMs) -> {
+            latencies.add(latencyMs);
+            delivered.countDown();
+        });
+
+        assertTrue(sender.sendMessage("{\"v\":1}", "devices/A/data"));
+
+        assertTrue(delivered.await(2, TimeUnit.SECONDS));
+        assertEquals("devices/A/data {\"v\":1}", broker.received.get(0));
+        assertTrue(latencies.get(0) >= 30);
+        assertEquals(1, sender.getDeliveredCount());
+        assertEquals(0, sender.getInFlightCount());
+        assertTrue(sender.getAverageDeliveryLatencyMs() >= 30);
+    }
+
+    @Test
+    public void inFlightWindowBoundsUnacknowledgedPublishes() throws Exception {
+        broker.holdAcks = true;
+
+        for (int i = 0; i < 4; i++) {
+            assertTrue(sender.sendMessage("{\"v\":" + i + "}", "t"));
+        }
+        assertEquals(4, sender.getInFlightCount());
+
+        // Window full: the fifth publish times out
+        assertFalse(sender.sendMessage("{\"v\":4}", "t"));
+        assertEquals(1, sender.getWindowFullCount());
+        assertEquals(4, broker.received.size());
+
+        broker.releaseHeld();
+        long deadline = System.currentTimeMillis() + 2000;
+        while (sender.getInFlightCount() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(0, sender.getInFlightCount());
+        assertTrue(sender.sendMessage("{\"v\":5}", "t"));
+    }
+
+    @Test
+    public void connectionLossFailsInFlightMessagesAndFreesWindow() throws Exception {
+        broker.holdAcks = true;
+        for (int i = 0; i < 4; i++) {
+            assertTrue(sender.sendMessage("{}", "t"));
+        }
+
+        broker.dropConnection();
+
+        assertEquals(0, sender.getInFlightCount());
+        assertEquals(4, sender.getFailedCount());
+
+        // Late acknowledgements for the failed messages are ignored
+        broker.releaseHeld();
+        broker.network.submit(() -> { }).get();
+        assertEquals(0, sender.getDeliveredCount());
+    }
+
+    @Test
+    public void failedDeliveryIsCounted() throws Exception {
+        broker.rejectDelivery = true;
+        CountDownLatch done = new CountDownLatch(1);
+        sender.setDeliveryListener((topic, success, latencyMs) -> {
+            assertFalse(success);
+            done.countDown();
+        });
+
+        assertTrue(sender.sendMessage("{}", "t"));
+
+        assertTrue(done.await(2, TimeUnit.SECONDS));
+        assertEquals(1, sender.getFailedCount());
+        assertEquals(0, sender.getDeliveredCount());
+    }
+
+    @Test
+    public void confirmedSendsUseQos1AndReportTheOutcome() throws Exception {
+        List<Boolean> outcomes = new CopyOnWriteArrayList<>();
+        assertTrue(sender.sendConfirmed("{}", null, "t", outcomes::add));
+        long deadline = System.currentTimeMillis() + 2000;
+        while (outcomes.isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        broker.holdAcks = true;
+        assertTrue(sender.sendConfirmed(null, new byte[3], "t/bin", outcomes::add));
+        assertTrue(sender.sendMessage("{}", "t"));
+
+        broker.dropConnection();
+        assertEquals(Arrays.asList(true, true, false), broker.qos1);
+        assertEquals(Arrays.asList(true, false), outcomes);
+        assertFalse(sender.sendConfirmed("{}", null, "t", outcomes::add));
+        assertEquals(2, outcomes.size());
+    }
+}
@@ -0,0 +1,239 @@
+package com.have_no_eyes_deer.bleawsgateway.mqtt;
+
+import com.have_no_eyes_deer.bleawsgateway.model.BleDataModel;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class BatchingMqttDataSenderTest {
+
+    /**
+     * Records every payload handed to it
+     */
+    static class RecordingSender implements MqttDataSender {
+        final List<String> payloads = new CopyOnWriteArrayList<>();
+        final List<String> topics = new CopyOnWriteArrayList<>();
+        final List<byte[]> binaryPayloads = new CopyOnWriteArrayList<>();
+        volatile boolean accept = true;
+
+        @Override
+        public boolean sendData(BleDataModel data, String topic) {
+            return false;
+        }
+
+        @Override
+        public boolean sendMessage(String message, String topic) {
+            payloads.add(message);
+            topics.add(topic);
+            return accept;
+        }
+
+        @Override
+        public boolean sendBytes(byte[] payload, String topic) {
+            binaryPayloads.add(payload);
+            topics.add(topic);
+            return true;
+        }
+
+        @Override
+        public int sendBatchData(List<BleDataModel> dataList, String topic) {
+            return 0;
+        }
+
+        @Override
+        public boolean isConnected() {
+            return true;
+        }
+
+        @Override
+        public boolean connect() {
+            return true;
+        }
+
+        @Override
+        public void disconnect() {
+        }
+
+        @Override
+        public void setStatusListener(MqttStatusListener listener) {
+        }
+    }
+
+    private final RecordingSender delegate = new RecordingSender();
+    private BatchingMqttDataSender sender;
+
+    @After
+    public void tearDown() {
+        if (sender != null) {
+            sender.disconnect();
+        }
+    }
+
+    @Test
+    public void flushesOnMessageCount() {
+        sender = new BatchingMqttDataSender(delegate, 3, 5 * 1024, 60_000);
+
+        sender.sendMessage("{\"v\":1}", "devices/A/data");
+        sender.sendMessage("{\"v\":2}", "devices/A/data");
+        assertTrue(delegate.payloads.isEmpty());
+        sender.sendMessage("{\"v\":3}", "devices/A/data");
+
+        assertEquals(1, delegate.payloads.size());
+        assertEquals("[{\"v\":1},{\"v\":2},{\"v\":3}]", delegate.payloads.get(0));
+        assertEquals("devices/A/data", delegate.topics.get(0));
+        assertEquals(0, sender.getPendingMessageCount());
+    }
+
+    @Test
+    public void batchesArePerTopic() {
+        sender = new BatchingMqttDataSender(delegate, 2, 5 * 1024, 60_000);
+
+        sender.sendMessage("1", "t/a");
+        sender.sendMessage("2", "t/b");
+        sender.sendMessage("3", "t/a");
+
+        assertEquals(1, delegate.payloads.size());
+        assertEquals("[1,3]", delegate.payloads.get(0));
+        assertEquals("t/a", delegate.topics.get(0));
+        assertEquals(1, sender.getPendingMessageCount());
+    }
+
+    @Test
+    public void payloadNeverExceedsByteBudget() {
+        int budget = 100;
+        sender = new BatchingMqttDataSender(delegate, 1000, budget, 60_000);
+        String reading = "{\"temperature\":23.5,\"n\":\"xxxxxxxx\"}";
+
+        for (int i = 0; i < 20; i++) {
+            sender.sendMessage(reading, "t");
+        }
+        sender.flush();
+
+        int total = 0;
+        for (String payload : delegate.payloads) {
+            assertTrue(payload.getBytes(StandardCharsets.UTF_8).length <= budget);
+            total += payload.split("\\},\\{").length;
+        }
+        assertEquals(20, total);
+        assertTrue(delegate.payloads.size() > 1);
+    }
+
+    @Test
+    public void flushesOnAge() throws Exception {
+        sender = new BatchingMqttDataSender(delegate, 1000, 5 * 1024, 50);
+        List<BatchingMqttDataSender.BatchResult> results = new CopyOnWriteArrayList<>();
+        CountDownLatch flushed = new CountDownLatch(1);
+        sender.setBatchListener(result -> {
+            results.add(result);
+            flushed.countDown();
+        });
+
+        sender.sendMessage("{\"v\":1}", "t");
+
+        assertTrue(flushed.await(2, TimeUnit.SECONDS));
+        assertEquals("[{\"v\":1}]", delegate.payloads.get(0));
+        assertEquals(BatchingMqttDataSender.FlushReason.TIME, results.get(0).reason);
+        assertTrue(results.get(0).latencyMs >= 50);
+    }
+
+    @Test
+    public void reportsBillingUnitsAndCompressionRatio() {
+        sender = new BatchingMqttDataSender(delegate, 50, 5 * 1024, 60_000);
+        List<BatchingMqttDataSender.BatchResult> results = new ArrayList<>();
+        sender.setBatchListener(results::add);
+
+        for (int i = 0; i < 50; i++) {
+            sender.sendMessage("{\"temperature\":23.5}", "t");
+        }
+
+        assertEquals(1, results.size());
+        BatchingMqttDataSender.BatchResult result = results.get(0);
+        assertEquals(BatchingMqttDataSender.FlushReason.COUNT, result.reason);
+        assertEquals(50, result.messageCount);
+        assertEquals(1, result.billingUnits);
+        assertEquals(50.0, result.getCompressionRatio(), 0.001);
+        assertEquals(50.0, sender.getCompressionRatio(), 0.001);
+        assertEquals(1, sender.getTotalBilledUnits());
+
+        // Readings over one unit gain nothing from batching, on either ratio
+        StringBuilder large = new StringBuilder("\"");
+        while (large.length() < 5999) large.append('x');
+        large.append('"');
+        sender.sendMessage(large.toString(), "big");
+        sender.sendMessage(large.toString(), "big");
+        assertEquals(3, results.size());
+        assertEquals(2, results.get(1).billingUnits);
+        assertEquals(1.0, results.get(1).getCompressionRatio(), 0.001);
+        assertEquals(54.0 / 5, sender.getCompressionRatio(), 0.001);
+        assertEquals(5, sender.getTotalBilledUnits());
+    }
+
+    @Test
+    public void rejectsMessageOverBrokerLimit() {
+        sender = new BatchingMqttDataSender(delegate);
+        char[] huge = new char[BatchingMqttDataSender.AWS_IOT_MAX_PAYLOAD_BYTES];
+        Arrays.fill(huge, 'x');
+
+        assertFalse(sender.sendMessage(new String(huge), "t"));
+        assertEquals(0, sender.getPendingMessageCount());
+    }
+
+    @Test
+    public void binaryPayloadsAreConcatenated() {
+        sender = new BatchingMqttDataSender(delegate, 3, 5 * 1024, 60_000);
+
+        sender.sendBytes(new byte[]{1, 2}, "t/cbor");
+        sender.sendMessage("{\"a\":1}", "t");
+        sender.sendBytes(new byte[]{3}, "t/cbor");
+        sender.sendBytes(new byte[]{4, 5, 6}, "t/cbor");
+
+        assertEquals(1, delegate.binaryPayloads.size());
+        assertArrayEquals(new byte[]{1, 2, 3, 4, 5, 6}, delegate.binaryPayloads.get(0));
+        assertTrue(delegate.payloads.isEmpty());
+        assertEquals(1, sender.getPendingMessageCount());
+    }
+
+    @Test
+    public void failedFlushIsReportedToTheCaller() {
+        sender = new BatchingMqttDataSender(delegate, 2, 5 * 1024, 60_000);
+        delegate.accept = false;
+
+        assertTrue(sender.sendMessage("{\"a\":1}", "t"));     // only queued
+        assertFalse(sender.sendMessage("{\"a\":2}", "t"));    // flushed the batch, delegate refused
+        assertEquals(1, sender.getFailedBatches());
+
+        delegate.accept = true;
+        assertTrue(sender.sendMessage("{\"a\":3}", "t"));
+        assertTrue(sender.sendMessage("{\"a\":4}", "t"));
+        assertEquals(2, delegate.payloads.size());
+        assertEquals(1, sender.getFailedBatches());
+    }
+
+    @Test
+    public void sendBatchDataFormatsEachReading() {
+        sender = new BatchingMqttDataSender(delegate, 2, 5 * 1024, 60_000);
+        List<BleDataModel> readings = new ArrayList<>();
+        readings.add(new BleDataModel("AA:BB", "Nano", "svc", "chr",
+                "T1:21.0C".getBytes(StandardCharsets.UTF_8), "T1:21.0C"));
+        readings.add(new BleDataModel("AA:BB", "Nano", "svc", "chr",
+                "T1:22.0C".getBytes(StandardCharsets.UTF_8), "T1:22.0C"));
+
+        assertEquals(2, sender.sendBatchData(readings, "t"));
+
+        assertEquals(1, delegate.payloads.size());
+        String payload = delegate.payloads.get(0);
+        assertTrue(payload.startsWith("[{") && payload.endsWith("}]"));
+        assertTrue(payload.contains("\"temperature\":21.0"));
+        assertTrue(payload.contains("\"temperature\":22.0"));
+    }
+}
@@ -0,0 +1,319 @@
+package com.have_no_eyes_deer.bleawsgateway.mqtt;
+
+import com.have_no_eyes_deer.bleawsgateway.model.BleDataModel;
+import com.have_no_eyes_deer.bleawsgateway.store.SegmentedMessageLog;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class StoreAndForwardMqttDataSenderTest {
+
+    /**
+     * Uplink whose connection can be toggled
+     */
+    static class SwitchableUplink implements MqttDataSender {
+        final List<String> sent = new CopyOnWriteArrayList<>();
+        volatile boolean connected = true;
+
+        @Override
+        public boolean sendData(BleDataModel data, String topic) {
+            return false;
+        }
+
+        @Override
+        public boolean sendMessage(String message, String topic) {
+            if (!connected) {
+                return false;
+            }
+            sent.add(message);
+            return true;
+        }
+
+        @Override
+        public boolean sendBytes(byte[] payload, String topic) {
+            if (!connected) {
+                return false;
+            }
+            sent.add(Arrays.toString(payload));
+            return true;
+        }
+
+        @Override
+        public int sendBatchData(List<BleDataModel> dataList, String topic) {
+            return 0;
+        }
+
+        @Override
+        public boolean isConnected() {
+            return connected;
+        }
+
+        @Override
+        public boolean connect() {
+            return true;
+        }
+
+        @Override
+        public void disconnect() {
+        }
+
+        @Override
+        public void setStatusListener(MqttStatusListener listener) {
+        }
+    }
+
+    /**
+     * Uplink that holds delivery callbacks until the test confirms or fails them
+     */
+    static class ConfirmingUplink extends SwitchableUplink {
+        final BlockingQueue<MqttDataSender.DeliveryCallback> unconfirmed = new LinkedBlockingQueue<>();
+
+        @Override
+        public boolean sendConfirmed(String message, byte[] payload, String topic, DeliveryCallback callback) {
+            boolean sent = payload != null ? sendBytes(payload, topic) : sendMessage(message, topic);
+            if (sent) {
+                unconfirmed.add(callback);
+            }
+            return sent;
+        }
+
+        MqttDataSender.DeliveryCallback next() throws InterruptedException {
+            MqttDataSender.DeliveryCallback callback = unconfirmed.poll(3, TimeUnit.SECONDS);
+            assertNotNull("timed out", callback);
+            return callback;
+        }
+    }
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final SwitchableUplink uplink = new SwitchableUplink();
+    private StoreAndForwardMqttDataSender sender;
+
+    @After
+    public void tearDown() {
+        if (sender != null) {
+            sender.disconnect();
+        }
+    }
+
+    @Test
+    public void forwardsDirectlyWhileConnected() throws Exception {
+        sender = new StoreAndForwardMqttDataSender(new SegmentedMessageLog(folder.getRoot()));
+        sender.setUplink(uplink);
+
+        assertTrue(sender.sendMessage("a", "t"));
+
+        assertEquals(1, uplink.sent.size());
+        assertEquals(0, sender.getSpooledCount());
+        assertEquals(0, sender.getPendingCount());
+    }
+
+    @Test
+    public void spoolsDuringOutageAndReplaysInOrder() throws Exception {
+        sender = new StoreAndForwardMqttDataSender(new SegmentedMessageLog(folder.getRoot()));
+        sender.setReplayRatePerSecond(1000);
+        sender.setUplink(uplink);
+        uplink.connected = false;
+
+        for (int i = 0; i < 10; i++) {
+            assertTrue(sender.sendMessage("m" + i, "t"));
+        }
+        assertEquals(10, sender.getPendingCount());
+        assertTrue(uplink.sent.isEmpty());
+
+        uplink.connected = true;
+        // Live message while the backlog drains must not overtake it
+        assertTrue(sender.sendMessage("m10", "t"));
+
+        waitUntilDrained();
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i <= 10; i++) {
+            expected.add("m" + i);
+        }
+        assertEquals(expected, uplink.sent);
+        assertEquals(11, sender.getReplayedCount());
+    }
+
+    @Test
+    public void binaryPayloadsAreSpooledAndReplayedAsBinary() throws Exception {
+        sender = new StoreAndForwardMqttDataSender(new SegmentedMessageLog(folder.getRoot()));
+        sender.setReplayRatePerSecond(1000);
+        sender.setUplink(uplink);
+        uplink.connected = false;
+
+        byte[] frame = {1, 0, (byte) 0x80, (byte) 0xFF};
+        assertTrue(sender.sendBytes(frame, "t/bin"));
+        assertTrue(sender.sendMessage("text", "t"));
+        uplink.connected = true;
+
+        waitUntilDrained();
+        assertEquals(Arrays.asList(Arrays.toString(frame), "text"), uplink.sent);
+    }
+
+    @Test
+    public void spooledMessagesSurviveRestart() throws Exception {
+        sender = new StoreAndForwardMqttDataSender(new SegmentedMessageLog(folder.getRoot()));
+        sender.setUplink(uplink);
+        uplink.connected = false;
+        sender.sendMessage("kept-1", "t");
+        sender.sendMessage("kept-2", "t");
+        sender.disconnect();
+
+        uplink.connected = true;
+        sender = new StoreAndForwardMqttDataSender(new SegmentedMessageLog(folder.getRoot()));
+        sender.setReplayRatePerSecond(1000);
+        sender.setUplink(uplink);
+
+        waitUntilDrained();
+        assertEquals(2, uplink.sent.size());
+        assertEquals("kept-1", uplink.sent.get(0));
+        assertEquals("kept-2", uplink.sent.get(1));
+    }
+
+    @Test
+    public void writeAheadModeLogsEveryMessage() throws Exception {
+        sender = new StoreAndForwardMqttDataSender(new SegmentedMessageLog(folder.getRoot()),
+                StoreAndForwardMqttDataSender.Mode.WRITE_AHEAD);
+        sender.setReplayRatePerSecond(1000);
+        sender.setUplink(uplink);
+
+        sender.sendMessage("a", "t");
+        sender.sendMessage("b", "t");
+        assertEquals(2, sender.getSpooledCount());
+
+        waitUntilDrained();
+        assertEquals(2, uplink.sent.size());
+        assertEquals(0, sender.getForwardedCount());
+    }
+
+    @Test
+    public void withoutLogMessagesAreOnlyForwarded() {
+        sender = new StoreAndForwardMqttDataSender(null);
+        sender.setUplink(uplink);
+        assertTrue(sender.sendMessage("a", "t"));
+
+        uplink.connected = false;
+        assertFalse(sender.sendMessage("b", "t"));
+        assertEquals(1, sender.getLostCount());
+    }
+
+    @Test
+    public void replayedRecordsStayInTheLogUntilDelivered() throws Exception {
+        ConfirmingUplink confirming = new ConfirmingUplink();
+        sender = new StoreAndForwardMqttDataSender(new SegmentedMessageLog(folder.getRoot()));
+        sender.setReplayRatePerSecond(1000);
+        sender.setUplink(confirming);
+        confirming.connected = false;
+        for (int i = 0; i < 3; i++) {
+            sender.sendMessage("m" + i, "t");
+        }
+        confirming.connected = true;
+
+        MqttDataSender.DeliveryCallback first = confirming.next();
+        MqttDataSender.DeliveryCallback second = confirming.next();
+        MqttDataSender.DeliveryCallback third = confirming.next();
+        assertEquals(3, sender.getPendingCount());
+
+        // Out of order: the cursor only moves over the delivered prefix
+        second.onDeliveryComplete(true);
+        assertEquals(3, sender.getPendingCount());
+        first.onDeliveryComplete(true);
+        assertEquals(1, sender.getPendingCount());
+
+        // Connection lost before the PUBACK: m2 is published again
+        third.onDeliveryComplete(false);
+        confirming.next().onDeliveryComplete(true);
+        waitUntilDrained();
+        assertEquals(Arrays.asList("m0", "m1", "m2", "m2"), confirming.sent);
+        assertEquals(1, sender.getRedeliveryCount());
+    }
+
+    @Test
+    public void retentionDuringReplaySkipsNothing() throws Exception {
+        ConfirmingUplink confirming = new ConfirmingUplink();
+        SegmentedMessageLog log = new SegmentedMessageLog(folder.getRoot(), 1024, 3 * 1024, Long.MAX_VALUE);
+        sender = new StoreAndForwardMqttDataSender(log);
+        sender.setReplayRatePerSecond(10);
+        sender.setUplink(confirming);
+        String padding = new String(new char[100]).replace('\0', 'p');
+        confirming.connected = false;
+        for (int i = 0; i < 10; i++) {
+            sender.sendMessage(padding + i, "t");
+        }
+
+        // Replay starts, then the uplink drops with m0 (and maybe m1) unconfirmed
+        confirming.connected = true;
+        List<MqttDataSender.DeliveryCallback> held = new ArrayList<>();
+        held.add(confirming.next());
+        confirming.connected = false;
+        Thread.sleep(2 * 100);
+        confirming.unconfirmed.drainTo(held);
+        int replayedBeforeDrop = confirming.sent.size();
+
+        // The backlog grows past the retention limit: the segment of the records in flight goes
+        for (int i = 10; i < 40; i++) {
+            sender.sendMessage(padding + i, "t");
+        }
+        long dropped = log.getDroppedRecords();
+        assertTrue(dropped > replayedBeforeDrop);
+
+        confirming.connected = true;
+        for (MqttDataSender.DeliveryCallback callback : held) {
+            callback.onDeliveryComplete(true);
+        }
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (sender.getPendingCount() > 0 && System.currentTimeMillis() < deadline) {
+            MqttDataSender.DeliveryCallback callback = confirming.unconfirmed.poll(50, TimeUnit.MILLISECONDS);
+            if (callback != null) callback.onDeliveryComplete(true);
+        }
+        assertEquals(0, sender.getPendingCount());
+
+        // Every record after the dropped ones was published, in order
+        List<String> expected = new ArrayList<>();
+        for (long i = dropped; i < 40; i++) {
+            expected.add(padding + i);
+        }
+        assertEquals(expected, confirming.sent.subList(replayedBeforeDrop, confirming.sent.size()));
+        assertEquals(40, dropped + log.getAcknowledgedRecords());
+    }
+
+    @Test
+    public void failedDirectDeliveryIsSpooled() throws Exception {
+        ConfirmingUplink confirming = new ConfirmingUplink();
+        sender = new StoreAndForwardMqttDataSender(new SegmentedMessageLog(folder.getRoot()));
+        sender.setReplayRatePerSecond(1000);
+        sender.setUplink(confirming);
+
+        assertTrue(sender.sendMessage("a", "t"));
+        assertEquals(0, sender.getPendingCount());
+        confirming.next().onDeliveryComplete(false);
+        assertEquals(1, sender.getSpooledCount());
+
+        confirming.next().onDeliveryComplete(true);
+        waitUntilDrained();
+        assertEquals(Arrays.asList("a", "a"), confirming.sent);
+        assertEquals(0, sender.getForwardedCount());
+        assertEquals(1, sender.getReplayedCount());
+    }
+
+    private void waitUntilDrained() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 3000;
+        while (sender.getPendingCount() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, sender.getPendingCount());
+    }
+}
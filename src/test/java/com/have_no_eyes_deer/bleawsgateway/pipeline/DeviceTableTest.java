@@ -0,0 +1,37 @@
+package com.have_no_eyes_deer.bleawsgateway.pipeline;
+
+import com.have_no_eyes_deer.bleawsgateway.ble.DeviceRegistry;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class DeviceTableTest {
+
+    private final DeviceTable table = new DeviceTable();
+
+    @Test
+    public void streamsAreFoundByRegistryId() {
+        int first = table.indexOf(3, "AA:BB:CC:DD:EE:01", "Nano", "svc", "chr-1");
+        int second = table.indexOf(3, "AA:BB:CC:DD:EE:01", null, "svc", "chr-2");
+        assertNotEquals(first, second);
+        assertEquals(first, table.indexOf(3, "AA:BB:CC:DD:EE:01", null, null, "chr-1"));
+        // The address path sees the same streams
+        assertEquals(second, table.indexOf("AA:BB:CC:DD:EE:01", null, null, "chr-2"));
+        assertEquals("Nano", table.get(first).deviceName);
+
+        // Ids beyond the initial array, and no id at all
+        int far = table.indexOf(1_000, "AA:BB:CC:DD:EE:02", null, "svc", "chr-1");
+        assertEquals(far, table.indexOf(DeviceRegistry.NO_ID, "AA:BB:CC:DD:EE:02", null, null, "chr-1"));
+        assertEquals(3, table.size());
+    }
+
+    @Test
+    public void reusedIdOfAnotherAddressGetsItsOwnStreams() {
+        int old = table.indexOf(0, "AA:BB:CC:DD:EE:01", null, "svc", "chr");
+        int reused = table.indexOf(0, "AA:BB:CC:DD:EE:02", null, "svc", "chr");
+        assertNotEquals(old, reused);
+        assertEquals("AA:BB:CC:DD:EE:02", table.get(reused).deviceAddress);
+        assertEquals(reused, table.indexOf(0, "AA:BB:CC:DD:EE:02", null, null, "chr"));
+    }
+}
@@ -0,0 +1,141 @@
+package com.have_no_eyes_deer.bleawsgateway.pipeline;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class FrameReassemblerTest {
+
+    private final FrameReassembler reassembler = new FrameReassembler();
+    private final List<String> frames = new ArrayList<>();
+    private final List<Long> timestamps = new ArrayList<>();
+    private final List<Boolean> copied = new ArrayList<>();
+    private byte[] lastValue;
+
+    private final FrameReassembler.FrameSink sink = (deviceIndex, timestamp, buffer, offset, length) -> {
+        frames.add(deviceIndex + ":" + new String(buffer, offset, length, StandardCharsets.UTF_8));
+        timestamps.add(timestamp);
+        copied.add(buffer != lastValue);
+    };
+
+    private void feed(int device, String characteristic, long time, byte[] value) {
+        lastValue = value;
+        reassembler.accept(device, "svc", characteristic, "Nano", time, value, 0, value.length, sink);
+    }
+
+    private void feed(int device, long time, String value) {
+        feed(device, "chr", time, value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static byte[] prefixed(String... payloads) {
+        int total = 0;
+        for (String payload : payloads) total += 2 + payload.length();
+        byte[] out = new byte[total];
+        int pos = 0;
+        for (String payload : payloads) {
+            out[pos++] = (byte) (payload.length() >> 8);
+            out[pos++] = (byte) payload.length();
+            byte[] bytes = payload.getBytes(StandardCharsets.UTF_8);
+            System.arraycopy(bytes, 0, out, pos, bytes.length);
+            pos += bytes.length;
+        }
+        return out;
+    }
+
+    private static byte[] slice(byte[] data, int from, int to) {
+        byte[] out = new byte[to - from];
+        System.arraycopy(data, from, out, 0, out.length);
+        return out;
+    }
+
+    @Test
+    public void unframedNotificationsPassThrough() {
+        feed(0, 1, "T1:23.5C");
+        feed(0, 2, "T1:23.6C");
+        assertEquals(List.of("0:T1:23.5C", "0:T1:23.6C"), frames);
+        assertEquals(List.of(false, false), copied);
+    }
+
+    @Test
+    public void lengthPrefixedFramesAcrossFragments() {
+        reassembler.setDefaultFraming(FrameReassembler.Framing.lengthPrefixed(2, true, 512, 1_000));
+        String big = "T:25.1,H:60.2,B:87,P:1013.25,LUX:20000,CO2:415,VOC:12,PM25:3.5";
+        byte[] stream = prefixed(big, "S:1", "S:2");
+
+        // 20 byte notifications, as with the default MTU; the split header included
+        for (int pos = 0, i = 0; pos < stream.length; pos += 20, i++) {
+            feed(3, "chr", 100 + i, slice(stream, pos, Math.min(stream.length, pos + 20)));
+        }
+        assertEquals(List.of("3:" + big, "3:S:1", "3:S:2"), frames);
+        assertEquals(Long.valueOf(100), timestamps.get(0));   // first fragment's time
+        assertEquals(0, reassembler.getMalformedCount());
+    }
+
+    @Test
+    public void wholeFramesInOneNotificationAreNotCopied() {
+        reassembler.setDefaultFraming(FrameReassembler.Framing.lengthPrefixed(2, true, 512, 1_000));
+        feed(0, "chr", 1, prefixed("A:1", "B:22"));
+        assertEquals(List.of("0:A:1", "0:B:22"), frames);
+        assertEquals(List.of(false, false), copied);
+    }
+
+    @Test
+    public void delimitedFramesAndStreamsPerCharacteristic() {
+        reassembler.registerCharacteristic("text", FrameReassembler.Framing.delimited((byte) '\n', 64, 1_000));
+        feed(0, "text", 1, "T:25.1,H:6".getBytes(StandardCharsets.UTF_8));
+        feed(1, "text", 1, "X:".getBytes(StandardCharsets.UTF_8));
+        feed(0, "raw", 1, "plain".getBytes(StandardCharsets.UTF_8));   // not framed
+        feed(0, "text", 2, "0.2\nS:1\n\nS:".getBytes(StandardCharsets.UTF_8));
+        feed(1, "text", 2, "9\n".getBytes(StandardCharsets.UTF_8));
+        feed(0, "text", 3, "2\n".getBytes(StandardCharsets.UTF_8));
+
+        assertEquals(List.of("0:plain", "0:T:25.1,H:60.2", "0:S:1", "1:X:9", "0:S:2"), frames);
+    }
+
+    @Test
+    public void malformedFramesAreCountedAndStreamResyncs() {
+        reassembler.setDefaultFraming(FrameReassembler.Framing.lengthPrefixed(1, true, 16, 1_000));
+        feed(0, "chr", 1, new byte[]{100, 'x', 'y'});          // longer than maxFrameLength
+        feed(0, "chr", 2, new byte[]{0});                       // zero length
+        feed(0, "chr", 3, new byte[]{2, 'o', 'k'});
+        assertEquals(List.of("0:ok"), frames);
+        assertEquals(2, reassembler.getMalformedCount());
+
+        reassembler.registerCharacteristic("line", FrameReassembler.Framing.delimited((byte) '\n', 8, 1_000));
+        feed(0, "line", 4, "0123456".getBytes(StandardCharsets.UTF_8));
+        feed(0, "line", 5, "789\nok\n".getBytes(StandardCharsets.UTF_8));    // the 11 byte frame is dropped
+        assertEquals(List.of("0:ok", "0:ok"), frames);
+        assertEquals(3, reassembler.getMalformedCount());
+    }
+
+    @Test
+    public void partialFramesTimeOut() {
+        reassembler.setDefaultFraming(FrameReassembler.Framing.lengthPrefixed(2, true, 512, 1_000));
+        byte[] frame = prefixed("0123456789");
+        feed(0, "chr", 0, slice(frame, 0, 5));
+        // The rest never came; a new frame starts after the timeout
+        feed(0, "chr", 1_500, prefixed("S:1"));
+        assertEquals(List.of("0:S:1"), frames);
+        assertEquals(1, reassembler.getTimedOutCount());
+
+        feed(0, "chr", 2_000, slice(frame, 0, 5));
+        reassembler.expire(2_500);
+        assertEquals(1, reassembler.getTimedOutCount());
+        reassembler.expire(3_001);
+        assertEquals(2, reassembler.getTimedOutCount());
+        assertEquals(3, reassembler.getFrameCount() + reassembler.getTimedOutCount());
+    }
+
+    @Test
+    public void littleEndianFourByteLength() {
+        reassembler.setDefaultFraming(FrameReassembler.Framing.lengthPrefixed(4, false, 512, 1_000));
+        feed(0, "chr", 1, new byte[]{3, 0});
+        feed(0, "chr", 1, new byte[]{0, 0, 'a', 'b'});
+        feed(0, "chr", 1, new byte[]{'c'});
+        assertEquals(List.of("0:abc"), frames);
+    }
+}
@@ -0,0 +1,340 @@
+package com.have_no_eyes_deer.bleawsgateway.pipeline;
+
+import com.have_no_eyes_deer.bleawsgateway.aggregate.WindowAggregator;
+import com.have_no_eyes_deer.bleawsgateway.codec.BinaryFramePayloadCodec;
+import com.have_no_eyes_deer.bleawsgateway.codec.PayloadCodecs;
+import com.have_no_eyes_deer.bleawsgateway.decoder.PayloadDecoderRegistry;
+import com.have_no_eyes_deer.bleawsgateway.decoder.RawPayloadDecoder;
+import com.have_no_eyes_deer.bleawsgateway.filter.ReadingFilter;
+import com.have_no_eyes_deer.bleawsgateway.model.DecodedReading;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class GatewayPipelineTest {
+
+    private GatewayPipeline pipeline;
+
+    @Before
+    public void setUp() {
+        pipeline = new GatewayPipeline(50);
+    }
+
+    @After
+    public void tearDown() {
+        pipeline.shutdown();
+    }
+
+    @Test
+    public void forwardsTemperatureReadingOffCallerThread() throws Exception {
+        List<String> topics = new CopyOnWriteArrayList<>();
+        List<String> payloads = new CopyOnWriteArrayList<>();
+        List<String> threads = new CopyOnWriteArrayList<>();
+        CountDownLatch published = new CountDownLatch(1);
+        pipeline.setPublisher((payload, topic) -> {
+            topics.add(topic);
+            payloads.add(payload);
+            threads.add(Thread.currentThread().getName());
+            published.countDown();
+            return true;
+        });
+
+        pipeline.onNotification("AA:BB:CC:DD:EE:FF", "NanoBowen", "svc", "chr",
+                "T1:23.5C".getBytes(StandardCharsets.UTF_8));
+
+        assertTrue(published.await(2, TimeUnit.SECONDS));
+        assertEquals("devices/AABBCCDDEEFF/data", topics.get(0));
+        assertTrue(payloads.get(0).contains("\"type\":\"temperature\""));
+        assertTrue(payloads.get(0).contains("\"temperature\":23.5"));
+        assertEquals("pipeline-publish", threads.get(0));
+    }
+
+    @Test
+    public void binaryCodecGoesToBinaryPublisherWithTopicSuffix() throws Exception {
+        List<String> topics = new CopyOnWriteArrayList<>();
+        List<byte[]> payloads = new CopyOnWriteArrayList<>();
+        CountDownLatch published = new CountDownLatch(1);
+        pipeline.setPublisher((payload, topic) -> {
+            fail("text publisher used for a binary codec");
+            return false;
+        });
+        pipeline.setBinaryPublisher((payload, topic) -> {
+            topics.add(topic);
+            payloads.add(payload);
+            published.countDown();
+            return true;
+        });
+        pipeline.setPayloadCodec(PayloadCodecs.create(PayloadCodecs.BINARY));
+
+        pipeline.onNotification("AA:BB:CC:DD:EE:FF", "NanoBowen", "svc", "chr",
+                "T1:23.5C".getBytes(StandardCharsets.UTF_8));
+
+        assertTrue(published.await(2, TimeUnit.SECONDS));
+        assertEquals("devices/AABBCCDDEEFF/data/bin", topics.get(0));
+        assertEquals(BinaryFramePayloadCodec.FRAME_SIZE, payloads.get(0).length);
+    }
+
+    @Test
+    public void negativeValuesWithLeadingZerosStayValidJson() throws Exception {
+        CountDownLatch published = new CountDownLatch(2);
+        List<String> payloads = new CopyOnWriteArrayList<>();
+        pipeline.setPublisher((payload, topic) -> {
+            payloads.add(payload);
+            published.countDown();
+            return true;
+        });
+
+        pipeline.onNotification("AA:BB:CC:DD:EE:FF", "Nano", "svc", "chr",
+                "T:-05.2,H:60.2,B:87".getBytes(StandardCharsets.UTF_8));
+        pipeline.onNotification("AA:BB:CC:DD:EE:FF", "Nano", "svc", "chr",
+                "Sample:-03.5°C".getBytes(StandardCharsets.UTF_8));
+
+        assertTrue(published.await(2, TimeUnit.SECONDS));
+        assertTrue(payloads.get(0), payloads.get(0).contains("\"temperature\":-5.2,"));
+        assertTrue(payloads.get(1), payloads.get(1).contains("\"temperature\":-3.5"));
+    }
+
+    @Test
+    public void notificationBufferIsCopiedOnIngest() throws Exception {
+        CountDownLatch published = new CountDownLatch(1);
+        List<String> payloads = new CopyOnWriteArrayList<>();
+        pipeline.setPublisher((payload, topic) -> {
+            payloads.add(payload);
+            published.countDown();
+            return true;
+        });
+
+        byte[] shared = "hello".getBytes(StandardCharsets.UTF_8);
+        pipeline.onNotification("AA:BB:CC:DD:EE:FF", null, "svc", "chr", shared);
+        shared[0] = 'j'; // the stack reuses the characteristic buffer
+
+        assertTrue(published.await(2, TimeUnit.SECONDS));
+        assertTrue(payloads.get(0).contains("\"data\":\"hello\""));
+        assertTrue(payloads.get(0).contains("\"deviceName\":\"Unknown\""));
+    }
+
+    @Test
+    public void summaryIsThrottledAndCountsOutcomes() throws Exception {
+        CountDownLatch summaryReceived = new CountDownLatch(1);
+        List<PipelineSummary> summaries = new CopyOnWriteArrayList<>();
+        pipeline.setPublisher((payload, topic) -> {
+            if (payload.contains("fail")) throw new IllegalStateException("broker down");
+            return true;
+        });
+        pipeline.setSummaryListener(summary -> {
+            summaries.add(summary);
+            if (summary.totalReceived == 3 && summary.totalPublished + summary.totalFailed == 3) {
+                summaryReceived.countDown();
+            }
+        }, Runnable::run);
+
+        pipeline.onNotification("AA:BB:CC:DD:EE:01", "a", "svc", "chr", "1".getBytes(StandardCharsets.UTF_8));
+        pipeline.onNotification("AA:BB:CC:DD:EE:02", "b", "svc", "chr", "fail".getBytes(StandardCharsets.UTF_8));
+        pipeline.onNotification("AA:BB:CC:DD:EE:03", "c", "svc", "chr", "3".getBytes(StandardCharsets.UTF_8));
+
+        assertTrue(summaryReceived.await(2, TimeUnit.SECONDS));
+        assertEquals(2, pipeline.getTotalPublished());
+        assertEquals(1, pipeline.getTotalFailed());
+        int readings = 0;
+        for (PipelineSummary summary : summaries) {
+            readings += summary.recentReadings.size();
+        }
+        assertEquals(3, readings);
+    }
+
+    @Test
+    public void recentReadingsKeepTheirOwnCopyOfThePayload() throws Exception {
+        List<PipelineSummary> summaries = new CopyOnWriteArrayList<>();
+        pipeline.setPublisher((payload, topic) -> true);
+        pipeline.setSummaryListener(summaries::add, Runnable::run);
+
+        for (int i = 0; i < 100; i++) {
+            pipeline.onNotification("AA:BB:CC:DD:EE:FF", "x", "svc", "chr",
+                    ("value-" + i).getBytes(StandardCharsets.UTF_8));
+        }
+        long deadline = System.currentTimeMillis() + 2000;
+        int readings = 0;
+        int omitted = 0;
+        while (readings + omitted < 100 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+            readings = 0;
+            omitted = 0;
+            for (PipelineSummary summary : summaries) {
+                readings += summary.recentReadings.size();
+                omitted += summary.omittedReadings;
+            }
+        }
+        assertEquals(100, readings + omitted);
+
+        // Pooled records and ring entries are reused, the summaries still show each reading in order
+        int last = -1;
+        for (PipelineSummary summary : summaries) {
+            assertTrue(summary.recentReadings.size() <= 20);
+            for (PipelineSummary.Reading reading : summary.recentReadings) {
+                String value = new String(reading.rawData, StandardCharsets.UTF_8);
+                assertTrue(value, value.startsWith("value-"));
+                int index = Integer.parseInt(value.substring(6));
+                assertTrue(index > last);
+                last = index;
+                assertTrue(reading.published);
+            }
+        }
+        assertEquals(99, last);
+    }
+
+    @Test
+    public void readingFilterSuppressesUnchangedValues() throws Exception {
+        List<String> payloads = new CopyOnWriteArrayList<>();
+        pipeline.setPublisher((payload, topic) -> {
+            payloads.add(payload);
+            return true;
+        });
+        ReadingFilter filter = new ReadingFilter();
+        filter.setDefaultRule(DecodedReading.TEMPERATURE, new ReadingFilter.Rule(0.5, 0, 0, 0));
+        pipeline.setReadingFilter(filter);
+
+        String[] values = {"T1:23.5C", "T2:23.6C", "T3:23.4C", "T4:24.5C"};
+        for (String value : values) {
+            pipeline.onNotification("AA:BB:CC:DD:EE:FF", "x", "svc", "chr", value.getBytes(StandardCharsets.UTF_8));
+        }
+        pipeline.shutdown();
+
+        assertEquals(2, payloads.size());
+        assertTrue(payloads.get(1).contains("\"temperature\":24.5"));
+        assertEquals(2, pipeline.getTotalPublished());
+        assertEquals(2, pipeline.getTotalSuppressed());
+    }
+
+    @Test
+    public void aggregatesReplaceRawReadingsWhenRawIsDisabled() throws Exception {
+        List<String> topics = new CopyOnWriteArrayList<>();
+        List<String> payloads = new CopyOnWriteArrayList<>();
+        pipeline.setPublisher((payload, topic) -> {
+            topics.add(topic);
+            payloads.add(payload);
+            return true;
+        });
+        pipeline.setWindowAggregator(new WindowAggregator(3_600_000), false);
+
+        for (int i = 0; i < 10; i++) {
+            pipeline.onNotification("AA:BB:CC:DD:EE:0" + (i % 2), "x", "svc", "chr",
+                    ("T" + i + ":2" + i + "C").getBytes(StandardCharsets.UTF_8));
+        }
+        pipeline.shutdown(); // flushes the open windows
+
+        assertEquals(2, topics.size());
+        assertTrue(topics.contains("devices/AABBCCDDEE00/agg"));
+        assertTrue(topics.contains("devices/AABBCCDDEE01/agg"));
+        for (String payload : payloads) {
+            assertTrue(payload, payload.contains("\"samples\":5"));
+        }
+        assertEquals(10, pipeline.getTotalAggregated());
+        assertEquals(2, pipeline.getTotalPublished());
+    }
+
+    @Test
+    public void readingsAreSkippedWithoutPublisher() throws Exception {
+        pipeline.onNotification("AA:BB:CC:DD:EE:FF", "x", "svc", "chr", "1".getBytes(StandardCharsets.UTF_8));
+        pipeline.shutdown();
+        assertEquals(1, pipeline.getTotalSkipped());
+        assertEquals(0, pipeline.getTotalPublished());
+    }
+
+    @Test
+    public void monotonicArrivalTimeStampsTheReading() throws Exception {
+        List<String> payloads = new CopyOnWriteArrayList<>();
+        CountDownLatch published = new CountDownLatch(2);
+        pipeline.setPublisher((payload, topic) -> {
+            payloads.add(payload);
+            published.countDown();
+            return true;
+        });
+
+        long before = System.currentTimeMillis();
+        long bootNanos = 86_400_000_000_000L;     // one day after boot
+        pipeline.onNotification("AA:BB:CC:DD:EE:FF", "NanoBowen", "svc", "chr",
+                "T1:23.5C".getBytes(StandardCharsets.UTF_8), bootNanos);
+        // Arrived 1.25s later by the monotonic clock, handed over straight away
+        pipeline.onNotification("AA:BB:CC:DD:EE:FF", "NanoBowen", "svc", "chr",
+                "T1:23.6C".getBytes(StandardCharsets.UTF_8), bootNanos + 1_250_000_000L);
+
+        assertTrue(published.await(2, TimeUnit.SECONDS));
+        long first = timestampOf(payloads.get(0));
+        long second = timestampOf(payloads.get(1));
+        assertEquals(1_250, second - first);
+        assertTrue(first >= before && first <= System.currentTimeMillis());
+    }
+
+    @Test
+    public void advertisementsSkipFramingAndPublishDecodedFields() throws Exception {
+        List<String> topics = new CopyOnWriteArrayList<>();
+        List<String> payloads = new CopyOnWriteArrayList<>();
+        CountDownLatch published = new CountDownLatch(1);
+        pipeline.setPublisher((payload, topic) -> {
+            topics.add(topic);
+            payloads.add(payload);
+            published.countDown();
+            return true;
+        });
+        // Framing applies to notifications only
+        pipeline.getFrameReassembler().setDefaultFraming(FrameReassembler.Framing.delimited((byte) '\n', 64, 1_000));
+
+        // Service data inside a scan record: BTHome packet id 3, temperature 21.3 C
+        byte[] scanRecord = {0x02, 0x01, 0x06, 0x08, 0x16, (byte) 0xD2, (byte) 0xFC, 0x40, 0x00, 0x03, 0x02, 0x52, 0x08};
+        pipeline.onAdvertisement("A4:C1:38:00:00:01", "ATC_000001", PayloadDecoderRegistry.BTHOME_SERVICE_UUID,
+                scanRecord, 7, 6, 1_000_000_000L);
+
+        assertTrue(published.await(2, TimeUnit.SECONDS));
+        assertEquals("devices/A4C138000001/data", topics.get(0));
+        String payload = payloads.get(0);
+        assertTrue(payload, payload.contains("\"data\":\"400003025208\""));
+        assertTrue(payload, payload.contains("\"type\":\"sensor_data\""));
+        assertTrue(payload, payload.contains("\"sampleNumber\":3"));
+        assertTrue(payload, payload.contains("\"temperature\":21.3"));
+    }
+
+    @Test
+    public void characteristicsOfOneDeviceAreRoutedSeparately() throws Exception {
+        List<String> published = new CopyOnWriteArrayList<>();
+        CountDownLatch done = new CountDownLatch(4);
+        pipeline.setPublisher((payload, topic) -> {
+            published.add(topic + " " + (payload.contains("\"temperature\":") ? "temperature" : "raw"));
+            done.countDown();
+            return true;
+        });
+        StreamRoutes routes = pipeline.getStreamRoutes();
+        routes.add(null, "0000ffe1-0000-1000-8000-00805f9b34fb", null, "sensors/temperature");
+        routes.add("AA:BB:CC:DD:EE:FF", "0000FFE2-0000-1000-8000-00805F9B34FB", new RawPayloadDecoder(),
+                "devices/AABBCCDDEEFF/log");
+
+        // Two sensors of one peripheral, interleaved; the second device has no routes of its own
+        byte[] value = "T1:23.5C".getBytes(StandardCharsets.UTF_8);
+        pipeline.onNotification("AA:BB:CC:DD:EE:FF", "Multi", "svc", "0000ffe1-0000-1000-8000-00805f9b34fb", value);
+        pipeline.onNotification("AA:BB:CC:DD:EE:FF", "Multi", "svc", "0000ffe2-0000-1000-8000-00805f9b34fb", value);
+        pipeline.onNotification("AA:BB:CC:DD:EE:FF", "Multi", "svc", "0000ffe1-0000-1000-8000-00805f9b34fb", value);
+        pipeline.onNotification("11:22:33:44:55:66", "Multi", "svc", "0000ffe2-0000-1000-8000-00805f9b34fb", value);
+
+        assertTrue(done.await(2, TimeUnit.SECONDS));
+        assertEquals(List.of(
+                "sensors/temperature temperature",
+                "devices/AABBCCDDEEFF/log raw",
+                "sensors/temperature temperature",
+                "devices/112233445566/data temperature"), published);
+        assertEquals(2, routes.getVersion());
+        assertEquals(2, routes.getRoutes().size());
+    }
+
+    private static long timestampOf(String payload) {
+        int start = payload.indexOf("\"timestamp\":\"") + 13;
+        return java.time.Instant.parse(payload.substring(start, payload.indexOf('"', start))).toEpochMilli();
+    }
+}
@@ -0,0 +1,184 @@
+package com.have_no_eyes_deer.bleawsgateway.pipeline;
+
+import com.have_no_eyes_deer.bleawsgateway.aggregate.WindowAggregate;
+import com.have_no_eyes_deer.bleawsgateway.model.BleDataModel;
+import com.have_no_eyes_deer.bleawsgateway.model.DecodedReading;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+
+import static org.junit.Assert.*;
+
+public class JsonWriterTest {
+
+    @Test
+    public void writesObjectsArraysAndNumbers() {
+        JsonWriter writer = new JsonWriter(16);
+        writer.beginObject()
+                .name("a").value(1)
+                .name("b").value(-42)
+                .name("c").value(Long.MIN_VALUE)
+                .name("d").beginArray().value("x").value((String) null).beginObject().endObject().endArray()
+                .name("e").value(0)
+                .endObject();
+
+        assertEquals("{\"a\":1,\"b\":-42,\"c\":-9223372036854775808,\"d\":[\"x\",null,{}],\"e\":0}",
+                writer.toString());
+    }
+
+    @Test
+    public void writesDoubles() {
+        JsonWriter writer = new JsonWriter();
+        writer.beginArray().value(23.5).value(87.0).value(-0.125).value(1e-7).value(Double.NaN).endArray();
+        assertEquals("[23.5,87,-0.125,1.0E-7,null]", writer.toString());
+    }
+
+    @Test
+    public void numberSlicesLoseLeadingZeros() {
+        byte[] raw = "T:-05.2,H:007,Z:0.5,N:-0.5,O:-00,P:-3".getBytes(StandardCharsets.US_ASCII);
+        JsonWriter writer = new JsonWriter(4);
+        writer.beginArray()
+                .numberValue(raw, 2, 5)
+                .numberValue(raw, 10, 3)
+                .numberValue(raw, 16, 3)
+                .numberValue(raw, 22, 4)
+                .numberValue(raw, 29, 3)
+                .numberValue(raw, 35, 2)
+                .endArray();
+        assertEquals("[-5.2,7,0.5,-0.5,-0,-3]", writer.toString());
+    }
+
+    @Test
+    public void aggregateJson() {
+        WindowAggregate aggregate = new WindowAggregate();
+        aggregate.deviceAddress = "AA:BB:CC:DD:EE:FF";
+        aggregate.windowStart = 0;
+        aggregate.windowEnd = 10_000;
+        aggregate.samples = 3;
+        aggregate.count[DecodedReading.TEMPERATURE] = 3;
+        aggregate.min[DecodedReading.TEMPERATURE] = 20.1;
+        aggregate.max[DecodedReading.TEMPERATURE] = 20.3;
+        aggregate.sum[DecodedReading.TEMPERATURE] = 20.1 + 20.2 + 20.3;
+
+        TelemetryFormatter formatter = new TelemetryFormatter();
+        assertEquals("devices/AABBCCDDEEFF/agg", formatter.aggregateTopicFor(aggregate.deviceAddress));
+        assertEquals("{\"device\":\"AA:BB:CC:DD:EE:FF\",\"deviceName\":\"Unknown\",\"type\":\"aggregate\","
+                        + "\"windowStart\":\"1970-01-01T00:00:00.000Z\",\"windowEnd\":\"1970-01-01T00:00:10.000Z\","
+                        + "\"samples\":3,\"temperature\":{\"count\":3,\"min\":20.1,\"max\":20.3,\"mean\":20.2}}",
+                formatter.toJson(aggregate));
+    }
+
+    @Test
+    public void escapesStringsInOnePass() {
+        JsonWriter writer = new JsonWriter();
+        writer.beginArray().value("q\"b\\n\nr\rt\t\u0001 °C 温度 \uD83D\uDE00").endArray();
+
+        String json = writer.toString();
+        assertEquals("[\"q\\\"b\\\\n\\nr\\rt\\t\\u0001 °C 温度 \uD83D\uDE00\"]", json);
+    }
+
+    @Test
+    public void utf8ValueMatchesDecodedString() {
+        byte[] raw = "Sample:23.4°C \"x\"".getBytes(StandardCharsets.UTF_8);
+        JsonWriter fromBytes = new JsonWriter();
+        fromBytes.beginArray().utf8Value(raw, 0, raw.length).endArray();
+        JsonWriter fromString = new JsonWriter();
+        fromString.beginArray().value(new String(raw, StandardCharsets.UTF_8)).endArray();
+
+        assertEquals(fromString.toString(), fromBytes.toString());
+    }
+
+    @Test
+    public void malformedUtf8BecomesReplacementCharacter() {
+        byte[] raw = {'a', (byte) 0xC3, 'b', (byte) 0xFF, (byte) 0xE2, (byte) 0x82};
+        JsonWriter writer = new JsonWriter();
+        writer.beginArray().utf8Value(raw, 0, raw.length).endArray();
+
+        assertEquals("[\"a\uFFFDb\uFFFD\uFFFD\uFFFD\"]", writer.toString());
+    }
+
+    @Test
+    public void timestampsMatchSimpleDateFormat() {
+        SimpleDateFormat iso = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.US);
+        iso.setTimeZone(TimeZone.getTimeZone("UTC"));
+        JsonWriter writer = new JsonWriter();
+        Random random = new Random(7);
+        long[] fixed = {0L, 951782400000L, 1709164799999L, 4102444800000L, 253402300799999L};
+
+        for (int i = 0; i < 2000; i++) {
+            long millis = i < fixed.length ? fixed[i] : (long) (random.nextDouble() * 4102444800000L);
+            writer.reset().beginArray().timestampValue(millis).endArray();
+            assertEquals("[\"" + iso.format(new Date(millis)) + "\"]", writer.toString());
+        }
+    }
+
+    @Test
+    public void telemetryMatchesLegacyFormat() {
+        TelemetryFormatter formatter = new TelemetryFormatter();
+        String[] samples = {"T1:23.5C", "T12:7C", "Sample:23.4°C", "T:25.1,H:60.2,B:87", "T1:2.3.4C",
+                "say \"hi\"\n", ""};
+        for (String sample : samples) {
+            BleDataModel data = new BleDataModel("AA:BB:CC:DD:EE:FF", "Nano\"33", "svc", "chr",
+                    sample.getBytes(StandardCharsets.UTF_8), sample);
+            String expected = legacyToJson(data);
+            if (sample.equals("T1:2.3.4C")) {
+                // Legacy path emitted the invalid number 2.3.4; now reported as sensor data
+                assertTrue(formatter.toJson(data).contains("\"type\":\"sensor_data\""));
+                continue;
+            }
+            // Decoded fields are appended after the legacy sensor_data fields
+            if (sample.startsWith("Sample:")) {
+                expected = expected.substring(0, expected.length() - 1) + ",\"temperature\":23.4,\"unit\":\"C\"}";
+            } else if (sample.startsWith("T:")) {
+                expected = expected.substring(0, expected.length() - 1)
+                        + ",\"temperature\":25.1,\"humidity\":60.2,\"battery\":87,\"unit\":\"C\"}";
+            }
+            assertEquals(expected, formatter.toJson(data));
+        }
+    }
+
+    @Test
+    public void unknownDeviceNameDefault() {
+        TelemetryFormatter formatter = new TelemetryFormatter();
+        BleDataModel data = new BleDataModel("AA:BB", new byte[]{1, 2}, "");
+        assertTrue(formatter.toJson(data).contains("\"deviceName\":\"Unknown\""));
+        assertTrue(formatter.toJson(data).contains("\"dataLength\":2"));
+    }
+
+    /**
+     * The String.format implementation the writer replaced
+     */
+    static String legacyToJson(BleDataModel data) {
+        SimpleDateFormat iso = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.US);
+        iso.setTimeZone(TimeZone.getTimeZone("UTC"));
+        byte[] raw = data.getRawData();
+        String utf8Data = raw != null ? new String(raw, StandardCharsets.UTF_8) : "";
+        String deviceName = data.getDeviceName();
+        if (deviceName == null || deviceName.trim().isEmpty()) {
+            deviceName = "Unknown";
+        }
+        String timestamp = iso.format(data.getTimestamp());
+        if (utf8Data.matches("T\\d+:[\\d.]+C")) {
+            String[] parts = utf8Data.split(":");
+            return String.format(
+                    "{\"device\":\"%s\",\"deviceName\":\"%s\",\"timestamp\":\"%s\",\"type\":\"temperature\",\"sampleNumber\":%s,\"temperature\":%s,\"unit\":\"C\",\"rawData\":\"%s\"}",
+                    escape(data.getDeviceAddress()), escape(deviceName), timestamp,
+                    parts[0].substring(1), parts[1].replace("C", ""), escape(utf8Data));
+        }
+        return String.format(
+                "{\"device\":\"%s\",\"deviceName\":\"%s\",\"timestamp\":\"%s\",\"data\":\"%s\",\"dataLength\":%d,\"type\":\"sensor_data\"}",
+                escape(data.getDeviceAddress()), escape(deviceName), timestamp, escape(utf8Data),
+                raw != null ? raw.length : 0);
+    }
+
+    private static String escape(String str) {
+        return str.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n")
+                .replace("\r", "\\r").replace("\t", "\\t");
+    }
+}
@@ -0,0 +1,153 @@
+package com.have_no_eyes_deer.bleawsgateway.pipeline;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class NotificationRingBufferTest {
+
+    private static byte[] value(int n) {
+        return new byte[]{(byte) n, (byte) (n >> 8), (byte) (n >> 16), (byte) (n >> 24)};
+    }
+
+    private static int decode(byte[] buffer) {
+        return (buffer[0] & 0xFF) | (buffer[1] & 0xFF) << 8 | (buffer[2] & 0xFF) << 16 | (buffer[3] & 0xFF) << 24;
+    }
+
+    @Test
+    public void deliversSlotsInOrder() {
+        NotificationRingBuffer ring = new NotificationRingBuffer(8, 16, NotificationRingBuffer.OverflowPolicy.DROP_NEWEST);
+        for (int i = 0; i < 5; i++) {
+            assertTrue(ring.publish(i % 2, 1000 + i, value(i), 0, 4));
+        }
+        List<Integer> values = new ArrayList<>();
+        List<Integer> devices = new ArrayList<>();
+        int drained = ring.drain((deviceIndex, timestamp, buffer, length) -> {
+            assertEquals(4, length);
+            assertEquals(1000 + decode(buffer), timestamp);
+            values.add(decode(buffer));
+            devices.add(deviceIndex);
+        }, 100);
+
+        assertEquals(5, drained);
+        assertEquals(java.util.Arrays.asList(0, 1, 2, 3, 4), values);
+        assertEquals(java.util.Arrays.asList(0, 1, 0, 1, 0), devices);
+        assertEquals(0, ring.size());
+    }
+
+    @Test
+    public void dropNewestRejectsWhenFull() {
+        NotificationRingBuffer ring = new NotificationRingBuffer(4, 16, NotificationRingBuffer.OverflowPolicy.DROP_NEWEST);
+        for (int i = 0; i < 6; i++) {
+            ring.publish(0, i, value(i), 0, 4);
+        }
+        assertEquals(2, ring.getDroppedNewestCount());
+        List<Integer> values = new ArrayList<>();
+        ring.drain((d, t, buffer, length) -> values.add(decode(buffer)), 100);
+        assertEquals(java.util.Arrays.asList(0, 1, 2, 3), values);
+    }
+
+    @Test
+    public void dropOldestKeepsFreshestReadings() {
+        NotificationRingBuffer ring = new NotificationRingBuffer(4, 16, NotificationRingBuffer.OverflowPolicy.DROP_OLDEST);
+        for (int i = 0; i < 6; i++) {
+            assertTrue(ring.publish(0, i, value(i), 0, 4));
+        }
+        assertEquals(2, ring.getDroppedOldestCount());
+        List<Integer> values = new ArrayList<>();
+        ring.drain((d, t, buffer, length) -> values.add(decode(buffer)), 100);
+        assertEquals(java.util.Arrays.asList(2, 3, 4, 5), values);
+    }
+
+    @Test
+    public void oversizedValuesAreCounted() {
+        NotificationRingBuffer ring = new NotificationRingBuffer(4, 8, NotificationRingBuffer.OverflowPolicy.DROP_OLDEST);
+        assertFalse(ring.publish(0, 0, new byte[9], 0, 9));
+        assertEquals(1, ring.getOversizedCount());
+        assertEquals(0, ring.size());
+    }
+
+    @Test
+    public void blockingPolicyLosesNothingWithConcurrentProducers() throws Exception {
+        final int producers = 4;
+        final int perProducer = 20_000;
+        NotificationRingBuffer ring = new NotificationRingBuffer(64, 8, NotificationRingBuffer.OverflowPolicy.BLOCK);
+        AtomicLong checksum = new AtomicLong();
+        AtomicInteger consumed = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(producers);
+
+        Thread consumer = new Thread(() -> {
+            while (consumed.get() < producers * perProducer) {
+                ring.drain((d, t, buffer, length) -> {
+                    checksum.addAndGet(decode(buffer));
+                    consumed.incrementAndGet();
+                }, 32);
+            }
+        });
+        ring.setConsumerThread(consumer);
+        consumer.start();
+
+        long expected = 0;
+        for (int p = 0; p < producers; p++) {
+            final int base = p * perProducer;
+            for (int i = 0; i < perProducer; i++) expected += base + i;
+            new Thread(() -> {
+                for (int i = 0; i < perProducer; i++) {
+                    ring.publish(0, 0, value(base + i), 0, 4);
+                }
+                done.countDown();
+            }).start();
+        }
+        done.await();
+        consumer.join(10_000);
+
+        assertEquals(producers * perProducer, consumed.get());
+        assertEquals(expected, checksum.get());
+        assertEquals(0, ring.getDroppedOldestCount() + ring.getDroppedNewestCount());
+    }
+
+    @Test
+    public void dropOldestNeverDeliversTornSlots() throws Exception {
+        final int producers = 3;
+        final int perProducer = 50_000;
+        NotificationRingBuffer ring = new NotificationRingBuffer(16, 8, NotificationRingBuffer.OverflowPolicy.DROP_OLDEST);
+        AtomicInteger consumed = new AtomicInteger();
+        AtomicInteger torn = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(producers);
+
+        for (int p = 0; p < producers; p++) {
+            new Thread(() -> {
+                byte[] buffer = new byte[8];
+                for (int i = 0; i < perProducer; i++) {
+                    java.util.Arrays.fill(buffer, (byte) i);
+                    ring.publish(0, 0, buffer, 0, 8);
+                }
+                done.countDown();
+            }).start();
+        }
+        NotificationRingBuffer.SlotHandler handler = (d, t, buffer, length) -> {
+            for (int i = 1; i < length; i++) {
+                if (buffer[i] != buffer[0]) torn.incrementAndGet();
+            }
+            consumed.incrementAndGet();
+        };
+        while (done.getCount() > 0) {
+            ring.drain(handler, 4);
+        }
+        ring.drain(handler, Integer.MAX_VALUE);
+
+        assertEquals(0, torn.get());
+        assertEquals(ring.getPublishedCount(), consumed.get() + ring.getDroppedOldestCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void capacityMustBePowerOfTwo() {
+        new NotificationRingBuffer(6, NotificationRingBuffer.OverflowPolicy.BLOCK);
+    }
+}
@@ -0,0 +1,169 @@
+package com.have_no_eyes_deer.bleawsgateway.pipeline;
+
+import com.have_no_eyes_deer.bleawsgateway.decoder.PayloadDecoder;
+import com.have_no_eyes_deer.bleawsgateway.decoder.PayloadDecoderRegistry;
+import com.have_no_eyes_deer.bleawsgateway.filter.ReadingFilter;
+import com.have_no_eyes_deer.bleawsgateway.model.BleDataModel;
+import com.have_no_eyes_deer.bleawsgateway.model.DecodedReading;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import static org.junit.Assert.*;
+
+public class ReadingPoolTest {
+
+    @Test
+    public void recordsAreReusedWithTheirBuffers() {
+        ReadingPool pool = new ReadingPool(4, 512);
+        BleDataModel first = pool.acquire("T1:23.5C".getBytes(StandardCharsets.UTF_8), 8);
+        byte[] buffer = first.getRawBuffer();
+        DecodedReading decoded = first.getDecoded();
+        assertEquals(512, buffer.length);
+        assertEquals(8, first.getRawLength());
+        assertEquals("T1:23.5C", first.getDataString());
+        assertArrayEquals("T1:23.5C".getBytes(StandardCharsets.UTF_8), first.getRawData());
+        pool.release(first);
+
+        BleDataModel second = pool.acquire("T1:9C".getBytes(StandardCharsets.UTF_8), 5);
+        second.reset("AA:BB:CC:DD:EE:FF", "Nano", "svc", "chr", 1_000);
+        assertSame(first, second);
+        assertSame(buffer, second.getRawBuffer());
+        assertSame(decoded, second.getDecoded());
+        assertEquals("T1:9C", second.getDataString());      // not the previous reading's string
+        assertEquals(1_000, second.getTimestampMillis());
+        assertEquals(1, pool.getCreatedCount());
+        assertEquals(1, pool.getReusedCount());
+    }
+
+    @Test
+    public void fullPoolDiscardsAndLargeValuesGrowTheBuffer() {
+        ReadingPool pool = new ReadingPool(1, 16);
+        BleDataModel a = pool.acquire(new byte[4], 4);
+        BleDataModel b = pool.acquire(new byte[32], 32);
+        assertEquals(32, b.getRawBuffer().length);
+        pool.release(a);
+        pool.release(b);
+        assertEquals(1, pool.getAvailable());
+        assertEquals(1, pool.getDiscardedCount());
+    }
+
+    @Test
+    public void pipelineRecyclesPublishedReadings() throws Exception {
+        // BLOCK: every reading has to come through, the producer is faster than the stages
+        GatewayPipeline pipeline = new GatewayPipeline(50, 64, NotificationRingBuffer.OverflowPolicy.BLOCK);
+        int count = 2_000;
+        CountDownLatch published = new CountDownLatch(count);
+        pipeline.setPublisher((payload, topic) -> {
+            published.countDown();
+            return true;
+        });
+        try {
+            for (int i = 0; i < count; i++) {
+                pipeline.onNotification("AA:BB:CC:DD:EE:FF", "Nano", "svc", "chr",
+                        ("T" + i + ":23.5C").getBytes(StandardCharsets.UTF_8));
+            }
+            assertTrue(published.await(5, TimeUnit.SECONDS));
+        } finally {
+            pipeline.shutdown();
+        }
+        ReadingPool pool = pipeline.getReadingPool();
+        // Never more records than readings in flight between the stages
+        assertTrue(pool.getCreatedCount() <= 2 * 64 + 16);
+        assertEquals(count, pool.getCreatedCount() + pool.getReusedCount());
+        assertEquals(pool.getCreatedCount(), pool.getAvailable() + pool.getDiscardedCount());
+    }
+
+    @Test
+    public void readingsDroppedByTheFilterGoBackToThePool() throws Exception {
+        GatewayPipeline pipeline = new GatewayPipeline(50, 64, NotificationRingBuffer.OverflowPolicy.BLOCK);
+        ReadingFilter filter = new ReadingFilter();
+        filter.setDefaultRule(DecodedReading.TEMPERATURE, new ReadingFilter.Rule(0.5, 0, 0, 0));
+        pipeline.setReadingFilter(filter);
+        int count = 2_000;
+        CountDownLatch published = new CountDownLatch(1);
+        pipeline.setPublisher((payload, topic) -> {
+            published.countDown();
+            return true;
+        });
+        try {
+            // Same value every time: only the first reading is published
+            for (int i = 0; i < count; i++) {
+                pipeline.onNotification("AA:BB:CC:DD:EE:FF", "Nano", "svc", "chr",
+                        "T1:23.5C".getBytes(StandardCharsets.UTF_8));
+            }
+            assertTrue(published.await(5, TimeUnit.SECONDS));
+        } finally {
+            pipeline.shutdown();
+        }
+        ReadingPool pool = pipeline.getReadingPool();
+        assertEquals(count, filter.getInputCount());
+        assertEquals(1, filter.getForwardedCount());
+        assertTrue(pool.getCreatedCount() <= 2 * 64 + 16);
+        assertEquals(pool.getCreatedCount(), pool.getAvailable() + pool.getDiscardedCount());
+    }
+
+    /**
+     * Allocation per reading, JVM-side version of the allocation benchmark in PerformanceTestManager
+     */
+    @Test
+    public void pooledRecordAllocatesLessThanFreshModel() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) return;
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+
+        byte[][] raw = {"T1:23.5C".getBytes(StandardCharsets.UTF_8),
+                "T:25.1,H:60.2,B:87".getBytes(StandardCharsets.UTF_8)};
+        UUID service = UUID.fromString("0000ffe0-0000-1000-8000-00805f9b34fb");
+        UUID characteristic = UUID.fromString("0000ffe1-0000-1000-8000-00805f9b34fb");
+        String serviceString = service.toString();
+        String characteristicString = characteristic.toString();
+        PayloadDecoderRegistry registry = PayloadDecoderRegistry.createDefault();
+        PayloadDecoder keyed = registry.resolve(serviceString, characteristicString, "Nano");
+        ReadingPool pool = new ReadingPool(4, 512);
+        int[] index = {0};
+
+        LongSupplier fresh = () -> {
+            byte[] value = raw[index[0]++ & 1];
+            byte[] copy = Arrays.copyOf(value, value.length);
+            BleDataModel data = new BleDataModel("AA:BB:CC:DD:EE:FF", "Nano", service.toString(),
+                    characteristic.toString(), copy, new String(copy, StandardCharsets.UTF_8));
+            DecodedReading reading = new DecodedReading();
+            registry.decode(keyed, copy, 0, copy.length, reading);
+            data.setDecoded(reading);
+            return data.getTimestamp().getTime() + data.getDataString().length();
+        };
+        LongSupplier pooled = () -> {
+            byte[] value = raw[index[0]++ & 1];
+            BleDataModel data = pool.acquire(value, value.length);
+            data.reset("AA:BB:CC:DD:EE:FF", "Nano", serviceString, characteristicString, 0);
+            registry.decode(keyed, data.getRawBuffer(), 0, data.getRawLength(), data.getDecoded());
+            long sink = data.getRawLength();
+            pool.release(data);
+            return sink;
+        };
+
+        double freshBytes = bytesPerOp(threads, fresh);
+        double pooledBytes = bytesPerOp(threads, pooled);
+        assertTrue(pooledBytes * 4 < freshBytes);
+    }
+
+    private static double bytesPerOp(com.sun.management.ThreadMXBean threads, LongSupplier op) {
+        long sink = 0;
+        for (int i = 0; i < 20_000; i++) sink += op.getAsLong();     // warm-up
+        long id = Thread.currentThread().getId();
+        int operations = 100_000;
+        long before = threads.getThreadAllocatedBytes(id);
+        for (int i = 0; i < operations; i++) sink += op.getAsLong();
+        long after = threads.getThreadAllocatedBytes(id);
+        assertTrue(sink != 0);
+        return (double) (after - before) / operations;
+    }
+}
@@ -0,0 +1,152 @@
+package com.have_no_eyes_deer.bleawsgateway.store;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SegmentedMessageLogTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void appendReadAcknowledge() throws Exception {
+        SegmentedMessageLog log = new SegmentedMessageLog(folder.getRoot());
+        assertTrue(log.append("devices/A/data", "[{\"t\":1}]", 1000L));
+        assertTrue(log.append("devices/B/data", "[{\"t\":2}]", 2000L));
+
+        List<SegmentedMessageLog.Record> records = new ArrayList<>();
+        assertEquals(2, log.read(10, records));
+        assertEquals("devices/A/data", records.get(0).topic);
+        assertEquals("[{\"t\":1}]", records.get(0).payload);
+        assertEquals(1000L, records.get(0).timestamp);
+        assertEquals("devices/B/data", records.get(1).topic);
+
+        // Reading does not consume
+        records.clear();
+        assertEquals(2, log.read(10, records));
+
+        log.acknowledge(records.get(0));
+        assertEquals(1, log.getPendingRecords());
+        records.clear();
+        log.read(10, records);
+        assertEquals(1, records.size());
+        assertEquals("[{\"t\":2}]", records.get(0).payload);
+        log.close();
+    }
+
+    @Test
+    public void survivesReopen() throws Exception {
+        File dir = folder.getRoot();
+        SegmentedMessageLog log = new SegmentedMessageLog(dir);
+        for (int i = 0; i < 5; i++) {
+            log.append("t", "m" + i, i);
+        }
+        List<SegmentedMessageLog.Record> records = new ArrayList<>();
+        log.read(2, records);
+        log.acknowledge(records.get(1));
+        log.close();
+
+        SegmentedMessageLog reopened = new SegmentedMessageLog(dir);
+        assertEquals(3, reopened.getPendingRecords());
+        records.clear();
+        reopened.read(10, records);
+        assertEquals("m2", records.get(0).payload);
+        assertEquals("m4", records.get(2).payload);
+
+        // Appends continue after the recovered tail
+        reopened.append("t", "m5", 5);
+        records.clear();
+        reopened.read(10, records);
+        assertEquals(4, records.size());
+        assertEquals("m5", records.get(3).payload);
+        reopened.close();
+    }
+
+    @Test
+    public void tornTailRecordIsCutOff() throws Exception {
+        File dir = folder.getRoot();
+        SegmentedMessageLog log = new SegmentedMessageLog(dir, 4096, 1 << 20, Long.MAX_VALUE);
+        log.append("t", "good", 1);
+        log.append("t", "torn", 2);
+        List<SegmentedMessageLog.Record> records = new ArrayList<>();
+        log.read(10, records);
+        int tornPayloadPosition = records.get(1).offset + 8 + 10 + 1;
+        log.close();
+
+        // Corrupt the second record's payload as if the crash happened mid-write
+        File segment = new File(dir, String.format("%020d.seg", 0));
+        try (RandomAccessFile raf = new RandomAccessFile(segment, "rw")) {
+            raf.seek(tornPayloadPosition);
+            raf.write('X');
+        }
+
+        SegmentedMessageLog reopened = new SegmentedMessageLog(dir, 4096, 1 << 20, Long.MAX_VALUE);
+        assertEquals(1, reopened.getPendingRecords());
+        assertTrue(reopened.getCorruptedRecords() > 0);
+        reopened.append("t", "after", 3);
+        records.clear();
+        reopened.read(10, records);
+        assertEquals(2, records.size());
+        assertEquals("good", records.get(0).payload);
+        assertEquals("after", records.get(1).payload);
+        reopened.close();
+    }
+
+    @Test
+    public void rollsOverAndDeletesDeliveredSegments() throws Exception {
+        SegmentedMessageLog log = new SegmentedMessageLog(folder.getRoot(), 1024, 1 << 20, Long.MAX_VALUE);
+        String payload = new String(new char[100]).replace('\0', 'p');
+        for (int i = 0; i < 30; i++) {
+            assertTrue(log.append("t", payload + i, i));
+        }
+        assertTrue(log.getSegmentCount() > 1);
+
+        List<SegmentedMessageLog.Record> records = new ArrayList<>();
+        assertEquals(30, log.read(100, records));
+        for (int i = 0; i < 30; i++) {
+            assertEquals(payload + i, records.get(i).payload);
+        }
+
+        log.acknowledge(records.get(29));
+        assertEquals(0, log.getPendingRecords());
+        assertEquals(1, log.getSegmentCount());
+        log.close();
+    }
+
+    @Test
+    public void retentionDropsOldestUndeliveredSegments() throws Exception {
+        SegmentedMessageLog log = new SegmentedMessageLog(folder.getRoot(), 1024, 3 * 1024, Long.MAX_VALUE);
+        String payload = new String(new char[100]).replace('\0', 'p');
+        for (int i = 0; i < 60; i++) {
+            assertTrue(log.append("t", payload + i, i));
+        }
+
+        assertTrue(log.getSegmentCount() <= 3);
+        assertTrue(log.getDroppedRecords() > 0);
+        assertEquals(60, log.getPendingRecords() + log.getDroppedRecords());
+
+        // Oldest remaining record is newer than the dropped ones, newest is kept
+        List<SegmentedMessageLog.Record> records = new ArrayList<>();
+        log.read(100, records);
+        assertEquals(log.getPendingRecords(), records.size());
+        assertEquals(payload + 59, records.get(records.size() - 1).payload);
+        assertEquals(payload + log.getDroppedRecords(), records.get(0).payload);
+        log.close();
+    }
+
+    @Test
+    public void rejectsRecordLargerThanSegment() throws Exception {
+        SegmentedMessageLog log = new SegmentedMessageLog(folder.getRoot(), 1024, 1 << 20, Long.MAX_VALUE);
+        assertFalse(log.append("t", new String(new char[2000]), 0));
+        assertEquals(0, log.getPendingRecords());
+        log.close();
+    }
+}